@@ -21,6 +21,7 @@ package fabiogentile.powertutor.components;
 
 import android.content.Context;
 import android.media.AudioManager;
+import android.util.SparseArray;
 
 import java.io.IOException;
 import java.io.OutputStreamWriter;
@@ -28,21 +29,32 @@ import java.util.TreeSet;
 
 import fabiogentile.powertutor.PowerNotifications;
 import fabiogentile.powertutor.service.IterationData;
-import fabiogentile.powertutor.service.PowerData;
+import fabiogentile.powertutor.util.Clock;
 import fabiogentile.powertutor.util.NotificationService;
-import fabiogentile.powertutor.util.Recycler;
+import fabiogentile.powertutor.util.ObjectPool;
+import fabiogentile.powertutor.util.SystemInfo;
 
 /**
- * This class aims to log the audio device status once per log interval
+ * This class aims to log the audio device status once per log interval.  When
+ * the media notifications are available the time each uid plays media is
+ * accumulated as the notifications come, so an iteration only closes the
+ * current interval.  Otherwise the audio manager is polled.
  */
 public class Audio extends PowerComponent {
     private AudioManager audioManager;
     private PowerNotifications audioNotif;
     private TreeSet<MediaData> uidData;
+    /* Guarded by uidData. */
+    private AudioStateKeeper allState;
+    private SparseArray<AudioStateKeeper> uidStates;
+    private long lastTime;
 
     public Audio(Context context) {
         if (NotificationService.available()) {
             uidData = new TreeSet<MediaData>();
+            lastTime = Clock.elapsedRealtime();
+            allState = new AudioStateKeeper(lastTime);
+            uidStates = new SparseArray<AudioStateKeeper>();
             audioNotif = new NotificationService.DefaultReceiver() {
                 private int sysUid = -1;
 
@@ -65,7 +77,16 @@ public class Audio extends PowerComponent {
                     synchronized (uidData) {
                         if (!uidData.add(data)) {
                             data.recycle();
+                            return;
                         }
+                        long now = Clock.elapsedRealtime();
+                        allState.startMedia(now);
+                        AudioStateKeeper uidState = uidStates.get(data.assignUid);
+                        if (uidState == null) {
+                            uidState = new AudioStateKeeper(lastTime);
+                            uidStates.put(data.assignUid, uidState);
+                        }
+                        uidState.startMedia(now);
                     }
                 }
 
@@ -75,7 +96,16 @@ public class Audio extends PowerComponent {
                     data.uid = uid;
                     data.id = id;
                     synchronized (uidData) {
-                        uidData.remove(data);
+                        MediaData started = uidData.ceiling(data);
+                        if (started != null && started.equals(data)) {
+                            uidData.remove(started);
+                            long now = Clock.elapsedRealtime();
+                            allState.stopMedia(now);
+                            AudioStateKeeper uidState = uidStates.get(started.assignUid);
+                            if (uidState != null)
+                                uidState.stopMedia(now);
+                            started.recycle();
+                        }
                     }
                     data.recycle();
                 }
@@ -96,22 +126,25 @@ public class Audio extends PowerComponent {
 
     @Override
     public IterationData calculateIteration(long iteration) {
-        IterationData result = IterationData.obtain();
-        AudioData data = AudioData.obtain();
-        data.init(uidData != null && !uidData.isEmpty() ||
-                audioManager.isMusicActive());
-        result.setPowerData(data);
-
-        if (uidData != null) synchronized (uidData) {
-            int last_uid = -1;
-            for (MediaData dat : uidData) {
-                if (dat.uid != last_uid) {
-                    AudioData audioPower = AudioData.obtain();
-                    audioPower.init(true);
-                    result.addUidPowerData(dat.assignUid, audioPower);
-                }
-                last_uid = dat.uid;
+        AudioData result = AudioData.obtain();
+        if (uidData == null) {
+            result.add(SystemInfo.AID_ALL, audioManager.isMusicActive() ? 1 : 0);
+            return result;
+        }
+
+        synchronized (uidData) {
+            long now = Clock.elapsedRealtime();
+            result.add(SystemInfo.AID_ALL, allState.closeInterval(now));
+            for (int i = uidStates.size() - 1; i >= 0; i--) {
+                AudioStateKeeper uidState = uidStates.valueAt(i);
+                double onShare = uidState.closeInterval(now);
+                if (onShare > 0)
+                    result.add(uidStates.keyAt(i), onShare);
+                /* Forget the uids no longer playing anything. */
+                if (!uidState.isPlaying())
+                    uidStates.removeAt(i);
             }
+            lastTime = now;
         }
 
         return result;
@@ -130,17 +163,20 @@ public class Audio extends PowerComponent {
     /**
      * This class is the logger data file corresponding to Audio
      */
-    public static class AudioData extends PowerData {
-        private static Recycler<AudioData> recycler = new Recycler<AudioData>();
-        public boolean musicOn;
+    public static class AudioData extends IterationData {
+        private static ObjectPool<AudioData> recycler = new ObjectPool<AudioData>("AudioData");
+        public boolean[] musicOn = new boolean[INITIAL_ROWS];
+        /* Fraction of the iteration media was playing. */
+        public double[] onShare = new double[INITIAL_ROWS];
 
         private AudioData() {
         }
 
         public static AudioData obtain() {
             AudioData result = recycler.obtain();
-            if (result != null) return result;
-            return new AudioData();
+            if (result == null) result = new AudioData();
+            result.init();
+            return result;
         }
 
         @Override
@@ -148,17 +184,26 @@ public class Audio extends PowerComponent {
             recycler.recycle(this);
         }
 
-        public void init(boolean musicOn) {
-            this.musicOn = musicOn;
+        @Override
+        protected void growColumns(int capacity) {
+            musicOn = grow(musicOn, capacity);
+            onShare = grow(onShare, capacity);
+        }
+
+        public int add(int uid, double onShare) {
+            int row = addRow(uid);
+            this.musicOn[row] = onShare > 0;
+            this.onShare[row] = onShare;
+            return row;
         }
 
-        public void writeLogDataInfo(OutputStreamWriter out) throws IOException {
-            out.write("Audio-on " + musicOn + "\n");
+        public void writeLogDataInfo(int row, OutputStreamWriter out) throws IOException {
+            out.write("Audio-on " + musicOn[row] + "\nAudio-on-share " + onShare[row] + "\n");
         }
     }
 
     private static class MediaData implements Comparable {
-        private static Recycler<MediaData> recycler = new Recycler<MediaData>();
+        private static ObjectPool<MediaData> recycler = new ObjectPool<MediaData>("MediaData");
         public int uid;
         public int id;
         public int assignUid;
@@ -187,4 +232,45 @@ public class Audio extends PowerComponent {
             return uid == x.uid && id == x.id;
         }
     }
+
+    /* Accumulates the time media was playing for a uid, or for the whole
+     * device, since the last iteration.
+     */
+    private static class AudioStateKeeper {
+        private int nesting;
+        private long onTime;
+        private long lastTime;
+
+        public AudioStateKeeper(long lastTime) {
+            this.lastTime = lastTime;
+        }
+
+        public void startMedia(long now) {
+            if (nesting++ == 0) {
+                onTime -= now - lastTime;
+            }
+        }
+
+        public void stopMedia(long now) {
+            if (nesting == 0) {
+                return;
+            } else if (--nesting == 0) {
+                onTime += now - lastTime;
+            }
+        }
+
+        public boolean isPlaying() {
+            return nesting > 0;
+        }
+
+        /* @return fraction of the time since the last call spent playing */
+        public double closeInterval(long now) {
+            long div = now - lastTime;
+            if (div <= 0) div = 1;
+            double share = 1.0 * (onTime + (nesting > 0 ? now - lastTime : 0)) / div;
+            onTime = 0;
+            lastTime = now;
+            return Math.min(1.0, share);
+        }
+    }
 }
@@ -24,7 +24,6 @@ import android.location.GpsSatellite;
 import android.location.GpsStatus;
 import android.location.LocationManager;
 import android.os.Build;
-import android.os.SystemClock;
 import android.util.Log;
 import android.util.SparseArray;
 
@@ -35,9 +34,9 @@ import java.io.OutputStreamWriter;
 import fabiogentile.powertutor.PowerNotifications;
 import fabiogentile.powertutor.phone.PhoneConstants;
 import fabiogentile.powertutor.service.IterationData;
-import fabiogentile.powertutor.service.PowerData;
+import fabiogentile.powertutor.util.Clock;
 import fabiogentile.powertutor.util.NotificationService;
-import fabiogentile.powertutor.util.Recycler;
+import fabiogentile.powertutor.util.ObjectPool;
 import fabiogentile.powertutor.util.SystemInfo;
 
 public class GPS extends PowerComponent {
@@ -63,6 +62,8 @@ public class GPS extends PowerComponent {
     private Context context;
     private LocationManager locationManager;
     private GpsStatus lastStatus;
+    /* Satellites in the last status update, counted when it comes. */
+    private int satelliteCount;
     private boolean hasUidInfo;
     private long sleepTime;
     private long lastTime;
@@ -131,6 +132,15 @@ public class GPS extends PowerComponent {
 
                 synchronized (GPS.this) {
                     lastStatus = locationManager.getGpsStatus(lastStatus);
+                    if (event == GpsStatus.GPS_EVENT_SATELLITE_STATUS) {
+                        int count = 0;
+                        if (lastStatus != null) {
+                            for (GpsSatellite satellite : lastStatus.getSatellites()) {
+                                count++;
+                            }
+                        }
+                        satelliteCount = count;
+                    }
                 }
             }
         };
@@ -227,29 +237,23 @@ public class GPS extends PowerComponent {
 
     @Override
     public IterationData calculateIteration(long iteration) {
-        IterationData result = IterationData.obtain();
+        GpsData result = GpsData.obtain();
 
         // Get the number of satellites that were available in the last update.
-        int satellites = 0;
+        int satellites;
         synchronized (this) {
-            if (lastStatus != null) {
-                for (GpsSatellite satellite : lastStatus.getSatellites()) {
-                    satellites++;
-                }
-            }
+            satellites = satelliteCount;
         }
 
         //Log.d(TAG, "calculateIteration: Satellite numbers: " + satellites);
 
         // Get the power data for the physical gps device.
-        GpsData power = GpsData.obtain();
         synchronized (gpsState) {
             double[] stateTimes = gpsState.getStateTimesLocked();
             int curState = gpsState.getCurrentStateLocked();
-            power.init(stateTimes, curState == POWER_STATE_ON ? satellites : 0);
+            result.add(SystemInfo.AID_ALL, stateTimes, curState == POWER_STATE_ON ? satellites : 0);
             gpsState.resetTimesLocked();
         }
-        result.setPowerData(power);
 
         // Get the power data for each uid if we have information on it.
         if (hasUidInfo)
@@ -261,12 +265,9 @@ public class GPS extends PowerComponent {
 
                     double[] stateTimes = state.getStateTimesLocked();
                     int curState = state.getCurrentStateLocked();
-                    GpsData uidPower = GpsData.obtain();
-                    uidPower.init(stateTimes, curState == POWER_STATE_ON ? satellites : 0);
+                    result.add(uid, stateTimes, curState == POWER_STATE_ON ? satellites : 0);
                     state.resetTimesLocked();
 
-                    result.addUidPowerData(uid, uidPower);
-
                     /* Remove state information for uids no longer using the gps. */
                     if (curState == POWER_STATE_OFF) {
                         uidStates.remove(uid);
@@ -288,30 +289,32 @@ public class GPS extends PowerComponent {
         return "GPS";
     }
 
-    public static class GpsData extends PowerData {
-        private static Recycler<GpsData> recycler = new Recycler<GpsData>();
-        /* The time in seconds since the last iteration of data. */
-        public double[] stateTimes;
+    public static class GpsData extends IterationData {
+        private static ObjectPool<GpsData> recycler = new ObjectPool<GpsData>("GpsData");
+        /* Fraction of the time since the last iteration spent in each power
+         * state, row r starts at r * POWER_STATES.
+         */
+        public double[] stateTimes = new double[INITIAL_ROWS * POWER_STATES];
         /* The number of satellites.  This number is only available while the GPS is
          * in the on state.  Otherwise it is 0.
          */
-        public int satellites;
+        public int[] satellites = new int[INITIAL_ROWS];
 
         private GpsData() {
-            stateTimes = new double[GPS.POWER_STATES];
         }
 
         public static GpsData obtain() {
             GpsData result = recycler.obtain();
-            if (result != null) return result;
-            return new GpsData();
+            if (result == null) result = new GpsData();
+            result.init();
+            return result;
         }
 
-        public void init(double[] stateTimes, int satellites) {
-            for (int i = 0; i < GPS.POWER_STATES; i++) {
-                this.stateTimes[i] = stateTimes[i];
-            }
-            this.satellites = satellites;
+        public int add(int uid, double[] stateTimes, int satellites) {
+            int row = addRow(uid);
+            System.arraycopy(stateTimes, 0, this.stateTimes, row * POWER_STATES, POWER_STATES);
+            this.satellites[row] = satellites;
+            return row;
         }
 
         @Override
@@ -320,13 +323,19 @@ public class GPS extends PowerComponent {
         }
 
         @Override
-        public void writeLogDataInfo(OutputStreamWriter out) throws IOException {
+        protected void growColumns(int capacity) {
+            stateTimes = grow(stateTimes, capacity * POWER_STATES);
+            satellites = grow(satellites, capacity);
+        }
+
+        @Override
+        public void writeLogDataInfo(int row, OutputStreamWriter out) throws IOException {
             StringBuilder res = new StringBuilder();
             res.append("GPS-state-times");
             for (int i = 0; i < GPS.POWER_STATES; i++) {
-                res.append(" ").append(stateTimes[i]);
+                res.append(" ").append(stateTimes[row * POWER_STATES + i]);
             }
-            res.append("\nGPS-sattelites ").append(satellites).append("\n");
+            res.append("\nGPS-sattelites ").append(satellites[row]).append("\n");
             out.write(res.toString());
         }
     }
@@ -351,7 +360,7 @@ public class GPS extends PowerComponent {
         private long sleepTime;
 
         public GpsStateKeeper(int hookMask, long sleepTime) {
-            this(hookMask, sleepTime, SystemClock.elapsedRealtime());
+            this(hookMask, sleepTime, Clock.elapsedRealtime());
         }
 
         public GpsStateKeeper(int hookMask, long sleepTime, long lastTime) {
@@ -394,7 +403,7 @@ public class GPS extends PowerComponent {
         /* Make sure that you have a lock on this before calling. */
         private void updateTimesLocked() {
       /* Update the time we were in the previous state. */
-            long curTime = SystemClock.elapsedRealtime();
+            long curTime = Clock.elapsedRealtime();
 
       /* Check if the GPS has gone to sleep as a result of a timer. */
             if ((hookMask & HOOK_TIMER) != 0 && offTime != -1 &&
@@ -444,7 +453,7 @@ public class GPS extends PowerComponent {
                 }
                 if (curState != oldState) {
                     if (oldState == POWER_STATE_ON && curState == POWER_STATE_SLEEP) {
-                        offTime = SystemClock.elapsedRealtime() + sleepTime;
+                        offTime = Clock.elapsedRealtime() + sleepTime;
                     } else {
             /* Any other state transition should reset the off timer. */
                         offTime = -1;
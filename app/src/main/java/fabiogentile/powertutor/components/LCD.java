@@ -20,21 +20,15 @@ Please send inquiries to powertutor@umich.edu
 package fabiogentile.powertutor.components;
 
 import android.app.ActivityManager;
-import android.content.BroadcastReceiver;
 import android.content.Context;
-import android.content.Intent;
-import android.content.IntentFilter;
-import android.provider.Settings;
-import android.util.Log;
 
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 
 import fabiogentile.powertutor.phone.PhoneConstants;
 import fabiogentile.powertutor.service.IterationData;
-import fabiogentile.powertutor.service.PowerData;
 import fabiogentile.powertutor.util.ForegroundDetector;
-import fabiogentile.powertutor.util.Recycler;
+import fabiogentile.powertutor.util.ObjectPool;
 import fabiogentile.powertutor.util.SystemInfo;
 
 public class LCD extends PowerComponent {
@@ -42,15 +36,11 @@ public class LCD extends PowerComponent {
     private Context context;
     private PhoneConstants constants;
     private ForegroundDetector foregroundDetector;
-    private BroadcastReceiver broadcastReceiver;
-    private boolean screenOn;
-    private String brightnessFile;
-    private int prevBrightness = 0;
+    private ScreenStateKeeper screenState;
 
     public LCD(Context context, PhoneConstants constants) {
         this.context = context;
         this.constants = constants;
-        screenOn = true;
 
         if (context == null) {
             return;
@@ -58,70 +48,34 @@ public class LCD extends PowerComponent {
 
         foregroundDetector = new ForegroundDetector((ActivityManager)
                 context.getSystemService(Context.ACTIVITY_SERVICE), context);
-        broadcastReceiver = new BroadcastReceiver() {
-            public void onReceive(Context context, Intent intent) {
-                synchronized (this) {
-                    if (intent.getAction().equals(Intent.ACTION_SCREEN_OFF)) {
-                        screenOn = false;
-                    } else if (intent.getAction().equals(Intent.ACTION_SCREEN_ON)) {
-                        screenOn = true;
-                    }
-                }
-            }
-
-        };
-        IntentFilter intentFilter = new IntentFilter();
-        intentFilter.addAction(Intent.ACTION_SCREEN_OFF);
-        intentFilter.addAction(Intent.ACTION_SCREEN_ON);
-        context.registerReceiver(broadcastReceiver, intentFilter);
-
-        //brightnessFile = constants.backlightFile();
-        brightnessFile = null;
+        /* The screen state and brightness are updated on their own events,
+         * the iterations only close the current interval.
+         */
+        screenState = new ScreenStateKeeper(context, null);
     }
 
     @Override
     protected void onExit() {
-        context.unregisterReceiver(broadcastReceiver);
+        if (screenState != null)
+            screenState.exit();
         super.onExit();
     }
 
     @Override
     public IterationData calculateIteration(long iteration) {
-        IterationData result = IterationData.obtain();
-
-        boolean screen;
-        synchronized (this) {
-            screen = screenOn;
-        }
-
-        int brightness = prevBrightness;
-        if (brightnessFile != null) {
-            brightness = (int) SystemInfo.getInstance().readLongFromFile(brightnessFile);
-        } else {
-            try {
-                brightness = Settings.System.getInt(context.getContentResolver(),
-                        Settings.System.SCREEN_BRIGHTNESS);
-            } catch (Settings.SettingNotFoundException ex) {
-                Log.e(TAG, "Could not retrieve brightness information");
-                brightness = prevBrightness;
-            }
+        LcdData result = LcdData.obtain();
+
+        double onShare;
+        int brightness;
+        synchronized (screenState) {
+            screenState.closeIntervalLocked();
+            onShare = screenState.getOnShareLocked();
+            brightness = screenState.getBrightnessLocked();
         }
-        if (brightness < 0 || brightness > brightness) {
-            Log.w(TAG, "Could not retrieve brightness information");
-            brightness = prevBrightness;
-        }
-
-        prevBrightness = brightness;
 
-        LcdData data = LcdData.obtain();
-        data.init(brightness, screen);
-        result.setPowerData(data);
-
-        if (screen) {
-            LcdData uidData = LcdData.obtain();
-            uidData.init(brightness, screen);
-            result.addUidPowerData(foregroundDetector.getForegroundUid(), uidData);
-        }
+        result.add(SystemInfo.AID_ALL, brightness, onShare);
+        if (onShare > 0)
+            result.add(foregroundDetector.getForegroundUid(), brightness, onShare);
 
         return result;
     }
@@ -136,18 +90,22 @@ public class LCD extends PowerComponent {
         return "LCD";
     }
 
-    public static class LcdData extends PowerData {
-        private static Recycler<LcdData> recycler = new Recycler<LcdData>();
-        public int brightness;
-        public boolean screenOn;
+    public static class LcdData extends IterationData {
+        private static ObjectPool<LcdData> recycler = new ObjectPool<LcdData>("LcdData");
+        public int[] brightness = new int[INITIAL_ROWS];
+        public boolean[] screenOn = new boolean[INITIAL_ROWS];
+        /* Fraction of the iteration the screen was on, brightness being the
+         * average over that time. */
+        public double[] onShare = new double[INITIAL_ROWS];
 
         private LcdData() {
         }
 
         public static LcdData obtain() {
             LcdData result = recycler.obtain();
-            if (result != null) return result;
-            return new LcdData();
+            if (result == null) result = new LcdData();
+            result.init();
+            return result;
         }
 
         @Override
@@ -155,15 +113,26 @@ public class LCD extends PowerComponent {
             recycler.recycle(this);
         }
 
-        public void init(int brightness, boolean screenOn) {
-            this.brightness = brightness;
-            this.screenOn = screenOn;
+        @Override
+        protected void growColumns(int capacity) {
+            brightness = grow(brightness, capacity);
+            screenOn = grow(screenOn, capacity);
+            onShare = grow(onShare, capacity);
+        }
+
+        public int add(int uid, int brightness, double onShare) {
+            int row = addRow(uid);
+            this.brightness[row] = brightness;
+            this.screenOn[row] = onShare > 0;
+            this.onShare[row] = onShare;
+            return row;
         }
 
-        public void writeLogDataInfo(OutputStreamWriter out) throws IOException {
+        public void writeLogDataInfo(int row, OutputStreamWriter out) throws IOException {
             StringBuilder res = new StringBuilder();
-            res.append("LCD+brightness+").append(brightness)
-                    .append("\nLCD+screen-on+").append(screenOn).append("\n");
+            res.append("LCD+brightness+").append(brightness[row])
+                    .append("\nLCD+screen-on+").append(screenOn[row])
+                    .append("\nLCD+screen-on-share+").append(onShare[row]).append("\n");
             out.write(res.toString());
         }
     }
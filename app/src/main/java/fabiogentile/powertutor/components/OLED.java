@@ -20,11 +20,7 @@ Please send inquiries to powertutor@umich.edu
 package fabiogentile.powertutor.components;
 
 import android.app.ActivityManager;
-import android.content.BroadcastReceiver;
 import android.content.Context;
-import android.content.Intent;
-import android.content.IntentFilter;
-import android.provider.Settings;
 import android.util.DisplayMetrics;
 import android.util.Log;
 import android.view.WindowManager;
@@ -39,10 +35,10 @@ import java.util.Random;
 
 import fabiogentile.powertutor.phone.PhoneConstants;
 import fabiogentile.powertutor.service.IterationData;
-import fabiogentile.powertutor.service.PowerData;
 import fabiogentile.powertutor.util.ForegroundDetector;
 import fabiogentile.powertutor.util.NativeLoader;
-import fabiogentile.powertutor.util.Recycler;
+import fabiogentile.powertutor.util.ObjectPool;
+import fabiogentile.powertutor.util.ProcSource;
 import fabiogentile.powertutor.util.SystemInfo;
 
 public class OLED extends PowerComponent {
@@ -55,8 +51,7 @@ public class OLED extends PowerComponent {
     private static final int NUMBER_OF_SAMPLES = 500;
     private Context context;
     private ForegroundDetector foregroundDetector;
-    private BroadcastReceiver broadcastReceiver;
-    private boolean screenOn;
+    private ScreenStateKeeper screenState;
 
     private File frameBufferFile;
 
@@ -73,25 +68,9 @@ public class OLED extends PowerComponent {
 
     public OLED(Context context, PhoneConstants constants) {
         this.context = context;
-        screenOn = true;
 
         foregroundDetector = new ForegroundDetector((ActivityManager)
                 context.getSystemService(Context.ACTIVITY_SERVICE), context);
-        broadcastReceiver = new BroadcastReceiver() {
-            public void onReceive(Context context, Intent intent) {
-                synchronized (this) {
-                    if (intent.getAction().equals(Intent.ACTION_SCREEN_OFF)) {
-                        screenOn = false;
-                    } else if (intent.getAction().equals(Intent.ACTION_SCREEN_ON)) {
-                        screenOn = true;
-                    }
-                }
-            }
-        };
-        IntentFilter intentFilter = new IntentFilter();
-        intentFilter.addAction(Intent.ACTION_SCREEN_OFF);
-        intentFilter.addAction(Intent.ACTION_SCREEN_ON);
-        context.registerReceiver(broadcastReceiver, intentFilter);
 
         frameBufferFile = new File("/dev/fb0");
         if (!frameBufferFile.exists()) {
@@ -155,10 +134,12 @@ public class OLED extends PowerComponent {
         modul_coef = constants.oledModulation() / 255 / 255 / 3 / 3;
 
         for (int i = 0; i < BACKLIGHT_BRIGHTNESS_FILES.length; i++) {
-            if (new File(BACKLIGHT_BRIGHTNESS_FILES[i]).exists()) {
+            if (ProcSource.get().exists(BACKLIGHT_BRIGHTNESS_FILES[i])) {
                 brightnessFile = BACKLIGHT_BRIGHTNESS_FILES[i];
             }
         }
+        /* Only the frame buffer is still read at each iteration. */
+        screenState = new ScreenStateKeeper(context, brightnessFile);
     }
 
     public static double getScreenPixPower(double rcoef, double gcoef,
@@ -168,35 +149,20 @@ public class OLED extends PowerComponent {
 
     @Override
     protected void onExit() {
-        context.unregisterReceiver(broadcastReceiver);
+        screenState.exit();
         super.onExit();
     }
 
     @Override
     public IterationData calculateIteration(long iteration) {
-        IterationData result = IterationData.obtain();
+        OledData result = OledData.obtain();
 
         boolean screen;
-        synchronized (this) {
-            screen = screenOn;
-        }
-
         int brightness;
-        if (brightnessFile != null) {
-            brightness = (int) SystemInfo.getInstance()
-                    .readLongFromFile(brightnessFile);
-        } else {
-            try {
-                brightness = Settings.System.getInt(context.getContentResolver(),
-                        Settings.System.SCREEN_BRIGHTNESS);
-            } catch (Settings.SettingNotFoundException ex) {
-                Log.w(TAG, "Could not retrieve brightness information");
-                return result;
-            }
-        }
-        if (brightness < 0 || 255 < brightness) {
-            Log.w(TAG, "Could not retrieve brightness information");
-            return result;
+        synchronized (screenState) {
+            screenState.closeIntervalLocked();
+            screen = screenState.getOnShareLocked() > 0;
+            brightness = screenState.getBrightnessLocked();
         }
 
         double pixPower = 0;
@@ -234,18 +200,11 @@ public class OLED extends PowerComponent {
             }
         }
 
-        OledData data = OledData.obtain();
         if (!screen) {
-            data.init();
+            result.addOff(SystemInfo.AID_ALL);
         } else {
-            data.init(brightness, pixPower);
-        }
-        result.setPowerData(data);
-
-        if (screen) {
-            OledData uidData = OledData.obtain();
-            uidData.init(brightness, pixPower);
-            result.addUidPowerData(foregroundDetector.getForegroundUid(), uidData);
+            result.add(SystemInfo.AID_ALL, brightness, pixPower);
+            result.add(foregroundDetector.getForegroundUid(), brightness, pixPower);
         }
 
         return result;
@@ -261,19 +220,20 @@ public class OLED extends PowerComponent {
         return "OLED";
     }
 
-    public static class OledData extends PowerData {
-        private static Recycler<OledData> recycler = new Recycler<OledData>();
-        public int brightness;
-        public double pixPower;
-        public boolean screenOn;
+    public static class OledData extends IterationData {
+        private static ObjectPool<OledData> recycler = new ObjectPool<OledData>("OledData");
+        public int[] brightness = new int[INITIAL_ROWS];
+        public double[] pixPower = new double[INITIAL_ROWS];
+        public boolean[] screenOn = new boolean[INITIAL_ROWS];
 
         private OledData() {
         }
 
         public static OledData obtain() {
             OledData result = recycler.obtain();
-            if (result != null) return result;
-            return new OledData();
+            if (result == null) result = new OledData();
+            result.init();
+            return result;
         }
 
         @Override
@@ -281,20 +241,31 @@ public class OLED extends PowerComponent {
             recycler.recycle(this);
         }
 
-        public void init() {
-            this.screenOn = false;
+        @Override
+        protected void growColumns(int capacity) {
+            brightness = grow(brightness, capacity);
+            pixPower = grow(pixPower, capacity);
+            screenOn = grow(screenOn, capacity);
+        }
+
+        public int addOff(int uid) {
+            int row = addRow(uid);
+            screenOn[row] = false;
+            return row;
         }
 
-        public void init(int brightness, double pixPower) {
-            screenOn = true;
-            this.brightness = brightness;
-            this.pixPower = pixPower;
+        public int add(int uid, int brightness, double pixPower) {
+            int row = addRow(uid);
+            screenOn[row] = true;
+            this.brightness[row] = brightness;
+            this.pixPower[row] = pixPower;
+            return row;
         }
 
-        public void writeLogDataInfo(OutputStreamWriter out) throws IOException {
-            out.write("OLED-brightness " + brightness + "\n");
-            out.write("OLED-pix-power " + pixPower + "\n");
-            out.write("OLED-screen-on " + screenOn + "\n");
+        public void writeLogDataInfo(int row, OutputStreamWriter out) throws IOException {
+            out.write("OLED-brightness " + brightness[row] + "\n");
+            out.write("OLED-pix-power " + pixPower[row] + "\n");
+            out.write("OLED-screen-on " + screenOn[row] + "\n");
         }
     }
 }
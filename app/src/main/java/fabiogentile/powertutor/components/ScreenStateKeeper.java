@@ -0,0 +1,224 @@
+/*
+Copyright (C) 2011 The University of Michigan
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+Please send inquiries to powertutor@umich.edu
+*/
+
+package fabiogentile.powertutor.components;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.database.ContentObserver;
+import android.os.PowerManager;
+import android.provider.Settings;
+import android.util.Log;
+
+import fabiogentile.powertutor.util.Clock;
+import fabiogentile.powertutor.util.SystemInfo;
+import fabiogentile.powertutor.util.TraceEvents;
+
+/* Keeps the screen state and brightness up to date from the screen
+ * broadcasts and a brightness settings observer, and accumulates the time
+ * spent with the screen on since the last iteration.  Nothing is read at
+ * the iteration boundary, the components only close the current interval,
+ * except the backlight file while automatic brightness is on: the light
+ * sensor changes it without touching the setting.  While a trace is
+ * replayed the changes come from the trace instead.
+ */
+class ScreenStateKeeper {
+    private static final String TAG = "ScreenStateKeeper";
+
+    private Context context;
+    private String brightnessFile;
+    private BroadcastReceiver broadcastReceiver;
+    private ContentObserver brightnessObserver;
+    private TraceEvents.Listener traceListener;
+
+    private boolean screenOn;
+    private int brightness;
+    private boolean autoBrightness;
+    private long lastTime;
+    private long intervalStart;
+    /* Time in ms with the screen on and brightness integral over that time,
+     * since the last closed interval. */
+    private long onTime;
+    private double litTime;
+    /* Results of the last closed interval. */
+    private double onShare;
+    private int meanBrightness;
+
+    /**
+     * @param brightnessFile backlight file read when the brightness setting
+     *                       changes and at every iteration in automatic
+     *                       mode, null to use the setting itself
+     */
+    public ScreenStateKeeper(Context context, String brightnessFile) {
+        this.context = context;
+        this.brightnessFile = brightnessFile;
+        lastTime = Clock.elapsedRealtime();
+        intervalStart = lastTime;
+        PowerManager powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        screenOn = powerManager == null || powerManager.isScreenOn();
+        brightness = readBrightness(0);
+        autoBrightness = readAutoBrightness();
+        if (TraceEvents.isReplaying()) {
+            screenOn = TraceEvents.getLast(TraceEvents.SCREEN, screenOn ? 1 : 0) != 0;
+            brightness = (int) TraceEvents.getLast(TraceEvents.BRIGHTNESS, brightness);
+            traceListener = new TraceEvents.Listener() {
+                public void onTraceEvent(int type, long value) {
+                    if (type == TraceEvents.SCREEN)
+                        setScreenOn(value != 0);
+                    else if (type == TraceEvents.BRIGHTNESS)
+                        setBrightness((int) value);
+                }
+            };
+            TraceEvents.addListener(traceListener);
+        } else {
+            TraceEvents.record(TraceEvents.SCREEN, screenOn ? 1 : 0);
+            TraceEvents.record(TraceEvents.BRIGHTNESS, brightness);
+        }
+
+        broadcastReceiver = new BroadcastReceiver() {
+            public void onReceive(Context context, Intent intent) {
+                if (TraceEvents.isReplaying())
+                    return;
+                if (Intent.ACTION_SCREEN_OFF.equals(intent.getAction())) {
+                    setScreenOn(false);
+                } else if (Intent.ACTION_SCREEN_ON.equals(intent.getAction())) {
+                    setScreenOn(true);
+                }
+            }
+        };
+        IntentFilter intentFilter = new IntentFilter();
+        intentFilter.addAction(Intent.ACTION_SCREEN_OFF);
+        intentFilter.addAction(Intent.ACTION_SCREEN_ON);
+        context.registerReceiver(broadcastReceiver, intentFilter);
+
+        /* Without a handler the observer is called on a binder thread. */
+        brightnessObserver = new ContentObserver(null) {
+            @Override
+            public void onChange(boolean selfChange) {
+                if (TraceEvents.isReplaying())
+                    return;
+                boolean auto = readAutoBrightness();
+                int value;
+                synchronized (ScreenStateKeeper.this) {
+                    autoBrightness = auto;
+                    value = brightness;
+                }
+                setBrightness(readBrightness(value));
+            }
+        };
+        context.getContentResolver().registerContentObserver(
+                Settings.System.getUriFor(Settings.System.SCREEN_BRIGHTNESS), false,
+                brightnessObserver);
+        context.getContentResolver().registerContentObserver(
+                Settings.System.getUriFor(Settings.System.SCREEN_BRIGHTNESS_MODE), false,
+                brightnessObserver);
+    }
+
+    public void exit() {
+        context.unregisterReceiver(broadcastReceiver);
+        context.getContentResolver().unregisterContentObserver(brightnessObserver);
+        if (traceListener != null)
+            TraceEvents.removeListener(traceListener);
+    }
+
+    private int readBrightness(int previous) {
+        int value;
+        if (brightnessFile != null) {
+            value = (int) SystemInfo.getInstance().readLongFromFile(brightnessFile);
+        } else {
+            try {
+                value = Settings.System.getInt(context.getContentResolver(),
+                        Settings.System.SCREEN_BRIGHTNESS);
+            } catch (Settings.SettingNotFoundException ex) {
+                Log.e(TAG, "Could not retrieve brightness information");
+                return previous;
+            }
+        }
+        if (value < 0 || 255 < value) {
+            Log.w(TAG, "Could not retrieve brightness information");
+            return previous;
+        }
+        return value;
+    }
+
+    private boolean readAutoBrightness() {
+        return Settings.System.getInt(context.getContentResolver(),
+                Settings.System.SCREEN_BRIGHTNESS_MODE,
+                Settings.System.SCREEN_BRIGHTNESS_MODE_MANUAL) ==
+                Settings.System.SCREEN_BRIGHTNESS_MODE_AUTOMATIC;
+    }
+
+    private synchronized void setScreenOn(boolean on) {
+        updateTimesLocked();
+        screenOn = on;
+        TraceEvents.record(TraceEvents.SCREEN, on ? 1 : 0);
+    }
+
+    private synchronized void setBrightness(int value) {
+        updateTimesLocked();
+        brightness = value;
+        TraceEvents.record(TraceEvents.BRIGHTNESS, value);
+    }
+
+    /* Make sure that you have a lock on this before calling. */
+    private void updateTimesLocked() {
+        long curTime = Clock.elapsedRealtime();
+        if (screenOn) {
+            onTime += curTime - lastTime;
+            litTime += (double) brightness * (curTime - lastTime);
+        }
+        lastTime = curTime;
+    }
+
+    /* Ends the current interval, its results are then given by
+     * getOnShareLocked() and getBrightnessLocked().  Make sure that you have
+     * a lock on this before calling.
+     */
+    public void closeIntervalLocked() {
+        if (autoBrightness && brightnessFile != null && !TraceEvents.isReplaying()) {
+            int value = readBrightness(brightness);
+            if (value != brightness)
+                setBrightness(value);
+        }
+        updateTimesLocked();
+        long span = lastTime - intervalStart;
+        intervalStart = lastTime;
+        onShare = span <= 0 ? (screenOn ? 1 : 0) : Math.min(1.0, (double) onTime / span);
+        meanBrightness = onTime > 0 ? (int) Math.round(litTime / onTime) : brightness;
+        onTime = 0;
+        litTime = 0;
+    }
+
+    /**
+     * @return fraction of the last closed interval spent with the screen on
+     */
+    public double getOnShareLocked() {
+        return onShare;
+    }
+
+    /**
+     * @return average brightness while the screen was on during the last
+     * closed interval, the current brightness if it stayed off
+     */
+    public int getBrightnessLocked() {
+        return meanBrightness;
+    }
+}
@@ -21,7 +21,6 @@ package fabiogentile.powertutor.components;
 
 import android.content.Context;
 import android.hardware.SensorManager;
-import android.os.SystemClock;
 import android.util.Log;
 import android.util.SparseArray;
 
@@ -30,9 +29,10 @@ import java.io.OutputStreamWriter;
 
 import fabiogentile.powertutor.PowerNotifications;
 import fabiogentile.powertutor.service.IterationData;
-import fabiogentile.powertutor.service.PowerData;
+import fabiogentile.powertutor.util.Clock;
 import fabiogentile.powertutor.util.NotificationService;
-import fabiogentile.powertutor.util.Recycler;
+import fabiogentile.powertutor.util.ObjectPool;
+import fabiogentile.powertutor.util.SystemInfo;
 
 public class Sensors extends PowerComponent {
     public static final int MAX_SENSORS = 10;
@@ -99,18 +99,16 @@ public class Sensors extends PowerComponent {
 
     @Override
     public IterationData calculateIteration(long iteration) {
-        IterationData result = IterationData.obtain();
+        SensorData result = SensorData.obtain();
         synchronized (sensorState) {
-            SensorData globalData = SensorData.obtain();
-            sensorState.setupSensorTimes(globalData.onTime, iterationInterval);
-            result.setPowerData(globalData);
+            int row = result.add(SystemInfo.AID_ALL);
+            sensorState.setupSensorTimes(result.onTime, row * MAX_SENSORS);
 
             for (int i = 0; i < uidStates.size(); i++) {
                 int uid = uidStates.keyAt(i);
                 SensorStateKeeper uidState = uidStates.valueAt(i);
-                SensorData uidData = SensorData.obtain();
-                uidState.setupSensorTimes(uidData.onTime, iterationInterval);
-                result.addUidPowerData(uid, uidData);
+                row = result.add(uid);
+                uidState.setupSensorTimes(result.onTime, row * MAX_SENSORS);
 
                 if (uidState.sensorsOn() == 0) {
                     uidStates.remove(uid);
@@ -131,18 +129,21 @@ public class Sensors extends PowerComponent {
         return "Sensors";
     }
 
-    public static class SensorData extends PowerData {
-        private static Recycler<SensorData> recycler = new Recycler<SensorData>();
-        public double[] onTime;
+    public static class SensorData extends IterationData {
+        private static ObjectPool<SensorData> recycler = new ObjectPool<SensorData>("SensorData");
+        /* Fraction of the iteration each sensor was on, row r starts at
+         * r * MAX_SENSORS.
+         */
+        public double[] onTime = new double[INITIAL_ROWS * MAX_SENSORS];
 
         private SensorData() {
-            onTime = new double[MAX_SENSORS];
         }
 
         public static SensorData obtain() {
             SensorData result = recycler.obtain();
-            if (result != null) return result;
-            return new SensorData();
+            if (result == null) result = new SensorData();
+            result.init();
+            return result;
         }
 
         @Override
@@ -150,12 +151,23 @@ public class Sensors extends PowerComponent {
             recycler.recycle(this);
         }
 
-        public void writeLogDataInfo(OutputStreamWriter out) throws IOException {
+        @Override
+        protected void growColumns(int capacity) {
+            onTime = grow(onTime, capacity * MAX_SENSORS);
+        }
+
+        /* The on times are then filled in by the caller. */
+        public int add(int uid) {
+            return addRow(uid);
+        }
+
+        public void writeLogDataInfo(int row, OutputStreamWriter out) throws IOException {
             StringBuilder res = new StringBuilder();
             for (int i = 0; i < MAX_SENSORS; i++) {
-                if (onTime[i] > 1e-7) {
+                double t = onTime[row * MAX_SENSORS + i];
+                if (t > 1e-7) {
                     res.append("Sensors-time ").append(i).append(" ")
-                            .append(onTime[i]).append("\n");
+                            .append(t).append("\n");
                 }
             }
             out.write(res.toString());
@@ -171,12 +183,12 @@ public class Sensors extends PowerComponent {
         public SensorStateKeeper() {
             nesting = new int[MAX_SENSORS];
             times = new long[MAX_SENSORS];
-            lastTime = SystemClock.elapsedRealtime();
+            lastTime = Clock.elapsedRealtime();
         }
 
         public void startSensor(int sensor) {
             if (nesting[sensor]++ == 0) {
-                times[sensor] -= SystemClock.elapsedRealtime() - lastTime;
+                times[sensor] -= Clock.elapsedRealtime() - lastTime;
                 count++;
             }
         }
@@ -185,7 +197,7 @@ public class Sensors extends PowerComponent {
             if (nesting[sensor] == 0) {
                 return;
             } else if (--nesting[sensor] == 0) {
-                times[sensor] += SystemClock.elapsedRealtime() - lastTime;
+                times[sensor] += Clock.elapsedRealtime() - lastTime;
                 count--;
             }
         }
@@ -194,12 +206,12 @@ public class Sensors extends PowerComponent {
             return count;
         }
 
-        public void setupSensorTimes(double[] sensorTimes, long iterationInterval) {
-            long now = SystemClock.elapsedRealtime();
+        public void setupSensorTimes(double[] sensorTimes, int offset) {
+            long now = Clock.elapsedRealtime();
             long div = now - lastTime;
             if (div <= 0) div = 1;
             for (int i = 0; i < MAX_SENSORS; i++) {
-                sensorTimes[i] = 1.0 * (times[i] +
+                sensorTimes[offset + i] = 1.0 * (times[i] +
                         (nesting[i] > 0 ? now - lastTime : 0)) / div;
                 times[i] = 0;
             }
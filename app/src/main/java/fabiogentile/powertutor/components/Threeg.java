@@ -20,20 +20,19 @@ Please send inquiries to powertutor@umich.edu
 package fabiogentile.powertutor.components;
 
 import android.content.Context;
-import android.os.SystemClock;
 import android.telephony.TelephonyManager;
 import android.util.Log;
 import android.util.SparseArray;
 
-import java.io.File;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 
 import fabiogentile.powertutor.phone.PhoneConstants;
 import fabiogentile.powertutor.service.IterationData;
-import fabiogentile.powertutor.service.PowerData;
-import fabiogentile.powertutor.service.PowerEstimator;
-import fabiogentile.powertutor.util.Recycler;
+import fabiogentile.powertutor.util.Clock;
+import fabiogentile.powertutor.util.InterfaceCounters;
+import fabiogentile.powertutor.util.NetworkSnapshot;
+import fabiogentile.powertutor.util.ObjectPool;
 import fabiogentile.powertutor.util.SystemInfo;
 
 public class Threeg extends PowerComponent {
@@ -53,39 +52,26 @@ public class Threeg extends PowerComponent {
     private int uplinkQueueSize;
     private int downlinkQueueSize;
 
-    private int[] lastUids;
     private ThreegStateKeeper threegState;
     private SparseArray<ThreegStateKeeper> uidStates;
-
-    private String transPacketsFile;
-    private String readPacketsFile;
-    private String readBytesFile;
-    private String transBytesFile;
-    private File uidStatsFolder;
+    /* Set while the per-uid scan is suspended, the uid states are stale. */
+    private boolean uidsStale;
+    private String interfaceName;
 
     public Threeg(Context context, PhoneConstants phoneConstants) {
         this.phoneConstants = phoneConstants;
         telephonyManager = (TelephonyManager) context.getSystemService(
                 Context.TELEPHONY_SERVICE);
 
-        String interfaceName = phoneConstants.threegInterface();
+        interfaceName = phoneConstants.threegInterface();
         threegState = new ThreegStateKeeper();
         uidStates = new SparseArray<ThreegStateKeeper>();
-        transPacketsFile = "/sys/devices/virtual/net/" +
-                interfaceName + "/statistics/tx_packets";
-        readPacketsFile = "/sys/devices/virtual/net/" +
-                interfaceName + "/statistics/rx_packets";
-        readBytesFile = "/sys/devices/virtual/net/" +
-                interfaceName + "/statistics/rx_bytes";
-        transBytesFile = "/sys/devices/virtual/net/" +
-                interfaceName + "/statistics/tx_bytes";
-        uidStatsFolder = new File("/proc/uid_stat");
         sysInfo = SystemInfo.getInstance();
     }
 
     @Override
     public IterationData calculateIteration(long iteration) {
-        IterationData result = IterationData.obtain();
+        ThreegData result = ThreegData.obtain();
 
         int netType = telephonyManager.getNetworkType();
 
@@ -106,9 +92,7 @@ public class Threeg extends PowerComponent {
             threegState.interfaceOff();
             uidStates.clear();
 
-            ThreegData data = ThreegData.obtain();
-            data.init();
-            result.setPowerData(data);
+            result.addOff(SystemInfo.AID_ALL);
             return result;
         }
 
@@ -119,27 +103,32 @@ public class Threeg extends PowerComponent {
             uplinkQueueSize = phoneConstants.threegUplinkQueue(oper);
             downlinkQueueSize = phoneConstants.threegDownlinkQueue(oper);
         }
-
-        long transmitPackets = readLongFromFile(transPacketsFile);
-        long receivePackets = readLongFromFile(readPacketsFile);
-        long transmitBytes = readLongFromFile(transBytesFile);
-        long receiveBytes = readLongFromFile(readBytesFile);
-        if (transmitBytes == -1 || receiveBytes == -1) {
-      /* Couldn't read interface data files. */
-            Log.w(TAG, "Failed to read packet and byte counts from wifi interface");
+        result.oper = oper;
+
+        InterfaceCounters counters = sysInfo.updateInterfaceCounters(iteration);
+        int ifaceIndex = counters.indexOf(interfaceName);
+        if (counters.getGeneration() != iteration || ifaceIndex < 0) {
+      /* Couldn't read the interface counters. */
+            counters.release();
+            Log.w(TAG, "Failed to read packet and byte counts from 3G interface");
             return result;
         }
-
+        long transmitPackets = counters.getTxPackets(ifaceIndex);
+        long receivePackets = counters.getRxPackets(ifaceIndex);
+        long transmitBytes = counters.getTxBytes(ifaceIndex);
+        long receiveBytes = counters.getRxBytes(ifaceIndex);
+        counters.release();
+
+        /* Time of the previous iteration, where the per-uid deltas start. */
+        long lastTime = threegState.isInitialized() ? threegState.getLastTime() :
+                Clock.elapsedRealtime() - iterationInterval;
         if (threegState.isInitialized()) {
             threegState.updateState(transmitPackets, receivePackets,
                     transmitBytes, receiveBytes,
                     dchFachDelay, fachIdleDelay,
                     uplinkQueueSize, downlinkQueueSize);
-            ThreegData data = ThreegData.obtain();
-            data.init(threegState.getPackets(), threegState.getUplinkBytes(),
-                    threegState.getDownlinkBytes(), threegState.getPowerState(),
-                    oper);
-            result.setPowerData(data);
+            result.add(SystemInfo.AID_ALL, threegState.getPackets(), threegState.getUplinkBytes(),
+                    threegState.getDownlinkBytes(), threegState.getPowerState());
         } else {
             threegState.updateState(transmitPackets, receivePackets,
                     transmitBytes, receiveBytes,
@@ -147,64 +136,74 @@ public class Threeg extends PowerComponent {
                     uplinkQueueSize, downlinkQueueSize);
         }
 
-        lastUids = sysInfo.getUids(lastUids);
-        if (lastUids != null) for (int uid : lastUids) {
-            if (uid == -1) {
-                continue;
-            }
-            try {
+        /* Per-uid traffic comes from the network snapshot shared with the other
+         * radios.  Uids out of the idle state are updated every iteration, even
+         * without traffic, for their state machine to advance.
+         */
+        if (isUidScanSuspended()) {
+            uidsStale = true;
+            return result;
+        }
+        int quality = getQuality();
+        NetworkSnapshot net = sysInfo.updateNetworkSnapshot(iteration,
+                quality >= QUALITY_SKIP_STALE, quality >= QUALITY_SAMPLE_UIDS);
+        if (uidsStale && net.getGeneration() == iteration) {
+            /* The deltas cover the whole suspension, they only serve as the
+             * new starting point.
+             */
+            uidsStale = false;
+            uidStates.clear();
+            net.release();
+            return result;
+        }
+        if (net.getGeneration() == iteration) {
+            int iface = net.getInterfaceIndex(interfaceName);
+            for (int row = net.firstRow(iface); row < net.endRow(iface); row++) {
+                int uid = net.getUid(row);
                 ThreegStateKeeper uidState = uidStates.get(uid);
+                boolean idle = net.getTxDelta(row) == 0 && net.getRxDelta(row) == 0;
+                if (idle && (uidState == null ||
+                        uidState.getPowerState() == POWER_STATE_IDLE))
+                    continue;
+
                 if (uidState == null) {
                     uidState = new ThreegStateKeeper();
                     uidStates.put(uid, uidState);
                 }
-
-                if (!uidState.isStale()) {
-          /* We use a huerstic here so that we don't poll for uids that haven't
-           * had much activity recently.
-           */
-                    continue;
+                receiveBytes = net.getRxBytes(row);
+                transmitBytes = net.getTxBytes(row);
+
+                if (!uidState.isInitialized()) {
+                    /* Start from the previous counters so that the traffic that
+                     * made us notice the uid is accounted. */
+                    uidState.start(transmitBytes - net.getTxDelta(row),
+                            receiveBytes - net.getRxDelta(row), lastTime);
                 }
-          
-        /* These read operations are the expensive part of polling. */
-                receiveBytes = readLongFromFile("/proc/uid_stat/" + uid + "/tcp_rcv");
-                transmitBytes = readLongFromFile("/proc/uid_stat/" + uid + "/tcp_snd");
-
-                if (receiveBytes == -1 || transmitBytes == -1) {
-                    Log.w(TAG, "Failed to read uid read/write byte counts");
-                } else if (uidState.isInitialized()) {
-                    uidState.updateState(-1, -1, transmitBytes, receiveBytes,
-                            dchFachDelay, fachIdleDelay,
-                            uplinkQueueSize, downlinkQueueSize);
-
-                    if (uidState.getUplinkBytes() + uidState.getDownlinkBytes() != 0 ||
-                            uidState.getPowerState() != POWER_STATE_IDLE) {
-                        ThreegData uidData = ThreegData.obtain();
-                        uidData.init(uidState.getPackets(),
-                                uidState.getUplinkBytes(), uidState.getDownlinkBytes(),
-                                uidState.getPowerState(), oper);
-                        result.addUidPowerData(uid, uidData);
-                    }
-                } else {
-                    uidState.updateState(-1, -1, transmitBytes, receiveBytes,
-                            dchFachDelay, fachIdleDelay,
-                            uplinkQueueSize, downlinkQueueSize);
+                uidState.updateState(-1, -1, transmitBytes, receiveBytes,
+                        dchFachDelay, fachIdleDelay,
+                        uplinkQueueSize, downlinkQueueSize);
+
+                if (uidState.getUplinkBytes() + uidState.getDownlinkBytes() != 0 ||
+                        uidState.getPowerState() != POWER_STATE_IDLE) {
+                    result.add(uid, uidState.getPackets(),
+                            uidState.getUplinkBytes(), uidState.getDownlinkBytes(),
+                            uidState.getPowerState());
                 }
-            } catch (NumberFormatException e) {
-                Log.w(TAG, "Non-uid files in /proc/uid_stat");
             }
+        net.release();
         }
 
         return result;
     }
 
-    private long readLongFromFile(String filePath) {
-        return sysInfo.readLongFromFile(filePath);
+    @Override
+    public boolean hasUidInformation() {
+        return sysInfo.hasNetworkAccounting();
     }
 
     @Override
-    public boolean hasUidInformation() {
-        return uidStatsFolder.exists();
+    public int getSkippedPolls() {
+        return sysInfo.getNetworkSkippedPolls();
     }
 
     @Override
@@ -212,13 +211,14 @@ public class Threeg extends PowerComponent {
         return "3G";
     }
 
-    public static class ThreegData extends PowerData {
-        private static Recycler<ThreegData> recycler = new Recycler<ThreegData>();
-        public boolean threegOn;
-        public long packets;
-        public long uplinkBytes;
-        public long downlinkBytes;
-        public int powerState;
+    public static class ThreegData extends IterationData {
+        private static ObjectPool<ThreegData> recycler = new ObjectPool<ThreegData>("ThreegData");
+        public boolean[] threegOn = new boolean[INITIAL_ROWS];
+        public long[] packets = new long[INITIAL_ROWS];
+        public long[] uplinkBytes = new long[INITIAL_ROWS];
+        public long[] downlinkBytes = new long[INITIAL_ROWS];
+        public int[] powerState = new int[INITIAL_ROWS];
+        /* Network operator, the same for every row. */
         public String oper;
 
         private ThreegData() {
@@ -226,8 +226,10 @@ public class Threeg extends PowerComponent {
 
         public static ThreegData obtain() {
             ThreegData result = recycler.obtain();
-            if (result != null) return result;
-            return new ThreegData();
+            if (result == null) result = new ThreegData();
+            result.init();
+            result.oper = null;
+            return result;
         }
 
         @Override
@@ -235,28 +237,40 @@ public class Threeg extends PowerComponent {
             recycler.recycle(this);
         }
 
-        public void init() {
-            threegOn = false;
+        @Override
+        protected void growColumns(int capacity) {
+            threegOn = grow(threegOn, capacity);
+            packets = grow(packets, capacity);
+            uplinkBytes = grow(uplinkBytes, capacity);
+            downlinkBytes = grow(downlinkBytes, capacity);
+            powerState = grow(powerState, capacity);
+        }
+
+        public int addOff(int uid) {
+            int row = addRow(uid);
+            threegOn[row] = false;
+            return row;
         }
 
-        public void init(long packets, long uplinkBytes, long downlinkBytes,
-                         int powerState, String oper) {
-            threegOn = true;
-            this.packets = packets;
-            this.uplinkBytes = uplinkBytes;
-            this.downlinkBytes = downlinkBytes;
-            this.powerState = powerState;
-            this.oper = oper;
+        public int add(int uid, long packets, long uplinkBytes, long downlinkBytes,
+                       int powerState) {
+            int row = addRow(uid);
+            threegOn[row] = true;
+            this.packets[row] = packets;
+            this.uplinkBytes[row] = uplinkBytes;
+            this.downlinkBytes[row] = downlinkBytes;
+            this.powerState[row] = powerState;
+            return row;
         }
 
-        public void writeLogDataInfo(OutputStreamWriter out) throws IOException {
+        public void writeLogDataInfo(int row, OutputStreamWriter out) throws IOException {
             StringBuilder res = new StringBuilder();
-            res.append("3G-on ").append(threegOn).append("\n");
-            if (threegOn) {
-                res.append("3G-uplinkBytes ").append(uplinkBytes)
-                        .append("\n3G-downlinkBytes ").append(downlinkBytes)
-                        .append("\n3G-packets ").append(packets)
-                        .append("\n3G-state ").append(Threeg.POWER_STATE_NAMES[powerState])
+            res.append("3G-on ").append(threegOn[row]).append("\n");
+            if (threegOn[row]) {
+                res.append("3G-uplinkBytes ").append(uplinkBytes[row])
+                        .append("\n3G-downlinkBytes ").append(downlinkBytes[row])
+                        .append("\n3G-packets ").append(packets[row])
+                        .append("\n3G-state ").append(Threeg.POWER_STATE_NAMES[powerState[row]])
                         .append("\n3G-oper ").append(oper)
                         .append("\n");
             }
@@ -276,20 +290,18 @@ public class Threeg extends PowerComponent {
         private long deltaDownlinkBytes;
 
         private int powerState;
-        private int stateTime;
-
-        private long inactiveTime;
+        /* Time spent inactive in the current state, in ms. */
+        private long stateTime;
 
         public ThreegStateKeeper() {
             lastTransmitBytes = lastReceiveBytes = lastTime = -1;
             deltaUplinkBytes = deltaDownlinkBytes = -1;
             powerState = POWER_STATE_IDLE;
             stateTime = 0;
-            inactiveTime = 0;
         }
 
         public void interfaceOff() {
-            lastTime = SystemClock.elapsedRealtime();
+            lastTime = Clock.elapsedRealtime();
             powerState = POWER_STATE_IDLE;
         }
 
@@ -297,28 +309,33 @@ public class Threeg extends PowerComponent {
             return lastTime != -1;
         }
 
+        /**
+         * Take the given counters, read at time, as the starting point of the
+         * next update.
+         */
+        public void start(long transmitBytes, long receiveBytes, long time) {
+            lastTime = time;
+            lastTransmitPackets = lastReceivePackets = -1;
+            lastTransmitBytes = transmitBytes;
+            lastReceiveBytes = receiveBytes;
+        }
+
+        public long getLastTime() {
+            return lastTime;
+        }
+
         public void updateState(long transmitPackets, long receivePackets,
                                 long transmitBytes, long receiveBytes,
                                 int dchFachDelay, int fachIdleDelay,
                                 int uplinkQueueSize, int downlinkQueueSize) {
-            long curTime = SystemClock.elapsedRealtime();
+            long curTime = Clock.elapsedRealtime();
             if (lastTime != -1 && curTime > lastTime) {
-                double deltaTime = curTime - lastTime;
+                long deltaTime = curTime - lastTime;
                 deltaPackets = transmitPackets + receivePackets -
                         lastTransmitPackets - lastReceivePackets;
                 deltaUplinkBytes = transmitBytes - lastTransmitBytes;
                 deltaDownlinkBytes = receiveBytes - lastReceiveBytes;
                 boolean inactive = deltaUplinkBytes == 0 && deltaDownlinkBytes == 0;
-                inactiveTime = inactive ? inactiveTime + curTime - lastTime : 0;
-
-                // TODO: make this always work.
-                int timeMult = 1;
-                if (1000 % PowerEstimator.ITERATION_INTERVAL != 0) {
-                    Log.w(TAG,
-                            "Cannot handle iteration intervals that are a factor of 1 second");
-                } else {
-                    timeMult = 1000 / PowerEstimator.ITERATION_INTERVAL;
-                }
 
                 switch (powerState) {
                     case POWER_STATE_IDLE:
@@ -328,8 +345,8 @@ public class Threeg extends PowerComponent {
                         break;
                     case POWER_STATE_FACH:
                         if (inactive) {
-                            stateTime++;
-                            if (stateTime >= fachIdleDelay * timeMult) {
+                            stateTime += deltaTime;
+                            if (stateTime >= fachIdleDelay * 1000L) {
                                 stateTime = 0;
                                 powerState = POWER_STATE_IDLE;
                             }
@@ -343,8 +360,8 @@ public class Threeg extends PowerComponent {
                         break;
                     default: // case POWER_STATE_DCH:
                         if (inactive) {
-                            stateTime++;
-                            if (stateTime >= dchFachDelay * timeMult) {
+                            stateTime += deltaTime;
+                            if (stateTime >= dchFachDelay * 1000L) {
                                 stateTime = 0;
                                 powerState = POWER_STATE_FACH;
                             }
@@ -375,16 +392,5 @@ public class Threeg extends PowerComponent {
         public long getDownlinkBytes() {
             return deltaDownlinkBytes;
         }
-
-        /* The idea here is that we don't want to have to read uid information
-         * every single iteration for each uid as it just takes too long.  So here
-         * we are designing a hueristic that helps us avoid polling for too many
-         * uids.
-         */
-        public boolean isStale() {
-            if (powerState != POWER_STATE_IDLE) return true;
-            long curTime = SystemClock.elapsedRealtime();
-            return curTime - lastTime > Math.min(10000, inactiveTime);
-        }
     }
 }
@@ -0,0 +1,47 @@
+/*
+Copyright (C) 2011 The University of Michigan
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+Please send inquiries to powertutor@umich.edu
+*/
+
+
+package fabiogentile.powertutor.components;
+
+import android.content.Context;
+import android.net.wifi.WifiInfo;
+import android.net.wifi.WifiManager;
+
+/**
+ * State of the wifi link as seen by the WifiManager.
+ */
+public class WifiManagerLink implements Wifi.Link {
+    private WifiManager wifiManager;
+
+    public WifiManagerLink(Context context) {
+        wifiManager = (WifiManager) context.getSystemService(Context.WIFI_SERVICE);
+    }
+
+    public boolean isEnabled() {
+        int wifiStateFlag = wifiManager.getWifiState();
+        return wifiStateFlag == WifiManager.WIFI_STATE_ENABLED ||
+                wifiStateFlag == WifiManager.WIFI_STATE_DISABLING;
+    }
+
+    public double getLinkSpeed() {
+        WifiInfo info = wifiManager.getConnectionInfo();
+        return info == null ? -1 : info.getLinkSpeed();
+    }
+}
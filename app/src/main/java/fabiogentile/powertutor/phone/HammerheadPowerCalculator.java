@@ -19,12 +19,6 @@ Please send inquiries to powertutor@umich.edu
 
 package fabiogentile.powertutor.phone;
 
-import android.content.Context;
-import android.util.Log;
-
-import java.util.ArrayList;
-import java.util.HashMap;
-
 import fabiogentile.powertutor.components.Audio.AudioData;
 import fabiogentile.powertutor.components.CPU.CpuData;
 import fabiogentile.powertutor.components.GPS;
@@ -35,27 +29,20 @@ import fabiogentile.powertutor.components.Sensors;
 import fabiogentile.powertutor.components.Sensors.SensorData;
 import fabiogentile.powertutor.components.Threeg;
 import fabiogentile.powertutor.components.Threeg.ThreegData;
-import fabiogentile.powertutor.components.Wifi;
 import fabiogentile.powertutor.components.Wifi.WifiData;
 
 public class HammerheadPowerCalculator implements PhonePowerCalculator {
 
     private static final String TAG = "HammerheadPC";
     protected PhoneConstants coeffs;
-    private ArrayList<HashMap<Double, Double>> powerRatios;
-
-    /**
-     * Store for the various frequency how many time they appear across all active cores
-     */
-    private HashMap<Double, Integer> freqCountMap = new HashMap<>();
+    /* Cpu and wifi are priced by the models shared with the host profiler. */
+    private CpuPowerModel cpuModel;
+    private WifiPowerModel wifiModel;
 
-    public HammerheadPowerCalculator(Context context) {
-        this(new HammerheadConstants(context));
-    }
-
-    protected HammerheadPowerCalculator(PhoneConstants coeffs) {
+    public HammerheadPowerCalculator(PhoneConstants coeffs) {
         this.coeffs = coeffs;
-        this.powerRatios = coeffs.cpuPowerRatios();
+        cpuModel = new CpuPowerModel(coeffs);
+        wifiModel = new WifiPowerModel(coeffs);
     }
 
     /* Returns the largest index y such that if x were inserted into A (which
@@ -75,173 +62,79 @@ public class HammerheadPowerCalculator implements PhonePowerCalculator {
         return lo;
     }
 
-    public double getLcdPower(LcdData data) {
-        double ret = data.screenOn ?
-                coeffs.lcdBrightness() * data.brightness + coeffs.lcdBacklight() : 0;
-
-        //Log.i(TAG, "getLcdPower: " + ret);
-
-        return ret;
+    public void getLcdPower(LcdData data, int[] outPower) {
+        double brightness = coeffs.lcdBrightness();
+        double backlight = coeffs.lcdBacklight();
+        for (int row = 0; row < data.getRowCount(); row++) {
+            outPower[row] = (int) (data.onShare[row] *
+                    (brightness * data.brightness[row] + backlight));
+        }
     }
 
-    public double getOledPower(OledData data) {
+    public void getOledPower(OledData data, int[] outPower) {
         throw new RuntimeException("getOledPower() should not be called for Hammerhead");
     }
 
-    public double getCpuPower(CpuData data) {
-        /**     CPU POWER MODEL
-         *
-         * If the frequencies are all the same look at the matrix powerRatios
-         *
-         * Otherwise simply sum up the value for each frequency and subtract the
-         * Base power consumption cumulated
-         *
-         * If there are more than 2 active cores, it can be necessary to adjust the base power cons.
-         *
-         */
-
-        this.freqCountMap.clear();
-        double maxFreq = analyzeFrequencies(data.freq, this.freqCountMap);
-
-        double fullPower = 0;
-        double ret = 0;
-        int activeCores = 0;
-        int differentFreq = this.freqCountMap.keySet().size();
-
-        for (Double f: this.freqCountMap.keySet()) {
-            if(f == -1)
-                continue;
-
-            int coresPerFreq = this.freqCountMap.get(f);
-            activeCores += coresPerFreq;
-
-            if((coresPerFreq - 1) > powerRatios.size()){
-                Log.e(TAG, "getCpuPower: Requested count for core_number = " + coresPerFreq);
-                continue;
-            }
-
-            HashMap<Double, Double> map = powerRatios.get(coresPerFreq - 1);
-
-            if(!map.containsKey(f)){
-                Log.e(TAG, "getCpuPower: Requested power for freq = " + f);
-                continue;
-            }
-
-            // STEP 1: sum contribrutes from different frequency
-            fullPower += map.get(f);
-        }
-        // STEP 2: Subtract cumulated base power
-        fullPower -= coeffs.cpuBase() * (differentFreq - 1);
-
-        // STEP 3: Scale the resulting power according the cpu usage for the current UID
-        ret = Math.max(0, fullPower * (data.usrPerc + data.sysPerc));
-
-        double correction;
-        // STEP 4: Add, if necessary, add corrective factor to base power to the ALL uid
-        if(data.isUidAll &&  activeCores > 1){
-            correction = coeffs.cpuBaseCorrection().get(maxFreq);
-            ret = ret + correction;
-            //Log.d(TAG, "getCpuPower: correction: " + correction);
-        }
-
-        return ret;
-    }
-
-    /**
-     * analyze the frequencies array by counting how much core are using same frequencies
-     * and find the max value used to correct base powe
-     */
-    private double analyzeFrequencies (double[] freq, HashMap<Double, Integer> res){
-        double ret = freq[0];
-        for (double f: freq) {
-            if(res.containsKey(f)){
-                Integer val = res.get(f);
-                res.put(f, val+1);
-            }
-            else{
-                res.put(f, 1);
-            }
-        }
-
-        return ret;
+    public void getCpuPower(CpuData data, int[] outPower) {
+        cpuModel.getCpuPower(data, outPower);
     }
 
-    public double getAudioPower(AudioData data) {
-        return data.musicOn ? coeffs.audioPower() : 0;
+    public void getAudioPower(AudioData data, int[] outPower) {
+        double power = coeffs.audioPower();
+        for (int row = 0; row < data.getRowCount(); row++)
+            outPower[row] = (int) (power * data.onShare[row]);
     }
 
-    public double getGpsPower(GpsData data) {
-        double result = 0;
+    public void getGpsPower(GpsData data, int[] outPower) {
         double statePower[] = coeffs.gpsStatePower();
-        for (int i = 0; i < GPS.POWER_STATES; i++) {
-            result += data.stateTimes[i] * statePower[i];
+        double[] stateTimes = data.stateTimes;
+        for (int row = 0, base = 0; row < data.getRowCount(); row++, base += GPS.POWER_STATES) {
+            double result = 0;
+            for (int i = 0; i < GPS.POWER_STATES; i++) {
+                result += stateTimes[base + i] * statePower[i];
+            }
+            outPower[row] = (int) result;
         }
-        return result;
     }
 
-    public double getWifiPower(WifiData data) {
-        double ret;
-        if (!data.wifiOn) {
-            return 0;
-        } else if (data.powerState == Wifi.POWER_STATE_LOW) {
-            // Scale energy consumption basing on the percentage of data transmitted
-            // Divide by 5 since the time slot is 200ms
-            ret = coeffs.wifiHighPower() / 2 * data.uploadPercent  ;
-        } else if (data.powerState == Wifi.POWER_STATE_HIGH) {
-//            double[] linkSpeeds = coeffs.wifiLinkSpeeds();
-//            double[] linkRatios = coeffs.wifiLinkRatios();
-//            double ratio;
-//            if (linkSpeeds.length == 1) {
-//                /* If there is only one set speed we have to use its ratio as we have
-//                 * nothing else to go on.
-//                 */
-//                ratio = linkRatios[0];
-//            } else {
-//                /* Find the two nearest speed/ratio pairs and linearly interpolate
-//                 * the ratio for this link speed.
-//                 */
-//                int ind = upperBound(linkSpeeds, data.linkSpeed);
-//                if (ind == 0) ind++;
-//                if (ind == linkSpeeds.length) ind--;
-//                ratio = linkRatios[ind - 1] + (linkRatios[ind] - linkRatios[ind - 1]) /
-//                        (linkSpeeds[ind] - linkSpeeds[ind - 1]) *
-//                        (data.linkSpeed - linkSpeeds[ind - 1]);
-//            }
-            // TODO: 12/10/16 add informations on link rate ?
-            ret = coeffs.wifiHighPower() * data.uploadPercent;
-
-        }
-        else {
-            throw new RuntimeException("Unexpected power state");
-        }
-        //Add base power
-        ret += coeffs.wifiOn() * (data.uploadPercent + data.downloadPercent) / 2;
-        return ret;
+    public void getWifiPower(WifiData data, int[] outPower) {
+        wifiModel.getWifiPower(data, outPower);
     }
 
-    public double getThreeGPower(ThreegData data) {
-        if (!data.threegOn) {
-            return 0;
-        } else {
-            switch (data.powerState) {
-                case Threeg.POWER_STATE_IDLE:
-                    return coeffs.threegIdlePower(data.oper);
-                case Threeg.POWER_STATE_FACH:
-                    return coeffs.threegFachPower(data.oper);
-                case Threeg.POWER_STATE_DCH:
-                    return coeffs.threegDchPower(data.oper);
+    public void getThreeGPower(ThreegData data, int[] outPower) {
+        /* The operator is the same for every row. */
+        int idle = (int) coeffs.threegIdlePower(data.oper);
+        int fach = (int) coeffs.threegFachPower(data.oper);
+        int dch = (int) coeffs.threegDchPower(data.oper);
+        for (int row = 0; row < data.getRowCount(); row++) {
+            int power = 0;
+            if (data.threegOn[row]) {
+                switch (data.powerState[row]) {
+                    case Threeg.POWER_STATE_IDLE:
+                        power = idle;
+                        break;
+                    case Threeg.POWER_STATE_FACH:
+                        power = fach;
+                        break;
+                    case Threeg.POWER_STATE_DCH:
+                        power = dch;
+                        break;
+                }
             }
+            outPower[row] = power;
         }
-        return 0;
     }
 
-    public double getSensorPower(SensorData data) {
-        double result = 0;
+    public void getSensorPower(SensorData data, int[] outPower) {
         double[] powerUse = coeffs.sensorPower();
-        for (int i = 0; i < Sensors.MAX_SENSORS; i++) {
-            result += data.onTime[i] * powerUse[i];
+        double[] onTime = data.onTime;
+        for (int row = 0, base = 0; row < data.getRowCount(); row++, base += Sensors.MAX_SENSORS) {
+            double result = 0;
+            for (int i = 0; i < Sensors.MAX_SENSORS; i++) {
+                result += onTime[base + i] * powerUse[i];
+            }
+            outPower[row] = (int) result;
         }
-        return result;
     }
 }
 
@@ -28,21 +28,25 @@ import fabiogentile.powertutor.components.Sensors.SensorData;
 import fabiogentile.powertutor.components.Threeg.ThreegData;
 import fabiogentile.powertutor.components.Wifi.WifiData;
 
+/**
+ * Power models of a phone.  Each method prices every row of the data of a
+ * component, the power of row i going to outPower[i] in mW.
+ */
 public interface PhonePowerCalculator {
-    double getLcdPower(LcdData data);
+    void getLcdPower(LcdData data, int[] outPower);
 
-    double getOledPower(OledData data);
+    void getOledPower(OledData data, int[] outPower);
 
-    double getCpuPower(CpuData data);
+    void getCpuPower(CpuData data, int[] outPower);
 
-    double getAudioPower(AudioData data);
+    void getAudioPower(AudioData data, int[] outPower);
 
-    double getGpsPower(GpsData data);
+    void getGpsPower(GpsData data, int[] outPower);
 
-    double getWifiPower(WifiData data);
+    void getWifiPower(WifiData data, int[] outPower);
 
-    double getThreeGPower(ThreegData data);
+    void getThreeGPower(ThreegData data, int[] outPower);
 
-    double getSensorPower(SensorData data);
+    void getSensorPower(SensorData data, int[] outPower);
 }
 
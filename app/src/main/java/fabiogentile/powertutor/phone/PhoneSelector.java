@@ -20,6 +20,8 @@ Please send inquiries to powertutor@umich.edu
 package fabiogentile.powertutor.phone;
 
 import android.content.Context;
+import android.hardware.Sensor;
+import android.hardware.SensorManager;
 import android.os.Build;
 import android.util.Log;
 
@@ -30,8 +32,10 @@ import fabiogentile.powertutor.components.GPS;
 import fabiogentile.powertutor.components.LCD;
 import fabiogentile.powertutor.components.OLED;
 import fabiogentile.powertutor.components.PowerComponent;
+import fabiogentile.powertutor.components.Sensors;
 import fabiogentile.powertutor.components.Wifi;
-import fabiogentile.powertutor.service.PowerData;
+import fabiogentile.powertutor.components.WifiManagerLink;
+import fabiogentile.powertutor.service.IterationData;
 import fabiogentile.powertutor.util.SystemInfo;
 
 public class PhoneSelector {
@@ -62,6 +66,12 @@ public class PhoneSelector {
     };
 
     private static final String TAG = "PhoneSelector";
+    /* TODO: Figure out if this is really appropriate or how we should convert
+     * the sensor power ratings (in mA) to mW.  I'm not sure we'll try to model
+     * these thing's power usage but for the developer it's definitely interesting
+     * to get some (perhaps rough?) idea of how much power sensors are using.
+     */
+    private static final double BATTERY_VOLTAGE = 3.7;
 
 
     /* This class is not supposed to be instantiated.  Just use the static
@@ -99,24 +109,40 @@ public class PhoneSelector {
     public static PhoneConstants getConstants(Context context) {
         switch (getPhoneType()) {
             case PHONE_HAMMERHEAD:
-                return new HammerheadConstants(context);
+                return new HammerheadConstants(getSensorPower(context));
             default:
                 boolean oled = hasOled();
                 Log.w(TAG, "Phone type not recognized (" + Build.DEVICE +
                         "), using Hammerhead constants");
-                return new HammerheadConstants(context);
+                return new HammerheadConstants(getSensorPower(context));
+        }
+    }
+
+    /* Power in mW of the default sensor of each type. */
+    private static double[] getSensorPower(Context context) {
+        SensorManager sensorManager = (SensorManager) context.getSystemService(
+                Context.SENSOR_SERVICE);
+        double[] sensorPower = new double[Sensors.MAX_SENSORS];
+
+        //Collect info about sensor power consumption
+        for (int i = 0; i < Sensors.MAX_SENSORS; i++) {
+            Sensor sensor = sensorManager.getDefaultSensor(i);
+            if (sensor != null) {
+                sensorPower[i] = sensor.getPower() * BATTERY_VOLTAGE;
+            }
         }
+        return sensorPower;
     }
 
     public static PhonePowerCalculator getCalculator(Context context) {
         switch (getPhoneType()) {
             case PHONE_HAMMERHEAD:
-                return new HammerheadPowerCalculator(context);
+                return new HammerheadPowerCalculator(getConstants(context));
             default:
                 boolean oled = hasOled();
                 Log.w(TAG, "Phone type not recognized (" + Build.DEVICE +
                         "), using Hammerhead calculator");
-                return new HammerheadPowerCalculator(context);
+                return new HammerheadPowerCalculator(getConstants(context));
         }
     }
 
@@ -132,15 +158,15 @@ public class PhoneSelector {
             if (hasOled()) {
                 components.add(new OLED(context, constants));
                 functions.add(new PowerFunction() {
-                    public double calculate(PowerData data) {
-                        return calculator.getOledPower((OLED.OledData) data);
+                    public void calculateAll(IterationData data, int[] outPower) {
+                        calculator.getOledPower((OLED.OledData) data, outPower);
                     }
                 });
             } else {
                 components.add(new LCD(context, constants));
                 functions.add(new PowerFunction() {
-                    public double calculate(PowerData data) {
-                        return calculator.getLcdPower((LCD.LcdData) data);
+                    public void calculateAll(IterationData data, int[] outPower) {
+                        calculator.getLcdPower((LCD.LcdData) data, outPower);
                     }
                 });
             }
@@ -150,8 +176,8 @@ public class PhoneSelector {
         if (ENABLE_CPU) {
             components.add(new CPU(constants));
             functions.add(new PowerFunction() {
-                public double calculate(PowerData data) {
-                    return calculator.getCpuPower((CPU.CpuData) data);
+                public void calculateAll(IterationData data, int[] outPower) {
+                    calculator.getCpuPower((CPU.CpuData) data, outPower);
                 }
             });
         }
@@ -162,10 +188,11 @@ public class PhoneSelector {
             String wifiInterface =
                     SystemInfo.getInstance().getProperty("wifi.interface");
             if (wifiInterface != null && wifiInterface.length() != 0) {
-                components.add(new Wifi(context, constants));
+                components.add(new Wifi(constants, wifiInterface,
+                        new WifiManagerLink(context)));
                 functions.add(new PowerFunction() {
-                    public double calculate(PowerData data) {
-                        return calculator.getWifiPower((Wifi.WifiData) data);
+                    public void calculateAll(IterationData data, int[] outPower) {
+                        calculator.getWifiPower((Wifi.WifiData) data, outPower);
                     }
                 });
             }
@@ -175,8 +202,8 @@ public class PhoneSelector {
 //        if (constants.threegInterface().length() != 0) {
 //            components.add(new Threeg(context, constants));
 //            functions.add(new PowerFunction() {
-//                public double calculate(PowerData data) {
-//                    return calculator.getThreeGPower((ThreegData) data);
+//                public void calculateAll(IterationData data, int[] outPower) {
+//                    calculator.getThreeGPower((ThreegData) data, outPower);
 //                }
 //            });
 //        }
@@ -185,8 +212,8 @@ public class PhoneSelector {
         if (ENABLE_GPS) {
             components.add(new GPS(context, constants));
             functions.add(new PowerFunction() {
-                public double calculate(PowerData data) {
-                    return calculator.getGpsPower((GPS.GpsData) data);
+                public void calculateAll(IterationData data, int[] outPower) {
+                    calculator.getGpsPower((GPS.GpsData) data, outPower);
                 }
             });
         }
@@ -194,8 +221,8 @@ public class PhoneSelector {
 //        /* Add Audio component. */
 //        components.add(new Audio(context));
 //        functions.add(new PowerFunction() {
-//            public double calculate(PowerData data) {
-//                return calculator.getAudioPower((Audio.AudioData) data);
+//            public void calculateAll(IterationData data, int[] outPower) {
+//                calculator.getAudioPower((Audio.AudioData) data, outPower);
 //            }
 //        });
 
@@ -203,8 +230,8 @@ public class PhoneSelector {
 //        if (NotificationService.available()) {
 //            components.add(new Sensors(context));
 //            functions.add(new PowerFunction() {
-//                public double calculate(PowerData data) {
-//                    return calculator.getSensorPower((Sensors.SensorData) data);
+//                public void calculateAll(IterationData data, int[] outPower) {
+//                    calculator.getSensorPower((Sensors.SensorData) data, outPower);
 //                }
 //            });
 //        }
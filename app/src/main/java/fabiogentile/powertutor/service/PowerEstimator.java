@@ -20,12 +20,12 @@ Please send inquiries to powertutor@umich.edu
 package fabiogentile.powertutor.service;
 
 import android.content.SharedPreferences;
+import android.content.Context;
 import android.content.pm.PackageManager;
-import android.os.SystemClock;
+import android.os.PowerManager;
 import android.preference.PreferenceManager;
 import android.provider.Settings;
 import android.util.Log;
-import android.util.SparseArray;
 
 import java.io.File;
 import java.io.FileOutputStream;
@@ -41,15 +41,19 @@ import java.util.zip.Deflater;
 import java.util.zip.DeflaterOutputStream;
 
 import fabiogentile.powertutor.components.CPU;
-import fabiogentile.powertutor.components.OLED;
 import fabiogentile.powertutor.components.PowerComponent;
+import fabiogentile.powertutor.components.Sampler;
 import fabiogentile.powertutor.phone.PhoneConstants;
 import fabiogentile.powertutor.phone.PhoneSelector;
 import fabiogentile.powertutor.phone.PowerFunction;
 import fabiogentile.powertutor.util.BatteryStats;
+import fabiogentile.powertutor.util.Clock;
 import fabiogentile.powertutor.util.Counter;
 import fabiogentile.powertutor.util.HistoryBuffer;
+import fabiogentile.powertutor.util.IntIntMap;
 import fabiogentile.powertutor.util.NotificationService;
+import fabiogentile.powertutor.util.ObjectPool;
+import fabiogentile.powertutor.util.PowerHistory;
 import fabiogentile.powertutor.util.SystemInfo;
 import fabiogentile.powertutor.widget.PowerWidget;
 
@@ -60,10 +64,17 @@ import fabiogentile.powertutor.widget.PowerWidget;
  * to spidermoneky (or looked at by the user) and to implement the
  * ICounterService IPC interface.
  */
-public class PowerEstimator implements Runnable {
-    public static final int ALL_COMPONENTS = -1;
-    public static final int ITERATION_INTERVAL = 1000; // 1 second
+public class PowerEstimator implements Runnable, SamplingEngine.Phases {
+    public static final int ALL_COMPONENTS = PowerHistory.ALL_COMPONENTS;
+    public static final int DEFAULT_ITERATION_INTERVAL = 1000; // 1 second
+    /* Shortest interval between two refreshes of a view, so that drawing does
+     * not add to the measurements when sampling at a high rate.
+     */
+    public static final int MIN_UI_REFRESH_INTERVAL = 1000;
+    private static final int HISTORY_DURATION = 300 * 1000; // 5 minutes
     private static final String TAG = "PowerEstimator";
+    /* Per component debug logs, they allocate at every iteration. */
+    private static final boolean DEBUG = false;
     /* A dictionary used to assist in compression of the log files.  Strings that
      * appear more frequently should be put towards the end of the dictionary. It
      * is not critical that every string that be written to the log appear here.
@@ -74,13 +85,34 @@ public class PowerEstimator implements Runnable {
                     "associateconnectedsuspendedphone-callservicenetworkbegin.0123456789" +
                     "GPSAudioWifi3GLCDCPU-power ";
     private static final int NOTIFICATION_UPDATE_INTERVAL = 5; //When update notification
+    private static final int HANDOFF_STATS_INTERVAL = 60; //When log handoff counters
+    private static final String TRACE_FILE = "PowerTutor.trace";
+    private static final String REPLAY_FILE = "PowerTutor.replay";
+    /* Stages of the pipeline whose cost is measured, the components follow. */
+    private static final int STAGE_ACQUIRE = 0;
+    private static final int STAGE_POWER = 1;
+    private static final int STAGE_HISTORY = 2;
+    private static final int STAGE_UIDS = 3;
+    private static final int STAGE_LOG = 4;
+    private static final int STAGE_NOTIFICATION = 5;
+    private static final int STAGE_COMPONENTS = 6;
+    private static final String[] STAGE_NAMES = {
+            "acquire", "power", "history", "uids", "log", "notification"};
     private UMLoggerService context;
     private SharedPreferences prefs;
     private boolean plugged;
     private Vector<PowerComponent> powerComponents;
     private Vector<PowerFunction> powerFunctions;
-    private Vector<HistoryBuffer> histories;
+    private PowerHistory history;
     private Map<Integer, String> uidAppIds;
+    /* Names of the uids, resolved off the estimator thread. */
+    private volatile UidResolver uidResolver;
+    private final long iterationInterval;
+    private final SamplingPolicy policy;
+    private volatile SamplingEngine engine;
+    private final OverheadMeter overhead;
+    /* Index of the CPU component, its power model prices the overhead. */
+    private int cpuIndex = -1;
     // Miscellaneous data.
     private HistoryBuffer oledScoreHistory;
     private Object fileWriteLock = new Object();
@@ -89,6 +121,26 @@ public class PowerEstimator implements Runnable {
     private DeflaterOutputStream deflateStream;
     private Object iterationLock = new Object();
     private long lastWrittenIteration;
+    // State of the sampling loop, only used by the estimator thread.
+    private SystemInfo sysInfo;
+    private PackageManager pm;
+    private BatteryStats bst;
+    private PhoneConstants phoneConstants;
+    private IterationData[] dataTemp;
+    private long[] memInfo = new long[4];
+    private int totalPower;
+    // Last battery current measured (in uAh)
+    private double lastCurrent;
+    private boolean firstLogIteration;
+    /* Last aggregated and published iterations, the iterations in between were
+     * skipped by the sampling policy or because the engine was late.
+     */
+    private long lastAggregatedIteration;
+    private long lastPublishedIteration;
+    private long lastOverheadCpuTime;
+    private long overheadCpuTime;
+    private int overheadPower;
+    private TraceSession trace;
 
     public PowerEstimator(UMLoggerService context) {
         this.context = context;
@@ -96,19 +148,46 @@ public class PowerEstimator implements Runnable {
         powerComponents = new Vector<PowerComponent>();
         powerFunctions = new Vector<PowerFunction>();
         uidAppIds = new HashMap<Integer, String>();
+        iterationInterval = getIterationInterval(prefs);
+        policy = new SamplingPolicy(iterationInterval);
 
+        openTrace();
         PhoneSelector.generateComponents(context, powerComponents, powerFunctions);
 
-        histories = new Vector<HistoryBuffer>();
+        history = new PowerHistory((int) (HISTORY_DURATION / iterationInterval),
+                powerComponents.size(), iterationInterval);
+        oledScoreHistory = new HistoryBuffer(0, iterationInterval);
+
+        String[] stages = new String[STAGE_COMPONENTS + powerComponents.size()];
+        System.arraycopy(STAGE_NAMES, 0, stages, 0, STAGE_COMPONENTS);
         for (int i = 0; i < powerComponents.size(); i++) {
-            histories.add(new HistoryBuffer(300));
+            String name = powerComponents.get(i).getComponentName();
+            stages[STAGE_COMPONENTS + i] = "sample " + name;
+            if ("CPU".equals(name))
+                cpuIndex = i;
         }
-        oledScoreHistory = new HistoryBuffer(0);
+        overhead = new OverheadMeter(stages);
 
         logUploader = new LogUploader(context);
         openLog(true);
     }
 
+    /* Install the trace source before the components probe the device.  A
+     * trace left in REPLAY_FILE is replayed instead of profiling the device,
+     * otherwise the inputs are recorded to TRACE_FILE if asked to.
+     */
+    private void openTrace() {
+        File replayFile = context.getFileStreamPath(REPLAY_FILE);
+        try {
+            if (replayFile.exists())
+                trace = TraceSession.replay(replayFile);
+            else if (prefs.getBoolean("recordTrace", false))
+                trace = TraceSession.record(context.getFileStreamPath(TRACE_FILE));
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to open the trace: " + e);
+        }
+    }
+
     private void openLog(boolean init) {
         /* Open up the log file if possible. */
         try {
@@ -141,364 +220,508 @@ public class PowerEstimator implements Runnable {
      * This is the loop that keeps updating the power profile
      */
     public void run() {
-        SystemInfo sysInfo = SystemInfo.getInstance();
-        PackageManager pm = context.getPackageManager();
-        BatteryStats bst = BatteryStats.getInstance();
-        PhoneConstants phoneConstants = PhoneSelector.getConstants(context);
+        sysInfo = SystemInfo.getInstance();
+        pm = context.getPackageManager();
+        uidResolver = new UidResolver(pm);
+        uidResolver.start();
+        bst = BatteryStats.getInstance();
+        phoneConstants = PhoneSelector.getConstants(context);
+        dataTemp = new IterationData[powerComponents.size()];
+        lastCurrent = -1;
+        firstLogIteration = true;
+        lastAggregatedIteration = -1;
+        lastPublishedIteration = -1;
+        PowerManager powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        policy.setScreenOn(powerManager.isScreenOn());
+
+        /* Indefinitely collect data on each of the power components.  The
+         * engine calls back acquire(), aggregate() and publish() at every
+         * iteration it samples and returns when this thread is interrupted.
+         */
+        engine = new SamplingEngine(powerComponents, this, policy);
+        engine.setOverheadMeter(overhead, STAGE_COMPONENTS);
+        if (trace != null) {
+            trace.run(engine, iterationInterval);
+            trace.close();
+        } else {
+            engine.run(Clock.elapsedRealtime(), iterationInterval);
+        }
 
-        //Initialize each component
-        int componentsNumber = powerComponents.size();
-        long beginTime = SystemClock.elapsedRealtime();
-        for (int i = 0; i < componentsNumber; i++) {
-            powerComponents.get(i).init(beginTime, ITERATION_INTERVAL);
-            // Start the thread for the component
-            powerComponents.get(i).start(); // SPAWN THREAD
+        // LOOP ENDED
+
+        // Blank the widget's display and turn off power button
+        PowerWidget.updateWidgetDone(context);
+
+        logUploader.interrupt();
+        try {
+            logUploader.join();
+        } catch (InterruptedException e) {
         }
-        IterationData[] dataTemp = new IterationData[componentsNumber];
+        uidResolver.interrupt();
 
-        long[] memInfo = new long[4];
+        //This is reached only when service is stopped
 
-        int oledId = -1;
-        for (int i = 0; i < componentsNumber; i++) {
-            if ("OLED".equals(powerComponents.get(i).getComponentName())) {
-                oledId = i;
-                break;
+        // Close logstream and flush everything to file
+        synchronized (fileWriteLock) {
+            if (logStream != null) try {
+                logStream.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to flush log file on exit");
             }
         }
+    }
 
-        // Last battery current measured (in uAh)
-        double lastCurrent = -1;
-
-        /* Indefinitely collect data on each of the power components. */
-        boolean firstLogIteration = true;
-        for (long iter = -1; !Thread.interrupted(); ) {
-            long curTime = SystemClock.elapsedRealtime();
+    /**
+     * Read the inputs shared by several components once, before they are
+     * sampled concurrently.
+     */
+    public void acquire(long iter) {
+        if (trace != null)
+            trace.beginIteration(iter);
+        long cpuStart = OverheadMeter.threadCpuTime();
+        long wallStart = OverheadMeter.now();
+        sysInfo.updateInterfaceCounters(iter).release();
+        overhead.record(STAGE_ACQUIRE, cpuStart, wallStart);
+    }
 
-            /* Compute the next iteration that we can make the ending of.  We wait
-             * for the end of the iteration so that the components had a chance to
-             * collect data already.
-             */
-            iter = Math.max(iter + 1, (curTime - beginTime) / ITERATION_INTERVAL);
+    /**
+     * Compute the power of every component sampled during the iteration.  The
+     * samples cover every iteration since the previous aggregation, their
+     * power is charged to each of them.
+     */
+    public void aggregate(long iter, long deadline) {
+        int componentsNumber = powerComponents.size();
+        long firstIter = Math.max(lastAggregatedIteration + 1, iter - HISTORY_DURATION / iterationInterval);
+        double cpuBusy = -1;
+        CPU.CpuData cpuAll = null;
+        int profilerRow = -1;
+        overheadPower = 0;
+        totalPower = 0;
+        long cpuStart = OverheadMeter.threadCpuTime();
+        long wallStart = OverheadMeter.now();
+        //<editor-fold desc="Power Calculation">
+        // Collect power for each component
+        for (int i = 0; i < componentsNumber; i++) {
+            PowerComponent comp = powerComponents.get(i);
+            IterationData data = comp.getData(iter, deadline);
 
-            /* Sleep until the next iteration completes. */
-            try {
-                Thread.currentThread().sleep(beginTime + (iter + 1) * ITERATION_INTERVAL - curTime);
-            } catch (InterruptedException e) {
-                break;
+            dataTemp[i] = data;
+            if (data == null) {
+                //No data present for this timestamp.  No power charged.
+                continue;
             }
 
-            int totalPower = 0;
-            //<editor-fold desc="Power Calculation">
-            // Collect power for each component
-            for (int i = 0; i < componentsNumber; i++) {
-                PowerComponent comp = powerComponents.get(i);
-                IterationData data = comp.getData(iter);
-
-                dataTemp[i] = data;
-                if (data == null) {
-                    //No data present for this timestamp.  No power charged.
-                    continue;
+            if (i == cpuIndex) {
+                CPU.CpuData cpuData = (CPU.CpuData) data;
+                int row = cpuData.indexOf(SystemInfo.AID_ALL);
+                if (row >= 0) {
+                    cpuAll = cpuData;
+                    cpuBusy = cpuData.sysPerc[row] + cpuData.usrPerc[row];
                 }
+                profilerRow = addOverheadRow(iter, cpuAll);
+            }
 
-                int compPower = 0;
-                double totTime = 0.0, totTimeAll = 0.0;
-
-                SparseArray<PowerData> uidPower = data.getUidPowerData();
-                //Log.i(TAG, "run: [" + comp.getComponentName() + "] + uid# " + uidPower.size());
-                //Iterage through each uid for the component i
-                for (int j = 0; j < uidPower.size(); j++) {
-                    int uid = uidPower.keyAt(j);
-                    PowerData powerData = uidPower.valueAt(j);
+            //Compute the power of every uid of the component i at once
+            powerFunctions.get(i).calculateAll(data, data.getPowers());
 
-                    if (powerData instanceof CPU.CpuData) {
-                        if (uid != SystemInfo.AID_ALL) {
-                            totTime += (((CPU.CpuData) powerData).sysPerc) + (((CPU.CpuData) powerData).usrPerc);
-                            ((CPU.CpuData) powerData).setUidAll(false);
-                        }
-                        else {
-                            totTimeAll += (((CPU.CpuData) powerData).sysPerc) + (((CPU.CpuData) powerData).usrPerc);
-                            //Add base CPU power for general UID
-                            ((CPU.CpuData) powerData).setUidAll(true);
-                        }
-                    }
+            int compPower = 0;
+            int[] uids = data.getUids();
+            int[] powers = data.getPowers();
+            for (int row = 0; row < data.getRowCount(); row++) {
+                if (uids[row] == SystemInfo.AID_ALL) {
+                    totalPower += powers[row];
+                }
+                else{
+                    compPower += powers[row];
+                }
+            }
+            if (i == cpuIndex && profilerRow >= 0)
+                overheadPower = powers[profilerRow];
 
-                    int power = (int) powerFunctions.get(i).calculate(powerData);
+            if (DEBUG)
+                Log.d(TAG, "run: [" + comp.getComponentName() + "] (" + compPower +
+                        " - " + totalPower + ")" + (i == cpuIndex ? " busy " + cpuBusy : ""));
+        }
+        //</editor-fold>
+        overhead.record(STAGE_POWER, cpuStart, wallStart);
 
-                    powerData.setCachedPower(power);
+        //<editor-fold desc="History update">
+        cpuStart = OverheadMeter.threadCpuTime();
+        wallStart = OverheadMeter.now();
+        int myUid = android.os.Process.myUid();
+        for (int i = 0; i < componentsNumber; i++) {
+            IterationData data = dataTemp[i];
+            if (data == null)
+                continue;
+            int[] powers = data.getPowers();
+            if (i == cpuIndex && overheadPower > 0) {
+                /* The profiler's own cpu usage is reported on its own row. */
+                int row = data.indexOf(myUid);
+                if (row >= 0)
+                    powers[row] = Math.max(0, powers[row] - overheadPower);
+            }
+            history.appendIteration(i, data.getUids(), powers, data.getRowCount(), firstIter, iter);
+        }
+        overhead.record(STAGE_HISTORY, cpuStart, wallStart);
+        //</editor-fold>
 
-                    //Add infromation to uid history
-                    histories.get(i).add(uid, iter, power);
-                    if (uid == SystemInfo.AID_ALL) {
-                        totalPower += power;
-                    }
-                    else{
-                        compPower += power;
+        //<editor-fold desc="Update UID set">
+        cpuStart = OverheadMeter.threadCpuTime();
+        wallStart = OverheadMeter.now();
+        synchronized (fileWriteLock) {
+            synchronized (uidAppIds) {
+                for (int i = 0; i < componentsNumber; i++) {
+                    IterationData data = dataTemp[i];
+                    if (data == null) {
+                        continue;
                     }
-//                    if (i == oledId) {
-//                        OLED.OledData oledData = (OLED.OledData) powerData;
-//                        if (oledData.pixPower >= 0) {
-//                            oledScoreHistory.add(uid, iter, (int) (1000 * oledData.pixPower));
-//                        }
-//                    }
-                }
-                String formattedTime = String.format(Locale.getDefault(), "%1$.2f", totTime);
-                String formattedTimeAll = String.format(Locale.getDefault(), "%1$.2f", totTimeAll);
-
-                if(comp.getComponentName().compareTo("CPU") == 0)
-                    Log.d(TAG, "run: [" + comp.getComponentName() + "] (COMP: " + compPower +
-                            " - TOT: " + totalPower + ") time proc: " + formattedTime + " ALL: " + formattedTimeAll);
-                else
-                    Log.d(TAG, "run: [" + comp.getComponentName() + "] (" + compPower +
-                            " - " + totalPower + ")");
-            }
-            //</editor-fold>
 
-            //<editor-fold desc="Update UID set">
-            synchronized (fileWriteLock) {
-                synchronized (uidAppIds) {
-                    for (int i = 0; i < componentsNumber; i++) {
-                        IterationData data = dataTemp[i];
-                        if (data == null) {
-                            continue;
-                        }
+                    for (int row = 0; row < data.getRowCount(); row++) {
+                        int uid = data.getUid(row);
+                        if (uid < SystemInfo.AID_APP) { // System app
+                            uidAppIds.put(uid, null);
+                        } else { //User app
+                            /* We only want to update app names when logging so the associcate
+                             * message gets written.
+                             */
+                            String appId = uidAppIds.get(uid);
+                            String newAppId = uidResolver.getAppId(uid);
+                            if (newAppId == null) {
+                                /* Not resolved yet, the association is
+                                 * written once it is. */
+                                if (appId == null)
+                                    uidAppIds.put(uid, null);
+                                continue;
+                            }
+                            uidAppIds.put(uid, newAppId);
 
-                        SparseArray<PowerData> uidPower = data.getUidPowerData();
-                        for (int j = 0; j < uidPower.size(); j++) {
-                            int uid = uidPower.keyAt(j);
-                            if (uid < SystemInfo.AID_APP) { // System app
-                                uidAppIds.put(uid, null);
-                            } else { //User app
-                                /* We only want to update app names when logging so the associcate
-                                 * message gets written.
-                                 */
-                                String appId = uidAppIds.get(uid);
-                                String newAppId = sysInfo.getAppId(uid, pm);
-                                uidAppIds.put(uid, newAppId);
-
-                                if (!firstLogIteration && logStream != null && (appId == null || !appId.equals(newAppId))) {
-                                    try {
-                                        logStream.write("associate+" + uid + "+" + newAppId + "\n");
-                                    } catch (IOException e) {
-                                        Log.w(TAG, "Failed to write to log file");
-                                    }
+                            if (!firstLogIteration && logStream != null && !newAppId.equals(appId)) {
+                                try {
+                                    logStream.write("associate+" + uid + "+" + newAppId + "\n");
+                                } catch (IOException e) {
+                                    Log.w(TAG, "Failed to write to log file");
                                 }
                             }
                         }
                     }
                 }
             }
-            //</editor-fold>
+        }
+        overhead.record(STAGE_UIDS, cpuStart, wallStart);
+        //</editor-fold>
+
+        synchronized (iterationLock) {
+            lastWrittenIteration = iter;
+        }
+
+        if (policy.update(cpuBusy)) {
+            Log.i(TAG, "aggregate: sampling " + SamplingPolicy.MODE_NAMES[policy.getMode()] +
+                    ", every " + policy.getStride() + " iterations");
+            writeToLog("sampling+" + SamplingPolicy.MODE_NAMES[policy.getMode()] + "\n");
+        }
 
-            synchronized (iterationLock) {
-                lastWrittenIteration = iter;
+        // Report the components that cannot keep up with the iteration interval
+        if (crossed(lastAggregatedIteration + 1, iter + 1, HANDOFF_STATS_INTERVAL)) {
+            for (int i = 0; i < componentsNumber; i++) {
+                IterationRing ring = powerComponents.get(i).getHandoff();
+                if (ring.getLate() + ring.getReused() + ring.getDropped() + ring.getMissed() == 0)
+                    continue;
+                Log.i(TAG, "aggregate: [" + powerComponents.get(i).getComponentName() +
+                        "] handoff late " + ring.getLate() + ", reused " + ring.getReused() +
+                        ", dropped " + ring.getDropped() + ", missed " + ring.getMissed());
             }
+            // Pools that keep missing or dropping objects are too small
+            for (ObjectPool<?> pool : ObjectPool.getPools()) {
+                Log.i(TAG, "aggregate: pool [" + pool.getName() + "] hits " + pool.getHits() +
+                        ", misses " + pool.getMisses() + ", discarded " + pool.getDiscarded() +
+                        ", shared " + pool.getSharedSize());
+            }
+        }
+        lastAggregatedIteration = iter;
+    }
 
-            //<editor-fold desc="Notification update">
-            // Update the icon display every NOTIFICATION_UPDATE_INTERVAL iterations
-            if (iter % NOTIFICATION_UPDATE_INTERVAL == (NOTIFICATION_UPDATE_INTERVAL - 1)) {
-                final double POLY_WEIGHT = 0.02;
-                int count = 0; // Number of history data not null
-
-                // Get info from all component for all UID
-                int[] history = getComponentHistory(NOTIFICATION_UPDATE_INTERVAL, -1, SystemInfo.AID_ALL, -1); // TODO: 13/08/16 5 * 60 ??
-
-                double weightedAvgPower = 0;
-                for (int i = history.length - 1; i >= 0; i--) {
-                    if (history[i] != 0) {
-                        count++;
-                        weightedAvgPower *= 1.0 - POLY_WEIGHT;
-                        weightedAvgPower += POLY_WEIGHT * history[i] / 1000.0;
-                    }
+    /* Adds the cpu time used by the profiler since the last aggregation as
+     * an AID_PROFILER row of the cpu data, so that it is priced with the same
+     * model as the cpu time of any uid.
+     *
+     * @return the row, -1 if there is no global cpu data to price it with
+     */
+    private int addOverheadRow(long iter, CPU.CpuData cpuAll) {
+        long total = overhead.getTotalCpuTime();
+        overheadCpuTime = total - lastOverheadCpuTime;
+        lastOverheadCpuTime = total;
+        if (cpuAll == null)
+            return -1;
+
+        long span = (iter - lastAggregatedIteration) * iterationInterval * 1000000L;
+        double share = (double) overheadCpuTime /
+                (span * Math.max(1, phoneConstants.cpuCoreNumber()));
+        return cpuAll.add(SystemInfo.AID_PROFILER, 0, Math.min(1.0, share));
+    }
+
+    /* True if a multiple of period is in (from, to], so that periodic work is
+     * not missed when iterations are skipped.
+     */
+    private static boolean crossed(long from, long to, long period) {
+        return Math.floor((double) to / period) != Math.floor((double) from / period);
+    }
+
+    /**
+     * Write the iteration to the log and update the notification.
+     */
+    public void publish(long iter) {
+        int componentsNumber = powerComponents.size();
+        long lastIter = lastPublishedIteration;
+        lastPublishedIteration = iter;
+        //<editor-fold desc="Notification update">
+        // Update the icon display every NOTIFICATION_UPDATE_INTERVAL iterations
+        if (crossed(lastIter + 1, iter + 1, NOTIFICATION_UPDATE_INTERVAL)) {
+            long cpuStart = OverheadMeter.threadCpuTime();
+            long wallStart = OverheadMeter.now();
+            final double POLY_WEIGHT = 0.02;
+            int count = 0; // Number of history data not null
+
+            // Get info from all component for all UID
+            int[] history = getComponentHistory(NOTIFICATION_UPDATE_INTERVAL, -1, SystemInfo.AID_ALL, -1); // TODO: 13/08/16 5 * 60 ??
+
+            double weightedAvgPower = 0;
+            for (int i = history.length - 1; i >= 0; i--) {
+                if (history[i] != 0) {
+                    count++;
+                    weightedAvgPower *= 1.0 - POLY_WEIGHT;
+                    weightedAvgPower += POLY_WEIGHT * history[i] / 1000.0;
                 }
-                double avgPower = -1;
-                if (count != 0)
-                    avgPower = weightedAvgPower / (1.0 - Math.pow(1.0 - POLY_WEIGHT, count));
+            }
+            double avgPower = -1;
+            if (count != 0)
+                avgPower = weightedAvgPower / (1.0 - Math.pow(1.0 - POLY_WEIGHT, count));
 
-                avgPower *= 1000;
-                int notificationLevel = (int) Math.min(8, 1 + 8 * avgPower / phoneConstants.maxPower());
-                context.updateNotification(notificationLevel, avgPower);
+            avgPower *= 1000;
+            int notificationLevel = (int) Math.min(8, 1 + 8 * avgPower / phoneConstants.maxPower());
+            context.updateNotification(notificationLevel, avgPower);
 //                context.updateNotification(0, totalPower);
-            }
-            //</editor-fold>
+            overhead.record(STAGE_NOTIFICATION, cpuStart, wallStart);
+        }
+        //</editor-fold>
+
+        long cpuStart = OverheadMeter.threadCpuTime();
+        long wallStart = OverheadMeter.now();
 
-            writeToLog("begin+" + iter + "\n");
+        /* A sample taken every stride iterations stands for all of them, the
+         * span says how many so that the log energy matches the history. */
+        writeToLog("begin+" + iter + "\n");
+        writeToLog("span+" + (lastIter < 0 ? 1 : iter - lastIter) + "\n");
 
-            //<editor-fold desc="Log Information">
+        //<editor-fold desc="Log Information">
 
-            //<editor-fold desc="HEADER">
-            if (bst.hasCurrent() && (iter % 60 == 0)) {
-                double current = bst.getCurrent();
-                if (current != lastCurrent) { // If battery current drawn has changed
-                    writeToLog("batt_current+" +
-                            String.format(Locale.getDefault(), "%1$.2f", current * 1000) + "\n");
-                    lastCurrent = current;
+        //<editor-fold desc="HEADER">
+        if (bst.hasCurrent() && crossed(lastIter, iter, 60)) {
+            double current = bst.getCurrent();
+            if (current != lastCurrent) { // If battery current drawn has changed
+                writeToLog("batt_current+" +
+                        String.format(Locale.getDefault(), "%1$.2f", current * 1000) + "\n");
+                lastCurrent = current;
+            }
+        }
+        if (crossed(lastIter, iter, 5 * 60)) { // Every 300 iterations (5 minutes)
+            if (bst.hasTemp())
+                writeToLog("batt_temp+" + bst.getTemp() + "\n");
+            if (bst.hasCharge())
+                writeToLog("batt_charge+" + bst.getCharge() + "\n");
+        }
+        if (crossed(lastIter, iter, 30 * 60)) { // Every 1800 iterations (30 minutes)
+            if (Settings.System.getInt(context.getContentResolver(),
+                    "screen_brightness_mode", 0) != 0) {
+                writeToLog("setting_brightness+automatic\n");
+            } else {
+                int brightness = Settings.System.getInt(context.getContentResolver(),
+                        Settings.System.SCREEN_BRIGHTNESS, -1);
+                if (brightness != -1) {
+                    writeToLog("setting_brightness+" + brightness + "\n");
                 }
             }
-            if (iter % (5 * 60) == 0) { // Every 300 iterations (5 minutes)
-                if (bst.hasTemp())
-                    writeToLog("batt_temp+" + bst.getTemp() + "\n");
-                if (bst.hasCharge())
-                    writeToLog("batt_charge+" + bst.getCharge() + "\n");
+            int timeout = Settings.System.getInt(
+                    context.getContentResolver(),
+                    Settings.System.SCREEN_OFF_TIMEOUT, -1);
+            if (timeout != -1) {
+                writeToLog("setting_screen_timeout+" + timeout + "\n");
             }
-            if (iter % (30 * 60) == 0) { // Every 1800 iterations (30 minutes)
-                if (Settings.System.getInt(context.getContentResolver(),
-                        "screen_brightness_mode", 0) != 0) {
-                    writeToLog("setting_brightness+automatic\n");
-                } else {
-                    int brightness = Settings.System.getInt(context.getContentResolver(),
-                            Settings.System.SCREEN_BRIGHTNESS, -1);
-                    if (brightness != -1) {
-                        writeToLog("setting_brightness+" + brightness + "\n");
-                    }
-                }
-                int timeout = Settings.System.getInt(
-                        context.getContentResolver(),
-                        Settings.System.SCREEN_OFF_TIMEOUT, -1);
-                if (timeout != -1) {
-                    writeToLog("setting_screen_timeout+" + timeout + "\n");
-                }
 
-                String httpProxy = Settings.Secure.getString(
-                        context.getContentResolver(),
-                        Settings.Secure.HTTP_PROXY);
-                if (httpProxy != null) {
-                    writeToLog("setting_httpproxy " + httpProxy + "\n");
-                }
+            String httpProxy = Settings.Secure.getString(
+                    context.getContentResolver(),
+                    Settings.Secure.HTTP_PROXY);
+            if (httpProxy != null) {
+                writeToLog("setting_httpproxy " + httpProxy + "\n");
             }
-            //</editor-fold>
+        }
+        //</editor-fold>
 
-            /* Let's only grab memory information every 10 seconds to try to keep log
-             * file size down and the notice_data table size down.
-             */
-            boolean hasMem = false;
+        /* Let's only grab memory information every 10 seconds to try to keep log
+         * file size down and the notice_data table size down.
+         */
+        boolean hasMem = false;
 //            if (iter % 10 == 0) {
 //                hasMem = sysInfo.getMemInfo(memInfo);
 //            }
 
-            //<editor-fold desc="BODY">
-            synchronized (fileWriteLock) {
-                if (logStream != null) {
-                    try {
-                        if (firstLogIteration) {
-                            Log.d(TAG, "run: FIRST LOG ITERATION");
-                            firstLogIteration = false;
-                            logStream.write("iteration_interval+" + ITERATION_INTERVAL + "\n");
-                            logStream.write("time+" + System.currentTimeMillis() + "\n");
-                            Calendar cal = new GregorianCalendar();
-                            logStream.write("localtime_offset+" +
-                                    (cal.get(Calendar.ZONE_OFFSET) +
-                                            cal.get(Calendar.DST_OFFSET)) + "\n");
-                            logStream.write("model+" + phoneConstants.modelName() + "\n");
-
-                            if (NotificationService.available())
-                                logStream.write("notifications-active\n");
-
-                            if (bst.hasFullCapacity())
-                                logStream.write("batt_full_capacity+" + bst.getFullCapacity() + "\n");
-
-                            synchronized (uidAppIds) {
-                                for (int uid : uidAppIds.keySet()) {
-                                    if (uid < SystemInfo.AID_APP) {
-                                        continue;
-                                    }
-                                    logStream.write("associate+" + uid + "+" + uidAppIds.get(uid) + "\n");
+        //<editor-fold desc="BODY">
+        synchronized (fileWriteLock) {
+            if (logStream != null) {
+                try {
+                    if (firstLogIteration) {
+                        Log.d(TAG, "run: FIRST LOG ITERATION");
+                        firstLogIteration = false;
+                        /* Every block begins with begin+<iteration> and
+                         * span+<n>: its powers hold for the n iterations of
+                         * iteration_interval ms ending with that one. */
+                        logStream.write("iteration_interval+" + iterationInterval + "\n");
+                        logStream.write("time+" + System.currentTimeMillis() + "\n");
+                        Calendar cal = new GregorianCalendar();
+                        logStream.write("localtime_offset+" +
+                                (cal.get(Calendar.ZONE_OFFSET) +
+                                        cal.get(Calendar.DST_OFFSET)) + "\n");
+                        logStream.write("model+" + phoneConstants.modelName() + "\n");
+
+                        if (NotificationService.available())
+                            logStream.write("notifications-active\n");
+
+                        if (bst.hasFullCapacity())
+                            logStream.write("batt_full_capacity+" + bst.getFullCapacity() + "\n");
+
+                        synchronized (uidAppIds) {
+                            for (int uid : uidAppIds.keySet()) {
+                                if (uid < SystemInfo.AID_APP || uidAppIds.get(uid) == null) {
+                                    continue;
                                 }
+                                logStream.write("associate+" + uid + "+" + uidAppIds.get(uid) + "\n");
                             }
                         }
+                    }
+
+                    logStream.write("total power+" + (long) Math.round(totalPower) + '\n');
+                    logStream.write("overhead+" + overheadCpuTime / 1000 + "+" + overheadPower + "\n");
+
+                    if (hasMem)
+                        logStream.write("meminfo+" + memInfo[0] + "+" + memInfo[1] +
+                                "+" + memInfo[2] + "+" + memInfo[3] + "\n");
+
+                    // Log information for every component
+                    for (int i = 0; i < componentsNumber; i++) {
+                        //Log.d(TAG, "run: Log for component " + i);
+                        IterationData data = dataTemp[i];
 
-                        logStream.write("total power+" + (long) Math.round(totalPower) + '\n');
-
-                        if (hasMem)
-                            logStream.write("meminfo+" + memInfo[0] + "+" + memInfo[1] +
-                                    "+" + memInfo[2] + "+" + memInfo[3] + "\n");
-
-                        // Log information for every component
-                        for (int i = 0; i < componentsNumber; i++) {
-                            //Log.d(TAG, "run: Log for component " + i);
-                            IterationData data = dataTemp[i];
-
-                            if (data != null) {
-                                String name = powerComponents.get(i).getComponentName();
-                                SparseArray<PowerData> uidData = data.getUidPowerData();
-
-                                //Iterate through UIDs
-                                for (int j = 0; j < uidData.size(); j++) {
-                                    int uid = uidData.keyAt(j);
-                                    PowerData powerData = uidData.valueAt(j);
-
-                                    if (uid == SystemInfo.AID_ALL) {
-                                        // Write log data for each component
-                                        powerData.writeLogDataInfo(logStream);
-                                        logStream.write(name + "+ALL++" + (long) Math.round(powerData.getCachedPower()) + "\n");
-                                    } else {
-                                        logStream.write(name + "+" + uid + "+" + sysInfo.getUidName(uid, pm) +
-                                                "+" + (long) Math.round(powerData.getCachedPower()) + "\n");
-                                    }
+                        if (data != null) {
+                            String name = powerComponents.get(i).getComponentName();
+
+                            //Iterate through UIDs
+                            for (int row = 0; row < data.getRowCount(); row++) {
+                                int uid = data.getUid(row);
+
+                                if (uid == SystemInfo.AID_ALL) {
+                                    // Write log data for each component
+                                    data.writeLogDataInfo(row, logStream);
+                                    logStream.write(name + "+quality+" +
+                                            Sampler.QUALITY_NAMES[data.getQuality()] + "\n");
+                                    logStream.write(name + "+ALL++" + data.getCachedPower(row) + "\n");
+                                } else {
+                                    logStream.write(name + "+" + uid + "+" + uidResolver.getLabel(uid) +
+                                            "+" + data.getCachedPower(row) + "\n");
                                 }
-                                data.recycle();
                             }
                         }
-                        logStream.write("------ END OF ITERATION ------\n");
-                    } catch (IOException e) {
-                        Log.w(TAG, "Failed to write to log file");
                     }
+                    logStream.write("------ END OF ITERATION ------\n");
+                } catch (IOException e) {
+                    Log.w(TAG, "Failed to write to log file");
                 }
             }
-            //</editor-fold>
+        }
+        //</editor-fold>
 
-            //</editor-fold>
+        //</editor-fold>
 
-            if (iter % 30 == 0) { // Every 300 iterations (5 minutes)
-                synchronized (fileWriteLock) {
-                    if (logStream != null)
-                        try {
-                            logStream.flush();
-                        } catch (Exception e) {
-                            Log.w(TAG, "Failed to flush logfile: " + e);
-                        }
-                }
+        for (int i = 0; i < componentsNumber; i++) {
+            if (dataTemp[i] != null) {
+                dataTemp[i].recycle();
+                dataTemp[i] = null;
             }
+        }
 
-        } //Thread loop 'run'
-
-
-        // LOOP ENDED
-
-        // Blank the widget's display and turn off power button
-        PowerWidget.updateWidgetDone(context);
-
-        // Have all of the power component threads exit
-        logUploader.interrupt();
-
-        // Interrupt power component calculator
-        for (int i = 0; i < componentsNumber; i++) {
-            powerComponents.get(i).interrupt();
+        if (crossed(lastIter, iter, HANDOFF_STATS_INTERVAL)) {
+            // Cumulative cost of each stage: cpu time, wall time (us) and calls
+            for (int i = 0; i < overhead.getStageCount(); i++) {
+                writeToLog("overhead-stage+" + overhead.getStageName(i) + "+" +
+                        overhead.getCpuTime(i) / 1000 + "+" + overhead.getWallTime(i) / 1000 +
+                        "+" + overhead.getCalls(i) + "\n");
+            }
         }
 
+        if (crossed(lastIter, iter, 30)) { // Every 30 iterations
+            synchronized (fileWriteLock) {
+                if (logStream != null)
+                    try {
+                        logStream.flush();
+                    } catch (Exception e) {
+                        Log.w(TAG, "Failed to flush logfile: " + e);
+                    }
+            }
+        }
+        overhead.record(STAGE_LOG, cpuStart, wallStart);
+    }
 
+    /**
+     * @return the iteration interval set in the preferences, in ms
+     */
+    public static long getIterationInterval(SharedPreferences prefs) {
         try {
-            logUploader.join();
-        } catch (InterruptedException e) {
+            long interval = Long.parseLong(prefs.getString("iterationInterval",
+                    String.valueOf(DEFAULT_ITERATION_INTERVAL)));
+            if (interval > 0)
+                return interval;
+        } catch (NumberFormatException e) {
         }
+        return DEFAULT_ITERATION_INTERVAL;
+    }
 
-        // Wait power component end
-        for (int i = 0; i < componentsNumber; i++) {
-            try {
-                powerComponents.get(i).join();
-            } catch (InterruptedException e) {
-            }
-        }
+    /**
+     * @return ms between two iterations of this estimator
+     */
+    public long getIterationInterval() {
+        return iterationInterval;
+    }
 
-        //This is reached only when service is stopped
+    /**
+     * Called by the service when the screen turns on or off.
+     */
+    public void onScreenStateChanged(boolean on) {
+        SamplingEngine e = engine;
+        if (policy.setScreenOn(on) && e != null)
+            e.wakeUp();
+    }
 
-        // Close logstream and flush everything to file
-        synchronized (fileWriteLock) {
-            if (logStream != null) try {
-                logStream.close();
-            } catch (IOException e) {
-                Log.w(TAG, "Failed to flush log file on exit");
-            }
+    /**
+     * @return names of the stages whose cost is measured
+     */
+    public String[] getOverheadStages() {
+        String[] ret = new String[overhead.getStageCount()];
+        for (int i = 0; i < ret.length; i++)
+            ret[i] = overhead.getStageName(i);
+        return ret;
+    }
+
+    /**
+     * @return for each stage, the cpu time in us, the wall time in us and the
+     * number of calls since the start
+     */
+    public long[] getOverhead() {
+        int stages = overhead.getStageCount();
+        long[] ret = new long[3 * stages];
+        for (int i = 0; i < stages; i++) {
+            ret[3 * i] = overhead.getCpuTime(i) / 1000;
+            ret[3 * i + 1] = overhead.getWallTime(i) / 1000;
+            ret[3 * i + 2] = overhead.getCalls(i);
         }
+        return ret;
     }
 
     public void plug(boolean plugged) {
@@ -567,26 +790,17 @@ public class PowerEstimator implements Runnable {
             iteration = lastWrittenIteration;
         }
         int components = powerComponents.size();
-        if (componentId == ALL_COMPONENTS) {
-            int[] result = new int[count];
-            for (int i = 0; i < components; i++) {
-                int[] comp = histories.get(i).get(uid, iteration, count);
-                for (int j = 0; j < count; j++) {
-                    result[j] += comp[j];
-                }
-            }
-            return result;
-        }
-        if (componentId < 0 || components <= componentId) return null;
-        return histories.get(componentId).get(uid, iteration, count);
+        if (componentId != ALL_COMPONENTS &&
+                (componentId < 0 || components <= componentId)) return null;
+        return history.get(componentId, uid, iteration, count);
     }
 
     public long[] getTotals(int uid, int windowType) {
         int components = powerComponents.size();
         long[] ret = new long[components];
         for (int i = 0; i < components; i++) {
-            ret[i] = histories.get(i).getTotal(uid, windowType) *
-                    ITERATION_INTERVAL / 1000;
+            ret[i] = history.getTotal(i, uid, windowType) *
+                    iterationInterval / 1000;
         }
         return ret;
     }
@@ -595,10 +809,10 @@ public class PowerEstimator implements Runnable {
         long runningTime = 0;
         int components = powerComponents.size();
         for (int i = 0; i < components; i++) {
-            long entries = histories.get(i).getCount(uid, windowType);
+            long entries = history.getCount(i, uid, windowType);
             runningTime = entries > runningTime ? entries : runningTime;
         }
-        return runningTime * ITERATION_INTERVAL / 1000;
+        return runningTime * iterationInterval / 1000;
     }
 
     public long[] getMeans(int uid, int windowType) {
@@ -611,28 +825,34 @@ public class PowerEstimator implements Runnable {
         return ret;
     }
 
+    /**
+     * The package of uid was replaced or removed, its name has to be
+     * resolved again.
+     */
+    public void invalidateUid(int uid) {
+        UidResolver resolver = uidResolver;
+        if (resolver != null)
+            resolver.invalidate(uid);
+    }
+
     public UidInfo[] getUidInfo(int windowType, int ignoreMask) {
         long iteration;
         synchronized (iterationLock) {
             iteration = lastWrittenIteration;
         }
-        int components = powerComponents.size();
+        /* The current power of every uid comes from one pass over the
+         * iteration. */
+        IntIntMap currentPowers = new IntIntMap();
+        history.getIteration(iteration, ignoreMask, currentPowers);
         synchronized (uidAppIds) {
             int pos = 0;
             UidInfo[] result = new UidInfo[uidAppIds.size()];
             for (Integer uid : uidAppIds.keySet()) {
                 UidInfo info = UidInfo.obtain();
-                int currentPower = 0;
-                for (int i = 0; i < components; i++) {
-                    if ((ignoreMask & 1 << i) == 0) {
-                        currentPower += histories.get(i).get(uid, iteration, 1)[0];
-                    }
-                }
-                double scale = ITERATION_INTERVAL / 1000.0;
+                int currentPower = currentPowers.get(uid, 0);
                 info.init(uid, currentPower,
-                        sumArray(getTotals(uid, windowType), ignoreMask) *
-                                ITERATION_INTERVAL / 1000,
-                        getRuntime(uid, windowType) * ITERATION_INTERVAL / 1000);
+                        sumArray(getTotals(uid, windowType), ignoreMask),
+                        getRuntime(uid, windowType));
                 result[pos++] = info;
             }
             return result;
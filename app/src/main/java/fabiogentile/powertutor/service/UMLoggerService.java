@@ -43,6 +43,7 @@ import java.lang.reflect.Method;
 import fabiogentile.powertutor.ICounterService;
 import fabiogentile.powertutor.R;
 import fabiogentile.powertutor.ui.UMLogger;
+import fabiogentile.powertutor.util.AndroidPlatform;
 import fabiogentile.powertutor.util.SystemInfo;
 
 public class UMLoggerService extends Service {
@@ -100,6 +101,18 @@ public class UMLoggerService extends Service {
                 public long getUidExtra(String name, int uid) {
                     return powerEstimator.getUidExtra(name, uid);
                 }
+
+                public long getIterationInterval() {
+                    return powerEstimator.getIterationInterval();
+                }
+
+                public String[] getOverheadStages() {
+                    return powerEstimator.getOverheadStages();
+                }
+
+                public long[] getOverhead() {
+                    return powerEstimator.getOverhead();
+                }
             };
 
     //<editor-fold desc="Broadcast Intent">
@@ -132,8 +145,13 @@ public class UMLoggerService extends Service {
                     intent.getAction().equals(Intent.ACTION_PACKAGE_REPLACED)) {
                 // A package has either been removed or its metadata has changed and we
                 // need to clear the cache of metadata for that app.
-                SystemInfo.getInstance().voidUidCache(
-                        intent.getIntExtra(Intent.EXTRA_UID, -1));
+                int uid = intent.getIntExtra(Intent.EXTRA_UID, -1);
+                SystemInfo.getInstance().voidUidCache(uid);
+                powerEstimator.invalidateUid(uid);
+            } else if (intent.getAction().equals(Intent.ACTION_SCREEN_ON)) {
+                powerEstimator.onScreenStateChanged(true);
+            } else if (intent.getAction().equals(Intent.ACTION_SCREEN_OFF)) {
+                powerEstimator.onScreenStateChanged(false);
             }
         }
 
@@ -226,6 +244,7 @@ public class UMLoggerService extends Service {
     @Override
     public void onCreate() {
         Log.i(TAG, "onCreate: ");
+        AndroidPlatform.install();
         powerEstimator = new PowerEstimator(this);
 
         /* Register to receive phone state messages. */
@@ -241,10 +260,18 @@ public class UMLoggerService extends Service {
         filter.addAction(Intent.ACTION_AIRPLANE_MODE_CHANGED);
         filter.addAction(Intent.ACTION_BATTERY_LOW);
         filter.addAction(Intent.ACTION_BATTERY_CHANGED);
-        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
-        filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        filter.addAction(Intent.ACTION_SCREEN_ON);
+        filter.addAction(Intent.ACTION_SCREEN_OFF);
         registerReceiver(broadcastIntentReceiver, filter);
 
+        /* The package broadcasts carry a package: uri, they only match a
+         * filter with that scheme. */
+        IntentFilter packageFilter = new IntentFilter();
+        packageFilter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        packageFilter.addDataScheme("package");
+        registerReceiver(broadcastIntentReceiver, packageFilter);
+
         notificationManager = (NotificationManager) getSystemService(
                 NOTIFICATION_SERVICE);
     }
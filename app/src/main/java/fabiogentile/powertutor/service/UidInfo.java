@@ -21,13 +21,13 @@ package fabiogentile.powertutor.service;
 
 import java.io.Serializable;
 
-import fabiogentile.powertutor.util.Recycler;
+import fabiogentile.powertutor.util.ObjectPool;
 
 /**
  * Class used to store information about an application
  */
 public class UidInfo implements Serializable, Comparable {
-    private static Recycler<UidInfo> recycler = new Recycler<UidInfo>();
+    private static ObjectPool<UidInfo> recycler = new ObjectPool<UidInfo>("UidInfo");
     public int uid;
     public int currentPower;
     public long totalEnergy;
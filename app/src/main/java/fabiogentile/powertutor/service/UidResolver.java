@@ -0,0 +1,216 @@
+/*
+Copyright (C) 2011 The University of Michigan
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+Please send inquiries to powertutor@umich.edu
+*/
+
+
+package fabiogentile.powertutor.service;
+
+import android.content.pm.PackageManager;
+import android.util.Log;
+
+import fabiogentile.powertutor.util.IntIntMap;
+import fabiogentile.powertutor.util.IntMap;
+import fabiogentile.powertutor.util.SystemInfo;
+
+/**
+ * Resolves the app id and label of the application uids on its own thread,
+ * so that the estimator never waits on the package manager.  Lookups only
+ * read an immutable map, a uid missing from it is queued and reported as
+ * unresolved until the thread gets to it.  Entries stay valid until the
+ * package of the uid is replaced or removed.
+ */
+public class UidResolver extends Thread {
+    private static final String TAG = "UidResolver";
+    /* Values of the pending map. */
+    private static final int QUEUED = 1;
+    private static final int STALE = 2;
+
+    private final PackageManager pm;
+    private final SystemInfo sysInfo;
+    /* Resolved uids.  Never modified once published, it is replaced as a
+     * whole and readers simply grab the current reference.
+     */
+    private volatile IntMap<Entry> entries = new IntMap<Entry>();
+    /* Guards the queue, the pending map and the publication of entries. */
+    private final Object queueLock = new Object();
+    /* Uids queued or being resolved.  STALE marks an invalidation that came
+     * in while the uid was being resolved, its result is dropped.
+     */
+    private IntIntMap pending = new IntIntMap();
+    private int[] queue = new int[16];
+    private int queueSize;
+
+    public static class Entry {
+        public final String appId;
+        public final String label;
+
+        public Entry(String appId, String label) {
+            this.appId = appId;
+            this.label = label;
+        }
+    }
+
+    public UidResolver(PackageManager pm) {
+        super(TAG);
+        setDaemon(true);
+        this.pm = pm;
+        sysInfo = SystemInfo.getInstance();
+    }
+
+    /**
+     * @return "package@versionCode" of an application uid, null while it is
+     * not resolved
+     */
+    public String getAppId(int uid) {
+        if (uid < SystemInfo.AID_APP)
+            return null;
+        Entry entry = entries.get(uid);
+        if (entry == null) {
+            request(uid);
+            return null;
+        }
+        return entry.appId;
+    }
+
+    /**
+     * @return label of uid, a placeholder while it is not resolved
+     */
+    public String getLabel(int uid) {
+        if (uid < SystemInfo.AID_APP)
+            return SystemInfo.getSystemUidName(uid);
+        Entry entry = entries.get(uid);
+        if (entry == null) {
+            request(uid);
+            return "app_" + uid;
+        }
+        return entry.label;
+    }
+
+    /**
+     * Forget uid, its package was replaced or removed.  It is resolved again
+     * if it was known.
+     */
+    public void invalidate(int uid) {
+        synchronized (queueLock) {
+            int state = pending.get(uid, 0);
+            if (state != 0) {
+                if (state == QUEUED && !isQueued(uid))
+                    pending.put(uid, STALE);
+                return;
+            }
+            if (entries.get(uid) == null)
+                return;
+            entries = copyWithout(uid);
+        }
+        request(uid);
+    }
+
+    private void request(int uid) {
+        synchronized (queueLock) {
+            if (pending.get(uid, 0) != 0)
+                return;
+            enqueueLocked(uid);
+            queueLock.notify();
+        }
+    }
+
+    /* Make sure that you have a lock on queueLock before calling. */
+    private void enqueueLocked(int uid) {
+        pending.put(uid, QUEUED);
+        if (queueSize == queue.length) {
+            int[] grown = new int[queue.length * 2];
+            System.arraycopy(queue, 0, grown, 0, queueSize);
+            queue = grown;
+        }
+        queue[queueSize++] = uid;
+    }
+
+    /* Make sure that you have a lock on queueLock before calling. */
+    private boolean isQueued(int uid) {
+        for (int i = 0; i < queueSize; i++)
+            if (queue[i] == uid)
+                return true;
+        return false;
+    }
+
+    /* Make sure that you have a lock on queueLock before calling. */
+    private IntMap<Entry> copyWithout(int skipUid) {
+        IntMap<Entry> current = entries;
+        IntMap<Entry> copy = new IntMap<Entry>(current.size() + 16);
+        for (int i = 0; i < current.size(); i++) {
+            if (current.keyAt(i) != skipUid)
+                copy.put(current.keyAt(i), current.valueAt(i));
+        }
+        return copy;
+    }
+
+    @Override
+    public void run() {
+        int[] batch = new int[16];
+        Entry[] resolved = new Entry[16];
+        try {
+            while (!isInterrupted()) {
+                int count;
+                synchronized (queueLock) {
+                    while (queueSize == 0)
+                        queueLock.wait();
+                    if (batch.length < queueSize) {
+                        batch = new int[queue.length];
+                        resolved = new Entry[queue.length];
+                    }
+                    count = queueSize;
+                    System.arraycopy(queue, 0, batch, 0, count);
+                    queueSize = 0;
+                }
+
+                /* The binder calls are made without holding any lock. */
+                for (int i = 0; i < count; i++) {
+                    int uid = batch[i];
+                    try {
+                        resolved[i] = new Entry(sysInfo.getAppIdNoCache(uid, pm),
+                                sysInfo.getUidNameNoCache(uid, pm));
+                    } catch (RuntimeException e) {
+                        /* The package manager died, keep a placeholder rather
+                         * than asking again at every iteration.
+                         */
+                        Log.w(TAG, "Failed to resolve uid " + uid + ": " + e);
+                        resolved[i] = new Entry(null, "app_" + uid);
+                    }
+                }
+
+                synchronized (queueLock) {
+                    IntMap<Entry> copy = copyWithout(Integer.MIN_VALUE);
+                    for (int i = 0; i < count; i++) {
+                        int uid = batch[i];
+                        if (pending.get(uid, 0) == STALE) {
+                            /* Back in the queue, it is published on the next round. */
+                            enqueueLocked(uid);
+                        } else {
+                            pending.delete(uid);
+                            copy.put(uid, resolved[i]);
+                        }
+                        resolved[i] = null;
+                    }
+                    entries = copy;
+                }
+            }
+        } catch (InterruptedException e) {
+            /* Stopped with the estimator. */
+        }
+    }
+}
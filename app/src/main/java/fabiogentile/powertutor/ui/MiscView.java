@@ -65,6 +65,7 @@ public class MiscView extends Activity {
     private Intent serviceIntent;
     private CounterServiceConnection conn;
     private ICounterService counterService;
+    private long iterationInterval = PowerEstimator.DEFAULT_ITERATION_INTERVAL;
     private Handler handler;
 
     private BatteryStats batteryStats;
@@ -117,7 +118,8 @@ public class MiscView extends Activity {
                     }
                 }
                 if (handler != null) {
-                    handler.postDelayed(this, 2 * PowerEstimator.ITERATION_INTERVAL);
+                    handler.postDelayed(this, Math.max(2 * iterationInterval,
+                            PowerEstimator.MIN_UI_REFRESH_INTERVAL));
                 }
             }
         };
@@ -190,6 +192,7 @@ public class MiscView extends Activity {
             counterService = ICounterService.Stub.asInterface(boundService);
             try {
                 componentNames = counterService.getComponents();
+                iterationInterval = counterService.getIterationInterval();
             } catch (RemoteException e) {
                 componentNames = new String[0];
             }
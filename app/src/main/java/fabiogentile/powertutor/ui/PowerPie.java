@@ -68,6 +68,7 @@ public class PowerPie extends Activity {
     private Intent serviceIntent;
     private CounterServiceConnection conn;
     private ICounterService counterService;
+    private long iterationInterval = PowerEstimator.DEFAULT_ITERATION_INTERVAL;
     private Handler handler;
     private TextView displayText;
 
@@ -110,7 +111,6 @@ public class PowerPie extends Activity {
                             prefs.getInt("pieWindowType", 0));
                     long sumTotal = 0;
                     for (int i = 0; i < totals.length; i++) {
-                        totals[i] = totals[i] * PowerEstimator.ITERATION_INTERVAL / 1000;
                         sumTotal += totals[i];
                     }
                     int index = 0;
@@ -156,7 +156,8 @@ public class PowerPie extends Activity {
                     Log.w(TAG, "Failed to contact power tutor profiling service");
                 }
                 if (handler != null) {
-                    handler.postDelayed(this, 2 * PowerEstimator.ITERATION_INTERVAL);
+                    handler.postDelayed(this, Math.max(2 * iterationInterval,
+                            PowerEstimator.MIN_UI_REFRESH_INTERVAL));
                 }
             }
         };
@@ -273,6 +274,7 @@ public class PowerPie extends Activity {
             try {
                 componentNames = counterService.getComponents();
                 noUidMask = counterService.getNoUidMask();
+                iterationInterval = counterService.getIterationInterval();
                 refreshView();
             } catch (RemoteException e) {
                 counterService = null;
@@ -58,7 +58,7 @@ import fabiogentile.powertutor.service.PowerEstimator;
 import fabiogentile.powertutor.service.UMLoggerService;
 import fabiogentile.powertutor.service.UidInfo;
 import fabiogentile.powertutor.util.Counter;
-import fabiogentile.powertutor.util.Recycler;
+import fabiogentile.powertutor.util.ObjectPool;
 import fabiogentile.powertutor.util.SystemInfo;
 
 public class PowerTop extends Activity implements Runnable {
@@ -79,6 +79,7 @@ public class PowerTop extends Activity implements Runnable {
     private Intent serviceIntent;
     private CounterServiceConnection conn;
     private ICounterService counterService;
+    private long iterationInterval = PowerEstimator.DEFAULT_ITERATION_INTERVAL;
     private Handler handler;
     private LinearLayout topGroup;
     private LinearLayout filterGroup;
@@ -284,18 +285,18 @@ public class PowerTop extends Activity implements Runnable {
     }
 
     /**
-     * Refresh the view every 2 PowerEstimator.ITERATION_INTERVAL
+     * Refresh the view every 2 iterations, at most once per MIN_UI_REFRESH_INTERVAL
      */
     public void run() {
         refreshView();
         if (handler != null) {
-            handler.postDelayed(this, 2 * PowerEstimator.ITERATION_INTERVAL);
+            handler.postDelayed(this, Math.max(2 * iterationInterval,
+                    PowerEstimator.MIN_UI_REFRESH_INTERVAL));
         }
     }
 
     private static class UidPowerView extends LinearLayout {
-        private static Recycler<UidPowerView> recycler =
-                new Recycler<UidPowerView>();
+        private static ObjectPool<UidPowerView> recycler = new ObjectPool<UidPowerView>("UidPowerView");
         private static DecimalFormat formatter = new DecimalFormat("0.0");
         private UidInfo uidInfo;
         private String name;
@@ -394,6 +395,7 @@ public class PowerTop extends Activity implements Runnable {
             try {
                 componentNames = counterService.getComponents();
                 noUidMask = counterService.getNoUidMask();
+                iterationInterval = counterService.getIterationInterval();
                 filterGroup.removeAllViews();
                 for (int i = 0; i < componentNames.length; i++) {
                     int ignMask = prefs.getInt("topIgnoreMask", 0);
@@ -68,6 +68,7 @@ public class PowerViewer extends Activity {
     private Intent serviceIntent;
     private CounterServiceConnection conn;
     private ICounterService counterService;
+    private long iterationInterval = PowerEstimator.DEFAULT_ITERATION_INTERVAL;
     private Handler handler;
     private LinearLayout chartLayout;
     private SystemInfo sysInfo;
@@ -282,6 +283,7 @@ public class PowerViewer extends Activity {
                 componentNames = counterService.getComponents();
                 componentsMaxPower = counterService.getComponentsMaxPower();
                 noUidMask = counterService.getNoUidMask();
+                iterationInterval = counterService.getIterationInterval();
                 refreshView();
             } catch (RemoteException e) {
                 counterService = null;
@@ -306,6 +308,7 @@ public class PowerViewer extends Activity {
         private View chartView;
         private int componentId;
         private long lastTime;
+        private long lastRun;
         private boolean readHistory;
 
         public ValueCollector(XYSeries series, XYMultipleSeriesRenderer renderer,
@@ -314,21 +317,23 @@ public class PowerViewer extends Activity {
             this.renderer = renderer;
             this.chartView = chartView;
             this.componentId = componentId;
-            lastTime = SystemClock.elapsedRealtime();
+            lastTime = lastRun = SystemClock.elapsedRealtime();
             layout();
         }
 
         public void layout() {
-            int numVals = Integer.parseInt(prefs.getString("viewNumValues_s", "60"));
+            int numVals = numValues();
             values = new int[numVals];
 
+            // Labels are in seconds, there is one point per iteration
             renderer.clearXTextLabels();
             renderer.setXAxisMin(0);
             renderer.setXAxisMax(numVals - 1);
-            renderer.addXTextLabel(numVals - 1, "" + numVals);
+            renderer.addXTextLabel(numVals - 1, "" + numVals * iterationInterval / 1000);
             renderer.setXLabels(0);
             for (int j = 0; j < 10; j++) {
-                renderer.addXTextLabel(numVals * j / 10, "" + (1 + numVals * j / 10));
+                renderer.addXTextLabel(numVals * j / 10,
+                        "" + (1 + numVals * j / 10) * iterationInterval / 1000);
             }
 
             reset();
@@ -342,19 +347,27 @@ public class PowerViewer extends Activity {
             readHistory = true;
         }
 
+        /* The preference gives the width of the graph in seconds. */
+        private int numValues() {
+            int secs = Integer.parseInt(prefs.getString("viewNumValues_s", "60"));
+            return (int) Math.max(1, secs * 1000L / iterationInterval);
+        }
+
         public void run() {
-            int numVals = Integer.parseInt(prefs.getString("viewNumValues_s", "60"));
+            int numVals = numValues();
+            long curTime = SystemClock.elapsedRealtime();
+            /* Iterations written since the previous refresh. */
+            int steps = (int) ((curTime - lastRun) / iterationInterval);
             if (counterService != null) try {
-                if (readHistory) {
+                if (readHistory || values.length != numVals || steps >= numVals) {
                     values = counterService.getComponentHistory(numVals,
                             componentId, uid);
                     readHistory = false;
-                } else {
-                    for (int i = numVals - 1; i > 0; i--) {
-                        values[i] = values[i - 1];
-                    }
-                    values[0] = counterService.getComponentHistory(1, componentId,
-                            uid)[0];
+                } else if (steps > 0) {
+                    System.arraycopy(values, 0, values, steps, numVals - steps);
+                    int[] latest = counterService.getComponentHistory(steps,
+                            componentId, uid);
+                    System.arraycopy(latest, 0, values, 0, steps);
                 }
             } catch (RemoteException e) {
                 Log.w(TAG, "Failed to get data from service");
@@ -368,10 +381,10 @@ public class PowerViewer extends Activity {
                 series.add(i, values[i]);
             }
 
-            long curTime = SystemClock.elapsedRealtime();
-            long tryTime = lastTime + PowerEstimator.ITERATION_INTERVAL *
-                    Math.max(1, 1 + (curTime - lastTime) /
-                            PowerEstimator.ITERATION_INTERVAL);
+            lastRun += steps * iterationInterval;
+            long refresh = Math.max(iterationInterval, PowerEstimator.MIN_UI_REFRESH_INTERVAL);
+            long tryTime = lastTime + refresh *
+                    Math.max(1, 1 + (curTime - lastTime) / refresh);
             if (handler != null) {
                 handler.postDelayed(this, tryTime - curTime);
             }
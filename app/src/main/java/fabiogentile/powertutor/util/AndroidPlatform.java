@@ -0,0 +1,73 @@
+/*
+Copyright (C) 2011 The University of Michigan
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+Please send inquiries to powertutor@umich.edu
+*/
+
+
+package fabiogentile.powertutor.util;
+
+import android.os.Debug;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Binds the platform interfaces of the core classes to Android: the clock
+ * keeps counting in deep sleep, the logs go to logcat, the sampling threads
+ * get a nice value and their cpu time from Debug, and the system info is
+ * the one that knows about packages.
+ */
+public class AndroidPlatform {
+    private static boolean installed = false;
+
+    /* This class is not supposed to be instantiated.  Just use the static
+     * members.
+     */
+    private AndroidPlatform() {
+    }
+
+    public static synchronized void install() {
+        if (installed)
+            return;
+        installed = true;
+        Clock.setPlatform(new Clock() {
+            @Override
+            public long now() {
+                return SystemClock.elapsedRealtime();
+            }
+        });
+        Logger.setSink(new Logger.Sink() {
+            public void log(int level, String tag, String msg) {
+                Log.println(level, tag, msg);
+            }
+        }, Logger.DEBUG);
+        ThreadPriority.setPlatform(new ThreadPriority() {
+            @Override
+            public void raiseCurrent() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_MORE_FAVORABLE);
+            }
+        });
+        ThreadCpuClock.setPlatform(new ThreadCpuClock() {
+            @Override
+            public long now() {
+                return Debug.threadCpuTimeNanos();
+            }
+        });
+        /* Creating the instance installs it as the LinuxSystemInfo one. */
+        SystemInfo.getInstance();
+    }
+}
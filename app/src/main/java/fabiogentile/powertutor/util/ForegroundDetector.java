@@ -73,6 +73,14 @@ public class ForegroundDetector {
      * @return uid of the app in foreground
      */
     public int getForegroundUid() {
+        if (TraceEvents.isReplaying())
+            return (int) TraceEvents.takeValue(TraceEvents.FOREGROUND_UID, SystemInfo.AID_SYSTEM);
+        int uid = detectForegroundUid();
+        TraceEvents.recordValue(TraceEvents.FOREGROUND_UID, uid);
+        return uid;
+    }
+
+    private int detectForegroundUid() {
         int ret = SystemInfo.AID_SYSTEM;
         String appName = "SYSTEM";
 
@@ -0,0 +1,125 @@
+/*
+Copyright (C) 2011 The University of Michigan
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+Please send inquiries to powertutor@umich.edu
+*/
+
+
+package fabiogentile.powertutor.components;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import fabiogentile.powertutor.phone.CpuPowerModel;
+import fabiogentile.powertutor.phone.HammerheadConstants;
+import fabiogentile.powertutor.phone.PhoneConstants;
+import fabiogentile.powertutor.phone.PowerFunction;
+import fabiogentile.powertutor.phone.WifiPowerModel;
+import fabiogentile.powertutor.service.IterationData;
+import fabiogentile.powertutor.util.Clock;
+import fabiogentile.powertutor.util.LinuxSystemInfo;
+import fabiogentile.powertutor.util.PowerHistory;
+
+/**
+ * Cost of the profiler at each sampling interval.  One operation is one
+ * second of profiling: 1000 / interval iterations of the cpu and wifi
+ * components on the /proc of the machine running the benchmark, with the
+ * power models and the history, as the host profiler runs them.  The score
+ * is thus the time spent per second profiled, 10 ms being 1% of a core.
+ * The virtual clock moves by the interval at each iteration, so the rates
+ * and history buckets are those of the real rate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SamplingOverheadBenchmark {
+    @Param({"100", "250", "500", "1000"})
+    public long interval;
+
+    private Clock.Virtual clock;
+    private PowerComponent[] components;
+    private PowerFunction[] functions;
+    private PowerHistory history;
+    private long iteration;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        clock = new Clock.Virtual(0);
+        Clock.set(clock);
+        PhoneConstants constants = new HammerheadConstants(new double[0]);
+        components = new PowerComponent[]{
+                new CPU(constants),
+                new Wifi(constants, "lo", new Wifi.Link() {
+                    @Override
+                    public boolean isEnabled() {
+                        return true;
+                    }
+
+                    @Override
+                    public double getLinkSpeed() {
+                        return 72;
+                    }
+                })};
+        functions = new PowerFunction[]{
+                new CpuPowerModel(constants, true),
+                new WifiPowerModel(constants)};
+        history = new PowerHistory((int) (5 * 60 * 1000 / interval),
+                components.length, interval);
+        for (PowerComponent component : components)
+            component.init(clock.now(), interval);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (PowerComponent component : components)
+            component.exit();
+        Clock.set(null);
+    }
+
+    @Benchmark
+    public void profileOneSecond() {
+        for (long end = iteration + 1000 / interval; iteration < end; iteration++) {
+            clock.setTime(iteration * interval);
+            LinuxSystemInfo.get().updateInterfaceCounters(iteration).release();
+            for (int i = 0; i < components.length; i++) {
+                components[i].sample(iteration);
+                IterationData data = components[i].getData(iteration, clock.now());
+                if (data == null)
+                    continue;
+                functions[i].calculateAll(data, data.getPowers());
+                history.appendIteration(i, data.getUids(), data.getPowers(),
+                        data.getRowCount(), iteration, iteration);
+                data.recycle();
+            }
+        }
+    }
+}
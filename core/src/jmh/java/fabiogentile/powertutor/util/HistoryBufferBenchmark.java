@@ -0,0 +1,102 @@
+/*
+Copyright (C) 2011 The University of Michigan
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+Please send inquiries to powertutor@umich.edu
+*/
+
+
+package fabiogentile.powertutor.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HistoryBuffer with 500 uids, one in ten of them busy and the others
+ * mostly idle, filled with a whole window beforehand.  add stores one
+ * iteration of every uid, getLatest reads the last iteration of every uid
+ * as the uid list refresh does, getWindow reads the last 300 iterations of
+ * every uid as a chart does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class HistoryBufferBenchmark {
+    private static final int UIDS = 500;
+    private static final int PATTERN = 1024;
+
+    @Param({"300", "3600", "86400"})
+    public int capacity;
+
+    private HistoryBuffer buffer;
+    /* Power of each uid at iteration i, repeating every PATTERN iterations. */
+    private int[][] powers;
+    private long iteration;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(1);
+        powers = new int[PATTERN][UIDS];
+        for (int i = 0; i < PATTERN; i++) {
+            for (int u = 0; u < UIDS; u++) {
+                double busy = u % 10 == 0 ? 0.9 : 0.02;
+                powers[i][u] = random.nextDouble() < busy ? 1 + random.nextInt(500) : 0;
+            }
+        }
+        buffer = new HistoryBuffer(capacity, 1000);
+        for (iteration = 0; iteration < capacity; iteration++)
+            add();
+    }
+
+    @Benchmark
+    public void add() {
+        int[] p = powers[(int) (iteration % PATTERN)];
+        for (int u = 0; u < UIDS; u++)
+            buffer.add(10000 + u, iteration, p[u]);
+        iteration++;
+    }
+
+    @Benchmark
+    public int getLatest() {
+        int sum = 0;
+        for (int u = 0; u < UIDS; u++)
+            sum += buffer.get(10000 + u, -1, 1)[0];
+        return sum;
+    }
+
+    @Benchmark
+    public int getWindow() {
+        int sum = 0;
+        for (int u = 0; u < UIDS; u++)
+            sum += buffer.get(10000 + u, iteration - 1, 300)[299];
+        return sum;
+    }
+}
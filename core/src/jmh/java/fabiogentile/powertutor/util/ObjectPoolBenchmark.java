@@ -0,0 +1,106 @@
+/*
+Copyright (C) 2011 The University of Michigan
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+Please send inquiries to powertutor@umich.edu
+*/
+
+
+package fabiogentile.powertutor.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ObjectPool against the synchronized Recycler it replaced, with four
+ * threads each obtaining a batch of objects (one per uid of a sample) and
+ * recycling them, as the sampler threads do.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@Threads(4)
+public class ObjectPoolBenchmark {
+    @Param({"1", "8", "64"})
+    public int batch;
+
+    private final ObjectPool<long[]> pool = new ObjectPool<long[]>("benchmark");
+    private final Recycler<long[]> recycler = new Recycler<long[]>();
+
+    @State(Scope.Thread)
+    public static class Batch {
+        long[][] items = new long[64][];
+    }
+
+    @Benchmark
+    public Object objectPool(Batch b) {
+        for (int i = 0; i < batch; i++) {
+            long[] obj = pool.obtain();
+            if (obj == null)
+                obj = new long[4];
+            b.items[i] = obj;
+        }
+        for (int i = 0; i < batch; i++)
+            pool.recycle(b.items[i]);
+        return b.items[0];
+    }
+
+    @Benchmark
+    public Object recycler(Batch b) {
+        for (int i = 0; i < batch; i++) {
+            long[] obj = recycler.obtain();
+            if (obj == null)
+                obj = new long[4];
+            b.items[i] = obj;
+        }
+        for (int i = 0; i < batch; i++)
+            recycler.recycle(b.items[i]);
+        return b.items[0];
+    }
+
+    /* The pool ObjectPool replaced: a synchronized Vector without bound. */
+    static class Recycler<T> {
+        private Vector<T> list = new Vector<T>();
+        private int avail;
+
+        public synchronized T obtain() {
+            if (avail == 0)
+                return null;
+            return list.get(--avail);
+        }
+
+        public synchronized void recycle(T a) {
+            if (avail < list.size())
+                list.set(avail++, a);
+            else
+                list.add(a);
+        }
+    }
+}
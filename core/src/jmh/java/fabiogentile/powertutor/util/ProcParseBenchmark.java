@@ -0,0 +1,254 @@
+/*
+Copyright (C) 2011 The University of Michigan
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+Please send inquiries to powertutor@umich.edu
+*/
+
+
+package fabiogentile.powertutor.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads of the proc fixtures under src/test/resources through
+ * ProcFileParser, through the reflective readProcFile call SystemInfo used
+ * and through the readLine and String.split fallback.  The hidden
+ * android.os.Process.readProcFile only exists on a device, ReflectiveProc
+ * stands in for it with the same signature and format flags, and is called
+ * through Method.invoke the same way.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ProcParseBenchmark {
+    private static final int PROC_SPACE_TERM = LinuxSystemInfo.PROC_SPACE_TERM;
+    private static final int PROC_LINE_TERM = LinuxSystemInfo.PROC_LINE_TERM;
+    private static final int PROC_OUT_LONG = LinuxSystemInfo.PROC_OUT_LONG;
+    private static final int PROC_COMBINE = LinuxSystemInfo.PROC_COMBINE;
+    private static final int PROC_PARENS = 0x200;
+
+    /* Formats as passed to readProcFile by the old SystemInfo. */
+    private static final int[] CPU_FORMAT = {
+            PROC_SPACE_TERM | PROC_COMBINE,
+            PROC_SPACE_TERM | PROC_OUT_LONG, // user
+            PROC_SPACE_TERM | PROC_OUT_LONG, // nice
+            PROC_SPACE_TERM | PROC_OUT_LONG, // system
+            PROC_SPACE_TERM | PROC_OUT_LONG, // idle
+            PROC_SPACE_TERM | PROC_OUT_LONG, // iowait
+            PROC_SPACE_TERM | PROC_OUT_LONG, // irq
+            PROC_SPACE_TERM | PROC_OUT_LONG  // softirq
+    };
+    private static final int[] PID_FORMAT = new int[15];
+    private static final int[] LONG_FORMAT = {PROC_OUT_LONG};
+
+    static {
+        for (int i = 0; i < PID_FORMAT.length; i++)
+            PID_FORMAT[i] = PROC_SPACE_TERM;
+        PID_FORMAT[1] |= PROC_PARENS;
+        PID_FORMAT[13] |= PROC_OUT_LONG; // utime
+        PID_FORMAT[14] |= PROC_OUT_LONG; // stime
+    }
+
+    private static final int[] PID_FIELDS = {14, 15};
+
+    private File dir;
+    private String statPath;
+    private String pidStatPath;
+    private String freqPath;
+    private ProcFileParser parser;
+    private long[] out;
+    private Method readProcFile;
+
+    @Setup
+    public void setUp() throws Exception {
+        dir = File.createTempFile("fixtures", "");
+        dir.delete();
+        dir.mkdir();
+        statPath = copyFixture("stat");
+        pidStatPath = copyFixture("pid_stat");
+        freqPath = copyFixture("scaling_cur_freq");
+        parser = new ProcFileParser();
+        out = new long[8];
+        readProcFile = ReflectiveProc.class.getMethod("readProcFile", String.class,
+                int[].class, String[].class, long[].class, float[].class);
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (File f : dir.listFiles())
+            f.delete();
+        dir.delete();
+    }
+
+    private String copyFixture(String name) throws IOException {
+        InputStream in = ProcParseBenchmark.class.getResourceAsStream("proc/" + name);
+        File f = new File(dir, name);
+        FileOutputStream fout = new FileOutputStream(f);
+        byte[] buf = new byte[4096];
+        int r;
+        while ((r = in.read(buf)) > 0)
+            fout.write(buf, 0, r);
+        fout.close();
+        in.close();
+        return f.getPath();
+    }
+
+    @Benchmark
+    public long cpuParser() {
+        parser.readFile(statPath);
+        ProcFileParser.parseLineFields(parser.getBuffer(), 1, out, 0, 7);
+        return out[0] + out[2];
+    }
+
+    @Benchmark
+    public long cpuReflective() throws Exception {
+        readProcFile.invoke(null, statPath, CPU_FORMAT, null, out, null);
+        return out[0] + out[2];
+    }
+
+    @Benchmark
+    public long cpuSplit() throws IOException {
+        BufferedReader reader = new BufferedReader(new FileReader(statPath));
+        String[] token = reader.readLine().trim().split("\\s+");
+        reader.close();
+        return Long.parseLong(token[1]) + Long.parseLong(token[3]);
+    }
+
+    @Benchmark
+    public long pidStatParser() {
+        parser.readFile(pidStatPath);
+        ProcFileParser.parsePidStat(parser.getBuffer(), PID_FIELDS, out);
+        return out[0] + out[1];
+    }
+
+    @Benchmark
+    public long pidStatReflective() throws Exception {
+        readProcFile.invoke(null, pidStatPath, PID_FORMAT, null, out, null);
+        return out[0] + out[1];
+    }
+
+    @Benchmark
+    public long pidStatSplit() throws IOException {
+        BufferedReader reader = new BufferedReader(new FileReader(pidStatPath));
+        String line = reader.readLine();
+        reader.close();
+        String[] token = line.substring(line.lastIndexOf(')') + 2).split(" ");
+        return Long.parseLong(token[11]) + Long.parseLong(token[12]);
+    }
+
+    @Benchmark
+    public long sysfsParser() {
+        parser.readFile(freqPath);
+        return ProcFileParser.parseLong(parser.getBuffer());
+    }
+
+    @Benchmark
+    public long sysfsReflective() throws Exception {
+        readProcFile.invoke(null, freqPath, LONG_FORMAT, null, out, null);
+        return out[0];
+    }
+
+    @Benchmark
+    public long sysfsSplit() throws IOException {
+        BufferedReader reader = new BufferedReader(new FileReader(freqPath));
+        String line = reader.readLine();
+        reader.close();
+        return Long.parseLong(line.trim());
+    }
+
+    /**
+     * Java rendition of android.os.Process.readProcFile: the file is read
+     * into a fresh 256 byte buffer and the fields are cut following the
+     * format, each one ending at its terminator character.
+     */
+    public static class ReflectiveProc {
+        public static boolean readProcFile(String file, int[] format, String[] outStrings,
+                                           long[] outLongs, float[] outFloats) {
+            byte[] buf = new byte[256];
+            int len;
+            try {
+                InputStream in = new FileInputStream(file);
+                len = in.read(buf, 0, buf.length - 1);
+                in.close();
+            } catch (IOException e) {
+                return false;
+            }
+            if (len <= 0)
+                return false;
+
+            int i = 0;
+            int di = 0;
+            for (int fi = 0; fi < format.length; fi++) {
+                int mode = format[fi];
+                if ((mode & PROC_PARENS) != 0)
+                    i++;
+                char term = (char) (mode & 0xff);
+                int start = i;
+                if (i >= len)
+                    return false;
+                int end;
+                if ((mode & PROC_PARENS) != 0) {
+                    while (i < len && buf[i] != ')')
+                        i++;
+                    end = i;
+                    i++;
+                } else if (term != 0) {
+                    while (i < len && buf[i] != term)
+                        i++;
+                    end = i;
+                } else {
+                    end = len;
+                }
+                if (i < len)
+                    i++;
+                if ((mode & PROC_COMBINE) != 0) {
+                    while (i < len && buf[i] == term)
+                        i++;
+                }
+                if ((mode & PROC_OUT_LONG) != 0 && di < outLongs.length) {
+                    long v = 0;
+                    for (int k = start; k < end && buf[k] >= '0' && buf[k] <= '9'; k++)
+                        v = v * 10 + buf[k] - '0';
+                    outLongs[di++] = v;
+                }
+            }
+            return true;
+        }
+    }
+}
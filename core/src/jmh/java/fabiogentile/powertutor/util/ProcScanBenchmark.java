@@ -0,0 +1,164 @@
+/*
+Copyright (C) 2011 The University of Michigan
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+Please send inquiries to powertutor@umich.edu
+*/
+
+
+package fabiogentile.powertutor.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scan of the utime and stime of every pid: ProcScanner against the shell
+ * pipeline it replaced, a long-lived shell running a cat loop over
+ * /proc/[pid]/stat whose lines are split and boxed into a map.  Both read the
+ * same fake /proc tree of the given number of pids, sh stands in for su.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ProcScanBenchmark {
+    private static final String COMMAND_TERMINATOR = "--TERM--";
+
+    @Param({"200", "500", "2000"})
+    public int pidCount;
+
+    private File root;
+    private int[] pids;
+    private ProcScanner scanner;
+
+    private Process shell;
+    private DataOutputStream shellInput;
+    private BufferedReader shellOutput;
+    private ConcurrentHashMap<Integer, long[]> mapPidUsrSysTime;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        root = File.createTempFile("proc", "");
+        root.delete();
+        root.mkdir();
+        pids = new int[pidCount];
+        for (int i = 0; i < pidCount; i++) {
+            pids[i] = 100 + i;
+            File dir = new File(root, String.valueOf(pids[i]));
+            dir.mkdir();
+            FileOutputStream out = new FileOutputStream(new File(dir, "stat"));
+            out.write(statLine(pids[i]).getBytes());
+            out.close();
+        }
+
+        final String prefix = root.getPath() + "/";
+        ProcSource.set(new ProcSource() {
+            @Override
+            public int read(String path, ByteBuffer dst, long position) {
+                return DIRECT.read(map(path), dst, position);
+            }
+
+            @Override
+            public String[] list(String dir) {
+                return DIRECT.list(map(dir));
+            }
+
+            @Override
+            public boolean exists(String path) {
+                return DIRECT.exists(map(path));
+            }
+
+            private String map(String path) {
+                return path.startsWith("/proc/") ? prefix + path.substring(6) : path;
+            }
+        });
+        scanner = new ProcScanner(null);
+
+        shell = Runtime.getRuntime().exec("sh");
+        shellInput = new DataOutputStream(shell.getOutputStream());
+        shellOutput = new BufferedReader(new InputStreamReader(shell.getInputStream()));
+        mapPidUsrSysTime = new ConcurrentHashMap<Integer, long[]>();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        ProcSource.set(null);
+        shellInput.writeBytes("exit\n");
+        shellInput.flush();
+        shell.waitFor();
+        for (File dir : root.listFiles()) {
+            new File(dir, "stat").delete();
+            dir.delete();
+        }
+        root.delete();
+    }
+
+    private static String statLine(int pid) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(pid).append(" (app ").append(pid).append(") S 1");
+        for (int field = 5; field <= 52; field++)
+            sb.append(' ').append(field == 14 || field == 15 ? pid * 7 % 1000 : field);
+        return sb.append('\n').toString();
+    }
+
+    @Benchmark
+    public int scanner() {
+        return scanner.scan(pids, ProcScanner.SCAN_TIMES);
+    }
+
+    @Benchmark
+    public int shellPipeline() throws IOException {
+        mapPidUsrSysTime.clear();
+        shellInput.writeBytes("for i in `ls " + root.getPath() + " | grep -E \"^[0-9]+\"`; " +
+                "do cat \"" + root.getPath() + "/${i}/stat\" 2>/dev/null; " +
+                "done; echo " + COMMAND_TERMINATOR + "\n");
+        shellInput.flush();
+
+        String line;
+        while ((line = shellOutput.readLine()) != null &&
+                !line.equals(COMMAND_TERMINATOR)) {
+            String[] token = line.split(" ");
+            int pid = Integer.parseInt(token[0]);
+            /* comm holds one space here, fields 14 and 15 are shifted by one. */
+            long usr = Long.parseLong(token[14]);
+            long sys = Long.parseLong(token[15]);
+            mapPidUsrSysTime.put(pid, new long[]{usr, sys});
+        }
+        return mapPidUsrSysTime.size();
+    }
+}
@@ -0,0 +1,398 @@
+/*
+Copyright (C) 2011 The University of Michigan
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+Please send inquiries to powertutor@umich.edu
+*/
+
+package fabiogentile.powertutor.components;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+
+import fabiogentile.powertutor.phone.PhoneConstants;
+import fabiogentile.powertutor.service.IterationData;
+import fabiogentile.powertutor.util.CpuFreqResidency;
+import fabiogentile.powertutor.util.LinuxSystemInfo;
+import fabiogentile.powertutor.util.Logger;
+import fabiogentile.powertutor.util.ObjectPool;
+import fabiogentile.powertutor.util.ProcFileParser;
+import fabiogentile.powertutor.util.SysfsCounter;
+import fabiogentile.powertutor.util.UidCpuSource;
+
+public class CPU extends PowerComponent {
+    private static final String TAG = "CPU";
+    private static final String CPU_FREQ_FILE_BACK = "/proc/cpuinfo";
+    private static final String STAT_FILE = "/proc/stat";
+    private static final String CPU_FREQ_DIR = "/sys/devices/system/cpu/cpu";
+    private static final String CPU_FREQ_FILE = "/cpufreq/scaling_cur_freq";
+    private static final byte[] CPU_MHZ_KEY = "cpu MHz".getBytes();
+    private CpuStateKeeper cpuStateAll;
+    private UidCpuSource uidCpuSource;
+    private long[] statsBuf;
+    private SysfsCounter[] cpuFreqFiles;
+    private double[] cpuFreqs;
+    private ProcFileParser cpuInfoParser;
+    private CpuFreqResidency freqResidency;
+    private double[] residencyShare;
+    /* Set while the per-uid scan is suspended, the per-uid totals are stale. */
+    private boolean uidsStale;
+    private PhoneConstants constants;
+
+    public CPU(PhoneConstants constants) {
+        this.constants = constants;
+        cpuStateAll = new CpuStateKeeper(LinuxSystemInfo.AID_ALL);
+        uidCpuSource = UidCpuSource.create();
+        statsBuf = new long[8];
+
+        int cores = constants.cpuCoreNumber();
+        cpuFreqFiles = new SysfsCounter[cores];
+        for (int i = 0; i < cores; i++)
+            cpuFreqFiles[i] = new SysfsCounter(CPU_FREQ_DIR + i + CPU_FREQ_FILE);
+        cpuFreqs = new double[cores];
+
+        freqResidency = CpuFreqResidency.create(cores);
+        if (freqResidency != null)
+            residencyShare = new double[freqResidency.getFreqs().length];
+    }
+
+    @Override
+    public IterationData calculateIteration(long iteration){
+
+        CpuData result = CpuData.obtain();
+        LinuxSystemInfo sysInfo = LinuxSystemInfo.get();
+
+        // Get current cpu freq
+        double[] freqs = readCpuFreq();
+        if (freqs[0] < 0) {
+            Logger.w(TAG, "Failed to read cpu frequency");
+            return result;
+        }
+        result.setFreqs(freqs);
+
+        if (!sysInfo.getUsrSysTotalTime(statsBuf)) {
+            Logger.w(TAG, "Failed to read cpu times");
+            return result;
+        }
+
+        long usrTime = statsBuf[LinuxSystemInfo.INDEX_USER_TIME];
+        long sysTime = statsBuf[LinuxSystemInfo.INDEX_SYS_TIME];
+        long totalTime = statsBuf[LinuxSystemInfo.INDEX_TOTAL_TIME];
+
+        boolean init = cpuStateAll.isInitialized();
+        cpuStateAll.updateState(usrTime, sysTime, totalTime, iteration);
+        boolean uids = !isUidScanSuspended();
+        int quality = getQuality();
+        uidCpuSource.setReduced(quality >= QUALITY_SKIP_STALE, quality >= QUALITY_SAMPLE_UIDS);
+        boolean residency = freqResidency != null && freqResidency.update(uids);
+
+        double userPercAll = 0.0;
+        double sysPercAll = 0.0;
+
+        if (init) {
+            userPercAll = cpuStateAll.getUsrPerc() / 100.0;
+            sysPercAll = cpuStateAll.getSysPerc() / 100.0;
+            int row = result.add(LinuxSystemInfo.AID_ALL, sysPercAll, userPercAll);
+            if (residency && freqResidency.hasAllResidency() &&
+                    computeAllShare(userPercAll + sysPercAll))
+                result.setResidency(row, freqResidency.getFreqs(), residencyShare);
+        } else {
+            Logger.e(TAG, "calculateIteration: ???");
+        }
+
+        if (!uids) {
+            uidsStale = true;
+            return result;
+        }
+        if (uidsStale) {
+            uidCpuSource.rebase();
+            uidsStale = false;
+        }
+
+        /* Per-uid times come straight from the kernel accounting when it is
+         * available, that is a single read instead of one per process.
+         */
+        if (!uidCpuSource.update(iteration)) {
+            Logger.w(TAG, "Failed to read per-uid cpu times from " + uidCpuSource.getName());
+            return result;
+        }
+
+        long deltaTotal = cpuStateAll.deltaTotal;
+        for (int i = 0; i < uidCpuSource.size(); i++) {
+            int uid = uidCpuSource.getUid(i);
+            long deltaUsr = uidCpuSource.getDeltaUsr(i);
+            long deltaSys = uidCpuSource.getDeltaSys(i);
+
+            /* Il valore che ricavo dal file /proc/[pid]/stat(14,15) è espresso in JIFFIES
+             * Per ottenere un valore in secondi bisogna dividere la somma dei due valori per la costante
+             * USER_HZ (oppure HZ oppure CLOCK_PER_SEC) che corrisponde alla frequenza del kernel
+             * Il valore di default è 100, ma può succede che sia diverso in kernel custom
+             *
+             * ATTENZIONE!!! Nel caso che il consumo dipenda dalla percentuale di carico
+             * piuttosto che dal tempo di utilizzo bisogna modificare la riga sotto
+             * andando a riempire con i valori in percentuale
+             * TODO serve davvero convertire da jiffies a ms? se tutti i valori di timing sono in
+             * jffies credo di no
+             */
+            long den = Math.max(deltaUsr + deltaSys, deltaTotal);
+            double userPerc = (double) deltaUsr / den;
+            double sysPerc = (double) deltaSys / den;
+
+            int row = result.add(uid, sysPerc, userPerc);
+            if (residency && computeUidShare(uid, den))
+                result.setResidency(row, freqResidency.getFreqs(), residencyShare);
+        }
+
+        // compTime / #activeCores = CPU%
+
+        //String allTime = String.format(Locale.getDefault(), "%1$.2f", userPercAll + sysPercAll);
+        //Logger.i(TAG, "calculateIteration: computation time: " + (float) (compTime / 100.0) + " (" + allTime + ")");
+
+
+        return result;
+    }
+
+
+    /* The cpufreq stats count idle time too, so the system wide residency only
+     * tells how the busy time is split across the frequencies.
+     */
+    private boolean computeAllShare(double busy) {
+        long sum = 0;
+        for (int i = 0; i < residencyShare.length; i++)
+            sum += freqResidency.getAllTime(i);
+        if (sum == 0)
+            return false;
+        for (int i = 0; i < residencyShare.length; i++)
+            residencyShare[i] = busy * freqResidency.getAllTime(i) / sum;
+        return true;
+    }
+
+    /* Per-uid residency is cpu time, in the same ticks as /proc/stat. */
+    private boolean computeUidShare(int uid, long den) {
+        int index = freqResidency.indexOfUid(uid);
+        if (index < 0)
+            return false;
+        for (int i = 0; i < residencyShare.length; i++)
+            residencyShare[i] = (double) freqResidency.getUidTime(index, i) / den;
+        return true;
+    }
+
+    @Override
+    public boolean hasUidInformation() {
+        return true;
+    }
+
+    @Override
+    public int getSkippedPolls() {
+        return uidCpuSource.getSkippedPolls();
+    }
+
+    @Override
+    public String getComponentName() {
+        return "CPU";
+    }
+
+    /**
+     * Returns the frequency of the processor in Mhz.  If the frequency cannot
+     * be determined returns a negative value instead.  The returned array is
+     * reused by the next call.
+     * @return array of frequency of all the cores
+     */
+    private double[] readCpuFreq() {
+        double[] ret = cpuFreqs;
+
+        double cpuFreqKhz = 0;
+        for (int i = 0; i < cpuFreqFiles.length; i++) {
+            cpuFreqKhz = cpuFreqFiles[i].readLong();
+            if(cpuFreqKhz != -1)
+                cpuFreqKhz /= 1000.0;
+
+            ret[i] = cpuFreqKhz;
+        }
+
+        if (ret[0] < 0)
+            readCpuInfoFreq(ret);
+        return ret;
+    }
+
+    /* Machines without cpufreq, virtual machines mostly, still give the
+     * frequency of each processor in the "cpu MHz" lines of /proc/cpuinfo.
+     * Only the integer part is kept.
+     */
+    private void readCpuInfoFreq(double[] freqs) {
+        if (cpuInfoParser == null)
+            cpuInfoParser = new ProcFileParser(16 * ProcFileParser.DEFAULT_CAPACITY);
+        if (cpuInfoParser.readFile(CPU_FREQ_FILE_BACK) <= 0)
+            return;
+        ByteBuffer b = cpuInfoParser.getBuffer();
+        int lim = b.limit();
+        int core = 0;
+        for (int pos = 0; pos < lim && core < freqs.length; pos = ProcFileParser.nextLine(b, pos)) {
+            boolean match = pos + CPU_MHZ_KEY.length <= lim;
+            for (int i = 0; match && i < CPU_MHZ_KEY.length; i++)
+                match = b.get(pos + i) == CPU_MHZ_KEY[i];
+            if (!match)
+                continue;
+            int colon = pos;
+            while (colon < lim && b.get(colon) != ':' && b.get(colon) != '\n')
+                colon++;
+            if (colon == lim || b.get(colon) != ':')
+                continue;
+            b.position(colon + 1);
+            long mhz = ProcFileParser.parseLong(b);
+            if (mhz > 0)
+                freqs[core++] = mhz;
+        }
+        b.position(0);
+    }
+
+    public static class CpuData extends IterationData {
+        private static ObjectPool<CpuData> recycler = new ObjectPool<CpuData>("CpuData");
+        public double[] sysPerc = new double[INITIAL_ROWS];
+        public double[] usrPerc = new double[INITIAL_ROWS];
+        /* Frequency of each core in MHz, shared by every row. */
+        public double[] freq = new double[0];
+        /* Share of the iteration spent running at each frequency of
+         * residencyFreqs, row r starts at r * residencyFreqs.length.  Only
+         * meaningful for the rows where hasResidency is set. */
+        public boolean[] hasResidency = new boolean[INITIAL_ROWS];
+        public double[] residencyFreqs;
+        public double[] residencyShare = new double[0];
+
+        private CpuData() {
+        }
+
+        public static CpuData obtain() {
+            CpuData result = recycler.obtain();
+            if (result == null) result = new CpuData();
+            result.init();
+            return result;
+        }
+
+        @Override
+        public void recycle() {
+            recycler.recycle(this);
+        }
+
+        @Override
+        protected void growColumns(int capacity) {
+            sysPerc = grow(sysPerc, capacity);
+            usrPerc = grow(usrPerc, capacity);
+            hasResidency = grow(hasResidency, capacity);
+        }
+
+        public void setFreqs(double[] pFreq) {
+            if (freq.length != pFreq.length)
+                freq = new double[pFreq.length];
+            System.arraycopy(pFreq, 0, freq, 0, pFreq.length);
+        }
+
+        public int add(int uid, double sysPerc, double usrPerc) {
+            int row = addRow(uid);
+            this.sysPerc[row] = sysPerc;
+            this.usrPerc[row] = usrPerc;
+            hasResidency[row] = false;
+            return row;
+        }
+
+        /**
+         * The base power of the cpu is only charged to the global row.
+         */
+        public boolean isUidAll(int row) {
+            return getUid(row) == LinuxSystemInfo.AID_ALL;
+        }
+
+        /**
+         * @param freqs frequencies in MHz, not copied
+         * @param share fraction of the iteration spent at each frequency
+         */
+        public void setResidency(int row, double[] freqs, double[] share) {
+            residencyFreqs = freqs;
+            int n = share.length;
+            int end = (row + 1) * n;
+            if (residencyShare.length < end)
+                residencyShare = grow(residencyShare, Math.max(end, 2 * residencyShare.length));
+            System.arraycopy(share, 0, residencyShare, row * n, n);
+            hasResidency[row] = true;
+        }
+
+        public void writeLogDataInfo(int row, OutputStreamWriter out) throws IOException {
+
+            StringBuilder freqString = new StringBuilder();
+            for (double f : freq) {
+                freqString.append(f).append("+");
+            }
+
+            StringBuilder res = new StringBuilder();
+            res.append("CPU+sys+").append(Math.round(sysPerc[row] * 100))
+                    .append("\nCPU+usr+").append(Math.round(usrPerc[row] * 100))
+                    .append("\nCPU+freq+").append(freqString)
+                    .append("\n");
+            out.write(res.toString());
+        }
+    }
+
+    private static class CpuStateKeeper {
+        /**
+         * Delta value in SYS_TICK (usually 100Hz) from last iteration
+         */
+        public long deltaUsr;
+        /**
+         * Delta value in SYS_TICK (usually 100Hz) from last iteration
+         */
+        public long deltaSys;
+        /**
+         * Delta value in SYS_TICK (usually 100Hz) from last iteration
+         */
+        public long deltaTotal;
+        private int uid;
+        private long lastUsr;
+        private long lastSys;
+        private long lastTotal;
+
+        private CpuStateKeeper(int uid) {
+            this.uid = uid;
+            lastUsr = lastSys = 0;
+        }
+
+        public boolean isInitialized() {
+            return lastUsr != -1;
+        }
+
+        public void updateState(long usrTime, long sysTime, long totalTime,
+                                long iteration) {
+            deltaUsr = usrTime - lastUsr;
+            deltaSys = sysTime - lastSys;
+            deltaTotal = totalTime - lastTotal;
+            if (deltaTotal < 1) deltaTotal = 1;
+            lastUsr = usrTime;
+            lastSys = sysTime;
+            lastTotal = totalTime;
+        }
+
+        public int getUid() {
+            return uid;
+        }
+
+        public double getUsrPerc() {
+            return 100.0 * deltaUsr / Math.max(deltaUsr + deltaSys, deltaTotal);
+        }
+
+        public double getSysPerc() {
+            return 100.0 * deltaSys / Math.max(deltaUsr + deltaSys, deltaTotal);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+Copyright (C) 2011 The University of Michigan
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+Please send inquiries to powertutor@umich.edu
+*/
+
+package fabiogentile.powertutor.components;
+
+import fabiogentile.powertutor.service.IterationData;
+import fabiogentile.powertutor.service.IterationRing;
+import fabiogentile.powertutor.util.Logger;
+
+public abstract class PowerComponent implements Sampler {
+    private final String TAG = "PowerComponent";
+    protected long beginTime;
+    protected long iterationInterval;
+    /* Number of iterations a component can lag behind the estimator without
+     * its data being lost.
+     */
+    public static final int DEFAULT_HANDOFF_DEPTH = 4;
+    private int handoffDepth = DEFAULT_HANDOFF_DEPTH;
+    private IterationRing handoff;
+    private volatile int quality = QUALITY_FULL;
+
+    /* Extending classes need to override the calculateIteration function.  It
+     * should calculate the data point for the given component in a timely
+     * manner (under 1 second, longer times will cause data to be missed).
+     * The iteration parameter can be ignored in most cases.
+     */
+    protected abstract IterationData calculateIteration(long iteration);
+
+    /* Extending classes should provide a recognizable name for this component
+     * to be used when writing to logs.
+     */
+    public abstract String getComponentName();
+
+    /* Returns true if this component collects usage information per uid.
+     */
+    public boolean hasUidInformation() {
+        return false;
+    }
+
+    /* Returns how many per-uid or per-pid polls the component skipped during
+     * its last iteration to stay within its read budget.
+     */
+    public int getSkippedPolls() {
+        return 0;
+    }
+
+    /**
+     * Called when sampling stops.
+     */
+    protected void onExit() {
+    }
+
+    /**
+     * This is called once before the first iteration.
+     * @param beginTime timestamp of initialization
+     * @param iterationInterval ms between iteration
+     */
+    public void init(long beginTime, long iterationInterval) {
+        this.beginTime = beginTime;
+        this.iterationInterval = iterationInterval;
+        handoff = new IterationRing(handoffDepth);
+    }
+
+    /**
+     * Collects the data of this component for one iteration.  Called by the
+     * SamplingEngine from one of its pool threads.
+     */
+    public final void sample(long iteration) {
+        /* Hand off to the client class to actually calculate the information
+         * we want for this component.
+         */
+        IterationData data = calculateIteration(iteration);
+
+        if (data != null) {
+            data.setQuality(quality);
+            handoff.put(iteration, data);
+        }
+    }
+
+    public void setQuality(int quality) {
+        this.quality = quality;
+    }
+
+    /* Quality level the current sample has to be taken with, components with
+     * expensive per-uid reads reduce them accordingly.
+     */
+    protected int getQuality() {
+        return quality;
+    }
+
+    /* Components with expensive per-uid reads skip them while this is true.
+     * When they resume, their first per-uid deltas cover the whole suspension
+     * and have to be discarded.
+     */
+    protected boolean isUidScanSuspended() {
+        return quality >= QUALITY_ALL_ONLY;
+    }
+
+    public final void exit() {
+        onExit();
+        handoff.clear();
+    }
+
+    /**
+     * Set how many iterations of data can wait for the estimator, takes effect
+     * at the next init().
+     */
+    public void setHandoffDepth(int depth) {
+        handoffDepth = depth;
+    }
+
+    /**
+     * @return the handoff ring, for its late/reused/dropped/missed counters
+     */
+    public IterationRing getHandoff() {
+        return handoff;
+    }
+
+    /**
+     * Returns the data point for the given iteration, waiting for it until the
+     * deadline.  This method will be called with a strictly increasing
+     * iteration parameter.
+     *
+     * @param deadline elapsedRealtime() based
+     */
+    public IterationData getData(long iteration, long deadline) {
+        IterationData ret = handoff.take(iteration, deadline);
+        if (ret == null) {
+            Logger.w(TAG, "[" + getComponentName() + "] Could not find data for " +
+                    "requested iteration. Computation too slow?");
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,70 @@
+/*
+Copyright (C) 2011 The University of Michigan
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+Please send inquiries to powertutor@umich.edu
+*/
+
+package fabiogentile.powertutor.components;
+
+/**
+ * Something the SamplingEngine samples once per iteration.  Samplers own no
+ * thread: the engine calls sample() from its worker pool at the iteration
+ * boundary and never runs two calls of the same sampler concurrently.
+ */
+public interface Sampler {
+    /* Quality levels, from the most complete to the cheapest.  A sampler
+     * going over its time budget is stepped down one level at a time. */
+    /** Every uid is read. */
+    int QUALITY_FULL = 0;
+    /** Uids seen idle are only read again when they are overdue. */
+    int QUALITY_SKIP_STALE = 1;
+    /** Only a sample of the uids is read at each iteration. */
+    int QUALITY_SAMPLE_UIDS = 2;
+    /** No per-uid information, only the global row. */
+    int QUALITY_ALL_ONLY = 3;
+    String[] QUALITY_NAMES = {"full", "skip-stale", "sample-uids", "all-only"};
+
+    /**
+     * @return a recognizable name, used in logs
+     */
+    String getComponentName();
+
+    /**
+     * Called once before the first iteration.
+     *
+     * @param beginTime         timestamp of iteration 0, elapsedRealtime() based
+     * @param iterationInterval ms between iterations
+     */
+    void init(long beginTime, long iterationInterval);
+
+    /**
+     * Compute the data point of an iteration.  Iterations are strictly
+     * increasing but some can be skipped if the previous call was too slow.
+     */
+    void sample(long iteration);
+
+    /**
+     * Set the quality level of the next samples, one of the QUALITY_
+     * constants.  Samplers without per-uid reads can ignore it.  Only called
+     * between two calls of sample().
+     */
+    void setQuality(int quality);
+
+    /**
+     * Called once when sampling stops, after the last sample() returned.
+     */
+    void exit();
+}
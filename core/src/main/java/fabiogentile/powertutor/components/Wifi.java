@@ -0,0 +1,539 @@
+/*
+Copyright (C) 2011 The University of Michigan
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+Please send inquiries to powertutor@umich.edu
+*/
+
+package fabiogentile.powertutor.components;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+
+import fabiogentile.powertutor.phone.PhoneConstants;
+import fabiogentile.powertutor.service.IterationData;
+import fabiogentile.powertutor.util.Clock;
+import fabiogentile.powertutor.util.IntMap;
+import fabiogentile.powertutor.util.InterfaceCounters;
+import fabiogentile.powertutor.util.LinuxSystemInfo;
+import fabiogentile.powertutor.util.Logger;
+import fabiogentile.powertutor.util.NetworkSnapshot;
+import fabiogentile.powertutor.util.ObjectPool;
+
+public class Wifi extends PowerComponent {
+    public static final int POWER_STATE_LOW = 0;
+    public static final int POWER_STATE_HIGH = 1;
+    public static final int BYTE_PER_PACKET_OVERHEAD = 52;
+    public static final String[] POWER_STATE_NAMES = {"LOW", "HIGH"};
+    private static final String TAG = "Wifi";
+    private static final boolean DEBUG = false;
+    private final String DEFUAULT_INTERFACE_NAME = "wlan0";
+    private PhoneConstants phoneConstants;
+    private Link link;
+    private LinuxSystemInfo sysInfo;
+    private long lastLinkSpeed;
+    private WifiStateKeeper wifiStateAll;
+    private IntMap<WifiStateKeeper> uidStates;
+    /* Set while the per-uid scan is suspended, the uid states are stale. */
+    private boolean uidsStale;
+    private String interfaceName;
+    private long prevTxBytes = 0;
+    private long prevRxBytes = 0;
+    private long prevTxPkt = 0;
+    private long prevRxPkt = 0;
+
+
+    /**
+     * Where the state of the wireless link comes from, the WifiManager on
+     * Android and sysfs elsewhere.
+     */
+    public interface Link {
+        /**
+         * @return true if the interface is up or going down
+         */
+        boolean isEnabled();
+
+        /**
+         * @return link speed in Mbps, negative if unknown
+         */
+        double getLinkSpeed();
+    }
+
+    /**
+     * @param interfaceName network interface of the wifi, null if it is not
+     *                      known
+     */
+    public Wifi(PhoneConstants phoneConstants, String interfaceName, Link link) {
+        this.phoneConstants = phoneConstants;
+        this.link = link;
+        sysInfo = LinuxSystemInfo.get();
+
+        /* If we can't find the interface name we will take a wild stab in the
+         * dark.
+         */
+        this.interfaceName = interfaceName;
+        if (interfaceName == null)
+            this.interfaceName = DEFUAULT_INTERFACE_NAME;
+
+        lastLinkSpeed = -1;
+        wifiStateAll = new WifiStateKeeper(phoneConstants.wifiHighLowTransition(),
+                phoneConstants.wifiLowHighTransition());
+        uidStates = new IntMap<WifiStateKeeper>();
+    }
+
+    @Override
+    public IterationData calculateIteration(long iteration) {
+        WifiData result = WifiData.obtain();
+
+
+        //Manage Wifi OFF
+        if (!link.isEnabled()) {
+
+            /* We need to allow the real iterface state keeper to reset it's state
+             * so that the next update it knows it's coming back from an off state.
+             * We also need to clear all the uid information.
+             */
+            wifiStateAll.interfaceOff();
+            uidStates.clear();
+            lastLinkSpeed = -1;
+
+            result.addOff(LinuxSystemInfo.AID_ALL);
+            return result;
+        }
+
+        long totTransmitPackets = -1;
+        long totReceivePackets = -1;
+        long totTransmitBytes = -1;
+        long totReceiveBytes = -1;
+        InterfaceCounters counters = sysInfo.updateInterfaceCounters(iteration);
+        int ifaceIndex = counters.indexOf(interfaceName);
+        if (counters.getGeneration() == iteration && ifaceIndex >= 0) {
+            totTransmitPackets = counters.getTxPackets(ifaceIndex);
+            totReceivePackets = counters.getRxPackets(ifaceIndex);
+            totTransmitBytes = counters.getTxBytes(ifaceIndex);
+            totReceiveBytes = counters.getRxBytes(ifaceIndex);
+        }
+        counters.release();
+
+        long deltaTxPkt = totTransmitPackets - this.prevTxPkt;
+        this.prevTxPkt = totTransmitPackets;
+
+        long deltaRxPkt = totReceivePackets - this.prevRxPkt;
+        this.prevRxPkt = totReceivePackets;
+
+        /**
+         * Correct the value of byte sent and received since the total value
+         * include also the overhead (52 byte per packet in TPC)
+         */
+        long deltaTxBytes = totTransmitBytes - this.prevTxBytes
+                - (deltaTxPkt * BYTE_PER_PACKET_OVERHEAD);
+        if(deltaTxBytes < 0)
+            deltaTxBytes = 0;
+        this.prevTxBytes = totTransmitBytes;
+
+        long deltaRxBytes = totReceiveBytes - this.prevRxBytes
+                - (deltaRxPkt * BYTE_PER_PACKET_OVERHEAD);
+        if (deltaRxBytes < 0)
+            deltaRxBytes = 0;
+        this.prevRxBytes = totReceiveBytes;
+
+        if (DEBUG)
+            Logger.d(TAG, "calculateIteration: deltaRX: " + deltaRxBytes + "(" +
+                    deltaRxPkt + ") deltaTX: " + deltaTxBytes + "(" + deltaTxPkt + ")");
+
+        if (totTransmitPackets == -1 || totReceivePackets == -1 || totTransmitBytes == -1 || totReceiveBytes == -1) {
+            /* Couldn't read interface data files. */
+            Logger.e(TAG, "Failed to read packet and byte counts from wifi interface");
+            return result;
+        }
+
+        /* Update the link speed every 30 seconds as querying the link (the WifiInfo
+         * structure on Android) is a little bit expensive.  This isn't really something
+         * that is likely to change very frequently anyway.
+         */
+        if (iteration % 30 == 0 || lastLinkSpeed == -1) {
+            lastLinkSpeed = Math.round(link.getLinkSpeed());
+        }
+        double linkSpeed = lastLinkSpeed;
+
+        /* Time of the previous iteration, where the per-uid deltas start. */
+        long lastTime = wifiStateAll.isInitialized() ? wifiStateAll.getLastTime() :
+                Clock.elapsedRealtime() - iterationInterval;
+        if (wifiStateAll.isInitialized()) {
+            wifiStateAll.updateState(totTransmitPackets, totReceivePackets, totTransmitBytes, totReceiveBytes);
+
+            result.add(LinuxSystemInfo.AID_ALL, wifiStateAll.getPackets(), wifiStateAll.getUplinkBytes(),
+                    wifiStateAll.getDownlinkBytes(), wifiStateAll.getUplinkRate(),
+                    linkSpeed, wifiStateAll.getPowerState(), 1.0, 1.0);
+        } else {
+            // Do initialization
+            wifiStateAll.updateState(totTransmitPackets, totReceivePackets,
+                    totTransmitBytes, totReceiveBytes);
+        }
+
+        /* Per-uid traffic comes from the network snapshot shared with the other
+         * radios, no file is read here.
+         */
+        if (isUidScanSuspended()) {
+            uidsStale = true;
+            return result;
+        }
+        int quality = getQuality();
+        NetworkSnapshot net = sysInfo.updateNetworkSnapshot(iteration,
+                quality >= QUALITY_SKIP_STALE, quality >= QUALITY_SAMPLE_UIDS);
+        if (uidsStale && net.getGeneration() == iteration) {
+            /* The deltas cover the whole suspension, they only serve as the
+             * new starting point.
+             */
+            uidsStale = false;
+            uidStates.clear();
+            net.release();
+            return result;
+        }
+        if (net.getGeneration() == iteration) {
+            int iface = net.getInterfaceIndex(interfaceName);
+            // TODO: 06/10/16 Aggiungere un loop dove si conta la percentuale per ogni UID senza basarsi sui valori delta
+            for (int row = net.firstRow(iface); row < net.endRow(iface); row++) {
+                long deltaTransmitBytes = net.getTxDelta(row);
+                long deltaReceiveBytes = net.getRxDelta(row);
+                if (deltaTransmitBytes == 0 && deltaReceiveBytes == 0)
+                    continue;
+
+                int uid = net.getUid(row);
+                long transmitBytes = net.getTxBytes(row);
+                long receiveBytes = net.getRxBytes(row);
+                WifiStateKeeper uidState = uidStates.get(uid);
+                if (uidState == null) {
+                    // New UID
+                    uidState = new WifiStateKeeper(phoneConstants.wifiHighLowTransition(),
+                            phoneConstants.wifiLowHighTransition());
+                    uidStates.put(uid, uidState);
+                }
+                boolean counted = net.getTxPackets(row) >= 0;
+                if (!uidState.isInitialized()) {
+                    /* First time we encounter this UID, start from its counters
+                     * at the previous iteration so that this one is reported.
+                     */
+                    uidState.start(
+                            counted ? net.getTxPackets(row) - net.getTxPacketsDelta(row) : 0,
+                            counted ? net.getRxPackets(row) - net.getRxPacketsDelta(row) : 0,
+                            transmitBytes - deltaTransmitBytes,
+                            receiveBytes - deltaReceiveBytes, lastTime);
+                }
+
+                long transmitPackets;
+                long receivePackets;
+                if (counted) {
+                    transmitPackets = net.getTxPackets(row);
+                    receivePackets = net.getRxPackets(row);
+                } else {
+                    /* Calculate the estimate number of packet exchanged by dividing
+                     * the exchange nubmer of bytes per the average packet size
+                     */
+                    long estimatedTransmitPackets = Math.round(deltaTransmitBytes /
+                            wifiStateAll.getAverageTransmitPacketSize());
+                    long estimatedReceivePackets = Math.round(deltaReceiveBytes /
+                            wifiStateAll.getAverageReceivePacketSize());
+
+                    if (deltaTransmitBytes > 0 && estimatedTransmitPackets == 0) {
+                        estimatedTransmitPackets = 1;
+                    }
+                    if (deltaReceiveBytes > 0 && estimatedReceivePackets == 0) {
+                        estimatedReceivePackets = 1;
+                    }
+                    transmitPackets = uidState.getTransmitPackets() + estimatedTransmitPackets;
+                    receivePackets = uidState.getReceivePackets() + estimatedReceivePackets;
+                }
+
+                uidState.updateState(transmitPackets, receivePackets,
+                        transmitBytes, receiveBytes);
+
+                double upPerc, downPerc;
+                // TODO: 06/10/16 se i delta sono 0 ma ho dei valori in ritardo?
+                if(deltaRxBytes == 0 || deltaTxBytes == 0){
+                    upPerc = 0;
+                    downPerc = 0;
+                }
+                else {
+                    upPerc = ((double) deltaTransmitBytes / (double) deltaTxBytes);
+                    downPerc = ((double) deltaReceiveBytes / (double) deltaRxBytes);
+                }
+
+                result.add(uid, uidState.getPackets(), uidState.getUplinkBytes(),
+                        uidState.getDownlinkBytes(), uidState.getUplinkRate(),
+                        linkSpeed, uidState.getPowerState(),
+                        upPerc, downPerc);
+
+                if (DEBUG)
+                    Logger.d(TAG, "calculateIteration: UID: " + uid + " RX: " + deltaReceiveBytes +
+                            "(" + downPerc + ") TX: " + deltaTransmitBytes +
+                            "(" + upPerc + ")");
+            }
+        net.release();
+        }
+        return result;
+    }
+
+    @Override
+    public boolean hasUidInformation() {
+        return sysInfo.hasNetworkAccounting();
+    }
+
+    @Override
+    public int getSkippedPolls() {
+        return sysInfo.getNetworkSkippedPolls();
+    }
+
+    @Override
+    public String getComponentName() {
+        return "Wifi";
+    }
+
+    public static class WifiData extends IterationData {
+        private static ObjectPool<WifiData> recycler = new ObjectPool<WifiData>("WifiData");
+        public boolean[] wifiOn = new boolean[INITIAL_ROWS];
+        public double[] packets = new double[INITIAL_ROWS];
+        public long[] uplinkBytes = new long[INITIAL_ROWS];
+        public long[] downlinkBytes = new long[INITIAL_ROWS];
+        public double[] uplinkRate = new double[INITIAL_ROWS];
+        public double[] linkSpeed = new double[INITIAL_ROWS];
+        public int[] powerState = new int[INITIAL_ROWS];
+
+        /**
+         * Percentage of uploaded data wrt the total
+         */
+        public double[] uploadPercent = new double[INITIAL_ROWS];
+        /**
+         * Percentage of downloaded data wrt the total
+         */
+        public double[] downloadPercent = new double[INITIAL_ROWS];
+
+        private WifiData() {
+        }
+
+        public static WifiData obtain() {
+            WifiData result = recycler.obtain();
+            if (result == null) result = new WifiData();
+            result.init();
+            return result;
+        }
+
+        @Override
+        public void recycle() {
+            recycler.recycle(this);
+        }
+
+        @Override
+        protected void growColumns(int capacity) {
+            wifiOn = grow(wifiOn, capacity);
+            packets = grow(packets, capacity);
+            uplinkBytes = grow(uplinkBytes, capacity);
+            downlinkBytes = grow(downlinkBytes, capacity);
+            uplinkRate = grow(uplinkRate, capacity);
+            linkSpeed = grow(linkSpeed, capacity);
+            powerState = grow(powerState, capacity);
+            uploadPercent = grow(uploadPercent, capacity);
+            downloadPercent = grow(downloadPercent, capacity);
+        }
+
+        public int add(int uid, double packets, long uplinkBytes, long downlinkBytes,
+                       double uplinkRate, double linkSpeed, int powerState,
+                       double upPerc, double downPerc) {
+            int row = addRow(uid);
+            wifiOn[row] = true;
+            this.packets[row] = packets;
+            this.uplinkBytes[row] = uplinkBytes;
+            this.downlinkBytes[row] = downlinkBytes;
+            this.uplinkRate[row] = uplinkRate;
+            this.linkSpeed[row] = linkSpeed;
+            this.powerState[row] = powerState;
+
+            this.uploadPercent[row] = upPerc;
+            this.downloadPercent[row] = downPerc;
+            return row;
+        }
+
+        public int addOff(int uid) {
+            int row = addRow(uid);
+            wifiOn[row] = false;
+            return row;
+        }
+
+        public void writeLogDataInfo(int row, OutputStreamWriter out) throws IOException {
+            StringBuilder res = new StringBuilder();
+            res.append("Wifi+on+").append(wifiOn[row]).append("\n");
+            if (wifiOn[row]) {
+                res.append("Wifi+packets+").append(Math.round(packets[row]))
+                        .append("\nWifi+uplinkBytes+").append(uplinkBytes[row])
+                        .append("\nWifi+downlinkBytes+").append(downlinkBytes[row])
+                        .append("\nWifi+uplink+").append(Math.round(uplinkRate[row]))
+                        .append("\nWifi+speed+").append(Math.round(linkSpeed[row]))
+                        .append("\nWifi+state+").append(Wifi.POWER_STATE_NAMES[powerState[row]])
+                        .append("\n");
+            }
+            out.write(res.toString());
+        }
+    }
+
+    private static class WifiStateKeeper {
+        private long lastTransmitPackets;
+        private long lastReceivePackets;
+        private long lastTransmitBytes;
+        private long lastReceiveBytes;
+        private long lastTime;
+
+        private int powerState;
+        private double lastPackets;
+        private double lastUplinkRate;
+        private double lastAverageTransmitPacketSize;
+        private double lastAverageReceivePacketSize;
+
+        private long deltaUplinkBytes;
+        private long deltaDownlinkBytes;
+
+        private double highLowTransition;
+        private double lowHighTransition;
+
+        public WifiStateKeeper(double highLowTransition, double lowHighTransition) {
+            this.highLowTransition = highLowTransition;
+            this.lowHighTransition = lowHighTransition;
+            lastTransmitPackets = lastReceivePackets = lastTransmitBytes = lastTime = -1;
+
+            powerState = POWER_STATE_LOW;
+            lastPackets = lastUplinkRate = 0;
+            lastAverageTransmitPacketSize = 1000;
+            lastAverageReceivePacketSize = 1000;
+        }
+
+        public void interfaceOff() {
+            lastTime = Clock.elapsedRealtime();
+            powerState = POWER_STATE_LOW;
+        }
+
+        public boolean isInitialized() {
+            return lastTime != -1;
+        }
+
+        /**
+         * Take the given counters, read at time, as the starting point of the
+         * next update.
+         */
+        public void start(long transmitPackets, long receivePackets,
+                          long transmitBytes, long receiveBytes, long time) {
+            lastTime = time;
+            lastTransmitPackets = transmitPackets;
+            lastReceivePackets = receivePackets;
+            lastTransmitBytes = transmitBytes;
+            lastReceiveBytes = receiveBytes;
+        }
+
+        public long getLastTime() {
+            return lastTime;
+        }
+
+        /**
+         * Update information and search for a state change
+         */
+        public void updateState(long transmitPackets, long receivePackets,
+                                long transmitBytes, long receiveBytes) {
+            long curTime = Clock.elapsedRealtime();
+
+            if (lastTime != -1 && curTime > lastTime) {
+                double deltaTime = curTime - lastTime;
+
+                // TODO: 14/09/16 MAGIC?? HACK?? 7.8125??
+                lastUplinkRate = (transmitBytes - lastTransmitBytes) / 1024.0 * 7.8125 / deltaTime;
+                //Logger.d(TAG, "updateState: delta byte = " + (transmitBytes - lastTransmitBytes) +
+                //         " lastUplinkRate = " + lastUplinkRate);
+
+                lastPackets = receivePackets + transmitPackets - lastReceivePackets - lastTransmitPackets;
+                deltaUplinkBytes = transmitBytes - lastTransmitBytes;
+                deltaDownlinkBytes = receiveBytes - lastReceiveBytes;
+
+                //<editor-fold desc="Avg pkt size">
+                if (transmitPackets != lastTransmitPackets) {
+                    // Calculate the average number of bytes in packet sent
+                    lastAverageTransmitPacketSize = 0.9 * lastAverageTransmitPacketSize +
+                            0.1 * (transmitBytes - lastTransmitBytes) / (transmitPackets - lastTransmitPackets);
+                }
+
+                if (receivePackets != lastReceivePackets) {
+                    // Calculate the average number of bytes in packet received
+                    lastAverageReceivePacketSize = 0.9 * lastAverageReceivePacketSize +
+                            0.1 * (receiveBytes - lastReceiveBytes) / (receivePackets - lastReceivePackets);
+                }
+                //</editor-fold>
+
+                // Update power state according to transition level, given in packets/s
+                double packetRate = lastPackets * 1000.0 / deltaTime;
+                if (packetRate < highLowTransition) {
+                    powerState = POWER_STATE_LOW;
+                } else if (packetRate > lowHighTransition) {
+                    powerState = POWER_STATE_HIGH;
+                }
+            }
+
+            lastTime = curTime;
+            lastTransmitPackets = transmitPackets;
+            lastReceivePackets = receivePackets;
+            lastTransmitBytes = transmitBytes;
+            lastReceiveBytes = receiveBytes;
+        }
+
+        public int getPowerState() {
+            return powerState;
+        }
+
+        public double getPackets() {
+            return lastPackets;
+        }
+
+        public long getUplinkBytes() {
+            return deltaUplinkBytes;
+        }
+
+        public long getDownlinkBytes() {
+            return deltaDownlinkBytes;
+        }
+
+        public double getUplinkRate() {
+            return lastUplinkRate;
+        }
+
+        public double getAverageTransmitPacketSize() {
+            return lastAverageTransmitPacketSize;
+        }
+
+        public double getAverageReceivePacketSize() {
+            return lastAverageReceivePacketSize;
+        }
+
+        public long getTransmitPackets() {
+            return lastTransmitPackets;
+        }
+
+        public long getReceivePackets() {
+            return lastReceivePackets;
+        }
+
+        public long getTransmitBytes() {
+            return lastTransmitBytes;
+        }
+
+        public long getReceiveBytes() {
+            return lastReceiveBytes;
+        }
+    }
+}
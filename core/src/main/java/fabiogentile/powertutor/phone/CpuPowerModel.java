@@ -0,0 +1,211 @@
+/*
+Copyright (C) 2011 The University of Michigan
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+Please send inquiries to powertutor@umich.edu
+*/
+
+
+package fabiogentile.powertutor.phone;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import fabiogentile.powertutor.components.CPU.CpuData;
+import fabiogentile.powertutor.service.IterationData;
+import fabiogentile.powertutor.util.Logger;
+
+/**
+ * Prices the cpu rows from the per-core power table of the constants.
+ */
+public class CpuPowerModel implements PowerFunction {
+    private static final String TAG = "CpuPowerModel";
+    private PhoneConstants coeffs;
+    /* Price frequencies and core counts outside of the table with the
+     * nearest entry instead of skipping them, for machines the table was
+     * not measured on.
+     */
+    private boolean approximate;
+    /* The power ratios and base corrections of the constants copied in
+     * primitive tables, so that pricing a row does not box any value.
+     * ratioPower[c][k] is the power of c + 1 cores at ratioFreqs[k], NaN if
+     * unknown.
+     */
+    private double[] ratioFreqs;
+    private double[][] ratioPower;
+    private double[] baseCorrection;
+
+    public CpuPowerModel(PhoneConstants coeffs) {
+        this(coeffs, false);
+    }
+
+    /**
+     * @param approximate map every frequency to the closest lower one of the
+     *                    table and every core count to the largest one
+     */
+    public CpuPowerModel(PhoneConstants coeffs, boolean approximate) {
+        this.coeffs = coeffs;
+        this.approximate = approximate;
+
+        ArrayList<HashMap<Double, Double>> powerRatios = coeffs.cpuPowerRatios();
+        ratioFreqs = coeffs.cpuFreqs();
+        ratioPower = new double[powerRatios.size()][ratioFreqs.length];
+        baseCorrection = new double[ratioFreqs.length];
+        HashMap<Double, Double> corrections = coeffs.cpuBaseCorrection();
+        for (int k = 0; k < ratioFreqs.length; k++) {
+            for (int c = 0; c < ratioPower.length; c++) {
+                Double power = powerRatios.get(c).get(ratioFreqs[k]);
+                ratioPower[c][k] = power == null ? Double.NaN : power;
+            }
+            Double correction = corrections.get(ratioFreqs[k]);
+            baseCorrection[k] = correction == null ? 0 : correction;
+        }
+    }
+
+    /* @return position of freq in ratioFreqs, -1 if it is not there */
+    private int freqIndex(double freq) {
+        for (int k = 0; k < ratioFreqs.length; k++)
+            if (ratioFreqs[k] == freq)
+                return k;
+        if (!approximate || ratioFreqs.length == 0)
+            return -1;
+        /* ratioFreqs is sorted, take the last one not above freq. */
+        int k = 0;
+        while (k + 1 < ratioFreqs.length && ratioFreqs[k + 1] <= freq)
+            k++;
+        return k;
+    }
+
+    private double getBaseCorrection(double freq) {
+        int k = freqIndex(freq);
+        return k < 0 ? 0 : baseCorrection[k];
+    }
+
+    public void calculateAll(IterationData data, int[] outPower) {
+        getCpuPower((CpuData) data, outPower);
+    }
+
+    public void getCpuPower(CpuData data, int[] outPower) {
+        /**     CPU POWER MODEL
+         *
+         * If the frequencies are all the same look at the matrix powerRatios
+         *
+         * Otherwise simply sum up the value for each frequency and subtract the
+         * Base power consumption cumulated
+         *
+         * If there are more than 2 active cores, it can be necessary to adjust the base power cons.
+         *
+         * The frequencies are shared by every row, so the full load power is
+         * computed once and then scaled by the usage of each uid.
+         */
+        if (data.getRowCount() == 0)
+            return;
+        double[] freq = data.freq;
+        double maxFreq = freq[0];
+
+        double fullPower = 0;
+        int activeCores = 0;
+        int differentFreq = 0;
+
+        // Count how many cores run at each frequency, the first core with a
+        // frequency stands for all of them
+        for (int i = 0; i < freq.length; i++) {
+            double f = freq[i];
+            boolean seen = false;
+            for (int j = 0; j < i && !seen; j++)
+                seen = freq[j] == f;
+            if (seen)
+                continue;
+            differentFreq++;
+            if(f == -1)
+                continue;
+
+            int coresPerFreq = 0;
+            for (int j = i; j < freq.length; j++)
+                if (freq[j] == f)
+                    coresPerFreq++;
+            activeCores += coresPerFreq;
+
+            if(coresPerFreq > ratioPower.length){
+                if (!approximate) {
+                    Logger.e(TAG, "getCpuPower: Requested count for core_number = " + coresPerFreq);
+                    continue;
+                }
+                coresPerFreq = ratioPower.length;
+            }
+
+            int k = freqIndex(f);
+            if(k < 0 || Double.isNaN(ratioPower[coresPerFreq - 1][k])){
+                Logger.e(TAG, "getCpuPower: Requested power for freq = " + f);
+                continue;
+            }
+
+            // STEP 1: sum contribrutes from different frequency
+            fullPower += ratioPower[coresPerFreq - 1][k];
+        }
+        // STEP 2: Subtract cumulated base power
+        fullPower -= coeffs.cpuBase() * (differentFreq - 1);
+
+        // STEP 4 factor: corrective factor to base power for the ALL uid
+        double correction = activeCores > 1 ? getBaseCorrection(maxFreq) : 0;
+
+        for (int row = 0; row < data.getRowCount(); row++) {
+            if (data.hasResidency[row]) {
+                outPower[row] = (int) getCpuResidencyPower(data, row);
+                continue;
+            }
+            // STEP 3: Scale the resulting power according the cpu usage for the current UID
+            double ret = Math.max(0, fullPower * (data.usrPerc[row] + data.sysPerc[row]));
+            // STEP 4: Add, if necessary, add corrective factor to base power to the ALL uid
+            if (data.isUidAll(row))
+                ret += correction;
+            outPower[row] = (int) ret;
+        }
+    }
+
+    /**
+     * Power integrated over the time actually spent at each frequency.  Every
+     * share is weighted with the full load power of the cores that are online,
+     * which gives the same result as getCpuPower when the frequency does not
+     * change during the iteration.
+     */
+    private double getCpuResidencyPower(CpuData data, int row) {
+        int activeCores = 0;
+        for (double f : data.freq) {
+            if (f != -1)
+                activeCores++;
+        }
+        activeCores = Math.max(1, Math.min(activeCores, ratioPower.length));
+        double[] power = ratioPower[activeCores - 1];
+
+        double ret = 0;
+        int n = data.residencyFreqs.length;
+        for (int i = 0; i < n; i++) {
+            double share = data.residencyShare[row * n + i];
+            if (share == 0)
+                continue;
+            int k = freqIndex(data.residencyFreqs[i]);
+            if (k < 0 || Double.isNaN(power[k])) {
+                Logger.e(TAG, "getCpuResidencyPower: Requested power for freq = " + data.residencyFreqs[i]);
+                continue;
+            }
+            ret += share * power[k];
+        }
+
+        if (data.isUidAll(row) && activeCores > 1)
+            ret += getBaseCorrection(data.freq[0]);
+        return ret;
+    }
+}
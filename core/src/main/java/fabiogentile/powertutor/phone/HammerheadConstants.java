@@ -19,15 +19,9 @@ Please send inquiries to powertutor@umich.edu
 
 package fabiogentile.powertutor.phone;
 
-import android.content.Context;
-import android.hardware.Sensor;
-import android.hardware.SensorManager;
-
 import java.util.ArrayList;
 import java.util.HashMap;
 
-import fabiogentile.powertutor.components.Sensors;
-
 /*
  * Values must be in mW
  * If we want to use the values from power_profile.xml (that are expressed in mA)
@@ -93,26 +87,14 @@ public class HammerheadConstants implements PhoneConstants {
     //</editor-fold>
 
 
-    /* TODO: Figure out if this is really appropriate or how we should convert
-     * the sensor power ratings (in mA) to mW.  I'm not sure we'll try to model
-     * these thing's power usage but for the developer it's definitely interesting
-     * to get some (perhaps rough?) idea of how much power sensors are using.
-     */
-    protected double BATTERY_VOLTAGE = 3.7;
     private double[] sensorPowerArray;
 
-    public HammerheadConstants(Context context) {
-        SensorManager sensorManager = (SensorManager) context.getSystemService(
-                Context.SENSOR_SERVICE);
-        sensorPowerArray = new double[Sensors.MAX_SENSORS];
-
-        //Collect info about sensor power consumption
-        for (int i = 0; i < Sensors.MAX_SENSORS; i++) {
-            Sensor sensor = sensorManager.getDefaultSensor(i);
-            if (sensor != null) {
-                sensorPowerArray[i] = sensor.getPower() * BATTERY_VOLTAGE;
-            }
-        }
+    /**
+     * @param sensorPower power in mW of each sensor type, as reported by the
+     *                    platform, null if there are no sensors
+     */
+    public HammerheadConstants(double[] sensorPower) {
+        sensorPowerArray = sensorPower != null ? sensorPower : new double[0];
 
         //Populate cpu power hashmap
         cpuPowerList = new ArrayList<HashMap<Double, Double>>(CORE_NUMBER);
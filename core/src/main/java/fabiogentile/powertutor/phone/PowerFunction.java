@@ -19,8 +19,16 @@ Please send inquiries to powertutor@umich.edu
 
 package fabiogentile.powertutor.phone;
 
-import fabiogentile.powertutor.service.PowerData;
+import fabiogentile.powertutor.service.IterationData;
 
+/**
+ * Converts the data of a component into power, in mW, for all its rows at
+ * once.
+ */
 public interface PowerFunction {
-    double calculate(PowerData data);
+    /**
+     * @param outPower receives the power of row i at index i, must hold at
+     *                 least data.getRowCount() values
+     */
+    void calculateAll(IterationData data, int[] outPower);
 }
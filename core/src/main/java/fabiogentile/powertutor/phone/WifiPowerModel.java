@@ -0,0 +1,85 @@
+/*
+Copyright (C) 2011 The University of Michigan
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+Please send inquiries to powertutor@umich.edu
+*/
+
+
+package fabiogentile.powertutor.phone;
+
+import fabiogentile.powertutor.components.Wifi;
+import fabiogentile.powertutor.components.Wifi.WifiData;
+import fabiogentile.powertutor.service.IterationData;
+
+/**
+ * Prices the wifi rows by the share of the interface traffic of each uid.
+ */
+public class WifiPowerModel implements PowerFunction {
+    private PhoneConstants coeffs;
+
+    public WifiPowerModel(PhoneConstants coeffs) {
+        this.coeffs = coeffs;
+    }
+
+    public void calculateAll(IterationData data, int[] outPower) {
+        getWifiPower((WifiData) data, outPower);
+    }
+
+    public void getWifiPower(WifiData data, int[] outPower) {
+        for (int row = 0; row < data.getRowCount(); row++)
+            outPower[row] = (int) getWifiPower(data, row);
+    }
+
+    private double getWifiPower(WifiData data, int row) {
+        double ret;
+        if (!data.wifiOn[row]) {
+            return 0;
+        } else if (data.powerState[row] == Wifi.POWER_STATE_LOW) {
+            // Scale energy consumption basing on the percentage of data transmitted
+            // Divide by 5 since the time slot is 200ms
+            ret = coeffs.wifiHighPower() / 2 * data.uploadPercent[row]  ;
+        } else if (data.powerState[row] == Wifi.POWER_STATE_HIGH) {
+//            double[] linkSpeeds = coeffs.wifiLinkSpeeds();
+//            double[] linkRatios = coeffs.wifiLinkRatios();
+//            double ratio;
+//            if (linkSpeeds.length == 1) {
+//                /* If there is only one set speed we have to use its ratio as we have
+//                 * nothing else to go on.
+//                 */
+//                ratio = linkRatios[0];
+//            } else {
+//                /* Find the two nearest speed/ratio pairs and linearly interpolate
+//                 * the ratio for this link speed.
+//                 */
+//                int ind = upperBound(linkSpeeds, data.linkSpeed);
+//                if (ind == 0) ind++;
+//                if (ind == linkSpeeds.length) ind--;
+//                ratio = linkRatios[ind - 1] + (linkRatios[ind] - linkRatios[ind - 1]) /
+//                        (linkSpeeds[ind] - linkSpeeds[ind - 1]) *
+//                        (data.linkSpeed - linkSpeeds[ind - 1]);
+//            }
+            // TODO: 12/10/16 add informations on link rate ?
+            ret = coeffs.wifiHighPower() * data.uploadPercent[row];
+
+        }
+        else {
+            throw new RuntimeException("Unexpected power state");
+        }
+        //Add base power
+        ret += coeffs.wifiOn() * (data.uploadPercent[row] + data.downloadPercent[row]) / 2;
+        return ret;
+    }
+}
@@ -0,0 +1,152 @@
+/*
+Copyright (C) 2011 The University of Michigan
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+Please send inquiries to powertutor@umich.edu
+*/
+
+package fabiogentile.powertutor.service;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+
+/**
+ * The data a component collected during one iteration, stored as columns:
+ * row i holds the values for uid getUid(i), SystemInfo.AID_ALL being the
+ * global row.  Each component extends this class with its own primitive
+ * columns.
+ * <p>
+ * Instances are recycled once the estimator is done with them and the
+ * columns only grow, so the steady state collect and compute path does not
+ * allocate.
+ */
+public abstract class IterationData {
+    protected static final int INITIAL_ROWS = 16;
+
+    private int rows;
+    private int quality;
+    private int[] uids = new int[INITIAL_ROWS];
+    private int[] power = new int[INITIAL_ROWS];
+
+    /**
+     * Empty the table.  Remember that this class may not have just been
+     * instantiated and may have been used in past iterations.
+     */
+    public void init() {
+        rows = 0;
+        quality = 0;
+    }
+
+    /**
+     * @return the Sampler.QUALITY_ level the data was collected with
+     */
+    public int getQuality() {
+        return quality;
+    }
+
+    public void setQuality(int quality) {
+        this.quality = quality;
+    }
+
+    /**
+     * Allow this object to be used again by the component that created it.
+     */
+    public abstract void recycle();
+
+    /* Subclasses grow their own columns to the new capacity. */
+    protected abstract void growColumns(int capacity);
+
+    /**
+     * Append a row, the subclass then fills its columns.
+     *
+     * @return index of the row
+     */
+    protected int addRow(int uid) {
+        if (rows == uids.length) {
+            int capacity = rows * 2;
+            uids = grow(uids, capacity);
+            power = grow(power, capacity);
+            growColumns(capacity);
+        }
+        uids[rows] = uid;
+        power[rows] = 0;
+        return rows++;
+    }
+
+    public int getRowCount() {
+        return rows;
+    }
+
+    public int getUid(int row) {
+        return uids[row];
+    }
+
+    /**
+     * @return the row of uid, -1 if there is none
+     */
+    public int indexOf(int uid) {
+        for (int i = 0; i < rows; i++)
+            if (uids[i] == uid)
+                return i;
+        return -1;
+    }
+
+    /**
+     * @return the uid column, valid up to getRowCount()
+     */
+    public int[] getUids() {
+        return uids;
+    }
+
+    public int getCachedPower(int row) {
+        return power[row];
+    }
+
+    /**
+     * @return the power column, in mW, valid up to getRowCount().  It is
+     * filled by PowerFunction.calculateAll().
+     */
+    public int[] getPowers() {
+        return power;
+    }
+
+    /* Simply writes out log information of a row to the passed stream. */
+    public abstract void writeLogDataInfo(int row, OutputStreamWriter out)
+            throws IOException;
+
+    protected static int[] grow(int[] a, int capacity) {
+        int[] r = new int[capacity];
+        System.arraycopy(a, 0, r, 0, a.length);
+        return r;
+    }
+
+    protected static long[] grow(long[] a, int capacity) {
+        long[] r = new long[capacity];
+        System.arraycopy(a, 0, r, 0, a.length);
+        return r;
+    }
+
+    protected static double[] grow(double[] a, int capacity) {
+        double[] r = new double[capacity];
+        System.arraycopy(a, 0, r, 0, a.length);
+        return r;
+    }
+
+    protected static boolean[] grow(boolean[] a, int capacity) {
+        boolean[] r = new boolean[capacity];
+        System.arraycopy(a, 0, r, 0, a.length);
+        return r;
+    }
+}
@@ -0,0 +1,174 @@
+/*
+Copyright (C) 2011 The University of Michigan
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+Please send inquiries to powertutor@umich.edu
+*/
+
+package fabiogentile.powertutor.service;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import fabiogentile.powertutor.util.Clock;
+
+/**
+ * Lock-free single producer, single consumer handoff of IterationData from a
+ * component to the estimator.  Iteration i goes to slot i % depth and the
+ * slot remembers i as its sequence number, so the consumer asks for an
+ * iteration directly and a component can run up to depth - 1 iterations late
+ * without losing data.
+ * <p>
+ * Counters, readable from any thread:
+ * <ul>
+ * <li>late: the data arrived while the consumer was waiting for it</li>
+ * <li>reused: the data was missing and the newest unconsumed data of an
+ * earlier iteration was handed out instead.  Components report deltas so
+ * this keeps their energy from being lost</li>
+ * <li>dropped: data overwritten before being consumed</li>
+ * <li>missed: nothing could be handed out</li>
+ * </ul>
+ */
+public class IterationRing {
+    private final int mask;
+    private final AtomicReferenceArray<IterationData> slots;
+    private final AtomicLongArray sequences;
+    private volatile Thread waiter;
+
+    private final AtomicLong dropped = new AtomicLong();
+    /* Only written by the consumer. */
+    private volatile long late;
+    private volatile long reused;
+    private volatile long missed;
+
+    /**
+     * @param depth number of slots, rounded up to a power of two
+     */
+    public IterationRing(int depth) {
+        int size = Integer.highestOneBit(Math.max(2, depth) - 1) << 1;
+        mask = size - 1;
+        slots = new AtomicReferenceArray<IterationData>(size);
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++)
+            sequences.set(i, -1);
+    }
+
+    public int getDepth() {
+        return mask + 1;
+    }
+
+    /**
+     * Publish the data of an iteration.  Only called by the producer.
+     */
+    public void put(long iteration, IterationData data) {
+        int idx = (int) (iteration & mask);
+        IterationData old = slots.getAndSet(idx, null);
+        if (old != null) {
+            dropped.incrementAndGet();
+            old.recycle();
+        }
+        sequences.set(idx, iteration);
+        slots.set(idx, data);
+
+        Thread w = waiter;
+        if (w != null)
+            LockSupport.unpark(w);
+    }
+
+    /**
+     * Take the data of an iteration, waiting for it until deadline and then
+     * falling back to the newest data left by an earlier iteration.  Only
+     * called by the consumer, with increasing iterations.
+     *
+     * @param deadline elapsedRealtime() based, no wait if already past
+     * @return the data or null if there is none
+     */
+    public IterationData take(long iteration, long deadline) {
+        IterationData data = poll(iteration);
+        if (data == null) {
+            waiter = Thread.currentThread();
+            while ((data = poll(iteration)) == null) {
+                long wait = deadline - Clock.elapsedRealtime();
+                if (wait <= 0 || Thread.currentThread().isInterrupted())
+                    break;
+                LockSupport.parkNanos(this, wait * 1000000L);
+            }
+            waiter = null;
+            if (data != null)
+                late++;
+        }
+        if (data != null)
+            return data;
+
+        for (long i = iteration - 1; i >= 0 && i > iteration - mask - 1; i--) {
+            data = poll(i);
+            if (data != null) {
+                reused++;
+                return data;
+            }
+        }
+        missed++;
+        return null;
+    }
+
+    private IterationData poll(long iteration) {
+        int idx = (int) (iteration & mask);
+        if (sequences.get(idx) != iteration)
+            return null;
+        IterationData data = slots.getAndSet(idx, null);
+        if (data == null || sequences.get(idx) == iteration)
+            return data;
+
+        /* The producer wrapped around while we were looking, the data is
+         * for a newer iteration.
+         */
+        if (!slots.compareAndSet(idx, null, data)) {
+            dropped.incrementAndGet();
+            data.recycle();
+        }
+        return null;
+    }
+
+    /**
+     * Recycle everything left in the ring.  Only safe once the producer is
+     * done.
+     */
+    public void clear() {
+        for (int i = 0; i <= mask; i++) {
+            IterationData data = slots.getAndSet(i, null);
+            if (data != null)
+                data.recycle();
+            sequences.set(i, -1);
+        }
+    }
+
+    public long getLate() {
+        return late;
+    }
+
+    public long getReused() {
+        return reused;
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public long getMissed() {
+        return missed;
+    }
+}
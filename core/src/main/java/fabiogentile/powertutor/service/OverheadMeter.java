@@ -0,0 +1,115 @@
+/*
+Copyright (C) 2011 The University of Michigan
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+Please send inquiries to powertutor@umich.edu
+*/
+
+package fabiogentile.powertutor.service;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import fabiogentile.powertutor.util.ThreadCpuClock;
+
+/**
+ * Accumulates what each stage of the sampling pipeline costs: the cpu time
+ * of the thread that ran it and its wall clock latency.  Stages are recorded
+ * from the engine thread and the pool threads concurrently.
+ * <p>
+ * Usage:
+ * <pre>
+ *   long cpu = OverheadMeter.threadCpuTime();
+ *   long wall = OverheadMeter.now();
+ *   ...
+ *   meter.record(stage, cpu, wall);
+ * </pre>
+ */
+public class OverheadMeter {
+    private final String[] stages;
+    private final AtomicLongArray cpuTimes;
+    private final AtomicLongArray wallTimes;
+    private final AtomicLongArray calls;
+
+    public OverheadMeter(String[] stages) {
+        this.stages = stages.clone();
+        cpuTimes = new AtomicLongArray(stages.length);
+        wallTimes = new AtomicLongArray(stages.length);
+        calls = new AtomicLongArray(stages.length);
+    }
+
+    /**
+     * @return cpu time of the calling thread in ns, -1 if not supported
+     */
+    public static long threadCpuTime() {
+        return ThreadCpuClock.threadCpuTime();
+    }
+
+    /**
+     * @return monotonic wall clock in ns
+     */
+    public static long now() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Charge a stage with the time elapsed since the given starting points,
+     * taken on the calling thread.
+     */
+    public void record(int stage, long cpuStart, long wallStart) {
+        if (cpuStart >= 0) {
+            long cpu = threadCpuTime() - cpuStart;
+            if (cpu > 0)
+                cpuTimes.addAndGet(stage, cpu);
+        }
+        wallTimes.addAndGet(stage, now() - wallStart);
+        calls.incrementAndGet(stage);
+    }
+
+    public int getStageCount() {
+        return stages.length;
+    }
+
+    public String getStageName(int stage) {
+        return stages[stage];
+    }
+
+    /**
+     * @return cpu time in ns used by the stage since the start
+     */
+    public long getCpuTime(int stage) {
+        return cpuTimes.get(stage);
+    }
+
+    /**
+     * @return wall clock time in ns spent in the stage since the start
+     */
+    public long getWallTime(int stage) {
+        return wallTimes.get(stage);
+    }
+
+    public long getCalls(int stage) {
+        return calls.get(stage);
+    }
+
+    /**
+     * @return cpu time in ns used by all the stages since the start
+     */
+    public long getTotalCpuTime() {
+        long total = 0;
+        for (int i = 0; i < stages.length; i++)
+            total += cpuTimes.get(i);
+        return total;
+    }
+}
@@ -0,0 +1,106 @@
+/*
+Copyright (C) 2011 The University of Michigan
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+Please send inquiries to powertutor@umich.edu
+*/
+
+package fabiogentile.powertutor.service;
+
+import fabiogentile.powertutor.components.Sampler;
+
+/**
+ * Keeps a sampler within a time budget per sample.  A sample going over the
+ * budget, or still running when the next one is due, steps the quality of
+ * the sampler down one level (see Sampler.QUALITY_FULL and following), so
+ * that the iterations keep coming with less per-uid detail instead of being
+ * lost.  After RECOVER_SAMPLES samples in a row well within the budget the
+ * quality goes back up one level.
+ * <p>
+ * Samples are reported from the pool threads and overruns from the engine
+ * thread.
+ */
+public class QualityWatchdog {
+    /* Consecutive samples with headroom before raising the quality. */
+    private static final int RECOVER_SAMPLES = 10;
+    /* Part of the budget, in percent, under which a sample has headroom. */
+    private static final int HEADROOM_PERCENT = 50;
+
+    private final long budget;
+    private volatile int quality = Sampler.QUALITY_FULL;
+    private int calmSamples;
+    private long downgrades;
+
+    /**
+     * @param budget wall clock time in ns a sample can take
+     */
+    public QualityWatchdog(long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * @return the quality the next sample should be taken with
+     */
+    public int getQuality() {
+        return quality;
+    }
+
+    /**
+     * Report a sample that completed.
+     *
+     * @param duration wall clock time in ns it took
+     * @return true if the quality changed
+     */
+    public synchronized boolean onSample(long duration) {
+        if (duration > budget)
+            return stepDown();
+        if (duration * 100 < budget * HEADROOM_PERCENT) {
+            if (++calmSamples >= RECOVER_SAMPLES && quality > Sampler.QUALITY_FULL) {
+                quality--;
+                calmSamples = 0;
+                return true;
+            }
+        } else {
+            calmSamples = 0;
+        }
+        return false;
+    }
+
+    /**
+     * Report a sample that could not start because the previous one is
+     * still running.
+     *
+     * @return true if the quality changed
+     */
+    public synchronized boolean onOverrun() {
+        return stepDown();
+    }
+
+    private boolean stepDown() {
+        calmSamples = 0;
+        if (quality == Sampler.QUALITY_ALL_ONLY)
+            return false;
+        quality++;
+        downgrades++;
+        return true;
+    }
+
+    /**
+     * @return number of times the quality was lowered since the start
+     */
+    public synchronized long getDowngrades() {
+        return downgrades;
+    }
+}
@@ -0,0 +1,410 @@
+/*
+Copyright (C) 2011 The University of Michigan
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+Please send inquiries to powertutor@umich.edu
+*/
+
+package fabiogentile.powertutor.service;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import fabiogentile.powertutor.components.Sampler;
+import fabiogentile.powertutor.util.Clock;
+import fabiogentile.powertutor.util.LinuxSystemInfo;
+import fabiogentile.powertutor.util.Logger;
+import fabiogentile.powertutor.util.ProcFileParser;
+import fabiogentile.powertutor.util.ThreadPriority;
+import fabiogentile.powertutor.util.TraceEvents;
+import fabiogentile.powertutor.util.TraceReplayer;
+
+/**
+ * Drives the whole sampling process from a single timed wakeup per
+ * iteration.  At each iteration boundary the calling thread runs four phases:
+ * <ol>
+ * <li>acquire: shared inputs are read once, before the samplers need them</li>
+ * <li>compute: every sampler is handed to a small fixed pool</li>
+ * <li>aggregate: power is computed from the samples, waiting for the late
+ * ones until three quarters of the iteration</li>
+ * <li>publish: logs, notification and listeners are updated</li>
+ * </ol>
+ * then sleeps until the boundary of the next iteration the SamplingPolicy
+ * wants sampled.  Boundaries are aligned on beginTime so the pool threads
+ * only wake up right after the engine does, instead of one thread per
+ * component waking up at its own time.
+ * <p>
+ * A sampler still busy with an older iteration when a boundary comes is
+ * skipped for that iteration.  The data of a sampler finishing after the
+ * deadline stays in its handoff ring for the next aggregation.  Each sampler
+ * has a QualityWatchdog giving it BUDGET_PERCENT of the iteration: over it,
+ * or skipped, its quality is lowered so that the next samples stay on time.
+ * <p>
+ * replay() runs the same phases over a recorded trace, as fast as possible.
+ */
+public class SamplingEngine {
+    private static final String TAG = "SamplingEngine";
+    private static final int MAX_POOL_THREADS = 2;
+    /* Part of the iteration, in percent, the aggregation can wait for data. */
+    private static final int DEADLINE_PERCENT = 75;
+    /* Part of the iteration, in percent, a single sample should take. */
+    private static final int BUDGET_PERCENT = 25;
+    /* Iterations between two logs of the engine statistics. */
+    private static final int STATS_INTERVAL = 60;
+    private static final byte[] VOLUNTARY_SWITCHES = "voluntary_ctxt_switches:".getBytes();
+    private static final byte[] NONVOLUNTARY_SWITCHES = "nonvoluntary_ctxt_switches:".getBytes();
+
+    /**
+     * Work done by the engine thread around the compute phase.
+     */
+    public interface Phases {
+        void acquire(long iteration);
+
+        /**
+         * @param deadline time until which late samples can be waited for
+         */
+        void aggregate(long iteration, long deadline);
+
+        void publish(long iteration);
+    }
+
+    private final Sampler[] samplers;
+    private final Phases phases;
+    private final SamplingPolicy policy;
+    private final Object sleepLock = new Object();
+    private boolean wakeRequested;
+    private OverheadMeter overhead;
+    private int firstOverheadStage;
+    private final SampleTask[] tasks;
+    private final ExecutorService pool;
+    private final int poolSize;
+
+    /* Statistics, only written by the engine thread. */
+    private long wakeups;
+    private long dispatched;
+    private long skippedSamples;
+    private long lastContextSwitches = -1;
+    private long lastStatsWakeups;
+    private long lastStatsTime;
+    private long lastStatsIteration;
+    private final ProcFileParser statusParser = new ProcFileParser(2048);
+
+    public SamplingEngine(List<? extends Sampler> samplers, Phases phases,
+                          SamplingPolicy policy) {
+        this.samplers = samplers.toArray(new Sampler[samplers.size()]);
+        this.phases = phases;
+        this.policy = policy;
+        tasks = new SampleTask[this.samplers.length];
+        for (int i = 0; i < tasks.length; i++)
+            tasks[i] = new SampleTask(this.samplers[i], i);
+
+        poolSize = Math.max(1, Math.min(MAX_POOL_THREADS,
+                Runtime.getRuntime().availableProcessors()));
+        pool = new ThreadPoolExecutor(poolSize, poolSize, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private int count;
+
+            public Thread newThread(final Runnable r) {
+                Thread t = new Thread(new Runnable() {
+                    public void run() {
+                        ThreadPriority.raise();
+                        r.run();
+                    }
+                }, "Sampler-" + count++);
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Charge the samples of sampler i to stage firstStage + i of meter.  Must
+     * be called before run().
+     */
+    public void setOverheadMeter(OverheadMeter meter, int firstStage) {
+        overhead = meter;
+        firstOverheadStage = firstStage;
+    }
+
+    /**
+     * Run the sampling loop on the calling thread until it is interrupted.
+     * Every sampler is initialized first and exited before returning.
+     */
+    public void run(long beginTime, long iterationInterval) {
+        LinuxSystemInfo.get().resetSnapshots();
+        for (Sampler sampler : samplers)
+            sampler.init(beginTime, iterationInterval);
+        for (SampleTask task : tasks)
+            task.watchdog = new QualityWatchdog(
+                    iterationInterval * BUDGET_PERCENT / 100 * 1000000L);
+        lastStatsTime = beginTime;
+
+        for (long iter = 0; !Thread.interrupted(); ) {
+            long deadline = beginTime + iter * iterationInterval +
+                    iterationInterval * DEADLINE_PERCENT / 100;
+
+            phases.acquire(iter);
+            compute(iter);
+            phases.aggregate(iter, deadline);
+            phases.publish(iter);
+
+            if (iter - lastStatsIteration >= STATS_INTERVAL) {
+                logStats();
+                lastStatsIteration = iter;
+            }
+
+            long curTime = Clock.elapsedRealtime();
+            /* Compute the next iteration that we can make the start of. */
+            long oldIter = iter;
+            int stride = policy.getStride();
+            iter = Math.max(iter + stride, (curTime - beginTime) / iterationInterval);
+            if (oldIter + stride != iter) {
+                Logger.w(TAG, "Had to skip from iteration " + oldIter + " to " + iter);
+            }
+
+            /* Sleep until the boundary of the next iteration.  A wake up request
+             * (e.g. the screen turned on) shortens a long stride to the next
+             * boundary.
+             */
+            try {
+                if (sleepUntil(beginTime + iter * iterationInterval)) {
+                    curTime = Clock.elapsedRealtime();
+                    iter = Math.max(oldIter + 1, (curTime - beginTime) / iterationInterval + 1);
+                    sleepUntil(beginTime + iter * iterationInterval);
+                }
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+
+        /* Tasks still queued never started. */
+        for (Runnable queued : pool.shutdownNow())
+            ((SampleTask) queued).busy = false;
+        boolean terminated = false;
+        try {
+            terminated = pool.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        /* A sampler still running on a pool thread is not exited under its
+         * feet, it is left to the garbage collector. */
+        for (SampleTask task : tasks) {
+            if (!terminated && task.busy) {
+                Logger.w(TAG, "[" + task.sampler.getComponentName() +
+                        "] still sampling, not exited");
+                continue;
+            }
+            task.sampler.exit();
+        }
+    }
+
+    /**
+     * Run the samplers over a trace instead of the device, on the calling
+     * thread and without sleeping: each iteration of the trace is acquired,
+     * sampled by the samplers that were dispatched for it when recording, at
+     * the same quality, then aggregated and published.  Returns at the end
+     * of the trace or when the thread is interrupted.
+     */
+    public void replay(TraceReplayer replayer, Clock.Virtual clock, long iterationInterval) {
+        long iter = replayer.nextIteration(clock);
+        if (iter < 0) {
+            Logger.w(TAG, "Empty trace");
+            return;
+        }
+        long beginTime = clock.now() - iter * iterationInterval;
+        LinuxSystemInfo.get().resetSnapshots();
+        for (Sampler sampler : samplers)
+            sampler.init(beginTime, iterationInterval);
+        /* The qualities come from the trace, the watchdogs only have to stay
+         * out of the way. */
+        for (SampleTask task : tasks)
+            task.watchdog = new QualityWatchdog(Long.MAX_VALUE / 100);
+        pool.shutdown();
+
+        for (; iter >= 0 && !Thread.interrupted(); iter = replayer.nextIteration(clock)) {
+            phases.acquire(iter);
+            for (SampleTask task : tasks) {
+                int quality = (int) TraceEvents.takeValue(TraceEvents.SAMPLE, Sampler.QUALITY_FULL);
+                if (quality < 0) {
+                    skippedSamples++;
+                    continue;
+                }
+                task.iteration = iter;
+                task.quality = quality;
+                dispatched++;
+                task.run();
+            }
+            phases.aggregate(iter, clock.now());
+            phases.publish(iter);
+        }
+        Logger.i(TAG, "Replay done: " + dispatched + " samples, " + skippedSamples +
+                " skipped, " + replayer.getMissingReads() + " reads not in the trace");
+
+        for (Sampler sampler : samplers)
+            sampler.exit();
+    }
+
+    /**
+     * Cut the current sleep short, callable from any thread.
+     */
+    public void wakeUp() {
+        synchronized (sleepLock) {
+            wakeRequested = true;
+            sleepLock.notify();
+        }
+    }
+
+    /* A wake up requested while the iteration was being computed is still
+     * pending and ends the sleep right away, the flag is only cleared once
+     * consumed here.
+     * @return true if woken up before the time
+     */
+    private boolean sleepUntil(long time) throws InterruptedException {
+        synchronized (sleepLock) {
+            long sleep = time - Clock.elapsedRealtime();
+            if (sleep > 0)
+                wakeups++;
+            while (sleep > 0) {
+                if (wakeRequested) {
+                    wakeRequested = false;
+                    return true;
+                }
+                sleepLock.wait(sleep);
+                sleep = time - Clock.elapsedRealtime();
+            }
+            wakeRequested = false;
+            return false;
+        }
+    }
+
+    /* Dispatches the samplers to the pool, their results are handed to the
+     * aggregation through their own handoff.
+     */
+    private void compute(long iteration) {
+        int minQuality = policy.isUidScanSuspended() ?
+                Sampler.QUALITY_ALL_ONLY : Sampler.QUALITY_FULL;
+        for (SampleTask task : tasks) {
+            if (task.busy) {
+                skippedSamples++;
+                if (task.watchdog.onOverrun())
+                    logQuality(task);
+                TraceEvents.recordValue(TraceEvents.SAMPLE, -1);
+                continue;
+            }
+            task.busy = true;
+            task.iteration = iteration;
+            task.quality = Math.max(minQuality, task.watchdog.getQuality());
+            TraceEvents.recordValue(TraceEvents.SAMPLE, task.quality);
+            dispatched++;
+            pool.execute(task);
+        }
+    }
+
+    private void logQuality(SampleTask task) {
+        Logger.i(TAG, "[" + task.sampler.getComponentName() + "] quality now " +
+                Sampler.QUALITY_NAMES[task.watchdog.getQuality()]);
+    }
+
+    private void logStats() {
+        long now = Clock.elapsedRealtime();
+        long switches = readContextSwitches();
+        String switchRate = "n/a";
+        if (switches >= 0 && lastContextSwitches >= 0 && now > lastStatsTime)
+            switchRate = String.valueOf((switches - lastContextSwitches) * 1000 /
+                    (now - lastStatsTime));
+        Logger.i(TAG, "stats: " + poolSize + " pool threads, " +
+                (wakeups - lastStatsWakeups) + " timed wakeups in " + (now - lastStatsTime) +
+                "ms, " + dispatched + " samples, " + skippedSamples + " skipped, " +
+                switchRate + " context switches/s");
+        lastContextSwitches = switches;
+        lastStatsWakeups = wakeups;
+        lastStatsTime = now;
+    }
+
+    /* Sum of the context switches of every thread of the process, -1 if the
+     * kernel does not report them.
+     */
+    private long readContextSwitches() {
+        String[] threads = new File("/proc/self/task").list();
+        if (threads == null)
+            return -1;
+        long total = 0;
+        for (String tid : threads) {
+            if (statusParser.readFile("/proc/self/task/" + tid + "/status") < 0)
+                continue;
+            long v = ProcFileParser.parseKeyValue(statusParser.getBuffer(), VOLUNTARY_SWITCHES);
+            long n = ProcFileParser.parseKeyValue(statusParser.getBuffer(), NONVOLUNTARY_SWITCHES);
+            if (v < 0 || n < 0)
+                return -1;
+            total += v + n;
+        }
+        return total;
+    }
+
+    /**
+     * @return number of timed wakeups of the engine thread since it started
+     */
+    public long getWakeups() {
+        return wakeups;
+    }
+
+    /**
+     * @return number of samples not taken because the sampler was still busy
+     */
+    public long getSkippedSamples() {
+        return skippedSamples;
+    }
+
+    private class SampleTask implements Runnable {
+        final Sampler sampler;
+        final int index;
+        /* Written by the engine thread before the task is queued. */
+        volatile long iteration;
+        volatile int quality;
+        volatile boolean busy;
+        /* Set by run() before the first dispatch. */
+        QualityWatchdog watchdog;
+
+        SampleTask(Sampler sampler, int index) {
+            this.sampler = sampler;
+            this.index = index;
+        }
+
+        public void run() {
+            long iter = iteration;
+            OverheadMeter meter = overhead;
+            long cpuStart = meter == null ? -1 : OverheadMeter.threadCpuTime();
+            long wallStart = OverheadMeter.now();
+            try {
+                sampler.setQuality(quality);
+                sampler.sample(iter);
+            } catch (RuntimeException e) {
+                Logger.w(TAG, "[" + sampler.getComponentName() + "] failed iteration " +
+                        iter + ": " + e);
+            } finally {
+                if (meter != null)
+                    meter.record(firstOverheadStage + index, cpuStart, wallStart);
+                if (watchdog.onSample(OverheadMeter.now() - wallStart))
+                    logQuality(this);
+                busy = false;
+            }
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+Copyright (C) 2011 The University of Michigan
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+Please send inquiries to powertutor@umich.edu
+*/
+
+package fabiogentile.powertutor.service;
+
+/**
+ * Decides how often the SamplingEngine samples the components, so that the
+ * profiler does not keep the phone busy while nothing happens.
+ * <ul>
+ * <li>FULL: every iteration, with per-uid information.  Used while the
+ * screen is on and after any burst of activity.</li>
+ * <li>REDUCED: screen off and cpu idle for a few samples, one sample every
+ * REDUCED_INTERVAL ms.</li>
+ * <li>IDLE: screen off and cpu idle for longer, one sample every
+ * IDLE_INTERVAL ms and the per-uid scans are suspended.</li>
+ * </ul>
+ * The iterations in between are not sampled.  Components measure cumulative
+ * counters, so the next sample covers them and the estimator charges its
+ * power to each of the skipped iterations.
+ * <p>
+ * The screen state is set from a broadcast receiver, everything else is
+ * only called by the engine thread.
+ */
+public class SamplingPolicy {
+    public static final int MODE_FULL = 0;
+    public static final int MODE_REDUCED = 1;
+    public static final int MODE_IDLE = 2;
+    public static final String[] MODE_NAMES = {"full", "reduced", "idle"};
+
+    private static final long REDUCED_INTERVAL = 5000;
+    private static final long IDLE_INTERVAL = 10000;
+    /* Busy cpu fraction under which the device is considered idle. */
+    private static final double IDLE_CPU = 0.05;
+    /* Busy cpu fraction that brings back full rate sampling. */
+    private static final double SPIKE_CPU = 0.25;
+    /* Consecutive idle samples before lowering the rate one step. */
+    private static final int IDLE_SAMPLES = 3;
+
+    private final long iterationInterval;
+    private volatile boolean screenOn = true;
+    private volatile int mode = MODE_FULL;
+    private int idleSamples;
+
+    public SamplingPolicy(long iterationInterval) {
+        this.iterationInterval = iterationInterval;
+    }
+
+    /**
+     * Called from any thread.  Turning the screen on brings back full rate
+     * sampling at the next stride computation.
+     *
+     * @return true if the engine should be woken up for that
+     */
+    public boolean setScreenOn(boolean on) {
+        screenOn = on;
+        return on && mode != MODE_FULL;
+    }
+
+    /**
+     * Update the mode after a sample.
+     *
+     * @param cpuBusy busy fraction of the cpu over the sampled span, negative
+     *                if unknown
+     * @return true if the mode changed
+     */
+    public boolean update(double cpuBusy) {
+        int old = mode;
+        if (screenOn || cpuBusy < 0 || cpuBusy >= SPIKE_CPU) {
+            mode = MODE_FULL;
+            idleSamples = 0;
+        } else if (cpuBusy < IDLE_CPU) {
+            if (++idleSamples >= IDLE_SAMPLES && mode < MODE_IDLE) {
+                mode++;
+                idleSamples = 0;
+            }
+        } else {
+            /* Some activity: stay at the current rate. */
+            idleSamples = 0;
+        }
+        return mode != old;
+    }
+
+    public int getMode() {
+        return mode;
+    }
+
+    /**
+     * @return number of iterations until the next sample
+     */
+    public int getStride() {
+        if (screenOn)
+            return 1;
+        long interval;
+        switch (mode) {
+            case MODE_REDUCED:
+                interval = REDUCED_INTERVAL;
+                break;
+            case MODE_IDLE:
+                interval = IDLE_INTERVAL;
+                break;
+            default:
+                return 1;
+        }
+        return (int) Math.max(1, interval / iterationInterval);
+    }
+
+    /**
+     * @return true if components should skip their per-uid scans
+     */
+    public boolean isUidScanSuspended() {
+        return mode == MODE_IDLE && !screenOn;
+    }
+}
@@ -0,0 +1,134 @@
+/*
+Copyright (C) 2011 The University of Michigan
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+Please send inquiries to powertutor@umich.edu
+*/
+
+package fabiogentile.powertutor.service;
+
+import java.io.File;
+import java.io.IOException;
+
+import fabiogentile.powertutor.util.Clock;
+import fabiogentile.powertutor.util.Logger;
+import fabiogentile.powertutor.util.ProcSource;
+import fabiogentile.powertutor.util.TraceRecorder;
+import fabiogentile.powertutor.util.TraceReplayer;
+
+/**
+ * Puts a trace in front of the sampling pipeline: either a TraceRecorder
+ * saving what the components read, or a TraceReplayer serving it back with a
+ * virtual clock.  The replay needs no device, it runs on any JVM as fast as
+ * the components compute.
+ * <p>
+ * Usage:
+ * <pre>
+ *   TraceSession trace = TraceSession.replay(file);
+ *   ... create the components, they probe the files ...
+ *   trace.run(new SamplingEngine(components, phases, policy), interval);
+ *   trace.close();
+ * </pre>
+ * The phases call beginIteration() from acquire(), so that a recording
+ * knows where each iteration starts.  A replayed trace has to be played
+ * with the components, in the same order, it was recorded with.
+ */
+public final class TraceSession {
+    private static final String TAG = "TraceSession";
+
+    private final TraceRecorder recorder;
+    private final TraceReplayer replayer;
+    private final Clock.Virtual clock;
+
+    private TraceSession(TraceRecorder recorder, TraceReplayer replayer) {
+        this.recorder = recorder;
+        this.replayer = replayer;
+        if (replayer != null) {
+            clock = new Clock.Virtual(replayer.getStartTime());
+            Clock.set(clock);
+            ProcSource.set(replayer);
+        } else {
+            clock = null;
+            ProcSource.set(recorder);
+        }
+    }
+
+    /**
+     * Record what is read from the files to a new trace.
+     */
+    public static TraceSession record(File file) throws IOException {
+        return record(file, ProcSource.DIRECT);
+    }
+
+    /**
+     * Record what is read from source to a new trace.
+     */
+    public static TraceSession record(File file, ProcSource source) throws IOException {
+        Logger.i(TAG, "Recording " + file);
+        return new TraceSession(new TraceRecorder(file, source), null);
+    }
+
+    /**
+     * Serve the reads from a trace, and its time through a virtual clock.
+     */
+    public static TraceSession replay(File file) throws IOException {
+        Logger.i(TAG, "Replaying " + file);
+        return new TraceSession(null, new TraceReplayer(file));
+    }
+
+    public boolean isReplay() {
+        return replayer != null;
+    }
+
+    /**
+     * Mark the start of an iteration, before the components read for it.
+     * Nothing to do when replaying.
+     */
+    public void beginIteration(long iteration) {
+        if (recorder != null)
+            recorder.beginIteration(iteration, Clock.elapsedRealtime());
+    }
+
+    /**
+     * Run engine on the calling thread: over the whole trace when replaying,
+     * in real time until the thread is interrupted when recording.
+     */
+    public void run(SamplingEngine engine, long iterationInterval) {
+        if (replayer != null)
+            engine.replay(replayer, clock, iterationInterval);
+        else
+            engine.run(Clock.elapsedRealtime(), iterationInterval);
+    }
+
+    /**
+     * @return number of reads the replayed trace had no record for, 0 when
+     * recording
+     */
+    public long getMissingReads() {
+        return replayer == null ? 0 : replayer.getMissingReads();
+    }
+
+    /**
+     * Give the files and the clock back to the platform.
+     */
+    public void close() {
+        ProcSource.set(null);
+        Clock.set(null);
+        if (recorder != null)
+            recorder.close();
+        if (replayer != null)
+            replayer.close();
+    }
+}
@@ -19,8 +19,6 @@ Please send inquiries to powertutor@umich.edu
 
 package fabiogentile.powertutor.util;
 
-import java.io.File;
-
 public class BatteryStats {
     private static final String TAG = "BatteryStats";
     private static final String[] VOLTAGE_FILES = {
@@ -66,13 +64,12 @@ public class BatteryStats {
             60 * 60 * 1e-6, // Source in micro amp hours.
     };
     private static BatteryStats instance = null;
-    SystemInfo sysInfo;
-    String voltageFile;
-    String currentFile;
-    String tempFile;
-    String chargeFile;
-    String capacityFile;
-    String fullCapacityFile;
+    SysfsCounter voltageFile;
+    SysfsCounter currentFile;
+    SysfsCounter tempFile;
+    SysfsCounter chargeFile;
+    SysfsCounter capacityFile;
+    SysfsCounter fullCapacityFile;
     double voltageConv;
     double currentConv;
     double tempConv;
@@ -81,52 +78,50 @@ public class BatteryStats {
     double fullCapacityConv;
 
     private BatteryStats() {
-        sysInfo = SystemInfo.getInstance();
-
         // Get voltage information.
         for (int i = 0; i < VOLTAGE_FILES.length; i++) {
-            if (new File(VOLTAGE_FILES[i]).exists()) {
-                voltageFile = VOLTAGE_FILES[i];
+            if (ProcSource.get().exists(VOLTAGE_FILES[i])) {
+                voltageFile = new SysfsCounter(VOLTAGE_FILES[i]);
                 voltageConv = VOLTAGE_CONV[i];
             }
         }
 
         // Get current information.
         for (int i = 0; i < CURRENT_FILES.length; i++) {
-            if (new File(CURRENT_FILES[i]).exists()) {
-                currentFile = CURRENT_FILES[i];
+            if (ProcSource.get().exists(CURRENT_FILES[i])) {
+                currentFile = new SysfsCounter(CURRENT_FILES[i]);
                 currentConv = CURRENT_CONV[i];
             }
         }
 
         // Get temperature information.
         for (int i = 0; i < TEMP_FILES.length; i++) {
-            if (new File(TEMP_FILES[i]).exists()) {
-                tempFile = TEMP_FILES[i];
+            if (ProcSource.get().exists(TEMP_FILES[i])) {
+                tempFile = new SysfsCounter(TEMP_FILES[i]);
                 tempConv = TEMP_CONV[i];
             }
         }
 
         // Get charge information.
         for (int i = 0; i < CHARGE_FILES.length; i++) {
-            if (new File(CHARGE_FILES[i]).exists()) {
-                chargeFile = CHARGE_FILES[i];
+            if (ProcSource.get().exists(CHARGE_FILES[i])) {
+                chargeFile = new SysfsCounter(CHARGE_FILES[i]);
                 chargeConv = CHARGE_CONV[i];
             }
         }
 
         // Get capacity information.
         for (int i = 0; i < CAPACITY_FILES.length; i++) {
-            if (new File(CAPACITY_FILES[i]).exists()) {
-                capacityFile = CAPACITY_FILES[i];
+            if (ProcSource.get().exists(CAPACITY_FILES[i])) {
+                capacityFile = new SysfsCounter(CAPACITY_FILES[i]);
                 capacityConv = CAPACITY_CONV[i];
             }
         }
 
         // Get full capacity information.
         for (int i = 0; i < FULL_CAPACITY_FILES.length; i++) {
-            if (new File(FULL_CAPACITY_FILES[i]).exists()) {
-                fullCapacityFile = FULL_CAPACITY_FILES[i];
+            if (ProcSource.get().exists(FULL_CAPACITY_FILES[i])) {
+                fullCapacityFile = new SysfsCounter(FULL_CAPACITY_FILES[i]);
                 fullCapacityConv = FULL_CAPACITY_CONV[i];
             }
         }
@@ -145,7 +140,7 @@ public class BatteryStats {
 
     public double getVoltage() {
         if (voltageFile == null) return -1.0;
-        long volt = sysInfo.readLongFromFile(voltageFile);
+        long volt = voltageFile.readLong();
         return volt == -1 ? -1.0 : voltageConv * volt;
     }
 
@@ -154,7 +149,8 @@ public class BatteryStats {
     }
 
     public double getCurrent() {
-        long curr = sysInfo.readLongFromFile(currentFile);
+        if (currentFile == null) return -1.0;
+        long curr = currentFile.readLong();
         return curr == -1 ? -1.0 : currentConv * curr;
     }
 
@@ -164,7 +160,7 @@ public class BatteryStats {
 
     public double getTemp() {
         if (tempFile == null) return -1.0;
-        long temp = sysInfo.readLongFromFile(tempFile);
+        long temp = tempFile.readLong();
         return temp == -1 ? -1.0 : tempConv * temp;
     }
 
@@ -179,7 +175,7 @@ public class BatteryStats {
             double r2 = getFullCapacity();
             return r1 < 0 || r2 < 0 ? -1.0 : r1 * r2;
         }
-        long charge = sysInfo.readLongFromFile(chargeFile);
+        long charge = chargeFile.readLong();
         return charge == -1 ? -1.0 : chargeConv * charge;
     }
 
@@ -189,7 +185,7 @@ public class BatteryStats {
 
     public double getCapacity() {
         if (capacityFile == null) return -1.0;
-        long cap = sysInfo.readLongFromFile(capacityFile);
+        long cap = capacityFile.readLong();
         return cap == -1 ? -1.0 : capacityConv * cap;
     }
 
@@ -199,7 +195,7 @@ public class BatteryStats {
 
     public double getFullCapacity() {
         if (fullCapacityFile == null) return -1.0;
-        long cap = sysInfo.readLongFromFile(fullCapacityFile);
+        long cap = fullCapacityFile.readLong();
         return cap == -1 ? -1.0 : fullCapacityConv * cap;
     }
 }
@@ -0,0 +1,81 @@
+/*
+Copyright (C) 2011 The University of Michigan
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+Please send inquiries to powertutor@umich.edu
+*/
+
+package fabiogentile.powertutor.util;
+
+/**
+ * Source of the elapsedRealtime() timestamps used by the sampling pipeline,
+ * in ms.  It is the clock of the platform (SystemClock on Android, which
+ * keeps counting in deep sleep) unless a trace replay installs a Virtual
+ * clock, so that the components see the time of the recording.
+ */
+public abstract class Clock {
+    private static volatile Clock platform = new Clock() {
+        @Override
+        public long now() {
+            return System.nanoTime() / 1000000;
+        }
+    };
+    private static volatile Clock current = platform;
+
+    /**
+     * @return ms since an arbitrary origin of the current clock
+     */
+    public static long elapsedRealtime() {
+        return current.now();
+    }
+
+    /**
+     * Install a clock, null to go back to the platform one.
+     */
+    public static void set(Clock clock) {
+        current = clock == null ? platform : clock;
+    }
+
+    /**
+     * Replace the monotonic default with the clock of the platform, and
+     * install it.  Called once at startup.
+     */
+    public static void setPlatform(Clock clock) {
+        platform = clock;
+        current = clock;
+    }
+
+    public abstract long now();
+
+    /**
+     * Clock that only moves when told to.
+     */
+    public static class Virtual extends Clock {
+        private volatile long time;
+
+        public Virtual(long time) {
+            this.time = time;
+        }
+
+        @Override
+        public long now() {
+            return time;
+        }
+
+        public void setTime(long time) {
+            this.time = time;
+        }
+    }
+}
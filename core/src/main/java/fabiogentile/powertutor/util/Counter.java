@@ -0,0 +1,276 @@
+/*
+Copyright (C) 2011 The University of Michigan
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+Please send inquiries to powertutor@umich.edu
+*/
+
+package fabiogentile.powertutor.util;
+
+/**
+ * Sums values over time windows of any length at a bounded memory cost.
+ * Values land in one second buckets, and as buckets age out of their tier
+ * they are folded into the next coarser one: minutes, hours, days and
+ * weeks.  Every bucket keeps the sum, number, minimum and maximum of its
+ * values, so long ranges can be charted from the coarse tiers.  Time is
+ * given as an iteration number and converted with the iteration interval,
+ * so adding a value does not need to read the clock.
+ */
+public class Counter {
+    public static final int WINDOW_MINUTE = 0;
+    public static final int WINDOW_HOUR = 1;
+    public static final int WINDOW_DAY = 2;
+    public static final int WINDOW_TOTAL = 3;
+    public static final CharSequence[] WINDOW_NAMES = {"Last minute",
+            "Last Hour", "Last Day", "Total"};
+    // To be used for constructions like "Showing X over ..."
+    public static final CharSequence[] WINDOW_DESCS = {"the last minute",
+            "the last hour", "the last day", "all time"};
+    private static final long WINDOW_DURATIONS[] = {60 * 1000, 60 * 60 * 1000,
+            24 * 60 * 60 * 1000};
+
+    public static final long SECOND = 1000;
+    public static final long MINUTE = 60 * SECOND;
+    public static final long HOUR = 60 * MINUTE;
+    public static final long DAY = 24 * HOUR;
+    public static final long WEEK = 7 * DAY;
+    /* Width of the buckets of each tier and how many of them it keeps.  The
+     * data of a tier is always older than the window of the finer ones, a
+     * value is only ever counted in one bucket.
+     */
+    private static final long[] TIER_WIDTHS = {SECOND, MINUTE, HOUR, DAY, WEEK};
+    private static final int[] TIER_BUCKETS = {60, 60, 24, 31, 52};
+    /** Longest lookback that is answered from the tiers, about a year. */
+    public static final long MAX_LOOKBACK = TIER_WIDTHS[TIER_WIDTHS.length - 1] *
+            TIER_BUCKETS[TIER_BUCKETS.length - 1];
+
+    private final long iterationInterval;
+    private long total;
+    private long totalCount;
+    private Tier[] tiers;
+
+    /**
+     * @param iterationInterval ms between two iterations
+     */
+    public Counter(long iterationInterval) {
+        this.iterationInterval = iterationInterval;
+        tiers = new Tier[TIER_WIDTHS.length];
+        for (int i = 0; i < tiers.length; i++)
+            tiers[i] = new Tier(TIER_WIDTHS[i], TIER_BUCKETS[i]);
+    }
+
+    public void add(long x, long iteration) {
+        total += x;
+        totalCount++;
+        long now = iteration * iterationInterval;
+        long index = now / SECOND;
+        wind(0, index);
+        tiers[0].put(index, x, 1, x, x);
+    }
+
+    /* Moves tier up to bucket index, folding the buckets it drops into the
+     * next tier.
+     */
+    private void wind(int tier, long index) {
+        Tier t = tiers[tier];
+        if (t.base + t.size <= index) {
+            if (t.sum != null) {
+                long end = Math.min(index - t.size + 1, t.base + t.size);
+                for (long i = t.base; i < end; i++) {
+                    int slot = (int) (i % t.size);
+                    if (t.count[slot] == 0)
+                        continue;
+                    if (tier + 1 < tiers.length) {
+                        long coarse = i * t.width / tiers[tier + 1].width;
+                        wind(tier + 1, coarse);
+                        tiers[tier + 1].put(coarse, t.sum[slot], t.count[slot],
+                                t.min[slot], t.max[slot]);
+                    }
+                    t.count[slot] = 0;
+                    t.sum[slot] = 0;
+                }
+            }
+            t.base = index - t.size + 1;
+        }
+    }
+
+    /**
+     * @param iteration the current iteration, the window ends with it
+     */
+    public long get(int window, long iteration) {
+        if (window == WINDOW_TOTAL) {
+            return total;
+        }
+        return getSum(WINDOW_DURATIONS[window], iteration);
+    }
+
+    /**
+     * @return number of values added in the window
+     */
+    public long getCount(int window, long iteration) {
+        if (window == WINDOW_TOTAL) {
+            return totalCount;
+        }
+        return Math.round(collect(WINDOW_DURATIONS[window], iteration, false));
+    }
+
+    /**
+     * @param lookback  length of the window in ms, up to MAX_LOOKBACK
+     * @param iteration the current iteration, the window ends with it
+     * @return sum of the values added in the window
+     */
+    public long getSum(long lookback, long iteration) {
+        return Math.round(collect(lookback, iteration, true));
+    }
+
+    /* The bucket crossing the start of the window is counted in proportion
+     * of the part of it inside the window.
+     */
+    private double collect(long lookback, long iteration, boolean sum) {
+        long end = windTo(iteration);
+        long start = end - lookback;
+        double ret = 0;
+        for (int tier = 0; tier < tiers.length; tier++) {
+            Tier t = tiers[tier];
+            if (t.sum == null)
+                continue;
+            long limit = dataEnd(tier, end);
+            for (long i = t.base; i < t.base + t.size; i++) {
+                int slot = (int) (i % t.size);
+                if (t.count[slot] == 0)
+                    continue;
+                long bucketStart = i * t.width;
+                long bucketEnd = Math.min(bucketStart + t.width, limit);
+                if (bucketEnd <= start)
+                    continue;
+                double share = bucketStart >= start ? 1 :
+                        (double) (bucketEnd - start) / (bucketEnd - bucketStart);
+                ret += share * (sum ? t.sum[slot] : t.count[slot]);
+            }
+        }
+        return ret;
+    }
+
+    /* Winds the tiers to the current iteration.
+     * @return end of the current second, in ms
+     */
+    private long windTo(long iteration) {
+        long index = iteration * iterationInterval / SECOND;
+        wind(0, index);
+        return (index + 1) * SECOND;
+    }
+
+    /* Everything in a tier was folded from before the window of the finer
+     * tier, its buckets are spread over that time only.
+     */
+    private long dataEnd(int tier, long end) {
+        if (tier == 0)
+            return end;
+        Tier finer = tiers[tier - 1];
+        return finer.base * finer.width;
+    }
+
+    /**
+     * Resample the last n * width ms into n buckets, oldest first, for
+     * charts.  A stored bucket spread over several output buckets gives each
+     * of them its share of the sum and count and its own minimum and maximum.
+     *
+     * @param avg receives the mean of the values of each bucket, 0 if empty
+     * @param min receives the smallest value of each bucket, 0 if empty
+     * @param max receives the largest value of each bucket, 0 if empty
+     */
+    public void getSeries(long iteration, long width, int n, double[] avg,
+                          long[] min, long[] max) {
+        long end = windTo(iteration);
+        long start = end - n * width;
+        double[] sums = new double[n];
+        double[] counts = new double[n];
+        for (int k = 0; k < n; k++) {
+            min[k] = Long.MAX_VALUE;
+            max[k] = Long.MIN_VALUE;
+        }
+        for (int tier = 0; tier < tiers.length; tier++) {
+            Tier t = tiers[tier];
+            if (t.sum == null)
+                continue;
+            long limit = dataEnd(tier, end);
+            for (long i = t.base; i < t.base + t.size; i++) {
+                int slot = (int) (i % t.size);
+                if (t.count[slot] == 0)
+                    continue;
+                long bucketStart = i * t.width;
+                long bucketEnd = Math.min(bucketStart + t.width, limit);
+                if (bucketEnd <= start || bucketStart >= end || bucketEnd <= bucketStart)
+                    continue;
+                int first = (int) Math.max(0, (bucketStart - start) / width);
+                int last = (int) Math.min(n - 1, (bucketEnd - 1 - start) / width);
+                for (int k = first; k <= last; k++) {
+                    long overlap = Math.min(bucketEnd, start + (k + 1) * width) -
+                            Math.max(bucketStart, start + k * width);
+                    double share = (double) overlap / (bucketEnd - bucketStart);
+                    sums[k] += share * t.sum[slot];
+                    counts[k] += share * t.count[slot];
+                    min[k] = Math.min(min[k], t.min[slot]);
+                    max[k] = Math.max(max[k], t.max[slot]);
+                }
+            }
+        }
+        for (int k = 0; k < n; k++) {
+            avg[k] = counts[k] > 0 ? sums[k] / counts[k] : 0;
+            if (min[k] > max[k])
+                min[k] = max[k] = 0;
+        }
+    }
+
+    /* A ring of size buckets of width ms, holding the buckets [base, base +
+     * size) at index % size.  The arrays are only created with the first
+     * value.
+     */
+    private static class Tier {
+        public final long width;
+        public final int size;
+        public long base;
+        public long[] sum;
+        public int[] count;
+        public long[] min;
+        public long[] max;
+
+        public Tier(long width, int size) {
+            this.width = width;
+            this.size = size;
+        }
+
+        public void put(long index, long sum, int count, long min, long max) {
+            if (this.sum == null) {
+                this.sum = new long[size];
+                this.count = new int[size];
+                this.min = new long[size];
+                this.max = new long[size];
+            }
+            if (index < base)
+                return;
+            int slot = (int) (index % size);
+            if (this.count[slot] == 0) {
+                this.min[slot] = min;
+                this.max[slot] = max;
+            } else {
+                this.min[slot] = Math.min(this.min[slot], min);
+                this.max[slot] = Math.max(this.max[slot], max);
+            }
+            this.sum[slot] += sum;
+            this.count[slot] += count;
+        }
+    }
+}
@@ -0,0 +1,329 @@
+/*
+Copyright (C) 2011 The University of Michigan
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+Please send inquiries to powertutor@umich.edu
+*/
+
+package fabiogentile.powertutor.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Time spent at each cpu frequency since the previous update, both per uid
+ * (/proc/uid_time_in_state) and for the whole system (the cpufreq stats of
+ * every core).  Sampling scaling_cur_freq once per iteration misses most of
+ * the frequency changes done by the governor, the residency counters do not.
+ * <p>
+ * /proc/uid_time_in_state starts with a header listing the frequencies in kHz
+ * ("uid: 300000 422400 ...") followed by one row per uid with the time spent
+ * at each of them, in clock ticks.  Rows are parsed in place into a flat
+ * table indexed by a slot assigned to each uid the first time it shows up,
+ * so no object is created once every uid has been seen.
+ * <p>
+ * Not thread safe, meant to be owned by the CPU component.
+ */
+public class CpuFreqResidency {
+    private static final String TAG = "CpuFreqResidency";
+    private static final String UID_TIME_IN_STATE = "/proc/uid_time_in_state";
+    private static final String CPU_DIR = "/sys/devices/system/cpu/cpu";
+    private static final String TIME_IN_STATE = "/cpufreq/stats/time_in_state";
+
+    /* Frequencies in MHz, as used by PhoneConstants.cpuPowerRatios(). */
+    private double[] freqs;
+    private long[] freqsKhz;
+    private long[] row;
+
+    private final SysfsCounter uidFile;
+    private ProcFileParser uidParser;
+    private boolean uidAvailable;
+    private final IntIntMap uidSlots;
+    private int slotCount;
+    private long[] uidLast;
+    private long[] uidDelta;
+    private long[] slotSeen;
+    private boolean uidPrimed;
+
+    private final SysfsCounter[] coreFiles;
+    private final ProcFileParser coreParser;
+    private boolean allAvailable;
+    private long[] coreLast;
+    private boolean[] corePrimed;
+    private long[] allDelta;
+
+    private long generation;
+
+    private CpuFreqResidency(int cores) {
+        uidFile = new SysfsCounter(UID_TIME_IN_STATE);
+        uidParser = new ProcFileParser(32 * 1024);
+        uidSlots = new IntIntMap();
+        coreParser = new ProcFileParser(1024);
+        coreFiles = new SysfsCounter[cores];
+        for (int i = 0; i < cores; i++)
+            coreFiles[i] = new SysfsCounter(CPU_DIR + i + TIME_IN_STATE);
+    }
+
+    /**
+     * @param cores number of cores of the device
+     * @return a reader, or null if the kernel exports no residency information
+     */
+    public static CpuFreqResidency create(int cores) {
+        CpuFreqResidency r = new CpuFreqResidency(cores);
+        if (!r.init()) {
+            Logger.i(TAG, "create: no cpu frequency residency available");
+            return null;
+        }
+        Logger.i(TAG, "create: uid residency " + r.uidAvailable + ", system residency " +
+                r.allAvailable + ", " + r.freqs.length + " frequencies");
+        return r;
+    }
+
+    /* Builds the frequency table from the uid file header or, failing that,
+     * from the cpufreq stats of the first core.
+     */
+    private boolean init() {
+        ProcFileParser p = UidCpuSource.loadWhole(uidFile, uidParser);
+        if (p != null) {
+            uidParser = p;
+            ByteBuffer buf = p.getBuffer();
+            long[] header = new long[64];
+            int n = ProcFileParser.parseLineFields(buf, 1, header, 0, header.length);
+            if (n > 0) {
+                setFreqs(header, n);
+                uidAvailable = true;
+            }
+        }
+
+        for (int i = 0; i < coreFiles.length && freqsKhz == null; i++) {
+            if (!coreFiles[i].load(coreParser))
+                continue;
+            ByteBuffer buf = coreParser.getBuffer();
+            long[] table = new long[64];
+            long[] line = new long[2];
+            int n = 0;
+            int pos = 0;
+            while (pos < buf.limit() && n < table.length) {
+                buf.position(pos);
+                if (ProcFileParser.parseLineFields(buf, 0, line, 0, 2) == 2)
+                    table[n++] = line[0];
+                pos = ProcFileParser.nextLine(buf, pos);
+            }
+            buf.position(0);
+            if (n > 0)
+                setFreqs(table, n);
+        }
+        if (freqsKhz == null)
+            return false;
+
+        for (SysfsCounter core : coreFiles)
+            allAvailable |= core.exists();
+        coreLast = new long[coreFiles.length * freqs.length];
+        corePrimed = new boolean[coreFiles.length];
+        allDelta = new long[freqs.length];
+        return uidAvailable || allAvailable;
+    }
+
+    private void setFreqs(long[] khz, int n) {
+        freqsKhz = new long[n];
+        freqs = new double[n];
+        for (int i = 0; i < n; i++) {
+            freqsKhz[i] = khz[i];
+            freqs[i] = khz[i] / 1000.0;
+        }
+        row = new long[n + 1];
+        uidLast = new long[16 * n];
+        uidDelta = new long[16 * n];
+        slotSeen = new long[16];
+    }
+
+    /**
+     * @return frequencies in MHz, the column order of every residency table
+     */
+    public double[] getFreqs() {
+        return freqs;
+    }
+
+    public boolean hasUidResidency() {
+        return uidAvailable;
+    }
+
+    public boolean hasAllResidency() {
+        return allAvailable;
+    }
+
+    /**
+     * Read the counters and compute the residency deltas since the last call.
+     *
+     * @return false if nothing could be read
+     */
+    public boolean update() {
+        return update(true);
+    }
+
+    /**
+     * @param withUids false to skip the per-uid table, the next read of it
+     *                 only records a new starting point
+     */
+    public boolean update(boolean withUids) {
+        generation++;
+        boolean ok = false;
+        if (uidAvailable && withUids)
+            ok |= updateUids();
+        else
+            uidPrimed = false;
+        if (allAvailable)
+            ok |= updateAll();
+        return ok;
+    }
+
+    private boolean updateUids() {
+        ProcFileParser p = UidCpuSource.loadWhole(uidFile, uidParser);
+        if (p == null)
+            return false;
+        uidParser = p;
+
+        int n = freqs.length;
+        ByteBuffer buf = p.getBuffer();
+        int lim = buf.limit();
+        /* Skip the header. */
+        int line = ProcFileParser.nextLine(buf, 0);
+        while (line < lim) {
+            buf.position(line);
+            line = ProcFileParser.nextLine(buf, line);
+            if (ProcFileParser.parseLineFields(buf, 0, row, 0, n + 1) != n + 1)
+                continue;
+
+            int uid = (int) row[0];
+            int slot = uidSlots.get(uid, -1);
+            boolean known = slot >= 0;
+            if (!known)
+                slot = newSlot(uid);
+            slotSeen[slot] = generation;
+
+            int base = slot * n;
+            for (int i = 0; i < n; i++) {
+                long v = row[i + 1];
+                long d;
+                if (!uidPrimed)
+                    d = 0;
+                else if (known)
+                    d = v - uidLast[base + i];
+                else
+                    d = v; // Every read lists all uids, this one is new
+                uidDelta[base + i] = d < 0 ? 0 : d;
+                uidLast[base + i] = v;
+            }
+        }
+        buf.position(0);
+        uidPrimed = true;
+        return true;
+    }
+
+    private int newSlot(int uid) {
+        int n = freqs.length;
+        if (slotCount == slotSeen.length) {
+            int size = slotCount * 2;
+            long[] seen = new long[size];
+            System.arraycopy(slotSeen, 0, seen, 0, slotCount);
+            slotSeen = seen;
+            long[] last = new long[size * n];
+            System.arraycopy(uidLast, 0, last, 0, slotCount * n);
+            uidLast = last;
+            long[] delta = new long[size * n];
+            System.arraycopy(uidDelta, 0, delta, 0, slotCount * n);
+            uidDelta = delta;
+        }
+        uidSlots.put(uid, slotCount);
+        return slotCount++;
+    }
+
+    private boolean updateAll() {
+        int n = freqs.length;
+        for (int i = 0; i < n; i++)
+            allDelta[i] = 0;
+
+        boolean ok = false;
+        for (int c = 0; c < coreFiles.length; c++) {
+            /* Offline cores have no cpufreq directory, when they come back
+             * online their counters are used as a new starting point.
+             */
+            if (!coreFiles[c].load(coreParser)) {
+                corePrimed[c] = false;
+                continue;
+            }
+            ok = true;
+            ByteBuffer buf = coreParser.getBuffer();
+            int lim = buf.limit();
+            int base = c * n;
+            int line = 0;
+            int col = 0;
+            while (line < lim) {
+                buf.position(line);
+                line = ProcFileParser.nextLine(buf, line);
+                if (ProcFileParser.parseLineFields(buf, 0, row, 0, 2) != 2)
+                    continue;
+                /* Lines are listed in the same order as the table, only search
+                 * when they are not.
+                 */
+                if (col >= n || freqsKhz[col] != row[0]) {
+                    col = 0;
+                    while (col < n && freqsKhz[col] != row[0])
+                        col++;
+                    if (col == n)
+                        continue;
+                }
+                if (corePrimed[c]) {
+                    long d = row[1] - coreLast[base + col];
+                    if (d > 0)
+                        allDelta[col] += d;
+                }
+                coreLast[base + col] = row[1];
+                col++;
+            }
+            buf.position(0);
+            corePrimed[c] = true;
+        }
+        return ok;
+    }
+
+    /**
+     * @return position of uid in the residency table, -1 if it did not show up
+     * in the last update
+     */
+    public int indexOfUid(int uid) {
+        if (!uidAvailable)
+            return -1;
+        int slot = uidSlots.get(uid, -1);
+        return slot >= 0 && slotSeen[slot] == generation ? slot : -1;
+    }
+
+    /**
+     * @param index value returned by indexOfUid
+     * @param freq  column in getFreqs()
+     * @return clock ticks spent by the uid at the frequency since last update
+     */
+    public long getUidTime(int index, int freq) {
+        return uidDelta[index * freqs.length + freq];
+    }
+
+    /**
+     * @param freq column in getFreqs()
+     * @return clock ticks spent by all the cores at the frequency since last
+     * update, idle time included
+     */
+    public long getAllTime(int freq) {
+        return allDelta[freq];
+    }
+}
@@ -0,0 +1,259 @@
+/*
+Copyright (C) 2011 The University of Michigan
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+Please send inquiries to powertutor@umich.edu
+*/
+
+package fabiogentile.powertutor.util;
+
+/**
+ * Power of each uid over the last maxSize iterations, with the window
+ * counters of the totals.  Every added iteration is stored, zeros included,
+ * so an iteration is found in O(1) from its number.  Uids that are mostly
+ * idle only keep their non zero iterations until they get busy enough to
+ * need the full ring.
+ */
+public class HistoryBuffer {
+    /* A uid gets its dense ring once more than 1/SPARSE_DIVISOR of its
+     * window is non zero, and goes back to the sparse form when it falls
+     * under half of that.
+     */
+    private static final int SPARSE_DIVISOR = 8;
+    private static final int MIN_SPARSE = 4;
+
+    private int maxSize;
+    private final int sparseLimit;
+    private final long iterationInterval;
+    private IntMap<UidData> uidData;
+    /* Latest iteration added, the window counters end with it. */
+    private long lastIteration;
+
+    /**
+     * @param maxSize           number of iterations kept per uid
+     * @param iterationInterval ms between two iterations
+     */
+    public HistoryBuffer(int maxSize, long iterationInterval) {
+        this.maxSize = maxSize;
+        this.iterationInterval = iterationInterval;
+        sparseLimit = Math.max(MIN_SPARSE, maxSize / SPARSE_DIVISOR);
+        uidData = new IntMap<UidData>();
+    }
+
+    /* The iteration should only increase across successive adds. */
+    public synchronized void add(int uid, long iteration, int power) {
+        addLocked(uid, iteration, power);
+    }
+
+    /* Adds power[i] for uid[i], i < count, at every iteration in [from, to]
+     * while taking the lock once.
+     */
+    public synchronized void addAll(int[] uids, int[] powers, int count,
+                                    long from, long to) {
+        for (long it = from; it <= to; it++) {
+            for (int i = 0; i < count; i++)
+                addLocked(uids[i], it, powers[i]);
+        }
+    }
+
+    private void addLocked(int uid, long iteration, int power) {
+        UidData data = uidData.get(uid);
+        if (data == null) {
+            data = new UidData(iterationInterval);
+            uidData.put(uid, data);
+        }
+        if (iteration > lastIteration)
+            lastIteration = iteration;
+        data.sum.add(power, iteration);
+        if (maxSize == 0 || iteration <= data.newest)
+            return;
+
+        if (data.ring != null)
+            storeDense(data, iteration, power);
+        else
+            storeSparse(data, iteration, power);
+    }
+
+    private void storeDense(UidData data, long iteration, int power) {
+        /* Iterations the uid was not seen in used no power. */
+        long gap = Math.max(data.newest + 1, iteration - maxSize + 1);
+        for (long it = gap; it < iteration; it++)
+            writeSlot(data, it, 0);
+        writeSlot(data, iteration, power);
+        boolean lap = data.newest / maxSize != iteration / maxSize;
+        data.newest = iteration;
+        if (lap && data.nonZero < sparseLimit / 2)
+            toSparse(data);
+    }
+
+    private void writeSlot(UidData data, long iteration, int power) {
+        int slot = (int) (iteration % maxSize);
+        if (data.ring[slot] != 0)
+            data.nonZero--;
+        data.ring[slot] = power;
+        if (power != 0)
+            data.nonZero++;
+    }
+
+    private void storeSparse(UidData data, long iteration, int power) {
+        /* Drop the entries leaving the window. */
+        long first = iteration - maxSize + 1;
+        while (data.sparseSize > 0 && data.sparseIter[data.sparseHead] < first) {
+            data.sparseHead = (data.sparseHead + 1) % data.sparseIter.length;
+            data.sparseSize--;
+        }
+        if (power == 0) {
+            data.newest = iteration;
+            return;
+        }
+        if (data.sparseSize == data.sparseIter.length) {
+            if (data.sparseSize >= sparseLimit) {
+                toDense(data);
+                storeDense(data, iteration, power);
+                return;
+            }
+            growSparse(data, Math.min(sparseLimit, 2 * data.sparseSize));
+        }
+        int pos = (data.sparseHead + data.sparseSize) % data.sparseIter.length;
+        data.sparseIter[pos] = iteration;
+        data.sparsePower[pos] = power;
+        data.sparseSize++;
+        data.newest = iteration;
+    }
+
+    private static void growSparse(UidData data, int capacity) {
+        long[] iters = new long[capacity];
+        int[] powers = new int[capacity];
+        for (int i = 0; i < data.sparseSize; i++) {
+            int pos = (data.sparseHead + i) % data.sparseIter.length;
+            iters[i] = data.sparseIter[pos];
+            powers[i] = data.sparsePower[pos];
+        }
+        data.sparseIter = iters;
+        data.sparsePower = powers;
+        data.sparseHead = 0;
+    }
+
+    private void toDense(UidData data) {
+        data.ring = new int[maxSize];
+        data.nonZero = 0;
+        for (int i = 0; i < data.sparseSize; i++) {
+            int pos = (data.sparseHead + i) % data.sparseIter.length;
+            if (data.sparseIter[pos] > data.newest - maxSize)
+                writeSlot(data, data.sparseIter[pos], data.sparsePower[pos]);
+        }
+        data.sparseIter = null;
+        data.sparsePower = null;
+        data.sparseHead = data.sparseSize = 0;
+    }
+
+    private void toSparse(UidData data) {
+        data.sparseIter = new long[Math.max(MIN_SPARSE, data.nonZero)];
+        data.sparsePower = new int[data.sparseIter.length];
+        data.sparseHead = data.sparseSize = 0;
+        for (long it = Math.max(0, data.newest - maxSize + 1); it <= data.newest; it++) {
+            int power = data.ring[(int) (it % maxSize)];
+            if (power != 0) {
+                data.sparseIter[data.sparseSize] = it;
+                data.sparsePower[data.sparseSize++] = power;
+            }
+        }
+        data.ring = null;
+        data.nonZero = 0;
+    }
+
+    /* Fills in the previous number timestamps starting from a timestamp and
+     * working backwards.  Any timestamp with no information is just treated
+     * as using no power.  A timestamp of -1 starts from the latest iteration
+     * of the uid.
+     */
+    public synchronized int[] get(int uid, long timestamp, int number) {
+        if (number < 0) number = 0;
+        if (number > maxSize) number = maxSize;
+        int[] ret = new int[number];
+        UidData data = uidData.get(uid);
+        if (data == null || data.newest < 0) {
+            return ret;
+        }
+        if (timestamp == -1) {
+            timestamp = data.newest;
+        }
+        /* Only the window up to the newest iteration is known. */
+        long first = Math.max(0, data.newest - maxSize + 1);
+        int ind = (int) Math.max(0, Math.min(number, timestamp - data.newest));
+        long it = timestamp - ind;
+
+        if (data.ring != null) {
+            for (; ind < number && it >= first; ind++, it--)
+                ret[ind] = data.ring[(int) (it % maxSize)];
+            return ret;
+        }
+
+        /* Walk the sparse entries backwards from the last one not after it. */
+        int len = data.sparseIter.length;
+        int lo = 0;
+        int hi = data.sparseSize;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (data.sparseIter[(data.sparseHead + mid) % len] <= it)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        long last = it - (number - ind);
+        for (int i = lo - 1; i >= 0; i--) {
+            int pos = (data.sparseHead + i) % len;
+            long entry = data.sparseIter[pos];
+            if (entry <= last || entry < first)
+                break;
+            ret[ind + (int) (it - entry)] = data.sparsePower[pos];
+        }
+        return ret;
+    }
+
+    public synchronized long getTotal(int uid, int windowType) {
+        UidData data = uidData.get(uid);
+        return data == null ? 0 : data.sum.get(windowType, lastIteration);
+    }
+
+    public synchronized long getCount(int uid, int windowType) {
+        UidData data = uidData.get(uid);
+        return data == null ? 0 : data.sum.getCount(windowType, lastIteration);
+    }
+
+    private static class UidData {
+        /* Zeros are added too, the counter also gives the number of
+         * iterations the uid was seen in. */
+        public Counter sum;
+        /* Newest iteration stored, the window is the maxSize iterations up
+         * to it.  -1 before the first one.
+         */
+        public long newest = -1;
+        /* Dense form: the power of iteration i is at i % maxSize. */
+        public int[] ring;
+        public int nonZero;
+        /* Sparse form: the non zero iterations of the window in increasing
+         * order, in a circular array starting at sparseHead.
+         */
+        public long[] sparseIter = new long[MIN_SPARSE];
+        public int[] sparsePower = new int[MIN_SPARSE];
+        public int sparseHead;
+        public int sparseSize;
+
+        public UidData(long iterationInterval) {
+            sum = new Counter(iterationInterval);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+Copyright (C) 2011 The University of Michigan
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+Please send inquiries to powertutor@umich.edu
+*/
+
+package fabiogentile.powertutor.util;
+
+import java.util.Arrays;
+
+/**
+ * Map from int keys to int values kept as two sorted arrays, the core
+ * counterpart of android.util.SparseIntArray.
+ */
+public class IntIntMap {
+    private int[] keys;
+    private int[] values;
+    private int size;
+
+    public IntIntMap() {
+        this(10);
+    }
+
+    public IntIntMap(int capacity) {
+        keys = new int[capacity];
+        values = new int[capacity];
+    }
+
+    /**
+     * @return the value of key, def if there is none
+     */
+    public int get(int key, int def) {
+        int i = Arrays.binarySearch(keys, 0, size, key);
+        return i < 0 ? def : values[i];
+    }
+
+    public void put(int key, int value) {
+        int i = Arrays.binarySearch(keys, 0, size, key);
+        if (i >= 0) {
+            values[i] = value;
+            return;
+        }
+        i = ~i;
+        if (size == keys.length) {
+            int capacity = Math.max(4, size * 2);
+            keys = Arrays.copyOf(keys, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        System.arraycopy(keys, i, keys, i + 1, size - i);
+        System.arraycopy(values, i, values, i + 1, size - i);
+        keys[i] = key;
+        values[i] = value;
+        size++;
+    }
+
+    public void delete(int key) {
+        int i = Arrays.binarySearch(keys, 0, size, key);
+        if (i < 0)
+            return;
+        System.arraycopy(keys, i + 1, keys, i, size - i - 1);
+        System.arraycopy(values, i + 1, values, i, size - i - 1);
+        size--;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int keyAt(int index) {
+        return keys[index];
+    }
+
+    public int valueAt(int index) {
+        return values[index];
+    }
+
+    public void clear() {
+        size = 0;
+    }
+}
@@ -0,0 +1,110 @@
+/*
+Copyright (C) 2011 The University of Michigan
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+Please send inquiries to powertutor@umich.edu
+*/
+
+package fabiogentile.powertutor.util;
+
+import java.util.Arrays;
+
+/**
+ * Map from int keys (uids, pids) to objects, kept as two sorted arrays like
+ * android.util.SparseArray, which the core can not use.  Lookups are binary
+ * searches and no key is boxed.
+ */
+public class IntMap<E> {
+    private int[] keys;
+    private Object[] values;
+    private int size;
+
+    public IntMap() {
+        this(10);
+    }
+
+    public IntMap(int capacity) {
+        keys = new int[capacity];
+        values = new Object[capacity];
+    }
+
+    /**
+     * @return the value of key, null if there is none
+     */
+    @SuppressWarnings("unchecked")
+    public E get(int key) {
+        int i = Arrays.binarySearch(keys, 0, size, key);
+        return i < 0 ? null : (E) values[i];
+    }
+
+    public void put(int key, E value) {
+        int i = Arrays.binarySearch(keys, 0, size, key);
+        if (i >= 0) {
+            values[i] = value;
+            return;
+        }
+        i = ~i;
+        if (size == keys.length) {
+            int capacity = Math.max(4, size * 2);
+            keys = Arrays.copyOf(keys, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        System.arraycopy(keys, i, keys, i + 1, size - i);
+        System.arraycopy(values, i, values, i + 1, size - i);
+        keys[i] = key;
+        values[i] = value;
+        size++;
+    }
+
+    public void remove(int key) {
+        int i = Arrays.binarySearch(keys, 0, size, key);
+        if (i >= 0)
+            removeAt(i);
+    }
+
+    public void removeAt(int index) {
+        System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+        System.arraycopy(values, index + 1, values, index, size - index - 1);
+        values[--size] = null;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the index-th smallest key
+     */
+    public int keyAt(int index) {
+        return keys[index];
+    }
+
+    @SuppressWarnings("unchecked")
+    public E valueAt(int index) {
+        return (E) values[index];
+    }
+
+    /**
+     * @return index of key, negative if it is not there
+     */
+    public int indexOfKey(int key) {
+        return Arrays.binarySearch(keys, 0, size, key);
+    }
+
+    public void clear() {
+        Arrays.fill(values, 0, size, null);
+        size = 0;
+    }
+}
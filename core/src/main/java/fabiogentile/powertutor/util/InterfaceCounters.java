@@ -0,0 +1,238 @@
+/*
+Copyright (C) 2011 The University of Michigan
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+Please send inquiries to powertutor@umich.edu
+*/
+
+package fabiogentile.powertutor.util;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Byte and packet counters of every network interface (wlan0,
+ * rmnet*, bt-pan...) for a given iteration, all taken from a single read of
+ * /proc/net/dev.  Radio components look their interface up by name instead
+ * of reading the four statistics files of its sysfs directory.
+ * <p>
+ * Counters are the cumulative values reported by the kernel, components keep
+ * computing their own deltas.  They do not change while published, and once
+ * released by all their holders the next read refills them, like
+ * NetworkSnapshot.
+ */
+public final class InterfaceCounters {
+    public static final InterfaceCounters EMPTY = new InterfaceCounters(null, 0);
+
+    /* Columns of /proc/net/dev following the "name:" prefix. */
+    private static final int FIELD_RX_BYTES = 0;
+    private static final int FIELD_RX_PACKETS = 1;
+    private static final int FIELD_TX_BYTES = 8;
+    private static final int FIELD_TX_PACKETS = 9;
+    private static final int FIELD_COUNT = 10;
+
+    /* Where the reader takes its next counters from, null for EMPTY. */
+    private final AtomicReference<InterfaceCounters> spare;
+    /* Holders, 0 while being refilled. */
+    private final AtomicInteger refs = new AtomicInteger();
+
+    private long generation = -1;
+    private int count;
+    private String[] names;
+    private long[] rxBytes;
+    private long[] rxPackets;
+    private long[] txBytes;
+    private long[] txPackets;
+
+    private InterfaceCounters(AtomicReference<InterfaceCounters> spare, int capacity) {
+        this.spare = spare;
+        names = new String[capacity];
+        rxBytes = new long[capacity];
+        rxPackets = new long[capacity];
+        txBytes = new long[capacity];
+        txPackets = new long[capacity];
+    }
+
+    /**
+     * @see NetworkSnapshot#retain()
+     */
+    boolean retain() {
+        if (spare == null)
+            return true;
+        while (true) {
+            int r = refs.get();
+            if (r == 0)
+                return false;
+            if (refs.compareAndSet(r, r + 1))
+                return true;
+        }
+    }
+
+    /**
+     * Give back counters obtained from LinuxSystemInfo, they must not be read
+     * afterwards.
+     */
+    public void release() {
+        if (spare != null && refs.decrementAndGet() == 0)
+            spare.set(this);
+    }
+
+    /**
+     * @return the iteration these counters were read for
+     */
+    public long getGeneration() {
+        return generation;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public String getName(int index) {
+        return names[index];
+    }
+
+    /**
+     * @return index of the interface, -1 if the kernel does not list it
+     */
+    public int indexOf(String name) {
+        for (int i = 0; i < count; i++) {
+            if (names[i].equals(name))
+                return i;
+        }
+        return -1;
+    }
+
+    public long getRxBytes(int index) {
+        return rxBytes[index];
+    }
+
+    public long getRxPackets(int index) {
+        return rxPackets[index];
+    }
+
+    public long getTxBytes(int index) {
+        return txBytes[index];
+    }
+
+    public long getTxPackets(int index) {
+        return txPackets[index];
+    }
+
+    /**
+     * Reads /proc/net/dev.  The interface names are kept between reads so
+     * that a new String is only created when an interface shows up.  Not
+     * thread safe, SystemInfo serializes the calls.
+     */
+    static final class Reader {
+        private static final String NET_DEV = "/proc/net/dev";
+
+        private final SysfsCounter file = new SysfsCounter(NET_DEV);
+        private ProcFileParser parser = new ProcFileParser(4096);
+        private final ArrayList<byte[]> knownBytes = new ArrayList<byte[]>();
+        private final ArrayList<String> knownNames = new ArrayList<String>();
+        private final long[] fields = new long[FIELD_COUNT];
+        /* Last counters released by all their holders. */
+        private final AtomicReference<InterfaceCounters> spare =
+                new AtomicReference<InterfaceCounters>();
+
+        boolean isAvailable() {
+            return file.exists();
+        }
+
+        /**
+         * @return the counters, retained once for the caller, null if the file
+         * could not be read
+         */
+        InterfaceCounters read(long generation) {
+            ProcFileParser p = UidCpuSource.loadWhole(file, parser);
+            if (p == null)
+                return null;
+            parser = p;
+
+            ByteBuffer buf = p.getBuffer();
+            int lim = buf.limit();
+            int lines = 0;
+            for (int pos = 0; pos < lim; pos = ProcFileParser.nextLine(buf, pos))
+                lines++;
+
+            InterfaceCounters counters = spare.getAndSet(null);
+            if (counters == null || counters.names.length < lines)
+                counters = new InterfaceCounters(spare, lines + 4);
+            String[] names = counters.names;
+            long[] rxBytes = counters.rxBytes;
+            long[] rxPackets = counters.rxPackets;
+            long[] txBytes = counters.txBytes;
+            long[] txPackets = counters.txPackets;
+            int count = 0;
+
+            int line = 0;
+            while (line < lim) {
+                int next = ProcFileParser.nextLine(buf, line);
+                /* Interface lines are "  name: rx_bytes rx_packets ...", the
+                 * two header lines have no colon.  Large counters can be glued
+                 * to the colon on old kernels.
+                 */
+                int colon = line;
+                while (colon < next && buf.get(colon) != ':')
+                    colon++;
+                if (colon < next) {
+                    int start = line;
+                    while (start < colon && buf.get(start) == ' ')
+                        start++;
+                    buf.position(colon + 1);
+                    if (start < colon && ProcFileParser.parseLineFields(buf, 0,
+                            fields, 0, FIELD_COUNT) == FIELD_COUNT) {
+                        names[count] = name(buf, start, colon);
+                        rxBytes[count] = fields[FIELD_RX_BYTES];
+                        rxPackets[count] = fields[FIELD_RX_PACKETS];
+                        txBytes[count] = fields[FIELD_TX_BYTES];
+                        txPackets[count] = fields[FIELD_TX_PACKETS];
+                        count++;
+                    }
+                }
+                line = next;
+            }
+            buf.position(0);
+
+            counters.generation = generation;
+            counters.count = count;
+            counters.refs.set(1);
+            return counters;
+        }
+
+        private String name(ByteBuffer b, int start, int end) {
+            int len = end - start;
+            for (int i = 0; i < knownBytes.size(); i++) {
+                byte[] name = knownBytes.get(i);
+                if (name.length != len)
+                    continue;
+                int j = 0;
+                while (j < len && name[j] == b.get(start + j))
+                    j++;
+                if (j == len)
+                    return knownNames.get(i);
+            }
+            byte[] name = new byte[len];
+            for (int j = 0; j < len; j++)
+                name[j] = b.get(start + j);
+            knownBytes.add(name);
+            knownNames.add(new String(name));
+            return knownNames.get(knownNames.size() - 1);
+        }
+    }
+}
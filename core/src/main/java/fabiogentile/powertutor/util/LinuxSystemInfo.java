@@ -0,0 +1,439 @@
+/*
+Copyright (C) 2011 The University of Michigan
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+Please send inquiries to powertutor@umich.edu
+*/
+
+package fabiogentile.powertutor.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * What the profiler reads from the Linux kernel: cpu and memory totals, the
+ * process table and the network counters, each built at most once per
+ * iteration and shared by every component.  The Android app installs its
+ * SystemInfo subclass, which adds the package manager lookups; elsewhere
+ * get() creates a plain instance.
+ */
+public class LinuxSystemInfo {
+    /* Uids as listed in android_filesystem_config.h */
+    public static final int AID_ALL = -1;           /* A special constant we will
+                                                     * use to indicate a request
+                                                     * for global information. */
+    public static final int AID_PROFILER = -2;      /* Pseudo uid charged with the
+                                                     * cost of PowerTutor's own
+                                                     * sampling. */
+    public static final int AID_ROOT = 0;           /* traditional unix root user */
+    public static final int AID_SYSTEM = 1000;      /* system server */
+    public static final int AID_RADIO = 1001;       /* telephony subsystem, RIL */
+    public static final int AID_BLUETOOTH = 1002;   /* bluetooth subsystem */
+    public static final int AID_GRAPHICS = 1003;    /* graphics devices */
+    public static final int AID_INPUT = 1004;       /* input devices */
+    public static final int AID_AUDIO = 1005;       /* audio devices */
+    public static final int AID_CAMERA = 1006;      /* camera devices */
+    public static final int AID_LOG = 1007;         /* log devices */
+    public static final int AID_COMPASS = 1008;     /* compass device */
+    public static final int AID_MOUNT = 1009;       /* mountd socket */
+    public static final int AID_WIFI = 1010;        /* wifi subsystem */
+    public static final int AID_ADB = 1011;         /* android debug bridge (adbd) */
+    public static final int AID_INSTALL = 1012;     /* group for installing  packages */
+    public static final int AID_MEDIA = 1013;       /* mediaserver process */
+    public static final int AID_DHCP = 1014;        /* dhcp client */
+    public static final int AID_SHELL = 2000;       /* adb and debug shell user */
+    public static final int AID_CACHE = 2001;       /* cache access */
+    public static final int AID_DIAG = 2002;        /* access to diagnostic resources */
+    /* The 3000 series are intended for use as supplemental group id's only.
+     * They indicate special Android capabilities that the kernel is aware of. */
+    public static final int AID_NET_BT_ADMIN = 3001;/* bluetooth: create any socket */
+    public static final int AID_NET_BT = 3002;      /* bluetooth: create sco, rfcomm or l2cap sockets */
+    public static final int AID_INET = 3003;        /* can create AF_INET and AF_INET6 sockets */
+    public static final int AID_NET_RAW = 3004;     /* can create raw INET sockets */
+    public static final int AID_MISC = 9998;        /* access to misc storage */
+    public static final int AID_NOBODY = 9999;
+    public static final int AID_APP = 10000;        /* first app user */
+    /* These are stolen from Process.java which hides these constants. */
+    public static final int PROC_SPACE_TERM = (int) ' ';
+    public static final int PROC_TAB_TERM = (int) '\t';
+    public static final int PROC_LINE_TERM = (int) '\n';
+    public static final int PROC_COMBINE = 0x100;
+    public static final int PROC_OUT_LONG = 0x2000;
+    public static final int PROC_OUT_STRING = 0x1000;
+    public static final int INDEX_USER_TIME = 0;
+    public static final int INDEX_SYS_TIME = 1;
+    public static final int INDEX_TOTAL_TIME = 2;
+    public static final int INDEX_MEM_TOTAL = 0;
+    public static final int INDEX_MEM_FREE = 1;
+    public static final int INDEX_MEM_BUFFERS = 2;
+    public static final int INDEX_MEM_CACHED = 3;
+    private static final byte[] MEM_TOTAL_KEY = "MemTotal:".getBytes();
+    private static final byte[] MEM_FREE_KEY = "MemFree:".getBytes();
+    private static final byte[] MEM_BUFFERS_KEY = "Buffers:".getBytes();
+    private static final byte[] MEM_CACHED_KEY = "Cached:".getBytes();
+
+    private static RootHelper rootHelper = new RootHelper();
+    private static volatile LinuxSystemInfo instance;
+
+    /* Every component thread reads numeric files through its own parser. */
+    private final ThreadLocal<ProcFileParser> parsers = new ThreadLocal<ProcFileParser>() {
+        @Override
+        protected ProcFileParser initialValue() {
+            return new ProcFileParser();
+        }
+    };
+
+    /* Process table shared by every component.  It is replaced as a whole once
+     * per iteration, readers simply grab the current reference.
+     */
+    private volatile ProcessSnapshot processSnapshot = ProcessSnapshot.EMPTY;
+    private final Object snapshotBuildLock = new Object();
+    private ProcScanner procScanner;
+    private int[] scanPids;
+    /* Per-uid network counters, built once per iteration like the processes. */
+    private volatile NetworkSnapshot networkSnapshot = NetworkSnapshot.EMPTY;
+    private final Object networkBuildLock = new Object();
+    private NetworkAccounting networkAccounting;
+    /* Counters of every network interface, from one read of /proc/net/dev. */
+    private volatile InterfaceCounters interfaceCounters = InterfaceCounters.EMPTY;
+    private final Object interfaceReadLock = new Object();
+    private InterfaceCounters.Reader interfaceReader;
+
+    protected LinuxSystemInfo() {
+        procScanner = new ProcScanner(rootHelper);
+        networkAccounting = new NetworkAccounting();
+        interfaceReader = new InterfaceCounters.Reader();
+    }
+
+    /**
+     * @return the installed instance, a plain one if the platform did not
+     * install its own
+     */
+    public static LinuxSystemInfo get() {
+        LinuxSystemInfo info = instance;
+        if (info != null)
+            return info;
+        synchronized (LinuxSystemInfo.class) {
+            if (instance == null)
+                instance = new LinuxSystemInfo();
+            return instance;
+        }
+    }
+
+    /**
+     * Make info the instance returned by get().
+     */
+    protected static void setInstance(LinuxSystemInfo info) {
+        synchronized (LinuxSystemInfo.class) {
+            instance = info;
+        }
+    }
+
+    /**
+     * Allow the scanners to fall back to a su shell for files that can not be
+     * read directly.  The shell itself is started only when first needed.
+     */
+    public static void startSuProcesses() {
+        rootHelper.setEnabled(true);
+    }
+
+    /**
+     * Stop SU process
+     */
+    public static void stopSuProcess() {
+        rootHelper.setEnabled(false);
+    }
+
+    /**
+     * Drop the snapshots of a previous run.  Their generations are iteration
+     * numbers of that run, and a new run counts from 0 again: they would be
+     * taken as current until it caught up.  The network deltas start over
+     * too, traffic while not sampling is not charged to the first iteration.
+     * Call it before the first iteration of a run.
+     */
+    public void resetSnapshots() {
+        synchronized (snapshotBuildLock) {
+            processSnapshot = ProcessSnapshot.EMPTY;
+        }
+        synchronized (networkBuildLock) {
+            NetworkSnapshot old = networkSnapshot;
+            networkSnapshot = NetworkSnapshot.EMPTY;
+            old.release();
+            networkAccounting.reset();
+        }
+        synchronized (interfaceReadLock) {
+            InterfaceCounters old = interfaceCounters;
+            interfaceCounters = InterfaceCounters.EMPTY;
+            old.release();
+        }
+    }
+
+    /**
+     * Get the process table for the given iteration, scanning /proc if nobody
+     * has done it yet.  Only one scan is performed per iteration no matter how
+     * many components ask for it.
+     *
+     * @param generation current iteration
+     * @return a complete snapshot whose generation is at least the requested one
+     */
+    public ProcessSnapshot updateProcessSnapshot(long generation) {
+        ProcessSnapshot snapshot = processSnapshot;
+        if (snapshot.getGeneration() >= generation)
+            return snapshot;
+
+        synchronized (snapshotBuildLock) {
+            snapshot = processSnapshot;
+            if (snapshot.getGeneration() >= generation)
+                return snapshot;
+
+            scanPids = getPids(scanPids);
+            procScanner.scan(scanPids, ProcScanner.SCAN_UID | ProcScanner.SCAN_TIMES);
+            snapshot = ProcessSnapshot.fromScanner(generation, procScanner);
+            processSnapshot = snapshot;
+            return snapshot;
+        }
+    }
+
+    /**
+     * @return true if per-uid network counters are available
+     */
+    public boolean hasNetworkAccounting() {
+        return networkAccounting.isAvailable();
+    }
+
+    /**
+     * @return number of per-uid network polls skipped by the last build
+     */
+    public int getNetworkSkippedPolls() {
+        return networkAccounting.getSkippedPolls();
+    }
+
+    /**
+     * Get the per-uid network counters for the given iteration, reading them
+     * if no other component has done it yet.  The snapshot must be released
+     * once read, its columns are then reused by a later iteration.
+     *
+     * @param generation current iteration
+     * @return the latest snapshot, its generation is older than the requested
+     * one if the counters could not be read
+     */
+    public NetworkSnapshot updateNetworkSnapshot(long generation) {
+        return updateNetworkSnapshot(generation, false, false);
+    }
+
+    /**
+     * Same as updateNetworkSnapshot(generation) for a component running out
+     * of time.  The snapshot is shared, the reduction only applies if the
+     * caller is the one building it.
+     *
+     * @see PollScheduler#setReduced(boolean, boolean)
+     */
+    public NetworkSnapshot updateNetworkSnapshot(long generation, boolean skipIdle,
+                                                 boolean sampled) {
+        NetworkSnapshot snapshot = networkSnapshot;
+        if (snapshot.getGeneration() >= generation && snapshot.retain()) {
+            /* It may have been released and refilled between the two reads. */
+            if (snapshot.getGeneration() >= generation)
+                return snapshot;
+            snapshot.release();
+        }
+
+        synchronized (networkBuildLock) {
+            snapshot = networkSnapshot;
+            if (snapshot.getGeneration() < generation) {
+                networkAccounting.setReduced(skipIdle, sampled);
+                NetworkSnapshot built = networkAccounting.build(generation);
+                if (built != null) {
+                    networkSnapshot = built;
+                    snapshot.release();
+                    snapshot = built;
+                }
+            }
+            /* The current snapshot is held by this instance, it can not fail. */
+            snapshot.retain();
+            return snapshot;
+        }
+    }
+
+    /**
+     * Get the counters of every network interface for the given iteration,
+     * reading /proc/net/dev if no other component has done it yet.  The
+     * counters must be released once read.
+     *
+     * @param generation current iteration
+     * @return the latest counters, their generation is older than the
+     * requested one if the file could not be read
+     */
+    public InterfaceCounters updateInterfaceCounters(long generation) {
+        InterfaceCounters counters = interfaceCounters;
+        if (counters.getGeneration() >= generation && counters.retain()) {
+            if (counters.getGeneration() >= generation)
+                return counters;
+            counters.release();
+        }
+
+        synchronized (interfaceReadLock) {
+            counters = interfaceCounters;
+            if (counters.getGeneration() < generation) {
+                InterfaceCounters read = interfaceReader.read(generation);
+                if (read != null) {
+                    interfaceCounters = read;
+                    counters.release();
+                    counters = read;
+                }
+            }
+            counters.retain();
+            return counters;
+        }
+    }
+
+    /**
+     * @return the most recently published process table, never null
+     */
+    public ProcessSnapshot getProcessSnapshot() {
+        return processSnapshot;
+    }
+
+    /**
+     * Search the user that own a specific process
+     *
+     * @param pid Process id
+     * @return uid owener of pid, -1 if the process was not running during
+     * the last scan
+     */
+    public int getUidForPid(int pid) {
+        ProcessSnapshot snapshot = processSnapshot;
+        int idx = snapshot.indexOf(pid);
+        return idx < 0 ? -1 : snapshot.getUid(idx);
+    }
+
+    /**
+     * Get active time for the specified PID times should contain two elements
+     *
+     * @param pid   Process id
+     * @param times times[INDEX_USER_TIME] will contains user time and times[INDEX_SYS_TIME] will
+     *              contains sys time for this pid
+     * @return true on success
+     */
+    public boolean getPidUsrSysTime(int pid, long[] times) {
+        ProcessSnapshot snapshot = processSnapshot;
+        int idx = snapshot.indexOf(pid);
+        if (idx < 0)
+            return false;
+        times[INDEX_USER_TIME] = snapshot.getUsrTime(idx);
+        times[INDEX_SYS_TIME] = snapshot.getSysTime(idx);
+        return true;
+    }
+
+    /**
+     * lastPids can be null.  It is just used to avoid memory reallocation if
+     * at all possible. Returns null on failure. If lastPids can hold the new
+     * pid list the extra entries will be filled with -1 at the end.
+     * @param lastPids
+     * @return
+     */
+    public int[] getPids(int[] lastPids) {
+        return manualGetInts("/proc", lastPids);
+    }
+
+    /**
+     * lastUids can be null.  It is just used to avoid memory reallocation if
+     * at all possible. Returns null on failure. If lastUids can hold the new
+     * uid list the extra entries will be filled with -1 at the end.
+     * @param lastUids
+     * @return
+     */
+    public int[] getUids(int[] lastUids) {
+        return manualGetInts("/proc/uid_stat", lastUids);
+    }
+
+    protected int[] manualGetInts(String dir, int[] lastInts) {
+        String[] names = ProcSource.get().list(dir);
+        int sz = names == null ? 0 : names.length;
+        if (lastInts == null || lastInts.length < sz) {
+            lastInts = new int[sz];
+        } else if (2 * sz < lastInts.length) {
+            lastInts = new int[sz];
+        }
+        int pos = 0;
+        for (int i = 0; i < sz; i++) {
+            try {
+                int v = Integer.parseInt(names[i]);
+                lastInts[pos++] = v;
+            } catch (NumberFormatException e) {
+            }
+        }
+        while (pos < lastInts.length) lastInts[pos++] = -1;
+        return lastInts;
+    }
+
+    /**
+     * Get The time spent in User mode, System mode and Idle
+     * @param times Times should contain 8 elements.  times[INDEX_USER_TIME] will be filled
+     * with the total user time, times[INDEX_SYS_TIME] will be filled
+     * with the total sys time, and times[INDEX_TOTAL_TIME] will have the total
+     * time (including idle cycles).
+     * @return true on success
+     */
+    public boolean getUsrSysTotalTime(long[] times) {
+        // TODO: 23/08/16 leggere i valori per singola CPU o la somma?
+        /* Secondo me è meglio la somma, altrimenti per ogni processo sarebbe necesario
+         * Vedere su quale CPU è stato eseguito nel corso dell'iterazione
+         */
+        ProcFileParser parser = parsers.get();
+        if (parser.readFile("/proc/stat") < 0)
+            return false;
+
+        /* First line: "cpu  user nice system idle iowait irq softirq ...". */
+        if (ProcFileParser.parseLineFields(parser.getBuffer(), 1, times, 1, 7) < 7)
+            return false;
+
+        long usr = times[1] + times[2];                 // user + nice
+        long sys = times[3] + times[6] + times[7];      // system + irq + softirq
+        long total = usr + sys + times[4] + times[5];   // (1) + (2) + idle + iowait
+        times[INDEX_USER_TIME] = usr;
+        times[INDEX_SYS_TIME] = sys;
+        times[INDEX_TOTAL_TIME] = total;
+        return true;
+    }
+
+    /**
+     * mem should contain 4 elements.  mem[INDEX_MEM_TOTAL] will contain total
+     * memory available in kb, mem[INDEX_MEM_FREE] will give the amount of free
+     * memory in kb, mem[INDEX_MEM_BUFFERS] will give the size of kernel buffers
+     * in kb, and mem[INDEX_MEM_CACHED] will give the size of kernel caches in kb.
+     * Returns true on success.
+     * @param mem
+     * @return
+     */
+    public boolean getMemInfo(long[] mem) {
+        ProcFileParser parser = parsers.get();
+        if (parser.readFile("/proc/meminfo") < 0)
+            return false;
+        ByteBuffer buf = parser.getBuffer();
+        mem[INDEX_MEM_TOTAL] = ProcFileParser.parseKeyValue(buf, MEM_TOTAL_KEY);
+        mem[INDEX_MEM_FREE] = ProcFileParser.parseKeyValue(buf, MEM_FREE_KEY);
+        mem[INDEX_MEM_BUFFERS] = ProcFileParser.parseKeyValue(buf, MEM_BUFFERS_KEY);
+        mem[INDEX_MEM_CACHED] = ProcFileParser.parseKeyValue(buf, MEM_CACHED_KEY);
+        return mem[INDEX_MEM_TOTAL] != -1;
+    }
+
+    /* Returns -1 on failure. */
+    public long readLongFromFile(String file) {
+        ProcFileParser parser = parsers.get();
+        if (parser.readFile(file) < 0)
+            return -1L;
+        return ProcFileParser.parseLong(parser.getBuffer());
+    }
+}
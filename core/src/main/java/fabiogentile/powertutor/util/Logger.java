@@ -0,0 +1,80 @@
+/*
+Copyright (C) 2011 The University of Michigan
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+Please send inquiries to powertutor@umich.edu
+*/
+
+package fabiogentile.powertutor.util;
+
+/**
+ * Logging of the core classes.  Messages go to a Sink installed by the
+ * platform, the Android app sends them to android.util.Log and by default
+ * they are printed on the standard error from INFO up.
+ */
+public final class Logger {
+    public static final int DEBUG = 3;
+    public static final int INFO = 4;
+    public static final int WARN = 5;
+    public static final int ERROR = 6;
+
+    public interface Sink {
+        void log(int level, String tag, String msg);
+    }
+
+    private static final char[] LEVEL_NAMES = {'V', 'V', 'V', 'D', 'I', 'W', 'E'};
+
+    private static final Sink STDERR = new Sink() {
+        public void log(int level, String tag, String msg) {
+            System.err.println(LEVEL_NAMES[level] + "/" + tag + ": " + msg);
+        }
+    };
+
+    private static volatile Sink sink = STDERR;
+    private static volatile int minLevel = INFO;
+
+    private Logger() {
+    }
+
+    /**
+     * Send the messages at level minLevel and above to sink, null to go
+     * back to the standard error.
+     */
+    public static void setSink(Sink sink, int minLevel) {
+        Logger.sink = sink == null ? STDERR : sink;
+        Logger.minLevel = minLevel;
+    }
+
+    public static void d(String tag, String msg) {
+        log(DEBUG, tag, msg);
+    }
+
+    public static void i(String tag, String msg) {
+        log(INFO, tag, msg);
+    }
+
+    public static void w(String tag, String msg) {
+        log(WARN, tag, msg);
+    }
+
+    public static void e(String tag, String msg) {
+        log(ERROR, tag, msg);
+    }
+
+    private static void log(int level, String tag, String msg) {
+        if (level >= minLevel)
+            sink.log(level, tag, msg);
+    }
+}
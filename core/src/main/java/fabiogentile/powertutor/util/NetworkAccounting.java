@@ -0,0 +1,541 @@
+/*
+Copyright (C) 2011 The University of Michigan
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+Please send inquiries to powertutor@umich.edu
+*/
+
+package fabiogentile.powertutor.util;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Reads the per-uid network counters once per iteration and turns them into a
+ * NetworkSnapshot.  The preferred source is /proc/net/xt_qtaguid/stats, a
+ * single file with a row per (interface, tag, uid, counter set) that is
+ * streamed through a small buffer.  Kernels without qtaguid fall back to the
+ * tcp_rcv and tcp_snd files of /proc/uid_stat, which cost two reads per uid
+ * and are therefore polled within a budget.  The first read of a uid_stat
+ * directory only gives its starting point, unless the uid was not there at
+ * the previous listing of the directory: then all its traffic is new.
+ * <p>
+ * Not thread safe, SystemInfo serializes the builds.
+ */
+public class NetworkAccounting {
+    private static final String TAG = "NetworkAccounting";
+    private static final String QTAGUID_STATS = "/proc/net/xt_qtaguid/stats";
+    private static final String UID_STAT_DIR = "/proc/uid_stat";
+    private static final int UID_STAT_RESCAN_INTERVAL = 10;
+    private static final int UID_STAT_POLL_BUDGET = 32;
+    private static final int UID_STAT_POLL_MAX_AGE = 10;
+
+    private final boolean qtaguid;
+    private final boolean available;
+
+    /* Interfaces seen so far, the index is stable. */
+    private final ArrayList<String> interfaces = new ArrayList<String>();
+    private final ArrayList<byte[]> interfaceBytes = new ArrayList<byte[]>();
+    private final ArrayList<IntIntMap> interfaceSlots = new ArrayList<IntIntMap>();
+
+    /* One slot per (interface, uid), order keeps the slots sorted. */
+    private int slotCount;
+    private int[] order = new int[64];
+    private int[] slotIface = new int[64];
+    private int[] slotUid = new int[64];
+    private long[] curRx = new long[64];
+    private long[] curTx = new long[64];
+    private long[] curRxPkt = new long[64];
+    private long[] curTxPkt = new long[64];
+    private long[] prevRx = new long[64];
+    private long[] prevTx = new long[64];
+    private long[] prevRxPkt = new long[64];
+    private long[] prevTxPkt = new long[64];
+    /* Round in which each slot was last touched, and last published (-1 for
+     * slots never published, whose whole counters are new traffic unless
+     * startFrom() gave them a starting point). */
+    private long[] seen = new long[64];
+    private long[] lastSeen = new long[64];
+    private long round;
+    private boolean primed;
+    /* Last snapshot released by all its holders. */
+    private final AtomicReference<NetworkSnapshot> spare =
+            new AtomicReference<NetworkSnapshot>();
+
+    /* qtaguid streaming state. */
+    private SysfsCounter statsFile;
+    private ProcFileParser parser;
+    private long[] fields;
+
+    /* uid_stat fallback state. */
+    private IntMap<UidStat> uidStats;
+    private ProcFileParser uidStatParser;
+    private PollScheduler pollScheduler;
+    private long lastRescan;
+    /* Set once /proc/uid_stat has been listed, uids found afterwards are new. */
+    private boolean uidStatListed;
+
+    public NetworkAccounting() {
+        SysfsCounter qtaguidStats = new SysfsCounter(QTAGUID_STATS);
+        if (qtaguidStats.exists()) {
+            qtaguid = true;
+            available = true;
+            statsFile = qtaguidStats;
+            parser = new ProcFileParser();
+            fields = new long[4];
+            Logger.i(TAG, "Using " + QTAGUID_STATS);
+        } else {
+            qtaguid = false;
+            available = ProcSource.get().exists(UID_STAT_DIR);
+            uidStats = new IntMap<UidStat>();
+            uidStatParser = new ProcFileParser(64);
+            pollScheduler = new PollScheduler(UID_STAT_POLL_BUDGET, UID_STAT_POLL_MAX_AGE);
+            lastRescan = -UID_STAT_RESCAN_INTERVAL;
+            if (available)
+                Logger.i(TAG, "Using " + UID_STAT_DIR);
+        }
+    }
+
+    /**
+     * @return true if per-uid network accounting is available on this device
+     */
+    public boolean isAvailable() {
+        return available;
+    }
+
+    /**
+     * @return number of uid_stat polls skipped by the last build
+     */
+    public int getSkippedPolls() {
+        return pollScheduler == null ? 0 : pollScheduler.getSkipped();
+    }
+
+    /**
+     * Read fewer uid_stat files per build, the qtaguid file is read whole
+     * anyway.
+     *
+     * @see PollScheduler#setReduced(boolean, boolean)
+     */
+    public void setReduced(boolean skipIdle, boolean sampled) {
+        if (pollScheduler != null)
+            pollScheduler.setReduced(skipIdle, sampled);
+    }
+
+    /**
+     * Forget the published counters, the next build takes them as a baseline
+     * and reports no traffic.
+     */
+    public void reset() {
+        for (int i = 0; i < slotCount; i++)
+            lastSeen[i] = -1;
+        primed = false;
+        if (!qtaguid)
+            lastRescan = -UID_STAT_RESCAN_INTERVAL;
+    }
+
+    /**
+     * Read the counters and build the snapshot for the given iteration.  The
+     * columns of a snapshot released by everyone are reused.
+     *
+     * @return the new snapshot, retained once for the caller, null if the
+     * counters could not be read
+     */
+    public NetworkSnapshot build(long generation) {
+        if (!available)
+            return null;
+        round++;
+        boolean ok = qtaguid ? readQtaguid() : readUidStat(generation);
+        if (!ok)
+            return null;
+
+        int n = 0;
+        for (int i = 0; i < slotCount; i++) {
+            if (seen[order[i]] == round)
+                n++;
+        }
+
+        int ifaceCount = qtaguid ? interfaces.size() : 1;
+        NetworkSnapshot snapshot = spare.getAndSet(null);
+        if (snapshot == null || !snapshot.fits(n, ifaceCount)) {
+            /* Some slack for the uids and interfaces still to come. */
+            snapshot = new NetworkSnapshot(spare, n + (n >> 2) + 8, ifaceCount + 2);
+        }
+        int[] ifaceStart = snapshot.ifaceStart;
+        int[] uids = snapshot.uids;
+        long[] rx = snapshot.rxBytes;
+        long[] tx = snapshot.txBytes;
+        long[] rxPkt = snapshot.rxPackets;
+        long[] txPkt = snapshot.txPackets;
+        long[] rxDelta = snapshot.rxDelta;
+        long[] txDelta = snapshot.txDelta;
+        long[] rxPktDelta = snapshot.rxPacketsDelta;
+        long[] txPktDelta = snapshot.txPacketsDelta;
+        for (int i = 0; i <= ifaceCount; i++)
+            ifaceStart[i] = 0;
+
+        int row = 0;
+        for (int i = 0; i < slotCount; i++) {
+            int slot = order[i];
+            if (seen[slot] != round)
+                continue;
+            boolean known = lastSeen[slot] >= 0;
+            uids[row] = slotUid[slot];
+            rx[row] = curRx[slot];
+            tx[row] = curTx[slot];
+            rxPkt[row] = curRxPkt[slot];
+            txPkt[row] = curTxPkt[slot];
+            rxDelta[row] = delta(curRx[slot], prevRx[slot], known);
+            txDelta[row] = delta(curTx[slot], prevTx[slot], known);
+            /* Sources without packet counts report -1, so do their deltas. */
+            rxPktDelta[row] = curRxPkt[slot] < 0 ? -1 :
+                    delta(curRxPkt[slot], prevRxPkt[slot], known);
+            txPktDelta[row] = curTxPkt[slot] < 0 ? -1 :
+                    delta(curTxPkt[slot], prevTxPkt[slot], known);
+            prevRx[slot] = curRx[slot];
+            prevTx[slot] = curTx[slot];
+            prevRxPkt[slot] = curRxPkt[slot];
+            prevTxPkt[slot] = curTxPkt[slot];
+            ifaceStart[slotIface[slot] + 1] = row + 1;
+            row++;
+        }
+        /* Interfaces without rows end where the previous one ends. */
+        for (int i = 1; i <= ifaceCount; i++) {
+            if (ifaceStart[i] < ifaceStart[i - 1])
+                ifaceStart[i] = ifaceStart[i - 1];
+        }
+        for (int i = 0; i < slotCount; i++) {
+            if (seen[i] == round)
+                lastSeen[i] = round;
+        }
+        primed = true;
+
+        snapshot.generation = generation;
+        snapshot.count = n;
+        snapshot.interfaceCount = qtaguid ? ifaceCount : 0;
+        for (int i = 0; i < snapshot.interfaceCount; i++)
+            snapshot.interfaces[i] = interfaces.get(i);
+        snapshot.publish();
+        return snapshot;
+    }
+
+    /* Makes the counters just read the starting point of the slot, as if they
+     * had already been published.
+     */
+    private void startFrom(int slot) {
+        prevRx[slot] = curRx[slot];
+        prevTx[slot] = curTx[slot];
+        prevRxPkt[slot] = curRxPkt[slot];
+        prevTxPkt[slot] = curTxPkt[slot];
+        if (lastSeen[slot] < 0)
+            lastSeen[slot] = 0;
+    }
+
+    private long delta(long cur, long prev, boolean known) {
+        if (!known)
+            return primed ? cur : 0;
+        /* Counters going backwards have been reset. */
+        return cur >= prev ? cur - prev : cur;
+    }
+
+    /* Returns the slot of (iface, uid) for the current round, clearing its
+     * accumulators the first time it is touched.
+     */
+    private int slot(int iface, int uid) {
+        IntIntMap slots = interfaceSlots.get(iface);
+        int slot = slots.get(uid, -1);
+        if (slot < 0) {
+            slot = newSlot(iface, uid);
+            slots.put(uid, slot);
+        }
+        if (seen[slot] != round) {
+            seen[slot] = round;
+            curRx[slot] = curTx[slot] = 0;
+            curRxPkt[slot] = curTxPkt[slot] = 0;
+        }
+        return slot;
+    }
+
+    private int newSlot(int iface, int uid) {
+        if (slotCount == order.length) {
+            int size = slotCount * 2;
+            order = grow(order, size);
+            slotIface = grow(slotIface, size);
+            slotUid = grow(slotUid, size);
+            curRx = grow(curRx, size);
+            curTx = grow(curTx, size);
+            curRxPkt = grow(curRxPkt, size);
+            curTxPkt = grow(curTxPkt, size);
+            prevRx = grow(prevRx, size);
+            prevTx = grow(prevTx, size);
+            prevRxPkt = grow(prevRxPkt, size);
+            prevTxPkt = grow(prevTxPkt, size);
+            seen = grow(seen, size);
+            lastSeen = grow(lastSeen, size);
+        }
+        int slot = slotCount++;
+        slotIface[slot] = iface;
+        slotUid[slot] = uid;
+        seen[slot] = -1;
+        lastSeen[slot] = -1;
+
+        /* Keep order sorted by interface and uid. */
+        int pos = slotCount - 1;
+        while (pos > 0) {
+            int o = order[pos - 1];
+            if (slotIface[o] < iface || (slotIface[o] == iface && slotUid[o] < uid))
+                break;
+            order[pos] = o;
+            pos--;
+        }
+        order[pos] = slot;
+        return slot;
+    }
+
+    private int interfaceIndex(ByteBuffer b, int start, int end) {
+        int len = end - start;
+        for (int i = 0; i < interfaceBytes.size(); i++) {
+            byte[] name = interfaceBytes.get(i);
+            if (name.length != len)
+                continue;
+            int j = 0;
+            while (j < len && name[j] == b.get(start + j))
+                j++;
+            if (j == len)
+                return i;
+        }
+        byte[] name = new byte[len];
+        for (int j = 0; j < len; j++)
+            name[j] = b.get(start + j);
+        interfaces.add(new String(name));
+        interfaceBytes.add(name);
+        interfaceSlots.add(new IntIntMap());
+        return interfaces.size() - 1;
+    }
+
+    /* ---------------------------------------------------------------------
+     * /proc/net/xt_qtaguid/stats
+     * ------------------------------------------------------------------ */
+
+    /* Streams the file through the parser buffer, keeping a partial last line
+     * at the beginning of the buffer for the next chunk.
+     */
+    private boolean readQtaguid() {
+        ByteBuffer buf = parser.getBuffer();
+        long offset = 0;
+        int keep = 0;
+        boolean header = true;
+        while (true) {
+            buf.clear();
+            buf.position(keep);
+            int r = statsFile.read(buf, offset);
+            if (r < 0)
+                return false;
+            offset += r;
+            int len = keep + r;
+            buf.limit(len);
+            buf.position(0);
+
+            int line = 0;
+            while (true) {
+                int end = line;
+                while (end < len && buf.get(end) != '\n')
+                    end++;
+                if (end == len && r > 0)
+                    break; // Incomplete line, wait for the next chunk.
+                if (header)
+                    header = false;
+                else if (end > line)
+                    parseQtaguidLine(buf, line, end);
+                line = end + 1;
+                if (line >= len)
+                    break;
+            }
+
+            if (r == 0)
+                return true;
+            keep = Math.max(0, len - line);
+            if (keep == buf.capacity()) {
+                Logger.w(TAG, "readQtaguid: line too long, giving up");
+                return false;
+            }
+            byte[] array = parser.getArray();
+            System.arraycopy(array, line, array, 0, keep);
+        }
+    }
+
+    /* Line format:
+     * idx iface acct_tag_hex uid_tag_int cnt_set rx_bytes rx_packets tx_bytes tx_packets ...
+     * Only untagged rows (acct_tag_hex 0x0) are totals, the counter sets
+     * (background and foreground) are summed.
+     */
+    private void parseQtaguidLine(ByteBuffer b, int start, int end) {
+        int field = 0;
+        int pos = start;
+        int iface = -1;
+        int uid = 0;
+        int value = 0;
+        while (pos < end && value < fields.length) {
+            while (pos < end && b.get(pos) == ' ')
+                pos++;
+            int fieldStart = pos;
+            while (pos < end && b.get(pos) != ' ')
+                pos++;
+            if (fieldStart == pos)
+                break;
+
+            switch (field++) {
+                case 1:
+                    iface = interfaceIndex(b, fieldStart, pos);
+                    break;
+                case 2:
+                    if (pos - fieldStart != 3 || b.get(fieldStart + 2) != '0')
+                        return; // Tagged traffic, already counted in the 0x0 row.
+                    break;
+                case 3:
+                    uid = (int) parseDecimal(b, fieldStart, pos);
+                    break;
+                case 5:
+                case 6:
+                case 7:
+                case 8:
+                    fields[value++] = parseDecimal(b, fieldStart, pos);
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (iface < 0 || value < fields.length)
+            return;
+
+        int slot = slot(iface, uid);
+        curRx[slot] += fields[0];
+        curRxPkt[slot] += fields[1];
+        curTx[slot] += fields[2];
+        curTxPkt[slot] += fields[3];
+    }
+
+    private static long parseDecimal(ByteBuffer b, int start, int end) {
+        long v = 0;
+        for (int i = start; i < end; i++) {
+            byte c = b.get(i);
+            if (c >= '0' && c <= '9')
+                v = v * 10 + (c - '0');
+        }
+        return v;
+    }
+
+    /* ---------------------------------------------------------------------
+     * /proc/uid_stat fallback
+     * ------------------------------------------------------------------ */
+
+    private boolean readUidStat(long iteration) {
+        if (interfaceSlots.isEmpty())
+            interfaceSlots.add(new IntIntMap());
+
+        if (iteration - lastRescan >= UID_STAT_RESCAN_INTERVAL || iteration < lastRescan) {
+            String[] names = ProcSource.get().list(UID_STAT_DIR);
+            if (names == null)
+                return false;
+            for (String name : names) {
+                try {
+                    int uid = Integer.parseInt(name);
+                    if (uidStats.get(uid) == null)
+                        uidStats.put(uid, new UidStat(UID_STAT_DIR + "/" + name, uidStatListed));
+                } catch (NumberFormatException e) {
+                    Logger.w(TAG, "Non-uid files in /proc/uid_stat");
+                }
+            }
+            lastRescan = iteration;
+            uidStatListed = true;
+        }
+
+        pollScheduler.begin(iteration);
+        for (int i = 0; i < uidStats.size(); i++)
+            pollScheduler.offer(uidStats.keyAt(i));
+        int polled = pollScheduler.select();
+        for (int i = 0; i < polled; i++) {
+            int uid = pollScheduler.getSelected(i);
+            UidStat stat = uidStats.get(uid);
+            /* Too many files to keep open, these are read the plain way. */
+            long rx = readLong(stat.rcvPath);
+            long tx = readLong(stat.sndPath);
+            if (rx < 0 || tx < 0) {
+                pollScheduler.report(uid, 0);
+                continue;
+            }
+            pollScheduler.report(uid, stat.valid ? rx - stat.rx + tx - stat.tx : 0);
+            /* The budget can delay the first read of a uid by several
+             * iterations, its counters then hold traffic of before the
+             * previous snapshot. */
+            stat.first = !stat.valid && !stat.isNew;
+            stat.rx = rx;
+            stat.tx = tx;
+            stat.valid = true;
+        }
+
+        /* Uids not polled this time report their last known counters. */
+        for (int i = 0; i < uidStats.size(); i++) {
+            UidStat stat = uidStats.valueAt(i);
+            if (!stat.valid)
+                continue;
+            int slot = slot(0, uidStats.keyAt(i));
+            curRx[slot] = stat.rx;
+            curTx[slot] = stat.tx;
+            curRxPkt[slot] = curTxPkt[slot] = -1;
+            if (stat.first) {
+                startFrom(slot);
+                stat.first = false;
+            }
+        }
+        return true;
+    }
+
+    private long readLong(String path) {
+        if (uidStatParser.readFile(path) < 0)
+            return -1;
+        return ProcFileParser.parseLong(uidStatParser.getBuffer());
+    }
+
+    private static class UidStat {
+        final String rcvPath;
+        final String sndPath;
+        /* Not there at the previous listing, all its traffic is new. */
+        final boolean isNew;
+        long rx;
+        long tx;
+        boolean valid;
+        /* Read for the first time by this build. */
+        boolean first;
+
+        UidStat(String dir, boolean isNew) {
+            rcvPath = dir + "/tcp_rcv";
+            sndPath = dir + "/tcp_snd";
+            this.isNew = isNew;
+        }
+    }
+
+    private static int[] grow(int[] a, int size) {
+        int[] r = new int[size];
+        System.arraycopy(a, 0, r, 0, a.length);
+        return r;
+    }
+
+    private static long[] grow(long[] a, int size) {
+        long[] r = new long[size];
+        System.arraycopy(a, 0, r, 0, a.length);
+        return r;
+    }
+}
@@ -0,0 +1,240 @@
+/*
+Copyright (C) 2011 The University of Michigan
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+Please send inquiries to powertutor@umich.edu
+*/
+
+package fabiogentile.powertutor.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Per-uid network traffic table for a given iteration, built once by
+ * NetworkAccounting and shared by every network component.
+ * <p>
+ * Each row holds the cumulative byte and packet counters of a uid on an
+ * interface and how much they grew since the previous snapshot.  Rows are sorted by
+ * interface and then by uid.  When the kernel does not split the traffic per
+ * interface (/proc/uid_stat) there is a single anonymous interface that
+ * getInterfaceIndex() returns for every name.
+ * <p>
+ * The table does not change while published.  Its holders release it when
+ * done, and once nobody holds it the columns are refilled by a later build
+ * instead of allocating new ones: with the components releasing it within
+ * the iteration, two tables take turns.  A table that is never released is
+ * simply left to the garbage collector.
+ */
+public final class NetworkSnapshot {
+    public static final NetworkSnapshot EMPTY = new NetworkSnapshot(null, 0, 1);
+
+    /* Where the builder takes its next table from, null for EMPTY. */
+    private final AtomicReference<NetworkSnapshot> spare;
+    /* Holders, LinuxSystemInfo is one while the table is the current one.
+     * A table at 0 is being refilled and can not be retained. */
+    private final AtomicInteger refs = new AtomicInteger();
+
+    /* Columns, filled by NetworkAccounting before publication. */
+    long generation = -1;
+    String[] interfaces;
+    /* Named interfaces, 0 for the single anonymous one. */
+    int interfaceCount;
+    /* Rows of interface i are in [ifaceStart[i], ifaceStart[i + 1]). */
+    int[] ifaceStart;
+    int count;
+    int[] uids;
+    long[] rxBytes;
+    long[] txBytes;
+    long[] rxPackets;
+    long[] txPackets;
+    long[] rxDelta;
+    long[] txDelta;
+    long[] rxPacketsDelta;
+    long[] txPacketsDelta;
+
+    NetworkSnapshot(AtomicReference<NetworkSnapshot> spare, int rows, int ifaceCount) {
+        this.spare = spare;
+        interfaces = new String[ifaceCount];
+        ifaceStart = new int[ifaceCount + 1];
+        uids = new int[rows];
+        rxBytes = new long[rows];
+        txBytes = new long[rows];
+        rxPackets = new long[rows];
+        txPackets = new long[rows];
+        rxDelta = new long[rows];
+        txDelta = new long[rows];
+        rxPacketsDelta = new long[rows];
+        txPacketsDelta = new long[rows];
+    }
+
+    /**
+     * @return true if the columns can hold the given number of rows and
+     * interfaces
+     */
+    boolean fits(int rows, int ifaceCount) {
+        return uids.length >= rows && interfaces.length >= ifaceCount;
+    }
+
+    /**
+     * Make the filled table retainable, the caller holds the first reference.
+     */
+    void publish() {
+        refs.set(1);
+    }
+
+    /**
+     * Take a reference on a published table.
+     *
+     * @return false if the table has been released by everyone meanwhile
+     */
+    boolean retain() {
+        if (spare == null)
+            return true;
+        while (true) {
+            int r = refs.get();
+            if (r == 0)
+                return false;
+            if (refs.compareAndSet(r, r + 1))
+                return true;
+        }
+    }
+
+    /**
+     * Give back a table obtained from LinuxSystemInfo, it must not be read
+     * afterwards.
+     */
+    public void release() {
+        if (spare != null && refs.decrementAndGet() == 0)
+            spare.set(this);
+    }
+
+    /**
+     * @return the iteration this snapshot was built for
+     */
+    public long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * @return true if the rows are split per network interface
+     */
+    public boolean hasInterfaceSplit() {
+        return interfaceCount > 0;
+    }
+
+    /**
+     * @return index of the interface, -1 if it has no traffic
+     */
+    public int getInterfaceIndex(String name) {
+        if (interfaceCount == 0)
+            return 0;
+        for (int i = 0; i < interfaceCount; i++) {
+            if (interfaces[i].equals(name))
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * @return first row of the interface
+     */
+    public int firstRow(int iface) {
+        return iface < 0 ? 0 : ifaceStart[iface];
+    }
+
+    /**
+     * @return row following the last row of the interface
+     */
+    public int endRow(int iface) {
+        return iface < 0 ? 0 : ifaceStart[iface + 1];
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public int getUid(int row) {
+        return uids[row];
+    }
+
+    public long getRxBytes(int row) {
+        return rxBytes[row];
+    }
+
+    public long getTxBytes(int row) {
+        return txBytes[row];
+    }
+
+    /**
+     * @return received packets, -1 if the source does not count them
+     */
+    public long getRxPackets(int row) {
+        return rxPackets[row];
+    }
+
+    /**
+     * @return transmitted packets, -1 if the source does not count them
+     */
+    public long getTxPackets(int row) {
+        return txPackets[row];
+    }
+
+    /**
+     * @return bytes received since the previous snapshot
+     */
+    public long getRxDelta(int row) {
+        return rxDelta[row];
+    }
+
+    /**
+     * @return bytes transmitted since the previous snapshot
+     */
+    public long getTxDelta(int row) {
+        return txDelta[row];
+    }
+
+    /**
+     * @return packets received since the previous snapshot, -1 if the source
+     * does not count them
+     */
+    public long getRxPacketsDelta(int row) {
+        return rxPacketsDelta[row];
+    }
+
+    /**
+     * @return packets transmitted since the previous snapshot, -1 if the
+     * source does not count them
+     */
+    public long getTxPacketsDelta(int row) {
+        return txPacketsDelta[row];
+    }
+
+    /**
+     * @return row of uid on the interface, -1 if not present
+     */
+    public int indexOf(int iface, int uid) {
+        int lo = firstRow(iface);
+        int hi = endRow(iface) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int v = uids[mid];
+            if (v < uid) lo = mid + 1;
+            else if (v > uid) hi = mid - 1;
+            else return mid;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,167 @@
+/*
+Copyright (C) 2011 The University of Michigan
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+Please send inquiries to powertutor@umich.edu
+*/
+
+package fabiogentile.powertutor.util;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps objects that are no longer used so that they can be handed out
+ * again instead of allocating new ones at every iteration.
+ * <p>
+ * Each thread first uses a small cache of its own, without any lock.  The
+ * objects it cannot keep go to a bounded shared stack, which is where the
+ * objects recycled by one thread are obtained by another (e.g. samples are
+ * obtained by the sampler threads and recycled by the estimator).  Objects
+ * recycled while both are full are left to the garbage collector, so a
+ * burst of uids does not make the pool grow forever.
+ * <p>
+ * Usage:
+ * <pre>
+ *   T obj = pool.obtain();
+ *   if (obj == null) obj = new T();
+ *   ...
+ *   pool.recycle(obj);
+ * </pre>
+ */
+public class ObjectPool<T> {
+    public static final int DEFAULT_LOCAL_CAPACITY = 4;
+    public static final int DEFAULT_SHARED_CAPACITY = 32;
+
+    private static final List<ObjectPool<?>> pools =
+            new CopyOnWriteArrayList<ObjectPool<?>>();
+
+    private final String name;
+    private final ThreadLocal<LocalCache> local;
+    private final Object[] shared;
+    private int sharedSize;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong discarded = new AtomicLong();
+
+    public ObjectPool(String name) {
+        this(name, DEFAULT_LOCAL_CAPACITY, DEFAULT_SHARED_CAPACITY);
+    }
+
+    public ObjectPool(String name, final int localCapacity, int sharedCapacity) {
+        this.name = name;
+        local = new ThreadLocal<LocalCache>() {
+            @Override
+            protected LocalCache initialValue() {
+                return new LocalCache(localCapacity);
+            }
+        };
+        shared = new Object[sharedCapacity];
+        pools.add(this);
+    }
+
+    /**
+     * @return a recycled object, null if there is none and the caller has to
+     * create one
+     */
+    @SuppressWarnings("unchecked")
+    public T obtain() {
+        LocalCache cache = local.get();
+        if (cache.size > 0) {
+            T obj = (T) cache.items[--cache.size];
+            cache.items[cache.size] = null;
+            hits.incrementAndGet();
+            return obj;
+        }
+        synchronized (shared) {
+            if (sharedSize > 0) {
+                T obj = (T) shared[--sharedSize];
+                shared[sharedSize] = null;
+                hits.incrementAndGet();
+                return obj;
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    public void recycle(T obj) {
+        LocalCache cache = local.get();
+        if (cache.size < cache.items.length) {
+            cache.items[cache.size++] = obj;
+            return;
+        }
+        synchronized (shared) {
+            if (sharedSize < shared.length) {
+                shared[sharedSize++] = obj;
+                return;
+            }
+        }
+        discarded.incrementAndGet();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return number of obtain() calls that returned a recycled object
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return number of obtain() calls that found the pool empty
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return number of recycled objects dropped because the pool was full
+     */
+    public long getDiscarded() {
+        return discarded.get();
+    }
+
+    /**
+     * @return number of objects in the shared stack, the thread caches are
+     * not counted
+     */
+    public int getSharedSize() {
+        synchronized (shared) {
+            return sharedSize;
+        }
+    }
+
+    /**
+     * @return every pool created so far, for statistics
+     */
+    public static List<ObjectPool<?>> getPools() {
+        return pools;
+    }
+
+    private static class LocalCache {
+        final Object[] items;
+        int size;
+
+        LocalCache(int capacity) {
+            items = new Object[capacity];
+        }
+    }
+}
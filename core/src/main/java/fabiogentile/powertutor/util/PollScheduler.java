@@ -0,0 +1,333 @@
+/*
+Copyright (C) 2011 The University of Michigan
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+Please send inquiries to powertutor@umich.edu
+*/
+
+package fabiogentile.powertutor.util;
+
+/**
+ * Decides which entities (pids, uids...) a component polls during an
+ * iteration, so that the number of counter reads stays bounded however many
+ * entities there are.
+ * <p>
+ * Entities are ranked by expected activity: an exponential average of the
+ * activity reported after each poll, multiplied by the number of iterations
+ * since the entity was last polled.  Busy entities are polled every
+ * iteration and quiet ones take turns with the budget left; a quiet entity
+ * that has waited maxAge iterations gets its score boosted by the same
+ * factor so that it is normally polled right away.  Entities never polled
+ * and entities offered as urgent come first.
+ * <p>
+ * The counters read by the components are cumulative, so skipping a poll
+ * only delays the accounting to the next poll of that entity.
+ * <p>
+ * Typical use, once per iteration:
+ * <pre>
+ * scheduler.begin(iteration);
+ * for (each entity) scheduler.offer(key);
+ * int n = scheduler.select();
+ * for (int i = 0; i &lt; n; i++) {
+ *     int key = scheduler.getSelected(i);
+ *     ... read the counters of key ...
+ *     scheduler.report(key, activity);
+ * }
+ * </pre>
+ * Not thread safe.
+ */
+public class PollScheduler {
+    private static final double ACTIVITY_WEIGHT = 0.5;
+
+    /* Entities polled per iteration when a component samples the others. */
+    private static final int SAMPLE_DIVISOR = 4;
+
+    private final int budget;
+    private final int maxAge;
+    /* Reduced polling, see setReduced(). */
+    private int limit;
+    private boolean skipIdle;
+
+    /* Per-entity state, indexed by slot. */
+    private final IntIntMap slots = new IntIntMap();
+    private int[] slotKey = new int[32];
+    private double[] activity = new double[32];
+    /* Activity reported by the last poll, the average takes a while to decay. */
+    private long[] lastActivity = new long[32];
+    private long[] lastPoll = new long[32];
+    private long[] lastOffer = new long[32];
+    private boolean[] used = new boolean[32];
+    private boolean[] urgent = new boolean[32];
+    private int slotCount;
+    private int freeSlot;
+
+    /* Candidates of the current iteration. */
+    private int[] candidates = new int[32];
+    private int candidateCount;
+
+    /* Min-heap holding the best candidates, its content is the selection. */
+    private final int[] heapSlot;
+    private final double[] heapScore;
+    private int selectedCount;
+
+    private long iteration;
+    /* Incremented by every begin(), tells which entities were offered. */
+    private long round;
+    private int skipped;
+    private long totalSkipped;
+    private long totalPolled;
+
+    /**
+     * @param budget maximum number of entities polled per iteration
+     * @param maxAge number of iterations after which an entity is overdue
+     */
+    public PollScheduler(int budget, int maxAge) {
+        this.budget = budget;
+        this.maxAge = maxAge;
+        limit = budget;
+        heapSlot = new int[budget];
+        heapScore = new double[budget];
+    }
+
+    /**
+     * Poll less for a component running out of time, until called again with
+     * false, false.  Takes effect at the next select().
+     *
+     * @param skipIdle true to skip the entities idle at their last poll,
+     *                 unless they are overdue
+     * @param sampled  true to only poll a quarter of the budget
+     */
+    public void setReduced(boolean skipIdle, boolean sampled) {
+        this.skipIdle = skipIdle;
+        limit = sampled ? Math.max(1, budget / SAMPLE_DIVISOR) : budget;
+    }
+
+    public void begin(long iteration) {
+        this.iteration = iteration;
+        round++;
+        candidateCount = 0;
+        selectedCount = 0;
+    }
+
+    /**
+     * Declare an entity that exists during this iteration.
+     */
+    public void offer(int key) {
+        offer(key, false);
+    }
+
+    /**
+     * Declare an entity that exists during this iteration.
+     *
+     * @param urgent true if the entity has to be polled this iteration, e.g.
+     *               because its state machine advances on every poll
+     */
+    public void offer(int key, boolean urgent) {
+        int slot = slots.get(key, -1);
+        if (slot < 0) {
+            slot = newSlot(key);
+            lastPoll[slot] = -1;
+            activity[slot] = 0;
+            lastActivity[slot] = 0;
+        }
+        if (lastOffer[slot] == round) {
+            this.urgent[slot] |= urgent;
+            return;
+        }
+        lastOffer[slot] = round;
+        this.urgent[slot] = urgent;
+
+        if (candidateCount == candidates.length) {
+            int[] c = new int[candidateCount * 2];
+            System.arraycopy(candidates, 0, c, 0, candidateCount);
+            candidates = c;
+        }
+        candidates[candidateCount++] = slot;
+    }
+
+    /**
+     * Pick the entities to poll among the ones offered.  Entities that were
+     * not offered are forgotten.
+     *
+     * @return number of selected entities
+     */
+    public int select() {
+        selectedCount = 0;
+        for (int i = 0; i < candidateCount; i++) {
+            int slot = candidates[i];
+            if (skipIdle && isIdle(slot))
+                continue;
+            double score = score(slot);
+            if (selectedCount < limit) {
+                heapSlot[selectedCount] = slot;
+                heapScore[selectedCount] = score;
+                siftUp(selectedCount++);
+            } else if (score > heapScore[0]) {
+                heapSlot[0] = slot;
+                heapScore[0] = score;
+                siftDown(0);
+            }
+        }
+
+        skipped = candidateCount - selectedCount;
+        totalSkipped += skipped;
+        totalPolled += selectedCount;
+
+        /* Drop the entities that went away. */
+        for (int slot = 0; slot < slotCount; slot++) {
+            if (used[slot] && lastOffer[slot] != round) {
+                slots.delete(slotKey[slot]);
+                used[slot] = false;
+                if (slot < freeSlot)
+                    freeSlot = slot;
+            }
+        }
+        return selectedCount;
+    }
+
+    public int getSelected(int index) {
+        return slotKey[heapSlot[index]];
+    }
+
+    /**
+     * Record the result of a poll.
+     *
+     * @param key      entity polled
+     * @param activity amount of activity observed since its previous poll
+     *                 (bytes, clock ticks...), 0 if idle
+     */
+    public void report(int key, long activity) {
+        int slot = slots.get(key, -1);
+        if (slot < 0)
+            return;
+        long age = lastPoll[slot] < 0 ? 1 : Math.max(1, iteration - lastPoll[slot]);
+        double perIteration = (double) activity / age;
+        this.activity[slot] = lastPoll[slot] < 0 ? perIteration :
+                ACTIVITY_WEIGHT * perIteration + (1 - ACTIVITY_WEIGHT) * this.activity[slot];
+        lastActivity[slot] = activity;
+        lastPoll[slot] = iteration;
+    }
+
+    /**
+     * @return number of entities not polled during the last iteration
+     */
+    public int getSkipped() {
+        return skipped;
+    }
+
+    public long getTotalSkipped() {
+        return totalSkipped;
+    }
+
+    public long getTotalPolled() {
+        return totalPolled;
+    }
+
+    /* Polled before, idle then and not overdue yet. */
+    private boolean isIdle(int slot) {
+        return lastPoll[slot] >= 0 && !urgent[slot] && lastActivity[slot] == 0 &&
+                iteration - lastPoll[slot] < maxAge;
+    }
+
+    private double score(int slot) {
+        if (lastPoll[slot] < 0 || urgent[slot])
+            return Double.MAX_VALUE;
+        long age = iteration - lastPoll[slot];
+        double score = (activity[slot] + 1) * age;
+        return age >= maxAge ? score * maxAge : score;
+    }
+
+    private int newSlot(int key) {
+        while (freeSlot < slotCount && used[freeSlot])
+            freeSlot++;
+        int slot = freeSlot;
+        if (slot == slotCount) {
+            if (slotCount == slotKey.length) {
+                int size = slotCount * 2;
+                slotKey = grow(slotKey, size);
+                activity = grow(activity, size);
+                lastActivity = grow(lastActivity, size);
+                lastPoll = grow(lastPoll, size);
+                lastOffer = grow(lastOffer, size);
+                used = grow(used, size);
+                urgent = grow(urgent, size);
+            }
+            slotCount++;
+        }
+        freeSlot = slot + 1;
+        used[slot] = true;
+        slotKey[slot] = key;
+        lastOffer[slot] = -1;
+        slots.put(key, slot);
+        return slot;
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (heapScore[parent] <= heapScore[i])
+                break;
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int l = 2 * i + 1;
+            int r = l + 1;
+            int min = i;
+            if (l < selectedCount && heapScore[l] < heapScore[min]) min = l;
+            if (r < selectedCount && heapScore[r] < heapScore[min]) min = r;
+            if (min == i)
+                break;
+            swap(i, min);
+            i = min;
+        }
+    }
+
+    private void swap(int a, int b) {
+        int s = heapSlot[a];
+        heapSlot[a] = heapSlot[b];
+        heapSlot[b] = s;
+        double d = heapScore[a];
+        heapScore[a] = heapScore[b];
+        heapScore[b] = d;
+    }
+
+    private static int[] grow(int[] a, int size) {
+        int[] r = new int[size];
+        System.arraycopy(a, 0, r, 0, a.length);
+        return r;
+    }
+
+    private static long[] grow(long[] a, int size) {
+        long[] r = new long[size];
+        System.arraycopy(a, 0, r, 0, a.length);
+        return r;
+    }
+
+    private static boolean[] grow(boolean[] a, int size) {
+        boolean[] r = new boolean[size];
+        System.arraycopy(a, 0, r, 0, a.length);
+        return r;
+    }
+
+    private static double[] grow(double[] a, int size) {
+        double[] r = new double[size];
+        System.arraycopy(a, 0, r, 0, a.length);
+        return r;
+    }
+}
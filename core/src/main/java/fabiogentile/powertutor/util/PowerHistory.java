@@ -0,0 +1,233 @@
+/*
+Copyright (C) 2011 The University of Michigan
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+Please send inquiries to powertutor@umich.edu
+*/
+
+
+package fabiogentile.powertutor.util;
+
+import java.util.Arrays;
+
+/**
+ * Power history of every component, laid out as iteration x component x
+ * uid.  Each of the last maxSize iterations has one slot holding, for each
+ * component, the uids seen and their power sorted by uid.  A component
+ * appends a whole iteration at once, and a query over all the components
+ * or over all the uids of an iteration reads each slot once.  The window
+ * counters of the totals are kept per component and uid.
+ */
+public class PowerHistory {
+    public static final int ALL_COMPONENTS = -1;
+    private static final int[] EMPTY = new int[0];
+
+    private final int maxSize;
+    private final int components;
+    private final long iterationInterval;
+    /* Iteration held by each slot, -1 if none.  The rows of component c in
+     * slot s are at index s * components + c.
+     */
+    private long[] slotIteration;
+    private int[][] rowUids;
+    private int[][] rowPowers;
+    private int[] rowCount;
+    /* Window counters of each component by uid.  Zeros are added too, the
+     * counter also gives the number of iterations the uid was seen in. */
+    private IntMap<Counter>[] counters;
+    /* Latest iteration appended, the window counters end with it. */
+    private long lastIteration;
+    /* Scratch space to sort the rows by uid. */
+    private long[] sortBuffer = new long[0];
+
+    /**
+     * @param maxSize           number of iterations kept
+     * @param components        number of components
+     * @param iterationInterval ms between two iterations
+     */
+    public PowerHistory(int maxSize, int components, long iterationInterval) {
+        this.maxSize = maxSize;
+        this.components = components;
+        this.iterationInterval = iterationInterval;
+        slotIteration = new long[maxSize];
+        Arrays.fill(slotIteration, -1);
+        rowUids = new int[maxSize * components][];
+        rowPowers = new int[maxSize * components][];
+        rowCount = new int[maxSize * components];
+        @SuppressWarnings("unchecked")
+        IntMap<Counter>[] maps = (IntMap<Counter>[]) new IntMap<?>[components];
+        counters = maps;
+        for (int c = 0; c < components; c++)
+            counters[c] = new IntMap<Counter>();
+    }
+
+    /**
+     * Store the power of the count first uids for component at every
+     * iteration in [from, to], while taking the lock once.  Iterations
+     * should only increase across successive appends of a component.
+     */
+    public synchronized void appendIteration(int componentId, int[] uids, int[] powers,
+                                             int count, long from, long to) {
+        IntMap<Counter> uidCounters = counters[componentId];
+        for (long it = from; it <= to; it++) {
+            for (int i = 0; i < count; i++) {
+                Counter counter = uidCounters.get(uids[i]);
+                if (counter == null) {
+                    counter = new Counter(iterationInterval);
+                    uidCounters.put(uids[i], counter);
+                }
+                counter.add(powers[i], it);
+            }
+        }
+        if (to > lastIteration)
+            lastIteration = to;
+        if (maxSize == 0)
+            return;
+
+        /* Only the iterations still in the window are stored, the first one
+         * is sorted and the others copy it.
+         */
+        long first = Math.max(from, to - maxSize + 1);
+        int firstRow = -1;
+        for (long it = first; it <= to; it++) {
+            int row = slotRow(it, componentId);
+            if (firstRow == -1) {
+                storeSorted(row, uids, powers, count);
+                firstRow = row;
+            } else {
+                ensureRow(row, count);
+                System.arraycopy(rowUids[firstRow], 0, rowUids[row], 0, count);
+                System.arraycopy(rowPowers[firstRow], 0, rowPowers[row], 0, count);
+                rowCount[row] = count;
+            }
+        }
+    }
+
+    /* Claims the slot of iteration if it holds an older one, and returns the
+     * index of the rows of component in it.
+     */
+    private int slotRow(long iteration, int componentId) {
+        int slot = (int) (iteration % maxSize);
+        int base = slot * components;
+        if (slotIteration[slot] != iteration) {
+            slotIteration[slot] = iteration;
+            for (int c = 0; c < components; c++)
+                rowCount[base + c] = 0;
+        }
+        return base + componentId;
+    }
+
+    private void ensureRow(int row, int count) {
+        if (rowUids[row] == null || rowUids[row].length < count) {
+            int capacity = Math.max(count, 16);
+            rowUids[row] = new int[capacity];
+            rowPowers[row] = new int[capacity];
+        }
+    }
+
+    private void storeSorted(int row, int[] uids, int[] powers, int count) {
+        ensureRow(row, count);
+        int[] outUids = rowUids[row];
+        int[] outPowers = rowPowers[row];
+        boolean sorted = true;
+        for (int i = 0; i < count; i++) {
+            outUids[i] = uids[i];
+            outPowers[i] = powers[i];
+            if (i > 0 && uids[i - 1] > uids[i])
+                sorted = false;
+        }
+        rowCount[row] = count;
+        if (sorted)
+            return;
+
+        /* Uid in the high bits, so sorting the longs sorts by uid. */
+        if (sortBuffer.length < count)
+            sortBuffer = new long[Math.max(count, 2 * sortBuffer.length)];
+        for (int i = 0; i < count; i++)
+            sortBuffer[i] = (long) uids[i] << 32 | (powers[i] & 0xFFFFFFFFL);
+        Arrays.sort(sortBuffer, 0, count);
+        for (int i = 0; i < count; i++) {
+            outUids[i] = (int) (sortBuffer[i] >> 32);
+            outPowers[i] = (int) sortBuffer[i];
+        }
+    }
+
+    /* @return power of uid in the rows, 0 if it is not there */
+    private int lookup(int row, int uid) {
+        int i = Arrays.binarySearch(rowUids[row] == null ? EMPTY : rowUids[row],
+                0, rowCount[row], uid);
+        return i < 0 ? 0 : rowPowers[row][i];
+    }
+
+    /* Fills in the previous number iterations starting from an iteration and
+     * working backwards, summed over every component for ALL_COMPONENTS.
+     * Any iteration with no information is just treated as using no power.
+     * An iteration of -1 starts from the latest one.
+     */
+    public synchronized int[] get(int componentId, int uid, long iteration, int number) {
+        if (number < 0) number = 0;
+        if (number > maxSize) number = maxSize;
+        int[] ret = new int[number];
+        if (iteration == -1)
+            iteration = lastIteration;
+        int from = componentId == ALL_COMPONENTS ? 0 : componentId;
+        int to = componentId == ALL_COMPONENTS ? components : componentId + 1;
+        for (int ind = 0; ind < number && iteration - ind >= 0; ind++) {
+            long it = iteration - ind;
+            int slot = (int) (it % maxSize);
+            if (slotIteration[slot] != it)
+                continue;
+            int base = slot * components;
+            for (int c = from; c < to; c++)
+                ret[ind] += lookup(base + c, uid);
+        }
+        return ret;
+    }
+
+    /**
+     * Sum the power of every uid at one iteration over the components not
+     * set in ignoreMask.
+     *
+     * @param out receives uid -> power, cleared first
+     */
+    public synchronized void getIteration(long iteration, int ignoreMask, IntIntMap out) {
+        out.clear();
+        if (maxSize == 0 || iteration < 0)
+            return;
+        int slot = (int) (iteration % maxSize);
+        if (slotIteration[slot] != iteration)
+            return;
+        int base = slot * components;
+        for (int c = 0; c < components; c++) {
+            if ((ignoreMask & 1 << c) != 0)
+                continue;
+            int row = base + c;
+            for (int i = 0; i < rowCount[row]; i++) {
+                int uid = rowUids[row][i];
+                out.put(uid, out.get(uid, 0) + rowPowers[row][i]);
+            }
+        }
+    }
+
+    public synchronized long getTotal(int componentId, int uid, int windowType) {
+        Counter counter = counters[componentId].get(uid);
+        return counter == null ? 0 : counter.get(windowType, lastIteration);
+    }
+
+    public synchronized long getCount(int componentId, int uid, int windowType) {
+        Counter counter = counters[componentId].get(uid);
+        return counter == null ? 0 : counter.getCount(windowType, lastIteration);
+    }
+}
@@ -0,0 +1,284 @@
+/*
+Copyright (C) 2011 The University of Michigan
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+Please send inquiries to powertutor@umich.edu
+*/
+
+package fabiogentile.powertutor.util;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Byte level parser for the numeric files found under /proc and /sys.
+ * A parser owns one ByteBuffer that is refilled by readFile() and parsed in
+ * place; results are written into caller supplied long arrays so that no
+ * object is created while parsing.  The static parse methods work on any
+ * buffer between its position and its limit and never move the position.
+ * <p>
+ * An instance is not thread safe, use one per thread.
+ */
+public final class ProcFileParser {
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    private final ByteBuffer buffer;
+    private final byte[] array;
+
+    public ProcFileParser() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public ProcFileParser(int capacity) {
+        array = new byte[capacity];
+        buffer = ByteBuffer.wrap(array);
+    }
+
+    /**
+     * @return the buffer filled by the last readFile() call
+     */
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * @return the array backing getBuffer()
+     */
+    public byte[] getArray() {
+        return array;
+    }
+
+    /**
+     * Load the beginning of a file into the buffer.  On success the buffer
+     * position is 0 and the limit is the number of bytes read.
+     *
+     * @return number of bytes read, -1 on failure
+     */
+    public int readFile(String path) {
+        ProcSource source = ProcSource.get();
+        if (source != ProcSource.DIRECT) {
+            buffer.clear();
+            int len = source.read(path, buffer, 0);
+            setContent(len);
+            return len;
+        }
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(path);
+            int len = 0;
+            int r;
+            while (len < array.length && (r = in.read(array, len, array.length - len)) > 0)
+                len += r;
+            setContent(len);
+            return len;
+        } catch (IOException e) {
+            setContent(0);
+            return -1;
+        } finally {
+            if (in != null) try {
+                in.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    /**
+     * Mark the first len bytes of the backing array as valid content.  Used
+     * by callers that filled the array themselves.
+     */
+    public void setContent(int len) {
+        buffer.clear();
+        buffer.limit(len < 0 ? 0 : len);
+    }
+
+    /* ---------------------------------------------------------------------
+     * Parsing primitives
+     * ------------------------------------------------------------------ */
+
+    private static boolean isSpace(byte c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+    }
+
+    private static boolean isDigit(byte c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * @return index of the first byte of the line following the one containing
+     * pos, or the buffer limit if it is the last line
+     */
+    public static int nextLine(ByteBuffer b, int pos) {
+        int lim = b.limit();
+        while (pos < lim && b.get(pos) != '\n')
+            pos++;
+        return pos < lim ? pos + 1 : lim;
+    }
+
+    /**
+     * Parse the first decimal number in the buffer, as found in single value
+     * sysfs files.
+     *
+     * @return the value or -1 if the buffer does not start with a number
+     */
+    public static long parseLong(ByteBuffer b) {
+        int pos = b.position();
+        int lim = b.limit();
+        while (pos < lim && isSpace(b.get(pos)))
+            pos++;
+        boolean neg = false;
+        if (pos < lim && b.get(pos) == '-') {
+            neg = true;
+            pos++;
+        }
+        if (pos == lim || !isDigit(b.get(pos)))
+            return -1;
+        long v = 0;
+        while (pos < lim && isDigit(b.get(pos)))
+            v = v * 10 + (b.get(pos++) - '0');
+        return neg ? -v : v;
+    }
+
+    /**
+     * Parse the whitespace separated numeric fields of the first line, after
+     * skipping a number of leading fields (e.g. the "cpu" label of /proc/stat).
+     *
+     * @param skip   number of leading fields to ignore
+     * @param out    destination array
+     * @param offset first index written in out
+     * @param count  maximum number of values to parse
+     * @return number of values stored in out
+     */
+    public static int parseLineFields(ByteBuffer b, int skip, long[] out, int offset, int count) {
+        int pos = b.position();
+        int lim = b.limit();
+        int parsed = 0;
+        int field = 0;
+        while (pos < lim && parsed < count) {
+            byte c = b.get(pos);
+            if (c == '\n')
+                break;
+            if (c == ' ' || c == '\t') {
+                pos++;
+                continue;
+            }
+
+            /* Start of a field. */
+            if (field++ < skip) {
+                while (pos < lim && !isSpace(b.get(pos)))
+                    pos++;
+                continue;
+            }
+            long v = 0;
+            while (pos < lim && !isSpace(b.get(pos))) {
+                c = b.get(pos++);
+                if (isDigit(c))
+                    v = v * 10 + (c - '0');
+            }
+            out[offset + parsed++] = v;
+        }
+        return parsed;
+    }
+
+    /**
+     * Parse selected fields of a /proc/[pid]/stat line.  The comm field can
+     * contain both spaces and parentheses so parsing starts after the last ')'
+     * in the buffer.  The state field (3) is returned as its character code.
+     *
+     * @param fields 1-based field numbers as listed in proc(5), strictly
+     *               increasing and greater than 2
+     * @param out    out[i] receives the value of fields[i]
+     * @return true if every requested field was found
+     */
+    public static boolean parsePidStat(ByteBuffer b, int[] fields, long[] out) {
+        int start = b.position();
+        int lim = b.limit();
+        int pos = lim - 1;
+        while (pos >= start && b.get(pos) != ')')
+            pos--;
+        if (pos < start)
+            return false;
+        pos++;
+
+        int field = 2; // comm
+        int want = 0;
+        while (pos < lim && want < fields.length) {
+            byte c = b.get(pos);
+            if (c == '\n')
+                break;
+            if (c == ' ') {
+                pos++;
+                continue;
+            }
+            field++;
+            if (field != fields[want]) {
+                while (pos < lim && !isSpace(b.get(pos)))
+                    pos++;
+                continue;
+            }
+            long v = 0;
+            boolean neg = false;
+            if (field == 3) {
+                v = c;
+                pos++;
+            } else {
+                if (c == '-') {
+                    neg = true;
+                    pos++;
+                }
+                while (pos < lim && isDigit(b.get(pos)))
+                    v = v * 10 + (b.get(pos++) - '0');
+            }
+            out[want++] = neg ? -v : v;
+            while (pos < lim && !isSpace(b.get(pos)))
+                pos++;
+        }
+        return want == fields.length;
+    }
+
+    /**
+     * Find the line starting with key (e.g. "Uid:" in /proc/[pid]/status or
+     * "MemFree:" in /proc/meminfo) and parse the first number following it.
+     *
+     * @param key bytes the line has to start with
+     * @return the value or -1 if the key was not found
+     */
+    public static long parseKeyValue(ByteBuffer b, byte[] key) {
+        int lim = b.limit();
+        int lineStart = b.position();
+        while (lineStart < lim) {
+            boolean match = lineStart + key.length <= lim;
+            for (int i = 0; match && i < key.length; i++)
+                match = b.get(lineStart + i) == key[i];
+
+            if (match) {
+                int pos = lineStart + key.length;
+                while (pos < lim && (b.get(pos) == ' ' || b.get(pos) == '\t'))
+                    pos++;
+                if (pos == lim || !isDigit(b.get(pos)))
+                    return -1;
+                long v = 0;
+                while (pos < lim && isDigit(b.get(pos)))
+                    v = v * 10 + (b.get(pos++) - '0');
+                return v;
+            }
+
+            while (lineStart < lim && b.get(lineStart) != '\n')
+                lineStart++;
+            lineStart++;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,154 @@
+/*
+Copyright (C) 2011 The University of Michigan
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+Please send inquiries to powertutor@umich.edu
+*/
+
+package fabiogentile.powertutor.util;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+
+/**
+ * In-process scanner for /proc/[pid]/stat and /proc/[pid]/status.
+ * Every file is read into the same byte buffer and parsed in place by
+ * ProcFileParser, so a scan costs one open/read/close per file instead of a
+ * round trip through a shell pipeline and a String per line.  Files that
+ * cannot be opened because of missing privileges are delegated to the
+ * optional RootHelper.
+ * <p>
+ * A scanner is not thread safe, every thread should use its own instance.
+ */
+public class ProcScanner {
+    /* Flags selecting which files are read for each pid. */
+    public static final int SCAN_UID = 1;
+    public static final int SCAN_TIMES = 2;
+
+    private static final String TAG = "ProcScanner";
+    private static final int BUFFER_SIZE = 2048;
+    /* 1-based field numbers in /proc/[pid]/stat, see proc(5). */
+    private static final int[] STAT_FIELDS = {14, 15, 22}; // utime, stime, starttime
+    private static final byte[] UID_TAG = "Uid:".getBytes();
+
+    private final ProcFileParser parser;
+    private final long[] statValues;
+    private final StringBuilder pathBuilder;
+    private RootHelper rootHelper;
+
+    /* Result of the last scan.  Entries from 0 to count-1 are valid. */
+    public int count;
+    public int[] pids;
+    public int[] uids;
+    public long[] utime;
+    public long[] stime;
+    public long[] startTime;
+
+    public ProcScanner(RootHelper rootHelper) {
+        this.rootHelper = rootHelper;
+        parser = new ProcFileParser(BUFFER_SIZE);
+        statValues = new long[STAT_FIELDS.length];
+        pathBuilder = new StringBuilder(32);
+        ensureCapacity(256);
+    }
+
+    private void ensureCapacity(int size) {
+        if (pids != null && pids.length >= size)
+            return;
+        int newSize = Math.max(size, pids == null ? 0 : pids.length * 2);
+        int[] newPids = new int[newSize];
+        int[] newUids = new int[newSize];
+        long[] newUtime = new long[newSize];
+        long[] newStime = new long[newSize];
+        long[] newStart = new long[newSize];
+        if (pids != null) {
+            System.arraycopy(pids, 0, newPids, 0, count);
+            System.arraycopy(uids, 0, newUids, 0, count);
+            System.arraycopy(utime, 0, newUtime, 0, count);
+            System.arraycopy(stime, 0, newStime, 0, count);
+            System.arraycopy(startTime, 0, newStart, 0, count);
+        }
+        pids = newPids;
+        uids = newUids;
+        utime = newUtime;
+        stime = newStime;
+        startTime = newStart;
+    }
+
+    /**
+     * Read the requested information for every pid in pidList.  Processes
+     * that exit while scanning are silently dropped from the result.
+     *
+     * @param pidList list of pids as returned by SystemInfo.getPids, it can be
+     *                terminated by a negative value
+     * @param flags   combination of SCAN_UID and SCAN_TIMES
+     * @return number of processes scanned
+     */
+    public int scan(int[] pidList, int flags) {
+        count = 0;
+        if (pidList == null)
+            return 0;
+        ensureCapacity(pidList.length);
+
+        for (int pid : pidList) {
+            if (pid < 0)
+                break;
+
+            ByteBuffer buf = parser.getBuffer();
+            int uid = -1;
+            if ((flags & SCAN_UID) != 0) {
+                if (readProcFile(pid, "/status") < 0)
+                    continue;
+                uid = (int) ProcFileParser.parseKeyValue(buf, UID_TAG);
+                if (uid < 0)
+                    continue;
+            }
+
+            if ((flags & SCAN_TIMES) != 0) {
+                if (readProcFile(pid, "/stat") < 0 ||
+                        !ProcFileParser.parsePidStat(buf, STAT_FIELDS, statValues))
+                    continue;
+                utime[count] = statValues[0];
+                stime[count] = statValues[1];
+                startTime[count] = statValues[2];
+            }
+
+            pids[count] = pid;
+            uids[count] = uid;
+            count++;
+        }
+        return count;
+    }
+
+    /* Reads /proc/<pid><file> into the parser buffer, returns the number of
+     * bytes read or -1.
+     */
+    private int readProcFile(int pid, String file) {
+        pathBuilder.setLength(0);
+        pathBuilder.append("/proc/").append(pid).append(file);
+        String path = pathBuilder.toString();
+
+        int len = parser.readFile(path);
+        if (len < 0 && rootHelper != null && ProcSource.get() == ProcSource.DIRECT &&
+                new File(path).exists()) {
+            /* The process is still there but we are not allowed to look at it,
+             * that is worth a trip through the root shell.
+             */
+            len = rootHelper.readFile(path, parser.getArray());
+            parser.setContent(len);
+        }
+        return len;
+    }
+}
@@ -0,0 +1,102 @@
+/*
+Copyright (C) 2011 The University of Michigan
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+Please send inquiries to powertutor@umich.edu
+*/
+
+package fabiogentile.powertutor.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Where the /proc and /sys inputs of the components come from.  DIRECT reads
+ * the files themselves; a TraceRecorder is installed in its place to save
+ * what is read, a TraceReplayer to serve it back without the device.
+ * <p>
+ * ProcFileParser and SysfsCounter keep their own fast paths while DIRECT is
+ * installed, they only go through the source otherwise.
+ */
+public abstract class ProcSource {
+    public static final ProcSource DIRECT = new ProcSource() {
+        @Override
+        public int read(String path, ByteBuffer dst, long position) {
+            FileInputStream in = null;
+            try {
+                in = new FileInputStream(path);
+                FileChannel ch = in.getChannel();
+                long pos = position;
+                int r;
+                while (dst.hasRemaining() && (r = ch.read(dst, pos)) > 0)
+                    pos += r;
+                return (int) (pos - position);
+            } catch (IOException e) {
+                return -1;
+            } finally {
+                if (in != null) try {
+                    in.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+
+        @Override
+        public String[] list(String dir) {
+            return new File(dir).list();
+        }
+
+        @Override
+        public boolean exists(String path) {
+            return new File(path).exists();
+        }
+    };
+
+    private static volatile ProcSource current = DIRECT;
+
+    /**
+     * @return the installed source, DIRECT unless a trace is being recorded
+     * or replayed
+     */
+    public static ProcSource get() {
+        return current;
+    }
+
+    /**
+     * Install a source, null to go back to DIRECT.  Meant to be called before
+     * the components are created.
+     */
+    public static void set(ProcSource source) {
+        current = source == null ? DIRECT : source;
+    }
+
+    /**
+     * Read from the given offset of the file until dst is full or the end of
+     * the file.
+     *
+     * @return number of bytes stored in dst, -1 on failure
+     */
+    public abstract int read(String path, ByteBuffer dst, long position);
+
+    /**
+     * @return names of the entries of dir, null on failure
+     */
+    public abstract String[] list(String dir);
+
+    public abstract boolean exists(String path);
+}
@@ -0,0 +1,147 @@
+/*
+Copyright (C) 2011 The University of Michigan
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+Please send inquiries to powertutor@umich.edu
+*/
+
+package fabiogentile.powertutor.util;
+
+/**
+ * Immutable view of every process running at a given iteration.  A snapshot
+ * is built once per iteration by SystemInfo and published as a whole, so
+ * readers never observe a partially filled table and never need a lock.
+ * Entries are sorted by pid.
+ */
+public final class ProcessSnapshot {
+    public static final ProcessSnapshot EMPTY = new ProcessSnapshot(-1, 0,
+            new int[0], new int[0], new long[0], new long[0], new long[0]);
+
+    private final long generation;
+    private final int count;
+    private final int[] pids;
+    private final int[] uids;
+    private final long[] utime;
+    private final long[] stime;
+    private final long[] startTime;
+
+    private ProcessSnapshot(long generation, int count, int[] pids, int[] uids,
+                            long[] utime, long[] stime, long[] startTime) {
+        this.generation = generation;
+        this.count = count;
+        this.pids = pids;
+        this.uids = uids;
+        this.utime = utime;
+        this.stime = stime;
+        this.startTime = startTime;
+    }
+
+    /**
+     * Copy the result of the last scan into a new snapshot.
+     *
+     * @param generation iteration the snapshot belongs to
+     * @param scanner    scanner that just completed a scan with both
+     *                   SCAN_UID and SCAN_TIMES
+     */
+    public static ProcessSnapshot fromScanner(long generation, ProcScanner scanner) {
+        int n = scanner.count;
+        int[] pids = new int[n];
+        int[] uids = new int[n];
+        long[] utime = new long[n];
+        long[] stime = new long[n];
+        long[] startTime = new long[n];
+
+        /* /proc is normally listed in pid order, only sort when it is not. */
+        boolean sorted = true;
+        for (int i = 1; i < n && sorted; i++)
+            sorted = scanner.pids[i - 1] < scanner.pids[i];
+
+        if (sorted) {
+            System.arraycopy(scanner.pids, 0, pids, 0, n);
+            System.arraycopy(scanner.uids, 0, uids, 0, n);
+            System.arraycopy(scanner.utime, 0, utime, 0, n);
+            System.arraycopy(scanner.stime, 0, stime, 0, n);
+            System.arraycopy(scanner.startTime, 0, startTime, 0, n);
+        } else {
+            /* Insertion sort on the destination arrays. */
+            for (int i = 0; i < n; i++) {
+                int pid = scanner.pids[i];
+                int j = i;
+                while (j > 0 && pids[j - 1] > pid) {
+                    pids[j] = pids[j - 1];
+                    uids[j] = uids[j - 1];
+                    utime[j] = utime[j - 1];
+                    stime[j] = stime[j - 1];
+                    startTime[j] = startTime[j - 1];
+                    j--;
+                }
+                pids[j] = pid;
+                uids[j] = scanner.uids[i];
+                utime[j] = scanner.utime[i];
+                stime[j] = scanner.stime[i];
+                startTime[j] = scanner.startTime[i];
+            }
+        }
+
+        return new ProcessSnapshot(generation, n, pids, uids, utime, stime, startTime);
+    }
+
+    /**
+     * @return the iteration this snapshot was built for
+     */
+    public long getGeneration() {
+        return generation;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public int getPid(int index) {
+        return pids[index];
+    }
+
+    public int getUid(int index) {
+        return uids[index];
+    }
+
+    public long getUsrTime(int index) {
+        return utime[index];
+    }
+
+    public long getSysTime(int index) {
+        return stime[index];
+    }
+
+    public long getStartTime(int index) {
+        return startTime[index];
+    }
+
+    /**
+     * @return position of pid in the snapshot or -1 if it is not present
+     */
+    public int indexOf(int pid) {
+        int lo = 0;
+        int hi = count - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int v = pids[mid];
+            if (v < pid) lo = mid + 1;
+            else if (v > pid) hi = mid - 1;
+            else return mid;
+        }
+        return -1;
+    }
+}
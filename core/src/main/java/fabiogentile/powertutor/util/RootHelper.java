@@ -0,0 +1,165 @@
+/*
+Copyright (C) 2011 The University of Michigan
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+Please send inquiries to powertutor@umich.edu
+*/
+
+package fabiogentile.powertutor.util;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Keeps a single long-lived su shell around to read files that the profiler
+ * has no permission to open directly.  It is only meant as a fallback for the
+ * few /proc entries that really need privileges, everything else should be
+ * read in-process.
+ */
+public class RootHelper {
+    private static final String TAG = "RootHelper";
+    private static final String COMMAND_TERMINATOR = "--TERM--";
+    /* The shell prints a newline before the terminator, so that it is found
+     * even after a file without a trailing newline.  That newline is part of
+     * the match and never reaches the caller.
+     */
+    private static final byte[] TERMINATOR_BYTES = ("\n" + COMMAND_TERMINATOR + "\n").getBytes();
+
+    private final String shell;
+    private java.lang.Process suProcess;
+    private DataOutputStream suInput;
+    private InputStream suOutput;
+    private boolean enabled;
+
+    public RootHelper() {
+        this("su");
+    }
+
+    /* Runs another shell in place of su, the tests use a plain sh. */
+    RootHelper(String shell) {
+        this.shell = shell;
+        enabled = true;
+    }
+
+    /**
+     * Allow or forbid the use of the su shell.  When disabled the shell is
+     * closed and every privileged read fails.
+     */
+    public synchronized void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled)
+            stop();
+    }
+
+    public synchronized boolean isAlive() {
+        return suProcess != null && suInput != null && suOutput != null;
+    }
+
+    private boolean start() {
+        if (isAlive())
+            return true;
+        try {
+            suProcess = Runtime.getRuntime().exec(shell);
+            suInput = new DataOutputStream(suProcess.getOutputStream());
+            suOutput = suProcess.getInputStream();
+            Logger.i(TAG, "start: SU started");
+            return true;
+        } catch (IOException e) {
+            Logger.w(TAG, "start: could not start su shell");
+            suProcess = null;
+            suInput = null;
+            suOutput = null;
+            enabled = false;
+            return false;
+        }
+    }
+
+    /**
+     * Close the su shell, it will be started again on the next privileged read.
+     */
+    public synchronized void stop() {
+        if (!isAlive())
+            return;
+        try {
+            suInput.writeBytes("exit\n");
+            suInput.flush();
+            suProcess.waitFor();
+            suInput.close();
+            suOutput.close();
+            Logger.i(TAG, "stop: SU stopped");
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        suProcess = null;
+        suInput = null;
+        suOutput = null;
+    }
+
+    /**
+     * Read a file through the su shell into buf.
+     *
+     * @param path file to read
+     * @param buf  destination buffer, content exceeding its size is discarded
+     * @return number of bytes stored in buf, -1 on failure
+     */
+    public synchronized int readFile(String path, byte[] buf) {
+        if (!enabled || !start())
+            return -1;
+
+        try {
+            suInput.writeBytes("cat \"" + path + "\" 2>/dev/null; echo; echo " + COMMAND_TERMINATOR + "\n");
+            suInput.flush();
+
+            /* Stream the output into buf until the terminator shows up.  We
+             * keep track of how much of the terminator has been matched so that
+             * it never ends up in the caller's buffer.  The terminator only
+             * holds a newline at its start, so after a mismatch the byte read
+             * can only begin a new match if it is a newline.
+             */
+            int len = 0;
+            int matched = 0;
+            while (true) {
+                int b = suOutput.read();
+                if (b == -1) {
+                    stop();
+                    return -1;
+                }
+                if (b == TERMINATOR_BYTES[matched]) {
+                    matched++;
+                    if (matched == TERMINATOR_BYTES.length)
+                        return len;
+                    continue;
+                }
+
+                /* Partial match turned out to be data, flush it. */
+                for (int i = 0; i < matched && len < buf.length; i++)
+                    buf[len++] = TERMINATOR_BYTES[i];
+                if (b == TERMINATOR_BYTES[0]) {
+                    matched = 1;
+                    continue;
+                }
+                matched = 0;
+
+                if (len < buf.length)
+                    buf[len++] = (byte) b;
+            }
+        } catch (IOException e) {
+            Logger.w(TAG, "readFile: failed to read " + path);
+            stop();
+        }
+        return -1;
+    }
+}
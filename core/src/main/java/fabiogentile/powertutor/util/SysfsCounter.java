@@ -0,0 +1,206 @@
+/*
+Copyright (C) 2011 The University of Michigan
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+Please send inquiries to powertutor@umich.edu
+*/
+
+package fabiogentile.powertutor.util;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Handle on a file that is read over and over, like the counters exported
+ * under /sys and /proc.  The file is opened once and every read is a
+ * positional read from offset 0, which makes the kernel regenerate the
+ * content without paying for open/close each iteration.
+ * <p>
+ * The number of files kept open is bounded: when the limit is reached the
+ * least recently read handle is closed and will transparently reopen on its
+ * next read.  A handle whose file disappears (an interface going down, a
+ * core going offline) fails the read and tries to open the path again the
+ * next time, so it recovers on its own when the file comes back.
+ */
+public final class SysfsCounter {
+    private static final String TAG = "SysfsCounter";
+    private static final int MAX_OPEN_HANDLES = 48;
+
+    /* Access ordered, so the eldest entry is the least recently read handle. */
+    private static final LinkedHashMap<SysfsCounter, Boolean> openHandles =
+            new LinkedHashMap<SysfsCounter, Boolean>(16, 0.75f, true);
+
+    private static final ThreadLocal<ProcFileParser> parsers = new ThreadLocal<ProcFileParser>() {
+        @Override
+        protected ProcFileParser initialValue() {
+            return new ProcFileParser();
+        }
+    };
+
+    private final String path;
+    /* Closed from other threads on eviction, readers detect it and reopen. */
+    private volatile FileChannel channel;
+
+    public SysfsCounter(String path) {
+        this.path = path;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Read the file as a single decimal value.
+     *
+     * @return the value, -1 on failure
+     */
+    public long readLong() {
+        ProcFileParser parser = parsers.get();
+        if (!load(parser))
+            return -1;
+        return ProcFileParser.parseLong(parser.getBuffer());
+    }
+
+    /**
+     * Read the whole file (up to the parser capacity) into the buffer of
+     * parser, ready to be parsed.
+     *
+     * @return true on success
+     */
+    public boolean load(ProcFileParser parser) {
+        ByteBuffer buf = parser.getBuffer();
+        buf.clear();
+        if (read(buf, 0) < 0) {
+            parser.setContent(0);
+            return false;
+        }
+        buf.flip();
+        return true;
+    }
+
+    /**
+     * Read from the given offset of the file until dst is full or the end of
+     * the file.  Large files can be streamed by calling it with increasing
+     * offsets.
+     *
+     * @return number of bytes stored in dst, -1 on failure
+     */
+    public int read(ByteBuffer dst, long position) {
+        ProcSource source = ProcSource.get();
+        if (source != ProcSource.DIRECT)
+            return source.read(path, dst, position);
+        int start = dst.position();
+        for (int attempt = 0; attempt < 2; attempt++) {
+            FileChannel ch = channel;
+            if (ch == null || !ch.isOpen()) {
+                ch = open();
+                if (ch == null)
+                    return -1;
+            }
+
+            try {
+                long pos = position;
+                int r;
+                while (dst.hasRemaining() && (r = ch.read(dst, pos)) > 0)
+                    pos += r;
+                touch();
+                return (int) (pos - position);
+            } catch (IOException e) {
+                /* Either the file went away under us or the handle was evicted
+                 * by another thread.  Drop it and try once more with a fresh one.
+                 */
+                closeChannel(ch);
+                dst.position(start);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return true if the file currently exists and can be read
+     */
+    public boolean exists() {
+        ProcSource source = ProcSource.get();
+        if (source != ProcSource.DIRECT)
+            return source.exists(path);
+        FileChannel ch = channel;
+        return (ch != null && ch.isOpen()) || open() != null;
+    }
+
+    /**
+     * Release the file descriptor, the next read will open it again.
+     */
+    public void close() {
+        synchronized (openHandles) {
+            openHandles.remove(this);
+        }
+        closeChannel(channel);
+    }
+
+    private synchronized FileChannel open() {
+        FileChannel ch = channel;
+        if (ch != null && ch.isOpen())
+            return ch;
+        try {
+            ch = new FileInputStream(path).getChannel();
+        } catch (IOException e) {
+            return null;
+        }
+        channel = ch;
+        register();
+        return ch;
+    }
+
+    private void closeChannel(FileChannel ch) {
+        if (ch == null)
+            return;
+        try {
+            ch.close();
+        } catch (IOException e) {
+        }
+        synchronized (this) {
+            if (channel == ch)
+                channel = null;
+        }
+    }
+
+    private void register() {
+        SysfsCounter evicted = null;
+        synchronized (openHandles) {
+            openHandles.put(this, Boolean.TRUE);
+            if (openHandles.size() > MAX_OPEN_HANDLES) {
+                Iterator<Map.Entry<SysfsCounter, Boolean>> it = openHandles.entrySet().iterator();
+                evicted = it.next().getKey();
+                it.remove();
+            }
+        }
+        /* Closed outside of the map lock, a reader of the evicted handle just
+         * sees its read fail and reopens.
+         */
+        if (evicted != null)
+            evicted.closeChannel(evicted.channel);
+    }
+
+    private void touch() {
+        synchronized (openHandles) {
+            openHandles.get(this);
+        }
+    }
+}
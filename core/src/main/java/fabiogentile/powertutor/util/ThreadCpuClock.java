@@ -0,0 +1,65 @@
+/*
+Copyright (C) 2011 The University of Michigan
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+Please send inquiries to powertutor@umich.edu
+*/
+
+package fabiogentile.powertutor.util;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Cpu time of the calling thread, in ns, used to measure what the sampling
+ * costs.  Android installs Debug.threadCpuTimeNanos(), elsewhere it comes
+ * from the ThreadMXBean of the JVM.
+ */
+public abstract class ThreadCpuClock {
+    /* Null until first used, so that java.lang.management, which Android
+     * does not have, is only loaded when the platform did not install a
+     * clock. */
+    private static volatile ThreadCpuClock platform;
+
+    /**
+     * @return cpu time of the calling thread in ns, -1 if not supported
+     */
+    public static long threadCpuTime() {
+        ThreadCpuClock clock = platform;
+        if (clock == null)
+            platform = clock = new Jvm();
+        return clock.now();
+    }
+
+    /**
+     * Replace the default with the clock of the platform.  Called once at
+     * startup.
+     */
+    public static void setPlatform(ThreadCpuClock clock) {
+        platform = clock;
+    }
+
+    public abstract long now();
+
+    private static final class Jvm extends ThreadCpuClock {
+        private final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        private final boolean supported = bean.isCurrentThreadCpuTimeSupported();
+
+        @Override
+        public long now() {
+            return supported ? bean.getCurrentThreadCpuTime() : -1;
+        }
+    }
+}
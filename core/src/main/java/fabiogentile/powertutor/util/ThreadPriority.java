@@ -0,0 +1,51 @@
+/*
+Copyright (C) 2011 The University of Michigan
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+Please send inquiries to powertutor@umich.edu
+*/
+
+package fabiogentile.powertutor.util;
+
+/**
+ * Raises the scheduling priority of the sampling threads so that they run
+ * right after their wakeup.  The default only bumps the Java priority, most
+ * JVMs ignore it; Android installs its own with a nice value.
+ */
+public abstract class ThreadPriority {
+    private static volatile ThreadPriority platform = new ThreadPriority() {
+        @Override
+        public void raiseCurrent() {
+            Thread.currentThread().setPriority(Thread.NORM_PRIORITY + 1);
+        }
+    };
+
+    /**
+     * Raise the priority of the calling thread.
+     */
+    public static void raise() {
+        platform.raiseCurrent();
+    }
+
+    /**
+     * Replace the default with the one of the platform.  Called once at
+     * startup.
+     */
+    public static void setPlatform(ThreadPriority priority) {
+        platform = priority;
+    }
+
+    public abstract void raiseCurrent();
+}
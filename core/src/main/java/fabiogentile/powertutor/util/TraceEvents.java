@@ -0,0 +1,124 @@
+/*
+Copyright (C) 2011 The University of Michigan
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+Please send inquiries to powertutor@umich.edu
+*/
+
+package fabiogentile.powertutor.util;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Inputs that reach the components as callbacks or queries rather than file
+ * reads, so that a trace can carry them too.  State changes are saved with
+ * record() and replayed at their time through the listeners and getLast().
+ * Values queried at every sample are saved with recordValue() and handed
+ * back in the same order by takeValue().
+ */
+public final class TraceEvents {
+    public static final int SCREEN = 1;
+    public static final int BRIGHTNESS = 2;
+    public static final int FOREGROUND_UID = 3;
+    /* Quality each sampler was dispatched with, -1 if it was skipped. */
+    public static final int SAMPLE = 4;
+    private static final int TYPE_COUNT = 5;
+
+    public interface Listener {
+        void onTraceEvent(int type, long value);
+    }
+
+    private static final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+    private static final long[] lastValues = new long[TYPE_COUNT];
+    private static final boolean[] seen = new boolean[TYPE_COUNT];
+
+    private TraceEvents() {
+    }
+
+    /**
+     * @return true if the inputs come from a trace and the system state
+     * should be ignored
+     */
+    public static boolean isReplaying() {
+        return ProcSource.get() instanceof TraceReplayer;
+    }
+
+    /**
+     * Save a state change to the trace being recorded, if any.
+     */
+    public static void record(int type, long value) {
+        ProcSource source = ProcSource.get();
+        if (source instanceof TraceRecorder)
+            ((TraceRecorder) source).recordEvent(type, Clock.elapsedRealtime(), value);
+    }
+
+    /**
+     * Save a queried value to the trace being recorded, if any.
+     */
+    public static void recordValue(int type, long value) {
+        ProcSource source = ProcSource.get();
+        if (source instanceof TraceRecorder)
+            ((TraceRecorder) source).recordValue(type, value);
+    }
+
+    /**
+     * @return the next value of type saved by recordValue(), def if the
+     * trace has none or is not being replayed
+     */
+    public static long takeValue(int type, long def) {
+        ProcSource source = ProcSource.get();
+        if (source instanceof TraceReplayer)
+            return ((TraceReplayer) source).takeValue(type, def);
+        return def;
+    }
+
+    public static void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public static void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @return the last value of type replayed so far, def if there was none
+     */
+    public static long getLast(int type, long def) {
+        synchronized (lastValues) {
+            return seen[type] ? lastValues[type] : def;
+        }
+    }
+
+    /* Called by the replayer, in the order of the trace. */
+    static void dispatch(int type, long value) {
+        if (type <= 0 || type >= TYPE_COUNT)
+            return;
+        synchronized (lastValues) {
+            lastValues[type] = value;
+            seen[type] = true;
+        }
+        for (Listener listener : listeners)
+            listener.onTraceEvent(type, value);
+    }
+
+    /* Forget the replayed values, before a new replay. */
+    static void reset() {
+        synchronized (lastValues) {
+            for (int i = 0; i < TYPE_COUNT; i++)
+                seen[i] = false;
+        }
+    }
+}
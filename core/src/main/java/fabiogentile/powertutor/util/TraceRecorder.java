@@ -0,0 +1,247 @@
+/*
+Copyright (C) 2011 The University of Michigan
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+Please send inquiries to powertutor@umich.edu
+*/
+
+package fabiogentile.powertutor.util;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Reads the files through another source, DIRECT by default, and saves what
+ * was read, with the iteration
+ * boundaries and the TraceEvents, to a gzipped trace that TraceReplayer can
+ * play back.
+ * <p>
+ * The trace is a sequence of records, each starting with a tag byte:
+ * <pre>
+ *   PATH      id, path              first use of a path
+ *   ITERATION iteration, time       start of an iteration
+ *   READ      id, position, length, bytes (length -1 for a failed read)
+ *   READ_SAME id, position          same bytes as the previous read of id
+ *   LIST      id, count, names      (count -1 for a failed list)
+ *   EXISTS    id, exists
+ *   EVENT     type, time, value
+ *   VALUE     type, value
+ * </pre>
+ * Reads are written in the order they complete, which is the order a given
+ * path is read in since every file is read by a single component.
+ */
+public class TraceRecorder extends ProcSource {
+    private static final String TAG = "TraceRecorder";
+
+    static final int MAGIC = 0x50545452; // "PTTR"
+    static final int VERSION = 1;
+
+    static final int TAG_PATH = 1;
+    static final int TAG_ITERATION = 2;
+    static final int TAG_READ = 3;
+    static final int TAG_READ_SAME = 4;
+    static final int TAG_LIST = 5;
+    static final int TAG_EXISTS = 6;
+    static final int TAG_EVENT = 7;
+    static final int TAG_VALUE = 8;
+
+    private final ProcSource source;
+    private DataOutputStream out;
+    private final HashMap<String, Integer> pathIds = new HashMap<String, Integer>();
+    /* Last content read from each path, indexed by path id. */
+    private byte[][] lastContent = new byte[16][];
+    private long[] lastPosition = new long[16];
+    private byte[] copyBuffer = new byte[ProcFileParser.DEFAULT_CAPACITY];
+
+    public TraceRecorder(File file) throws IOException {
+        this(file, DIRECT);
+    }
+
+    /**
+     * @param source where the files are actually read
+     */
+    public TraceRecorder(File file, ProcSource source) throws IOException {
+        this.source = source;
+        out = new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(new FileOutputStream(file))));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+    }
+
+    @Override
+    public int read(String path, ByteBuffer dst, long position) {
+        int start = dst.position();
+        int len = source.read(path, dst, position);
+        synchronized (this) {
+            if (out == null)
+                return len;
+            try {
+                int id = pathId(path);
+                if (len > 0 && copyBuffer.length < len)
+                    copyBuffer = new byte[len];
+                if (len > 0) {
+                    ByteBuffer copy = dst.duplicate();
+                    copy.position(start);
+                    copy.limit(start + len);
+                    copy.get(copyBuffer, 0, len);
+                }
+                byte[] last = lastContent[id];
+                if (len >= 0 && last != null && last.length == len &&
+                        lastPosition[id] == position && sameContent(last, len)) {
+                    out.writeByte(TAG_READ_SAME);
+                    out.writeInt(id);
+                    out.writeLong(position);
+                } else {
+                    out.writeByte(TAG_READ);
+                    out.writeInt(id);
+                    out.writeLong(position);
+                    out.writeInt(len);
+                    if (len > 0)
+                        out.write(copyBuffer, 0, len);
+                    lastContent[id] = len < 0 ? null : Arrays.copyOf(copyBuffer, len);
+                    lastPosition[id] = position;
+                }
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+        return len;
+    }
+
+    private boolean sameContent(byte[] last, int len) {
+        for (int i = 0; i < len; i++)
+            if (last[i] != copyBuffer[i])
+                return false;
+        return true;
+    }
+
+    @Override
+    public String[] list(String dir) {
+        String[] names = source.list(dir);
+        synchronized (this) {
+            if (out != null) try {
+                int id = pathId(dir);
+                out.writeByte(TAG_LIST);
+                out.writeInt(id);
+                out.writeInt(names == null ? -1 : names.length);
+                if (names != null)
+                    for (String name : names)
+                        out.writeUTF(name);
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+        return names;
+    }
+
+    @Override
+    public boolean exists(String path) {
+        boolean exists = source.exists(path);
+        synchronized (this) {
+            if (out != null) try {
+                int id = pathId(path);
+                out.writeByte(TAG_EXISTS);
+                out.writeInt(id);
+                out.writeBoolean(exists);
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+        return exists;
+    }
+
+    /**
+     * Mark the start of an iteration, called by the estimator before any
+     * component reads for it.
+     */
+    public synchronized void beginIteration(long iteration, long time) {
+        if (out != null) try {
+            out.writeByte(TAG_ITERATION);
+            out.writeLong(iteration);
+            out.writeLong(time);
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    synchronized void recordEvent(int type, long time, long value) {
+        if (out != null) try {
+            out.writeByte(TAG_EVENT);
+            out.writeInt(type);
+            out.writeLong(time);
+            out.writeLong(value);
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    synchronized void recordValue(int type, long value) {
+        if (out != null) try {
+            out.writeByte(TAG_VALUE);
+            out.writeInt(type);
+            out.writeLong(value);
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Finish the trace, later reads are no longer saved.
+     */
+    public synchronized void close() {
+        if (out == null)
+            return;
+        try {
+            out.close();
+        } catch (IOException e) {
+            Logger.w(TAG, "Failed to close the trace: " + e);
+        }
+        out = null;
+    }
+
+    /* Make sure that you have a lock on this before calling. */
+    private int pathId(String path) throws IOException {
+        Integer id = pathIds.get(path);
+        if (id != null)
+            return id;
+        int newId = pathIds.size();
+        pathIds.put(path, newId);
+        if (newId == lastContent.length) {
+            lastContent = Arrays.copyOf(lastContent, newId * 2);
+            lastPosition = Arrays.copyOf(lastPosition, newId * 2);
+        }
+        out.writeByte(TAG_PATH);
+        out.writeInt(newId);
+        out.writeUTF(path);
+        return newId;
+    }
+
+    /* Make sure that you have a lock on this before calling. */
+    private void fail(IOException e) {
+        Logger.w(TAG, "Stopped recording the trace: " + e);
+        try {
+            out.close();
+        } catch (IOException ignored) {
+        }
+        out = null;
+    }
+}
@@ -0,0 +1,301 @@
+/*
+Copyright (C) 2011 The University of Michigan
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+Please send inquiries to powertutor@umich.edu
+*/
+
+package fabiogentile.powertutor.util;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Serves the reads saved by a TraceRecorder back to the components, without
+ * touching the files, and drives a virtual clock from the iteration marks of
+ * the trace.
+ * <p>
+ * Reads are matched per path in the order they were recorded.  The trace is
+ * streamed: nextIteration() loads the records up to the next mark, and a
+ * read with nothing left for its path may look one mark further, for the
+ * samples that completed after the next iteration had started.  A read the
+ * trace does not have fails like a missing file.
+ */
+public class TraceReplayer extends ProcSource {
+    private static final String TAG = "TraceReplayer";
+
+    private static final int KIND_READ = 0;
+    private static final int KIND_LIST = 1;
+    private static final int KIND_EXISTS = 2;
+
+    private DataInputStream in;
+    private final HashMap<String, Integer> pathIds = new HashMap<String, Integer>();
+    /* Queued records per path id and kind. */
+    private final ArrayList<ArrayDeque<Object>[]> queues = new ArrayList<ArrayDeque<Object>[]>();
+    private final ArrayList<byte[]> lastContent = new ArrayList<byte[]>();
+    private final HashMap<Integer, ArrayDeque<Long>> values =
+            new HashMap<Integer, ArrayDeque<Long>>();
+    /* Events and iteration marks loaded but not reached yet. */
+    private final ArrayDeque<long[]> pending = new ArrayDeque<long[]>();
+    private int pendingMarks;
+    private long missingReads;
+
+    /**
+     * Open the trace and replay what was recorded before the first
+     * iteration, i.e. the probes of the components being created.
+     */
+    public TraceReplayer(File file) throws IOException {
+        in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(new FileInputStream(file))));
+        if (in.readInt() != TraceRecorder.MAGIC || in.readInt() != TraceRecorder.VERSION) {
+            in.close();
+            throw new IOException("Not a trace: " + file);
+        }
+        TraceEvents.reset();
+        synchronized (this) {
+            while (pendingMarks == 0 && loadRecord()) ;
+            while (!pending.isEmpty() && pending.peek()[0] != TraceRecorder.TAG_ITERATION) {
+                long[] event = pending.poll();
+                TraceEvents.dispatch((int) event[1], event[3]);
+            }
+        }
+    }
+
+    /**
+     * @return time of the first iteration of the trace, to start the clock
+     * at before the components are created
+     */
+    public synchronized long getStartTime() {
+        long[] mark = pending.peek();
+        return mark == null ? 0 : mark[2];
+    }
+
+    /**
+     * Move to the next iteration of the trace.  The events recorded before
+     * it are dispatched at their time on clock, then clock is set to the
+     * time of the iteration.
+     *
+     * @return the iteration, -1 at the end of the trace
+     */
+    public long nextIteration(Clock.Virtual clock) {
+        while (true) {
+            long[] entry;
+            synchronized (this) {
+                while (pendingMarks == 0 && loadRecord()) ;
+                entry = pending.poll();
+                if (entry == null)
+                    return -1;
+                if (entry[0] == TraceRecorder.TAG_ITERATION)
+                    pendingMarks--;
+            }
+            /* Listeners are called without the lock, they may read. */
+            clock.setTime(entry[2]);
+            if (entry[0] == TraceRecorder.TAG_ITERATION)
+                return entry[1];
+            TraceEvents.dispatch((int) entry[1], entry[3]);
+        }
+    }
+
+    /**
+     * @return number of reads the trace had no record for
+     */
+    public synchronized long getMissingReads() {
+        return missingReads;
+    }
+
+    public synchronized void close() {
+        if (in == null)
+            return;
+        try {
+            in.close();
+        } catch (IOException e) {
+        }
+        in = null;
+    }
+
+    @Override
+    public int read(String path, ByteBuffer dst, long position) {
+        Object record = take(path, KIND_READ);
+        if (record == null)
+            return -1;
+        ReadRecord read = (ReadRecord) record;
+        if (read.position != position || read.content == null)
+            return -1;
+        int len = Math.min(read.content.length, dst.remaining());
+        dst.put(read.content, 0, len);
+        return len;
+    }
+
+    @Override
+    public String[] list(String dir) {
+        Object record = take(dir, KIND_LIST);
+        return record instanceof String[] ? (String[]) record : null;
+    }
+
+    @Override
+    public boolean exists(String path) {
+        return Boolean.TRUE.equals(take(path, KIND_EXISTS));
+    }
+
+    private synchronized Object take(String path, int kind) {
+        Integer id = pathIds.get(path);
+        while (true) {
+            if (id != null) {
+                ArrayDeque<Object> queue = queues.get(id)[kind];
+                if (!queue.isEmpty())
+                    return queue.poll();
+            }
+            if (!loadAhead()) {
+                missingReads++;
+                return null;
+            }
+            if (id == null)
+                id = pathIds.get(path);
+        }
+    }
+
+    synchronized long takeValue(int type, long def) {
+        while (true) {
+            ArrayDeque<Long> queue = values.get(type);
+            if (queue != null && !queue.isEmpty())
+                return queue.poll();
+            if (!loadAhead())
+                return def;
+        }
+    }
+
+    /* Load one more record for a take, as far as the mark after the next
+     * one.  Make sure that you have a lock on this before calling.
+     */
+    private boolean loadAhead() {
+        return pendingMarks < 2 && loadRecord();
+    }
+
+    /* Load one record of the trace.  Make sure that you have a lock on this
+     * before calling.
+     *
+     * @return false at the end of the trace
+     */
+    private boolean loadRecord() {
+        if (in == null)
+            return false;
+        try {
+            int tag = in.readByte();
+            switch (tag) {
+                case TraceRecorder.TAG_PATH: {
+                    int id = in.readInt();
+                    String path = in.readUTF();
+                    if (id != queues.size())
+                        throw new IOException("Unexpected path id " + id);
+                    pathIds.put(path, id);
+                    lastContent.add(null);
+                    @SuppressWarnings("unchecked")
+                    ArrayDeque<Object>[] kinds = (ArrayDeque<Object>[]) new ArrayDeque<?>[3];
+                    for (int i = 0; i < kinds.length; i++)
+                        kinds[i] = new ArrayDeque<Object>();
+                    queues.add(kinds);
+                    break;
+                }
+                case TraceRecorder.TAG_ITERATION: {
+                    long iteration = in.readLong();
+                    long time = in.readLong();
+                    pending.add(new long[]{tag, iteration, time, 0});
+                    pendingMarks++;
+                    break;
+                }
+                case TraceRecorder.TAG_READ: {
+                    int id = in.readInt();
+                    long position = in.readLong();
+                    int len = in.readInt();
+                    byte[] content = null;
+                    if (len >= 0) {
+                        content = new byte[len];
+                        in.readFully(content);
+                    }
+                    lastContent.set(id, content);
+                    queues.get(id)[KIND_READ].add(new ReadRecord(position, content));
+                    break;
+                }
+                case TraceRecorder.TAG_READ_SAME: {
+                    int id = in.readInt();
+                    long position = in.readLong();
+                    queues.get(id)[KIND_READ].add(new ReadRecord(position, lastContent.get(id)));
+                    break;
+                }
+                case TraceRecorder.TAG_LIST: {
+                    int id = in.readInt();
+                    int count = in.readInt();
+                    String[] names = count < 0 ? null : new String[count];
+                    for (int i = 0; i < count; i++)
+                        names[i] = in.readUTF();
+                    /* A failed list is queued as a placeholder. */
+                    queues.get(id)[KIND_LIST].add(names == null ? Boolean.FALSE : names);
+                    break;
+                }
+                case TraceRecorder.TAG_EXISTS: {
+                    int id = in.readInt();
+                    queues.get(id)[KIND_EXISTS].add(in.readBoolean());
+                    break;
+                }
+                case TraceRecorder.TAG_EVENT: {
+                    int type = in.readInt();
+                    long time = in.readLong();
+                    long value = in.readLong();
+                    pending.add(new long[]{tag, type, time, value});
+                    break;
+                }
+                case TraceRecorder.TAG_VALUE: {
+                    int type = in.readInt();
+                    long value = in.readLong();
+                    ArrayDeque<Long> queue = values.get(type);
+                    if (queue == null) {
+                        queue = new ArrayDeque<Long>();
+                        values.put(type, queue);
+                    }
+                    queue.add(value);
+                    break;
+                }
+                default:
+                    throw new IOException("Unknown record " + tag);
+            }
+            return true;
+        } catch (EOFException e) {
+            /* Also the end of a trace whose recording was cut short. */
+        } catch (IOException e) {
+            Logger.w(TAG, "Failed to read the trace: " + e);
+        }
+        close();
+        return false;
+    }
+
+    private static class ReadRecord {
+        final long position;
+        final byte[] content;
+
+        ReadRecord(long position, byte[] content) {
+            this.position = position;
+            this.content = content;
+        }
+    }
+}
@@ -0,0 +1,576 @@
+/*
+Copyright (C) 2011 The University of Michigan
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+Please send inquiries to powertutor@umich.edu
+*/
+
+package fabiogentile.powertutor.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Source of per-uid cpu time.  Each update() produces, for every uid that
+ * used the cpu since the previous update, the user and system time it
+ * consumed, in clock ticks like the totals of /proc/stat.
+ * <p>
+ * Several kernel interfaces can provide this information, create() picks the
+ * cheapest one available on the device:
+ * <ul>
+ * <li>/proc/uid_cputime/show_uid_stat, one file with a row per uid</li>
+ * <li>/acct/uid_[uid]/cpuacct.stat, one file per uid</li>
+ * <li>the per-pid times of the ProcessSnapshot, summed per uid</li>
+ * </ul>
+ * The kernel sources keep the time of exited processes, the per-pid fallback
+ * misses processes that live less than an iteration.
+ * <p>
+ * A source is not thread safe, it is meant to be owned by the CPU component.
+ */
+public abstract class UidCpuSource {
+    /* Clock ticks per second of the values in /proc, see sysconf(_SC_CLK_TCK). */
+    public static final int USER_HZ = 100;
+
+    private static final String TAG = "UidCpuSource";
+
+    /* Cumulative totals read by the last update, sorted by uid. */
+    private int count;
+    private int[] uids = new int[64];
+    private long[] usrTotal = new long[64];
+    private long[] sysTotal = new long[64];
+    /* Rows given by addBaseline(), charged nothing. */
+    private boolean[] baseline = new boolean[64];
+    /* Totals of the previous update, used to compute the deltas. */
+    private int prevCount;
+    private int[] prevUids = new int[64];
+    private long[] prevUsr = new long[64];
+    private long[] prevSys = new long[64];
+    private boolean primed;
+
+    /* Result of the last update. */
+    private int deltaCount;
+    private int[] deltaUids = new int[64];
+    private long[] deltaUsr = new long[64];
+    private long[] deltaSys = new long[64];
+
+    /**
+     * Pick the first source that works on this device.
+     */
+    public static UidCpuSource create() {
+        UidCpuSource[] candidates = {
+                new UidCputimeSource(),
+                new CpuacctSource(),
+        };
+        for (UidCpuSource source : candidates) {
+            if (source.probe()) {
+                Logger.i(TAG, "create: using " + source.getName());
+                return source;
+            }
+        }
+        Logger.i(TAG, "create: no kernel per-uid accounting, falling back to per-pid scan");
+        return new PidSource();
+    }
+
+    /**
+     * Short description used in the logs.
+     */
+    public abstract String getName();
+
+    /**
+     * @return number of per-uid reads skipped by the last update to stay
+     * within the read budget
+     */
+    public int getSkippedPolls() {
+        return 0;
+    }
+
+    /**
+     * Read fewer uids per update, for sources that cost a read per uid.
+     *
+     * @see PollScheduler#setReduced(boolean, boolean)
+     */
+    public void setReduced(boolean skipIdle, boolean sampled) {
+    }
+
+    /**
+     * Report the cumulative time of every uid through addTotal().
+     *
+     * @return false if the information could not be read
+     */
+    protected abstract boolean readTotals(long iteration);
+
+    /* Checks if the source is usable, by default it tries to read once. */
+    protected boolean probe() {
+        count = 0;
+        return readTotals(0) && count > 0;
+    }
+
+    protected void addTotal(int uid, long usr, long sys) {
+        addRow(uid, usr, sys, false);
+    }
+
+    /**
+     * Report the first total read for a uid that was not new since the last
+     * update, only to start its deltas from there.  Without it, a primed
+     * update would take a uid it has never seen as new and charge it its
+     * whole cumulative time.
+     */
+    protected void addBaseline(int uid, long usr, long sys) {
+        addRow(uid, usr, sys, true);
+    }
+
+    private void addRow(int uid, long usr, long sys, boolean base) {
+        if (count == uids.length) {
+            int size = count * 2;
+            uids = grow(uids, size);
+            usrTotal = grow(usrTotal, size);
+            sysTotal = grow(sysTotal, size);
+        }
+        if (count == baseline.length) {
+            boolean[] b = new boolean[uids.length];
+            System.arraycopy(baseline, 0, b, 0, count);
+            baseline = b;
+        }
+        uids[count] = uid;
+        usrTotal[count] = usr;
+        sysTotal[count] = sys;
+        baseline[count] = base;
+        count++;
+    }
+
+    /**
+     * Read the totals and compute the time used by each uid since the last
+     * call.  The first call only records the starting point.
+     *
+     * @return false if the source could not be read, the deltas are then empty
+     */
+    public final boolean update(long iteration) {
+        /* Swap current and previous totals. */
+        int[] ti = prevUids;
+        prevUids = uids;
+        uids = ti;
+        long[] tl = prevUsr;
+        prevUsr = usrTotal;
+        usrTotal = tl;
+        tl = prevSys;
+        prevSys = sysTotal;
+        sysTotal = tl;
+        prevCount = count;
+        count = 0;
+        deltaCount = 0;
+
+        if (!readTotals(iteration)) {
+            /* Keep the old totals so the next successful read covers the gap. */
+            swapBack();
+            return false;
+        }
+        sortTotals();
+
+        if (deltaUids.length < count) {
+            deltaUids = new int[uids.length];
+            deltaUsr = new long[uids.length];
+            deltaSys = new long[uids.length];
+        }
+
+        int j = 0;
+        for (int i = 0; i < count; i++) {
+            int uid = uids[i];
+            while (j < prevCount && prevUids[j] < uid)
+                j++;
+            long du;
+            long ds;
+            if (baseline[i]) {
+                continue;
+            } else if (j < prevCount && prevUids[j] == uid) {
+                du = usrTotal[i] - prevUsr[j];
+                ds = sysTotal[i] - prevSys[j];
+            } else if (primed) {
+                /* A uid we have never seen has done all of its work since the
+                 * last update.  Sources that do not list every uid at each
+                 * read report the others with addBaseline(). */
+                du = usrTotal[i];
+                ds = sysTotal[i];
+            } else {
+                continue;
+            }
+            if (du < 0) du = 0;
+            if (ds < 0) ds = 0;
+            if (du == 0 && ds == 0)
+                continue;
+            deltaUids[deltaCount] = uid;
+            deltaUsr[deltaCount] = du;
+            deltaSys[deltaCount] = ds;
+            deltaCount++;
+        }
+        primed = true;
+        return true;
+    }
+
+    /**
+     * Forget the totals, the next update only records a new starting point
+     * instead of reporting deltas over a long gap.
+     */
+    public void rebase() {
+        count = 0;
+        deltaCount = 0;
+        primed = false;
+    }
+
+    private void swapBack() {
+        int[] ti = prevUids;
+        prevUids = uids;
+        uids = ti;
+        long[] tl = prevUsr;
+        prevUsr = usrTotal;
+        usrTotal = tl;
+        tl = prevSys;
+        prevSys = sysTotal;
+        sysTotal = tl;
+        count = prevCount;
+    }
+
+    /* Sort the totals by uid and merge duplicated uids.  Rows are usually
+     * already in order (or almost) so an insertion sort is fine.
+     */
+    private void sortTotals() {
+        for (int i = 1; i < count; i++) {
+            int uid = uids[i];
+            long usr = usrTotal[i];
+            long sys = sysTotal[i];
+            boolean base = baseline[i];
+            int j = i;
+            while (j > 0 && uids[j - 1] > uid) {
+                uids[j] = uids[j - 1];
+                usrTotal[j] = usrTotal[j - 1];
+                sysTotal[j] = sysTotal[j - 1];
+                baseline[j] = baseline[j - 1];
+                j--;
+            }
+            uids[j] = uid;
+            usrTotal[j] = usr;
+            sysTotal[j] = sys;
+            baseline[j] = base;
+        }
+
+        int n = 0;
+        for (int i = 0; i < count; i++) {
+            if (n > 0 && uids[n - 1] == uids[i]) {
+                usrTotal[n - 1] += usrTotal[i];
+                sysTotal[n - 1] += sysTotal[i];
+                baseline[n - 1] |= baseline[i];
+            } else {
+                uids[n] = uids[i];
+                usrTotal[n] = usrTotal[i];
+                sysTotal[n] = sysTotal[i];
+                baseline[n] = baseline[i];
+                n++;
+            }
+        }
+        count = n;
+    }
+
+    /**
+     * @return number of uids that used the cpu during the last update
+     */
+    public int size() {
+        return deltaCount;
+    }
+
+    public int getUid(int index) {
+        return deltaUids[index];
+    }
+
+    /**
+     * @return user time in clock ticks
+     */
+    public long getDeltaUsr(int index) {
+        return deltaUsr[index];
+    }
+
+    /**
+     * @return system time in clock ticks
+     */
+    public long getDeltaSys(int index) {
+        return deltaSys[index];
+    }
+
+    /**
+     * Load a whole file, growing the parser until the content fits.
+     *
+     * @return the parser holding the file, null on failure
+     */
+    protected static ProcFileParser loadWhole(SysfsCounter file, ProcFileParser parser) {
+        while (true) {
+            if (!file.load(parser))
+                return null;
+            ByteBuffer buf = parser.getBuffer();
+            if (buf.limit() < buf.capacity())
+                return parser;
+            parser = new ProcFileParser(buf.capacity() * 2);
+        }
+    }
+
+    private static int[] grow(int[] a, int size) {
+        int[] r = new int[size];
+        System.arraycopy(a, 0, r, 0, a.length);
+        return r;
+    }
+
+    private static long[] grow(long[] a, int size) {
+        long[] r = new long[size];
+        System.arraycopy(a, 0, r, 0, a.length);
+        return r;
+    }
+
+    /**
+     * /proc/uid_cputime/show_uid_stat, available on most Android kernels since
+     * Lollipop.  Rows look like "uid: user_us system_us", times are in
+     * microseconds.
+     */
+    private static class UidCputimeSource extends UidCpuSource {
+        private static final String UID_STAT_FILE = "/proc/uid_cputime/show_uid_stat";
+        private static final long US_PER_TICK = 1000000 / USER_HZ;
+
+        private final SysfsCounter file = new SysfsCounter(UID_STAT_FILE);
+        private final long[] row = new long[3];
+        private ProcFileParser parser = new ProcFileParser(16 * 1024);
+
+        @Override
+        public String getName() {
+            return UID_STAT_FILE;
+        }
+
+        @Override
+        protected boolean readTotals(long iteration) {
+            ProcFileParser p = loadWhole(file, parser);
+            if (p == null)
+                return false;
+            parser = p;
+
+            ByteBuffer buf = p.getBuffer();
+            int lim = buf.limit();
+            int line = 0;
+            while (line < lim) {
+                buf.position(line);
+                if (ProcFileParser.parseLineFields(buf, 0, row, 0, 3) >= 3)
+                    addTotal((int) row[0], row[1] / US_PER_TICK, row[2] / US_PER_TICK);
+                line = ProcFileParser.nextLine(buf, line);
+            }
+            buf.position(0);
+            return true;
+        }
+    }
+
+    /**
+     * cpuacct cgroups mounted on /acct, Android puts every uid in its own group.
+     * cpuacct.stat reports user and system time in clock ticks.  As this costs
+     * a read per uid, only a bounded number of groups chosen by a PollScheduler
+     * is read each iteration, the others report their last known totals.  The
+     * first read of a group, which can come several iterations after the
+     * source is primed, is only its starting point: its totals go back to the
+     * creation of the group, and it is charged from its second read on.  The
+     * list of groups is refreshed every few iterations.
+     */
+    private static class CpuacctSource extends UidCpuSource {
+        private static final String ACCT_DIR = "/acct";
+        private static final String UID_PREFIX = "uid_";
+        private static final String STAT_FILE = "/cpuacct.stat";
+        private static final byte[] USER_TAG = "user".getBytes();
+        private static final byte[] SYSTEM_TAG = "system".getBytes();
+        private static final int RESCAN_INTERVAL = 10;
+        private static final int POLL_BUDGET = 48;
+        private static final int POLL_MAX_AGE = 10;
+
+        private final IntMap<UidGroup> groups = new IntMap<UidGroup>();
+        private final PollScheduler pollScheduler = new PollScheduler(POLL_BUDGET, POLL_MAX_AGE);
+        private final ProcFileParser parser = new ProcFileParser(256);
+        private long lastRescan = -RESCAN_INTERVAL;
+
+        @Override
+        public String getName() {
+            return ACCT_DIR + "/" + UID_PREFIX + "*" + STAT_FILE;
+        }
+
+        @Override
+        public int getSkippedPolls() {
+            return pollScheduler.getSkipped();
+        }
+
+        @Override
+        public void setReduced(boolean skipIdle, boolean sampled) {
+            pollScheduler.setReduced(skipIdle, sampled);
+        }
+
+        private void rescan() {
+            String[] names = ProcSource.get().list(ACCT_DIR);
+            if (names == null)
+                return;
+            for (String name : names) {
+                if (!name.startsWith(UID_PREFIX))
+                    continue;
+                try {
+                    int uid = Integer.parseInt(name.substring(UID_PREFIX.length()));
+                    if (groups.get(uid) == null)
+                        groups.put(uid, new UidGroup(ACCT_DIR + "/" + name + STAT_FILE));
+                } catch (NumberFormatException e) {
+                }
+            }
+        }
+
+        @Override
+        protected boolean readTotals(long iteration) {
+            if (iteration - lastRescan >= RESCAN_INTERVAL || iteration < lastRescan) {
+                rescan();
+                lastRescan = iteration;
+            }
+
+            pollScheduler.begin(iteration);
+            for (int i = 0; i < groups.size(); i++)
+                pollScheduler.offer(groups.keyAt(i));
+            int polled = pollScheduler.select();
+
+            for (int i = 0; i < polled; i++) {
+                int uid = pollScheduler.getSelected(i);
+                UidGroup group = groups.get(uid);
+                /* There can be hundreds of groups, too many to keep them open. */
+                if (parser.readFile(group.path) < 0) {
+                    /* The group went away with the last process of the uid. */
+                    groups.remove(uid);
+                    continue;
+                }
+                ByteBuffer buf = parser.getBuffer();
+                long usr = ProcFileParser.parseKeyValue(buf, USER_TAG);
+                long sys = ProcFileParser.parseKeyValue(buf, SYSTEM_TAG);
+                if (usr < 0 || sys < 0)
+                    continue;
+                pollScheduler.report(uid, group.valid ?
+                        usr - group.usr + sys - group.sys : 0);
+                group.first = !group.valid;
+                group.usr = usr;
+                group.sys = sys;
+                group.valid = true;
+            }
+
+            for (int i = 0; i < groups.size(); i++) {
+                UidGroup group = groups.valueAt(i);
+                if (!group.valid)
+                    continue;
+                if (group.first) {
+                    addBaseline(groups.keyAt(i), group.usr, group.sys);
+                    group.first = false;
+                } else {
+                    addTotal(groups.keyAt(i), group.usr, group.sys);
+                }
+            }
+            return groups.size() > 0;
+        }
+
+        private static class UidGroup {
+            final String path;
+            long usr;
+            long sys;
+            boolean valid;
+            /* Read for the first time by this update. */
+            boolean first;
+
+            UidGroup(String path) {
+                this.path = path;
+            }
+        }
+    }
+
+    /**
+     * Fallback working from the ProcessSnapshot.  The per-uid totals are built
+     * by accumulating the per-pid deltas, so that processes exiting do not make
+     * the total of their uid go backwards.
+     */
+    private static class PidSource extends UidCpuSource {
+        private final IntMap<PidState> pidStates = new IntMap<PidState>();
+        private final IntMap<long[]> uidTotals = new IntMap<long[]>();
+        private long lastGeneration = -1;
+
+        @Override
+        public String getName() {
+            return "per-pid scan";
+        }
+
+        @Override
+        protected boolean probe() {
+            return true;
+        }
+
+        @Override
+        protected boolean readTotals(long iteration) {
+            ProcessSnapshot snapshot = LinuxSystemInfo.get().updateProcessSnapshot(iteration);
+            boolean first = lastGeneration == -1;
+            lastGeneration = iteration;
+
+            int pidInd = 0;
+            for (int i = 0; i < snapshot.size(); i++) {
+                int pid = snapshot.getPid(i);
+                long startTime = snapshot.getStartTime(i);
+                long usr = snapshot.getUsrTime(i);
+                long sys = snapshot.getSysTime(i);
+
+                /* Drop the states of processes that died since the last iteration. */
+                while (pidInd < pidStates.size() && pidStates.keyAt(pidInd) < pid)
+                    pidStates.removeAt(pidInd);
+
+                PidState state;
+                long du;
+                long ds;
+                if (pidInd < pidStates.size() && pidStates.keyAt(pidInd) == pid &&
+                        pidStates.valueAt(pidInd).startTime == startTime) {
+                    state = pidStates.valueAt(pidInd);
+                    du = usr - state.lastUsr;
+                    ds = sys - state.lastSys;
+                } else {
+                    /* New process, or a dead one whose pid got reused. */
+                    state = new PidState();
+                    state.uid = snapshot.getUid(i);
+                    state.startTime = startTime;
+                    pidStates.put(pid, state);
+                    du = first ? 0 : usr;
+                    ds = first ? 0 : sys;
+                }
+                pidInd++;
+                state.lastUsr = usr;
+                state.lastSys = sys;
+
+                long[] total = uidTotals.get(state.uid);
+                if (total == null) {
+                    total = new long[2];
+                    uidTotals.put(state.uid, total);
+                }
+                total[0] += Math.max(0, du);
+                total[1] += Math.max(0, ds);
+            }
+            while (pidInd < pidStates.size())
+                pidStates.removeAt(pidInd);
+
+            for (int i = 0; i < uidTotals.size(); i++) {
+                long[] total = uidTotals.valueAt(i);
+                addTotal(uidTotals.keyAt(i), total[0], total[1]);
+            }
+            return snapshot.size() > 0;
+        }
+
+        private static class PidState {
+            int uid;
+            long startTime;
+            long lastUsr;
+            long lastSys;
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/*
+Copyright (C) 2011 The University of Michigan
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+Please send inquiries to powertutor@umich.edu
+*/
+
+
+package fabiogentile.powertutor.components;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import fabiogentile.powertutor.phone.CpuPowerModel;
+import fabiogentile.powertutor.phone.HammerheadConstants;
+import fabiogentile.powertutor.phone.PhoneConstants;
+import fabiogentile.powertutor.phone.WifiPowerModel;
+import fabiogentile.powertutor.service.IterationData;
+import fabiogentile.powertutor.util.AllocationCounter;
+import fabiogentile.powertutor.util.Clock;
+import fabiogentile.powertutor.util.FakeProcSource;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The collect and compute path of a component, once warmed up, must not
+ * allocate: the samples are recycled and their columns reused.  The files
+ * of every iteration are built beforehand so the fake /proc allocates
+ * nothing either.
+ */
+public class CollectComputeAllocationTest {
+    private static final int ITERATIONS = 200;
+    private static final int UIDS = 40;
+    private static final long INTERVAL = 1000;
+    private static final String QTAGUID_HEADER = "idx iface acct_tag_hex " +
+            "uid_tag_int cnt_set rx_bytes rx_packets tx_bytes tx_packets\n";
+
+    private FakeProcSource proc;
+    private Clock.Virtual clock;
+    private PhoneConstants constants;
+    private long iteration;
+    private int rows;
+
+    @Before
+    public void setUp() {
+        clock = new Clock.Virtual(0);
+        Clock.set(clock);
+        proc = new FakeProcSource();
+        constants = new HammerheadConstants(new double[0]);
+    }
+
+    @After
+    public void tearDown() {
+        Clock.set(null);
+        FakeProcSource.uninstall();
+    }
+
+    /* /proc/stat and /proc/uid_cputime/show_uid_stat of each iteration of the
+     * warm up and measured rounds, every uid running a little more each time.
+     */
+    private static byte[][][] cpuFiles(int n) {
+        byte[][][] files = new byte[n][2][];
+        for (int it = 0; it < n; it++) {
+            files[it][0] = ("cpu  " + (1000 + 30 * it) + " 0 " + (500 + 10 * it) +
+                    " " + (90000 + 60 * it) + " 0 0 0 0 0 0\n").getBytes();
+            StringBuilder uids = new StringBuilder();
+            for (int u = 0; u < UIDS; u++)
+                uids.append(10000 + u).append(": ").append(10000L * it * (u % 3))
+                        .append(' ').append(5000L * it).append('\n');
+            files[it][1] = uids.toString().getBytes();
+        }
+        return files;
+    }
+
+    @Test
+    public void cpuCollectAndComputeDoNotAllocate() {
+        final byte[][][] files = cpuFiles(7 * ITERATIONS);
+        proc.put("/proc/stat", files[0][0]);
+        proc.put("/proc/uid_cputime/show_uid_stat", files[0][1]);
+        for (int i = 0; i < constants.cpuCoreNumber(); i++)
+            proc.put("/sys/devices/system/cpu/cpu" + i + "/cpufreq/scaling_cur_freq",
+                    "1497600\n");
+        proc.installSystemInfo();
+        final CPU cpu = new CPU(constants);
+        cpu.init(0, INTERVAL);
+        final CpuPowerModel model = new CpuPowerModel(constants);
+
+        long bytes = AllocationCounter.measure(new Runnable() {
+            @Override
+            public void run() {
+                proc.put("/proc/stat", files[(int) iteration][0]);
+                proc.put("/proc/uid_cputime/show_uid_stat", files[(int) iteration][1]);
+                clock.setTime(iteration * INTERVAL);
+                IterationData data = cpu.calculateIteration(iteration++);
+                rows = data.getRowCount();
+                model.calculateAll(data, data.getPowers());
+                data.recycle();
+            }
+        }, ITERATIONS);
+        assertEquals(0, bytes);
+        assertEquals(1 + UIDS * 2 / 3, rows, 1);
+    }
+
+    /* /proc/net/dev and /proc/net/xt_qtaguid/stats of each iteration, a
+     * third of the uids idle and the others exchanging a few packets.
+     */
+    private static byte[][][] wifiFiles(int n) {
+        byte[][][] files = new byte[n][2][];
+        for (int it = 0; it < n; it++) {
+            StringBuilder stats = new StringBuilder(QTAGUID_HEADER);
+            long rxTotal = 0;
+            long rxPacketsTotal = 0;
+            long txTotal = 0;
+            long txPacketsTotal = 0;
+            for (int u = 0; u < UIDS; u++) {
+                long rxPackets = 100 + (long) it * (u % 3) * 2;
+                long txPackets = 50 + (long) it * (u % 3);
+                long rx = rxPackets * 1200;
+                long tx = txPackets * 300;
+                stats.append(u + 2).append(" wlan0 0x0 ").append(10000 + u)
+                        .append(" 0 ").append(rx).append(' ').append(rxPackets)
+                        .append(' ').append(tx).append(' ').append(txPackets)
+                        .append('\n');
+                rxTotal += rx;
+                rxPacketsTotal += rxPackets;
+                txTotal += tx;
+                txPacketsTotal += txPackets;
+            }
+            files[it][0] = ("Inter-|   Receive\n face |bytes packets\n" +
+                    "  wlan0: " + rxTotal + " " + rxPacketsTotal + " 0 0 0 0 0 0 " +
+                    txTotal + " " + txPacketsTotal + " 0 0 0 0 0 0\n").getBytes();
+            files[it][1] = stats.toString().getBytes();
+        }
+        return files;
+    }
+
+    @Test
+    public void wifiCollectAndComputeDoNotAllocate() {
+        final byte[][][] files = wifiFiles(7 * ITERATIONS);
+        proc.put("/proc/net/dev", files[0][0]);
+        proc.put("/proc/net/xt_qtaguid/stats", files[0][1]);
+        proc.installSystemInfo();
+        final Wifi wifi = new Wifi(constants, "wlan0", new Wifi.Link() {
+            @Override
+            public boolean isEnabled() {
+                return true;
+            }
+
+            @Override
+            public double getLinkSpeed() {
+                return 72;
+            }
+        });
+        wifi.init(0, INTERVAL);
+        final WifiPowerModel model = new WifiPowerModel(constants);
+
+        long bytes = AllocationCounter.measure(new Runnable() {
+            @Override
+            public void run() {
+                proc.put("/proc/net/dev", files[(int) iteration][0]);
+                proc.put("/proc/net/xt_qtaguid/stats", files[(int) iteration][1]);
+                clock.setTime(iteration * INTERVAL);
+                IterationData data = wifi.calculateIteration(iteration++);
+                rows = data.getRowCount();
+                model.calculateAll(data, data.getPowers());
+                data.recycle();
+            }
+        }, ITERATIONS);
+        assertEquals(0, bytes);
+        assertEquals(1 + UIDS * 2 / 3, rows, 1);
+    }
+
+    @Test
+    public void wifiComputeDoesNotAllocate() {
+        final WifiPowerModel model = new WifiPowerModel(constants);
+        long bytes = AllocationCounter.measure(new Runnable() {
+            @Override
+            public void run() {
+                Wifi.WifiData data = Wifi.WifiData.obtain();
+                for (int u = 0; u < UIDS; u++)
+                    data.add(10000 + u, 3, 1000, 2000, 1.5, 72,
+                            u % 2 == 0 ? Wifi.POWER_STATE_LOW : Wifi.POWER_STATE_HIGH,
+                            0.01, 0.02);
+                model.calculateAll(data, data.getPowers());
+                data.recycle();
+            }
+        }, ITERATIONS);
+        assertEquals(0, bytes);
+    }
+}
@@ -0,0 +1,98 @@
+/*
+Copyright (C) 2011 The University of Michigan
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+Please send inquiries to powertutor@umich.edu
+*/
+
+
+package fabiogentile.powertutor.components;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import fabiogentile.powertutor.phone.HammerheadConstants;
+import fabiogentile.powertutor.util.Clock;
+import fabiogentile.powertutor.util.FakeProcSource;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class WifiTest {
+    private static final long INTERVAL = 1000;
+    private static final int UID = 10050;
+    private static final String QTAGUID_HEADER = "idx iface acct_tag_hex " +
+            "uid_tag_int cnt_set rx_bytes rx_packets tx_bytes tx_packets\n";
+
+    private FakeProcSource proc;
+    private Clock.Virtual clock;
+    private Wifi wifi;
+
+    @Before
+    public void setUp() {
+        clock = new Clock.Virtual(100000);
+        Clock.set(clock);
+        proc = new FakeProcSource();
+        /* The uid has a long history before the profiler starts. */
+        put(5000000, 4000, 300000, 2000);
+        proc.installSystemInfo();
+        wifi = new Wifi(new HammerheadConstants(new double[0]), "wlan0", new Wifi.Link() {
+            @Override
+            public boolean isEnabled() {
+                return true;
+            }
+
+            @Override
+            public double getLinkSpeed() {
+                return 72;
+            }
+        });
+        wifi.init(clock.now(), INTERVAL);
+    }
+
+    @After
+    public void tearDown() {
+        Clock.set(null);
+        FakeProcSource.uninstall();
+    }
+
+    private void put(long rxBytes, long rxPackets, long txBytes, long txPackets) {
+        proc.put("/proc/net/dev", "Inter-|   Receive\n face |bytes packets\n" +
+                "  wlan0: " + rxBytes + " " + rxPackets + " 0 0 0 0 0 0 " +
+                txBytes + " " + txPackets + " 0 0 0 0 0 0\n");
+        proc.put("/proc/net/xt_qtaguid/stats", QTAGUID_HEADER +
+                "2 wlan0 0x0 " + UID + " 0 " + rxBytes + " " + rxPackets + " " +
+                txBytes + " " + txPackets + "\n");
+    }
+
+    @Test
+    public void firstIterationOfNewUidIsReported() {
+        wifi.calculateIteration(0).recycle();
+
+        /* A few packets in one iteration: the uid shows up for the first time
+         * and its traffic must not be dropped nor taken as a burst. */
+        clock.setTime(clock.now() + INTERVAL);
+        put(5000000 + 2000, 4000 + 2, 300000 + 500, 2000 + 1);
+        Wifi.WifiData data = (Wifi.WifiData) wifi.calculateIteration(1);
+        int row = data.indexOf(UID);
+        assertTrue(row >= 0);
+        assertEquals(2000, data.downlinkBytes[row]);
+        assertEquals(500, data.uplinkBytes[row]);
+        assertEquals(3, data.packets[row], 0);
+        assertEquals(Wifi.POWER_STATE_LOW, data.powerState[row]);
+        data.recycle();
+    }
+}
@@ -0,0 +1,196 @@
+/*
+Copyright (C) 2011 The University of Michigan
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+Please send inquiries to powertutor@umich.edu
+*/
+
+package fabiogentile.powertutor.service;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+import fabiogentile.powertutor.components.CPU;
+import fabiogentile.powertutor.components.PowerComponent;
+import fabiogentile.powertutor.components.Wifi;
+import fabiogentile.powertutor.phone.CpuPowerModel;
+import fabiogentile.powertutor.phone.HammerheadConstants;
+import fabiogentile.powertutor.phone.PhoneConstants;
+import fabiogentile.powertutor.phone.PowerFunction;
+import fabiogentile.powertutor.phone.WifiPowerModel;
+import fabiogentile.powertutor.util.FakeProcSource;
+import fabiogentile.powertutor.util.LinuxSystemInfo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Records a few iterations of the cpu and wifi components with the engine in
+ * real time, then replays the trace on a virtual clock: the replay must
+ * compute the same power for every uid without reading anything the trace
+ * does not have.
+ */
+public class TraceSessionTest {
+    private static final int ITERATIONS = 5;
+    private static final long INTERVAL = 200;
+    private static final int UIDS = 10;
+    private static final String QTAGUID_HEADER = "idx iface acct_tag_hex " +
+            "uid_tag_int cnt_set rx_bytes rx_packets tx_bytes tx_packets\n";
+
+    private File file;
+    private PhoneConstants constants;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("powertutor", ".trace");
+        constants = new HammerheadConstants(new double[0]);
+    }
+
+    @After
+    public void tearDown() {
+        FakeProcSource.uninstall();
+        file.delete();
+    }
+
+    /* Files of iteration it, every uid using some cpu and some of them
+     * exchanging packets.
+     */
+    private void putFiles(FakeProcSource proc, long it) {
+        proc.put("/proc/stat", "cpu  " + (1000 + 30 * it) + " 0 " + (500 + 10 * it) +
+                " " + (90000 + 60 * it) + " 0 0 0 0 0 0\n");
+        StringBuilder uids = new StringBuilder();
+        StringBuilder stats = new StringBuilder(QTAGUID_HEADER);
+        long rxTotal = 0;
+        long txTotal = 0;
+        for (int u = 0; u < UIDS; u++) {
+            uids.append(10000 + u).append(": ").append(10000L * it * (u % 3))
+                    .append(' ').append(5000L * it).append('\n');
+            long rx = 1200 * (100 + it * (u % 2) * 3);
+            long tx = 300 * (50 + it * (u % 2));
+            stats.append(u + 2).append(" wlan0 0x0 ").append(10000 + u).append(" 0 ")
+                    .append(rx).append(' ').append(rx / 1200).append(' ')
+                    .append(tx).append(' ').append(tx / 300).append('\n');
+            rxTotal += rx;
+            txTotal += tx;
+        }
+        proc.put("/proc/uid_cputime/show_uid_stat", uids.toString());
+        proc.put("/proc/net/xt_qtaguid/stats", stats.toString());
+        proc.put("/proc/net/dev", "Inter-|   Receive\n face |bytes packets\n" +
+                "  wlan0: " + rxTotal + " " + rxTotal / 1200 + " 0 0 0 0 0 0 " +
+                txTotal + " " + txTotal / 300 + " 0 0 0 0 0 0\n");
+    }
+
+    @Test
+    public void replayComputesTheRecordedPowers() throws IOException {
+        FakeProcSource proc = new FakeProcSource();
+        putFiles(proc, 0);
+        for (int i = 0; i < constants.cpuCoreNumber(); i++)
+            proc.put("/sys/devices/system/cpu/cpu" + i + "/cpufreq/scaling_cur_freq",
+                    "1497600\n");
+
+        TraceSession trace = TraceSession.record(file, proc);
+        Profile recorded = new Profile(trace, proc);
+        trace.run(recorded.engine, INTERVAL);
+        trace.close();
+
+        trace = TraceSession.replay(file);
+        Profile replayed = new Profile(trace, null);
+        long start = System.nanoTime();
+        trace.run(replayed.engine, INTERVAL);
+        long elapsed = (System.nanoTime() - start) / 1000000;
+        long missing = trace.getMissingReads();
+        trace.close();
+
+        assertEquals(ITERATIONS, recorded.published);
+        assertTrue(recorded.powers.size() > 2 * ITERATIONS);
+        assertEquals(recorded.powers, replayed.powers);
+        assertEquals(0, missing);
+        assertTrue("replay took " + elapsed + "ms", elapsed < ITERATIONS * INTERVAL);
+    }
+
+    /* Runs the cpu and wifi components under the engine and keeps the power
+     * of every uid at every iteration.
+     */
+    private class Profile implements SamplingEngine.Phases {
+        final TraceSession trace;
+        /* Files to update at each iteration, null when replaying. */
+        final FakeProcSource proc;
+        final List<PowerComponent> components = new ArrayList<PowerComponent>();
+        final List<PowerFunction> functions = new ArrayList<PowerFunction>();
+        final SamplingEngine engine;
+        /* "iteration component uid" to mW. */
+        final TreeMap<String, Integer> powers = new TreeMap<String, Integer>();
+        int published;
+
+        Profile(TraceSession trace, FakeProcSource proc) {
+            this.trace = trace;
+            this.proc = proc;
+            /* The components probe the trace source. */
+            FakeProcSource.resetSystemInfo();
+            components.add(new CPU(constants));
+            functions.add(new CpuPowerModel(constants));
+            components.add(new Wifi(constants, "wlan0", new Wifi.Link() {
+                @Override
+                public boolean isEnabled() {
+                    return true;
+                }
+
+                @Override
+                public double getLinkSpeed() {
+                    return 72;
+                }
+            }));
+            functions.add(new WifiPowerModel(constants));
+            engine = new SamplingEngine(components, this, new SamplingPolicy(INTERVAL));
+        }
+
+        @Override
+        public void acquire(long iteration) {
+            if (proc != null)
+                putFiles(proc, iteration);
+            trace.beginIteration(iteration);
+            LinuxSystemInfo.get().updateInterfaceCounters(iteration).release();
+        }
+
+        @Override
+        public void aggregate(long iteration, long deadline) {
+            for (int i = 0; i < components.size(); i++) {
+                PowerComponent component = components.get(i);
+                IterationData data = component.getData(iteration, deadline);
+                if (data == null)
+                    continue;
+                functions.get(i).calculateAll(data, data.getPowers());
+                for (int row = 0; row < data.getRowCount(); row++)
+                    powers.put(iteration + " " + component.getComponentName() + " " +
+                            data.getUid(row), data.getPowers()[row]);
+                data.recycle();
+            }
+        }
+
+        @Override
+        public void publish(long iteration) {
+            published++;
+            if (iteration + 1 >= ITERATIONS)
+                Thread.currentThread().interrupt();
+        }
+    }
+}
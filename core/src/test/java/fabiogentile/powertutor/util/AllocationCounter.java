@@ -0,0 +1,62 @@
+/*
+Copyright (C) 2011 The University of Michigan
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+Please send inquiries to powertutor@umich.edu
+*/
+
+
+package fabiogentile.powertutor.util;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Bytes allocated by the calling thread, as counted by the HotSpot thread
+ * bean.  Reading the counter allocates nothing itself once warmed up, so
+ * the difference of two reads is what the code in between allocated.
+ */
+public final class AllocationCounter {
+    private static final com.sun.management.ThreadMXBean bean =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static final int ROUNDS = 5;
+
+    private AllocationCounter() {
+    }
+
+    public static long allocatedBytes() {
+        return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Run r n times after warming it up.  The JIT can allocate on the thread
+     * while it swaps compiled code in, so the least of a few rounds is kept.
+     *
+     * @return bytes allocated by the n runs
+     */
+    public static long measure(Runnable r, int n) {
+        for (int i = 0; i < n; i++)
+            r.run();
+        allocatedBytes();
+        long least = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS && least > 0; round++) {
+            long before = allocatedBytes();
+            for (int i = 0; i < n; i++)
+                r.run();
+            least = Math.min(least, allocatedBytes() - before);
+        }
+        return least;
+    }
+}
@@ -0,0 +1,137 @@
+/*
+Copyright (C) 2011 The University of Michigan
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+Please send inquiries to powertutor@umich.edu
+*/
+
+
+package fabiogentile.powertutor.util;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class CounterTest {
+    @Test
+    public void totalIsExact() {
+        Counter counter = new Counter(250);
+        Random random = new Random(3);
+        long sum = 0;
+        for (long it = 0; it < 100000; it++) {
+            int value = random.nextInt(1000);
+            counter.add(value, it);
+            sum += value;
+        }
+        assertEquals(sum, counter.get(Counter.WINDOW_TOTAL, 99999));
+        assertEquals(100000, counter.getCount(Counter.WINDOW_TOTAL, 99999));
+    }
+
+    @Test
+    public void lastMinuteIsExact() {
+        Counter counter = new Counter(1000);
+        Random random = new Random(4);
+        int[] values = new int[5000];
+        for (int it = 0; it < values.length; it++) {
+            values[it] = random.nextInt(1000);
+            counter.add(values[it], it);
+        }
+        long sum = 0;
+        for (int it = values.length - 60; it < values.length; it++)
+            sum += values[it];
+        assertEquals(sum, counter.get(Counter.WINDOW_MINUTE, values.length - 1));
+        assertEquals(60, counter.getCount(Counter.WINDOW_MINUTE, values.length - 1));
+    }
+
+    @Test
+    public void longLookbacksMatchBruteForce() {
+        /* 40 days at one value every 10 s. */
+        long interval = 10 * Counter.SECOND;
+        int n = (int) (40 * Counter.DAY / interval);
+        Counter counter = new Counter(interval);
+        Random random = new Random(5);
+        int[] values = new int[n];
+        for (int it = 0; it < n; it++) {
+            values[it] = random.nextInt(100);
+            counter.add(values[it], it);
+        }
+        long last = n - 1;
+        long end = (last * interval / Counter.SECOND + 1) * Counter.SECOND;
+        long[] lookbacks = {Counter.MINUTE, 90 * Counter.MINUTE, Counter.DAY,
+                3 * Counter.DAY, Counter.WEEK, 30 * Counter.DAY};
+        for (long lookback : lookbacks) {
+            long sum = 0;
+            for (int it = 0; it < n; it++) {
+                if (it * interval >= end - lookback)
+                    sum += values[it];
+            }
+            /* Only the bucket across the start of the window is shared in
+             * proportion, at worst a bucket of the coarsest tier used. */
+            long width = lookback <= Counter.MINUTE ? Counter.SECOND :
+                    lookback <= Counter.HOUR ? Counter.MINUTE :
+                    lookback <= Counter.DAY ? Counter.HOUR :
+                    lookback <= Counter.WEEK ? Counter.DAY : Counter.WEEK;
+            long perBucket = Math.max(1, width / interval);
+            assertEquals("sum over " + lookback, sum, counter.getSum(lookback, last),
+                    100 * perBucket);
+        }
+        assertEquals(6, counter.getCount(Counter.WINDOW_MINUTE, last));
+        assertEquals(360, counter.getCount(Counter.WINDOW_HOUR, last), 6);
+        assertEquals(8640, counter.getCount(Counter.WINDOW_DAY, last), 360);
+    }
+
+    @Test
+    public void seriesGivesMinMaxAndAverageOfEachBucket() {
+        /* 20 minutes of values, ending on a minute boundary so that the
+         * output buckets match the stored ones. */
+        int n = 20 * 60;
+        Counter counter = new Counter(1000);
+        Random random = new Random(6);
+        int[] values = new int[n];
+        for (int it = 0; it < n; it++) {
+            /* Minute 5 is left empty. */
+            if (it / 60 == 5)
+                continue;
+            values[it] = random.nextInt(1000);
+            counter.add(values[it], it);
+        }
+        int buckets = 10;
+        double[] avg = new double[buckets];
+        long[] min = new long[buckets];
+        long[] max = new long[buckets];
+        counter.getSeries(n - 1, Counter.MINUTE, buckets, avg, min, max);
+        for (int k = 0; k < buckets; k++) {
+            int first = (n / 60 - buckets + k) * 60;
+            long sum = 0;
+            long lo = Long.MAX_VALUE;
+            long hi = Long.MIN_VALUE;
+            for (int it = first; it < first + 60; it++) {
+                sum += values[it];
+                lo = Math.min(lo, values[it]);
+                hi = Math.max(hi, values[it]);
+            }
+            assertEquals("bucket " + k, sum / 60.0, avg[k], 1e-9);
+            assertEquals("bucket " + k, lo, min[k]);
+            assertEquals("bucket " + k, hi, max[k]);
+        }
+
+        counter.getSeries(n - 1, Counter.MINUTE, 20, new double[20], min = new long[20],
+                max = new long[20]);
+        assertEquals(0, min[5]);
+        assertEquals(0, max[5]);
+    }
+}
@@ -0,0 +1,113 @@
+/*
+Copyright (C) 2011 The University of Michigan
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+Please send inquiries to powertutor@umich.edu
+*/
+
+
+package fabiogentile.powertutor.util;
+
+import java.nio.ByteBuffer;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * In-memory files for the tests, installed in place of the real /proc and
+ * /sys.  Directories exist as long as a file below them does.
+ */
+public class FakeProcSource extends ProcSource {
+    private final TreeMap<String, byte[]> files = new TreeMap<String, byte[]>();
+
+    public FakeProcSource put(String path, String content) {
+        return put(path, content.getBytes());
+    }
+
+    /* Does not copy content, for tests that count allocations. */
+    public FakeProcSource put(String path, byte[] content) {
+        files.put(path, content);
+        return this;
+    }
+
+    public FakeProcSource remove(String path) {
+        files.remove(path);
+        return this;
+    }
+
+    public FakeProcSource install() {
+        ProcSource.set(this);
+        return this;
+    }
+
+    /**
+     * Install the files and a LinuxSystemInfo reading them, for the tests of
+     * the components.
+     */
+    public FakeProcSource installSystemInfo() {
+        install();
+        LinuxSystemInfo.setInstance(new LinuxSystemInfo());
+        return this;
+    }
+
+    /**
+     * Drop the LinuxSystemInfo, the next one probes whatever source is
+     * installed then, e.g. a trace.
+     */
+    public static void resetSystemInfo() {
+        LinuxSystemInfo.setInstance(null);
+    }
+
+    /**
+     * Go back to the real files and a fresh LinuxSystemInfo.
+     */
+    public static void uninstall() {
+        ProcSource.set(null);
+        LinuxSystemInfo.setInstance(null);
+    }
+
+    @Override
+    public int read(String path, ByteBuffer dst, long position) {
+        byte[] content = files.get(path);
+        if (content == null)
+            return -1;
+        int start = (int) Math.min(position, content.length);
+        int len = Math.min(dst.remaining(), content.length - start);
+        dst.put(content, start, len);
+        return len;
+    }
+
+    @Override
+    public String[] list(String dir) {
+        String prefix = dir + "/";
+        TreeSet<String> names = new TreeSet<String>();
+        for (String path : files.tailMap(prefix).keySet()) {
+            if (!path.startsWith(prefix))
+                break;
+            String rest = path.substring(prefix.length());
+            int slash = rest.indexOf('/');
+            names.add(slash < 0 ? rest : rest.substring(0, slash));
+        }
+        return names.isEmpty() ? null : names.toArray(new String[names.size()]);
+    }
+
+    @Override
+    public boolean exists(String path) {
+        if (files.containsKey(path))
+            return true;
+        String prefix = path + "/";
+        String next = files.ceilingKey(prefix);
+        return next != null && next.startsWith(prefix);
+    }
+}
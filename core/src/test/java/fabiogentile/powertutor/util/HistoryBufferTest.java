@@ -0,0 +1,144 @@
+/*
+Copyright (C) 2011 The University of Michigan
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+Please send inquiries to powertutor@umich.edu
+*/
+
+
+package fabiogentile.powertutor.util;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class HistoryBufferTest {
+    private static final int SIZE = 50;
+
+    /* The plain model: every stored iteration of every uid in a map. */
+    private static class Reference {
+        final HashMap<Integer, HashMap<Long, Integer>> powers =
+                new HashMap<Integer, HashMap<Long, Integer>>();
+        final HashMap<Integer, Long> newest = new HashMap<Integer, Long>();
+        final HashMap<Integer, Long> totals = new HashMap<Integer, Long>();
+        final HashMap<Integer, Long> counts = new HashMap<Integer, Long>();
+
+        void add(int uid, long iteration, int power) {
+            Long total = totals.get(uid);
+            totals.put(uid, (total == null ? 0 : total) + power);
+            Long count = counts.get(uid);
+            counts.put(uid, (count == null ? 0 : count) + 1);
+            Long last = newest.get(uid);
+            if (last != null && iteration <= last)
+                return;
+            newest.put(uid, iteration);
+            if (!powers.containsKey(uid))
+                powers.put(uid, new HashMap<Long, Integer>());
+            powers.get(uid).put(iteration, power);
+        }
+
+        int[] get(int uid, long timestamp, int number) {
+            int[] ret = new int[Math.max(0, Math.min(SIZE, number))];
+            Long last = newest.get(uid);
+            if (last == null)
+                return ret;
+            if (timestamp == -1)
+                timestamp = last;
+            for (int i = 0; i < ret.length; i++) {
+                long it = timestamp - i;
+                if (it > last || it <= last - SIZE || it < 0)
+                    continue;
+                Integer power = powers.get(uid).get(it);
+                ret[i] = power == null ? 0 : power;
+            }
+            return ret;
+        }
+    }
+
+    @Test
+    public void unknownUidHasNoPower() {
+        HistoryBuffer buffer = new HistoryBuffer(SIZE, 1000);
+        assertArrayEquals(new int[3], buffer.get(10000, -1, 3));
+        assertEquals(0, buffer.getTotal(10000, Counter.WINDOW_TOTAL));
+    }
+
+    @Test
+    public void zerosAndGapsAreStored() {
+        HistoryBuffer buffer = new HistoryBuffer(SIZE, 1000);
+        buffer.add(10000, 3, 7);
+        buffer.add(10000, 4, 0);
+        buffer.add(10000, 7, 5);
+        assertArrayEquals(new int[]{5, 0, 0, 0, 7, 0}, buffer.get(10000, 7, 6));
+        /* Iterations after the newest one are not known yet. */
+        assertArrayEquals(new int[]{0, 0, 5}, buffer.get(10000, 9, 3));
+        assertEquals(3, buffer.getCount(10000, Counter.WINDOW_TOTAL));
+    }
+
+    @Test
+    public void matchesReferenceAcrossSparseAndDense() {
+        Random random = new Random(42);
+        HistoryBuffer buffer = new HistoryBuffer(SIZE, 1000);
+        Reference reference = new Reference();
+        /* From almost always idle to always busy, so that uids move between
+         * the sparse and dense forms and back. */
+        double[] busy = {0.01, 0.05, 0.1, 0.2, 0.5, 1.0};
+        int uids = 24;
+
+        for (long it = 0; it < 2000; it++) {
+            /* The busy share of every uid changes every 300 iterations. */
+            int phase = (int) (it / 300);
+            for (int u = 0; u < uids; u++) {
+                if (random.nextInt(10) == 0)
+                    continue; // Not seen in this iteration.
+                double p = busy[(u + phase) % busy.length];
+                int power = random.nextDouble() < p ? 1 + random.nextInt(1000) : 0;
+                buffer.add(10000 + u, it, power);
+                reference.add(10000 + u, it, power);
+            }
+
+            for (int k = 0; k < 4; k++) {
+                int uid = 10000 + random.nextInt(uids);
+                long timestamp = random.nextInt(8) == 0 ? -1 :
+                        it - 70 + random.nextInt(80);
+                int number = random.nextInt(SIZE + 10);
+                assertArrayEquals("uid " + uid + " at " + timestamp + " iteration " + it,
+                        reference.get(uid, timestamp, number),
+                        buffer.get(uid, timestamp, number));
+            }
+        }
+
+        for (int u = 0; u < uids; u++) {
+            int uid = 10000 + u;
+            assertEquals((long) reference.totals.get(uid),
+                    buffer.getTotal(uid, Counter.WINDOW_TOTAL));
+            assertEquals((long) reference.counts.get(uid),
+                    buffer.getCount(uid, Counter.WINDOW_TOTAL));
+        }
+    }
+
+    @Test
+    public void addAllRepeatsTheIteration() {
+        HistoryBuffer buffer = new HistoryBuffer(SIZE, 1000);
+        buffer.addAll(new int[]{10000, 10001, 10002}, new int[]{4, 0, 9}, 2, 5, 7);
+        assertArrayEquals(new int[]{4, 4, 4, 0}, buffer.get(10000, 7, 4));
+        assertArrayEquals(new int[3], buffer.get(10001, 7, 3));
+        assertEquals(0, buffer.getCount(10002, Counter.WINDOW_TOTAL));
+        assertEquals(3, buffer.getCount(10001, Counter.WINDOW_TOTAL));
+    }
+}
@@ -0,0 +1,89 @@
+/*
+Copyright (C) 2011 The University of Michigan
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+Please send inquiries to powertutor@umich.edu
+*/
+
+
+package fabiogentile.powertutor.util;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class LinuxSystemInfoTest {
+    @After
+    public void tearDown() {
+        FakeProcSource.uninstall();
+    }
+
+    @Test
+    public void snapshotIsSharedWithinAnIteration() {
+        LinuxSystemInfo info = LinuxSystemInfo.get();
+        info.resetSnapshots();
+        ProcessSnapshot snapshot = info.updateProcessSnapshot(3);
+        assertEquals(3, snapshot.getGeneration());
+        assertSame(snapshot, info.updateProcessSnapshot(3));
+        assertSame(snapshot, info.updateProcessSnapshot(2));
+    }
+
+    @Test
+    public void newRunDoesNotReuseSnapshotsOfThePreviousOne() {
+        LinuxSystemInfo info = LinuxSystemInfo.get();
+        info.resetSnapshots();
+        info.updateProcessSnapshot(1000);
+        info.updateInterfaceCounters(1000).release();
+
+        /* The engine restarts from iteration 0. */
+        info.resetSnapshots();
+        assertEquals(0, info.updateProcessSnapshot(0).getGeneration());
+        assertEquals(1, info.updateProcessSnapshot(1).getGeneration());
+        InterfaceCounters counters = info.updateInterfaceCounters(0);
+        if (counters != InterfaceCounters.EMPTY)
+            assertEquals(0, counters.getGeneration());
+    }
+
+    @Test
+    public void heldNetworkSnapshotIsNotRefilled() {
+        FakeProcSource proc = new FakeProcSource();
+        proc.put("/proc/net/xt_qtaguid/stats", "idx iface acct_tag_hex uid_tag_int " +
+                "cnt_set rx_bytes rx_packets tx_bytes tx_packets\n" +
+                "2 wlan0 0x0 10050 0 1000 10 500 5\n");
+        proc.installSystemInfo();
+        LinuxSystemInfo info = LinuxSystemInfo.get();
+
+        NetworkSnapshot held = info.updateNetworkSnapshot(1);
+        for (long it = 2; it < 6; it++) {
+            NetworkSnapshot snap = info.updateNetworkSnapshot(it);
+            assertNotSame(held, snap);
+            assertEquals(it, snap.getGeneration());
+            snap.release();
+        }
+        assertEquals(1, held.getGeneration());
+        assertEquals(10050, held.getUid(0));
+
+        /* Released by everyone, two snapshots take turns. */
+        held.release();
+        NetworkSnapshot a = info.updateNetworkSnapshot(6);
+        a.release();
+        NetworkSnapshot b = info.updateNetworkSnapshot(7);
+        b.release();
+        assertSame(a, info.updateNetworkSnapshot(8));
+    }
+}
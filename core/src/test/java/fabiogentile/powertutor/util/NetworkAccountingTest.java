@@ -0,0 +1,154 @@
+/*
+Copyright (C) 2011 The University of Michigan
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+Please send inquiries to powertutor@umich.edu
+*/
+
+
+package fabiogentile.powertutor.util;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class NetworkAccountingTest {
+    /* More uids than the uid_stat fallback polls in one iteration. */
+    private static final int UIDS = 100;
+    private static final String QTAGUID_HEADER = "idx iface acct_tag_hex " +
+            "uid_tag_int cnt_set rx_bytes rx_packets tx_bytes tx_packets\n";
+
+    @After
+    public void tearDown() {
+        ProcSource.set(null);
+    }
+
+    private static void putUidStat(FakeProcSource proc, int uid, long rx, long tx) {
+        proc.put("/proc/uid_stat/" + uid + "/tcp_rcv", rx + "\n");
+        proc.put("/proc/uid_stat/" + uid + "/tcp_snd", tx + "\n");
+    }
+
+    private static String qtaguidRow(int idx, int uid, long rxBytes, long rxPackets,
+                                     long txBytes, long txPackets) {
+        return idx + " wlan0 0x0 " + uid + " 0 " + rxBytes + " " + rxPackets +
+                " " + txBytes + " " + txPackets + "\n";
+    }
+
+    @Test
+    public void uidStatReadLateIsNotChargedItsPast() {
+        FakeProcSource proc = new FakeProcSource().install();
+        for (int i = 0; i < UIDS; i++)
+            putUidStat(proc, 10000 + i, 1000000 + i, 500000 + i);
+        NetworkAccounting accounting = new NetworkAccounting();
+        assertTrue(accounting.isAvailable());
+
+        /* Nothing is sent: whenever a uid is first read, none of its past
+         * traffic may show up. */
+        for (long it = 0; it < 30; it++) {
+            NetworkSnapshot snap = accounting.build(it);
+            for (int row = 0; row < snap.size(); row++) {
+                assertEquals("iteration " + it, 0, snap.getRxDelta(row));
+                assertEquals("iteration " + it, 0, snap.getTxDelta(row));
+                assertEquals(-1, snap.getRxPacketsDelta(row));
+            }
+        }
+
+        /* Traffic afterwards is reported once, whenever the uid is polled. */
+        putUidStat(proc, 10042, 1000042 + 700, 500042 + 300);
+        long rx = 0;
+        long tx = 0;
+        for (long it = 30; it < 60; it++) {
+            NetworkSnapshot snap = accounting.build(it);
+            int row = snap.indexOf(0, 10042);
+            if (row >= 0) {
+                rx += snap.getRxDelta(row);
+                tx += snap.getTxDelta(row);
+            }
+        }
+        assertEquals(700, rx);
+        assertEquals(300, tx);
+    }
+
+    @Test
+    public void uidStatOfNewUidIsCountedWhole() {
+        FakeProcSource proc = new FakeProcSource().install();
+        putUidStat(proc, 10000, 5000, 5000);
+        NetworkAccounting accounting = new NetworkAccounting();
+        accounting.build(0);
+
+        /* The uid appears after the first listing, all of its traffic was
+         * sent since. */
+        putUidStat(proc, 10001, 1200, 800);
+        long rx = 0;
+        long tx = 0;
+        for (long it = 1; it < 30; it++) {
+            NetworkSnapshot snap = accounting.build(it);
+            int row = snap.indexOf(0, 10001);
+            if (row >= 0) {
+                rx += snap.getRxDelta(row);
+                tx += snap.getTxDelta(row);
+            }
+        }
+        assertEquals(1200, rx);
+        assertEquals(800, tx);
+    }
+
+    @Test
+    public void qtaguidReportsPacketDeltas() {
+        FakeProcSource proc = new FakeProcSource().install();
+        proc.put("/proc/net/xt_qtaguid/stats", QTAGUID_HEADER +
+                qtaguidRow(2, 10050, 100000, 90, 20000, 40));
+        NetworkAccounting accounting = new NetworkAccounting();
+        NetworkSnapshot snap = accounting.build(0);
+        int wlan0 = snap.getInterfaceIndex("wlan0");
+        int row = snap.indexOf(wlan0, 10050);
+        assertEquals(0, snap.getRxPacketsDelta(row));
+        assertEquals(0, snap.getTxPacketsDelta(row));
+
+        /* Both counter sets of the uid are summed. */
+        proc.put("/proc/net/xt_qtaguid/stats", QTAGUID_HEADER +
+                qtaguidRow(2, 10050, 100000, 90, 20000, 40) +
+                qtaguidRow(3, 10050, 1500, 3, 600, 2));
+        snap = accounting.build(1);
+        row = snap.indexOf(wlan0, 10050);
+        assertEquals(101500, snap.getRxBytes(row));
+        assertEquals(93, snap.getRxPackets(row));
+        assertEquals(1500, snap.getRxDelta(row));
+        assertEquals(600, snap.getTxDelta(row));
+        assertEquals(3, snap.getRxPacketsDelta(row));
+        assertEquals(2, snap.getTxPacketsDelta(row));
+    }
+
+    @Test
+    public void resetTakesTheNextReadAsBaseline() {
+        FakeProcSource proc = new FakeProcSource().install();
+        proc.put("/proc/net/xt_qtaguid/stats", QTAGUID_HEADER +
+                qtaguidRow(2, 10050, 1000, 10, 1000, 10));
+        NetworkAccounting accounting = new NetworkAccounting();
+        accounting.build(0);
+        accounting.reset();
+
+        proc.put("/proc/net/xt_qtaguid/stats", QTAGUID_HEADER +
+                qtaguidRow(2, 10050, 9000, 80, 9000, 80));
+        NetworkSnapshot snap = accounting.build(0);
+        int row = snap.indexOf(snap.getInterfaceIndex("wlan0"), 10050);
+        assertEquals(0, snap.getRxDelta(row));
+        assertEquals(0, snap.getTxPacketsDelta(row));
+        assertFalse(snap.getRxPackets(row) < 0);
+    }
+}
@@ -0,0 +1,97 @@
+/*
+Copyright (C) 2011 The University of Michigan
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+Please send inquiries to powertutor@umich.edu
+*/
+
+
+package fabiogentile.powertutor.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ObjectPoolTest {
+    @Test
+    public void emptyPoolCountsAMiss() {
+        ObjectPool<Object> pool = new ObjectPool<Object>("empty");
+        assertNull(pool.obtain());
+        assertEquals(0, pool.getHits());
+        assertEquals(1, pool.getMisses());
+    }
+
+    @Test
+    public void recycledObjectIsHandedOutAgain() {
+        ObjectPool<Object> pool = new ObjectPool<Object>("reuse");
+        Object a = new Object();
+        pool.recycle(a);
+        assertSame(a, pool.obtain());
+        assertEquals(1, pool.getHits());
+        assertNull(pool.obtain());
+    }
+
+    @Test
+    public void poolIsBounded() {
+        ObjectPool<Object> pool = new ObjectPool<Object>("bounded", 2, 3);
+        for (int i = 0; i < 10; i++)
+            pool.recycle(new Object());
+        assertEquals(3, pool.getSharedSize());
+        assertEquals(5, pool.getDiscarded());
+
+        int obtained = 0;
+        while (pool.obtain() != null)
+            obtained++;
+        assertEquals(5, obtained);
+        assertEquals(0, pool.getSharedSize());
+    }
+
+    @Test
+    public void objectsRecycledByOneThreadReachAnother() throws InterruptedException {
+        final ObjectPool<Object> pool = new ObjectPool<Object>("handoff", 1, 8);
+        final Object[] recycled = new Object[4];
+        for (int i = 0; i < recycled.length; i++)
+            recycled[i] = new Object();
+        Thread estimator = new Thread() {
+            @Override
+            public void run() {
+                for (Object obj : recycled)
+                    pool.recycle(obj);
+            }
+        };
+        estimator.start();
+        estimator.join();
+
+        /* The first one stays in the cache of the recycling thread. */
+        assertEquals(3, pool.getSharedSize());
+        for (int i = 0; i < 3; i++) {
+            Object obj = pool.obtain();
+            boolean found = false;
+            for (Object r : recycled)
+                found |= r == obj;
+            assertTrue(found);
+        }
+        assertNull(pool.obtain());
+    }
+
+    @Test
+    public void poolIsListedForStatistics() {
+        ObjectPool<Object> pool = new ObjectPool<Object>("listed");
+        assertTrue(ObjectPool.getPools().contains(pool));
+    }
+}
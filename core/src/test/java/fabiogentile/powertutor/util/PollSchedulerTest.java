@@ -0,0 +1,99 @@
+/*
+Copyright (C) 2011 The University of Michigan
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+Please send inquiries to powertutor@umich.edu
+*/
+
+package fabiogentile.powertutor.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PollSchedulerTest {
+    private static final int ACTIVE = 10001;
+    private static final int QUIET = 10002;
+
+    private static boolean selected(PollScheduler scheduler, int n, int key) {
+        for (int i = 0; i < n; i++) {
+            if (scheduler.getSelected(i) == key)
+                return true;
+        }
+        return false;
+    }
+
+    /* One iteration polling every selected entity, ACTIVE reporting the
+     * given activity and QUIET nothing.
+     */
+    private static int poll(PollScheduler scheduler, long iteration, long activity) {
+        scheduler.begin(iteration);
+        scheduler.offer(ACTIVE);
+        scheduler.offer(QUIET);
+        int n = scheduler.select();
+        for (int i = 0; i < n; i++) {
+            int key = scheduler.getSelected(i);
+            scheduler.report(key, key == ACTIVE ? activity : 0);
+        }
+        return n;
+    }
+
+    @Test
+    public void entityGoneIdleIsSkipped() {
+        PollScheduler scheduler = new PollScheduler(4, 10);
+        for (long it = 0; it < 5; it++)
+            assertEquals(2, poll(scheduler, it, 100000));
+        /* Its last poll saw nothing, the average still remembers the traffic. */
+        poll(scheduler, 5, 0);
+
+        scheduler.setReduced(true, false);
+        scheduler.begin(6);
+        scheduler.offer(ACTIVE);
+        scheduler.offer(QUIET);
+        int n = scheduler.select();
+        assertFalse(selected(scheduler, n, ACTIVE));
+        assertFalse(selected(scheduler, n, QUIET));
+        assertEquals(2, scheduler.getSkipped());
+    }
+
+    @Test
+    public void activeEntityIsNotSkipped() {
+        PollScheduler scheduler = new PollScheduler(4, 10);
+        for (long it = 0; it < 5; it++)
+            poll(scheduler, it, 100000);
+
+        scheduler.setReduced(true, false);
+        scheduler.begin(5);
+        scheduler.offer(ACTIVE);
+        scheduler.offer(QUIET);
+        int n = scheduler.select();
+        assertTrue(selected(scheduler, n, ACTIVE));
+        assertFalse(selected(scheduler, n, QUIET));
+    }
+
+    @Test
+    public void idleEntityIsPolledOnceOverdue() {
+        PollScheduler scheduler = new PollScheduler(4, 10);
+        poll(scheduler, 0, 0);
+
+        scheduler.setReduced(true, false);
+        scheduler.begin(10);
+        scheduler.offer(ACTIVE);
+        int n = scheduler.select();
+        assertTrue(selected(scheduler, n, ACTIVE));
+    }
+}
@@ -0,0 +1,159 @@
+/*
+Copyright (C) 2011 The University of Michigan
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+Please send inquiries to powertutor@umich.edu
+*/
+
+
+package fabiogentile.powertutor.util;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class PowerHistoryTest {
+    private static final int SIZE = 40;
+    private static final int COMPONENTS = 3;
+    private static final int UIDS = 30;
+
+    /* The plain model: the power of every (component, uid, iteration). */
+    private final HashMap<String, Integer> powers = new HashMap<String, Integer>();
+    private final long[][] totals = new long[COMPONENTS][UIDS];
+    private final long[][] counts = new long[COMPONENTS][UIDS];
+    private long last;
+
+    private static String key(int component, int uid, long iteration) {
+        return component + "/" + uid + "/" + iteration;
+    }
+
+    private int power(int component, int uid, long iteration) {
+        if (iteration < 0 || iteration > last || iteration <= last - SIZE)
+            return 0;
+        Integer power = powers.get(key(component, uid, iteration));
+        return power == null ? 0 : power;
+    }
+
+    private int[] reference(int componentId, int uid, long iteration, int number) {
+        int[] ret = new int[Math.max(0, Math.min(SIZE, number))];
+        if (iteration == -1)
+            iteration = last;
+        for (int i = 0; i < ret.length; i++) {
+            for (int c = 0; c < COMPONENTS; c++) {
+                if (componentId == PowerHistory.ALL_COMPONENTS || componentId == c)
+                    ret[i] += power(c, uid, iteration - i);
+            }
+        }
+        return ret;
+    }
+
+    @Test
+    public void unsortedRowsAreFound() {
+        PowerHistory history = new PowerHistory(SIZE, 2, 1000);
+        history.appendIteration(0, new int[]{10005, 10001, 10003, 99}, new int[]{5, 1, 3, 9},
+                3, 0, 0);
+        history.appendIteration(1, new int[]{10003}, new int[]{30}, 1, 0, 0);
+        assertArrayEquals(new int[]{1}, history.get(0, 10001, 0, 1));
+        assertArrayEquals(new int[]{33}, history.get(PowerHistory.ALL_COMPONENTS, 10003, 0, 1));
+        /* Beyond count, not stored. */
+        assertArrayEquals(new int[]{0}, history.get(0, 99, 0, 1));
+    }
+
+    @Test
+    public void matchesReference() {
+        Random random = new Random(7);
+        PowerHistory history = new PowerHistory(SIZE, COMPONENTS, 1000);
+        int[] uids = new int[UIDS];
+        int[] values = new int[UIDS];
+
+        long it = 0;
+        while (it < 500) {
+            /* Sometimes an iteration stands for several, like a long stride. */
+            long to = it + (random.nextInt(5) == 0 ? random.nextInt(4) : 0);
+            for (int c = 0; c < COMPONENTS; c++) {
+                int count = 0;
+                for (int u = 0; u < UIDS; u++) {
+                    if (random.nextInt(3) == 0)
+                        continue;
+                    uids[count] = 10000 + u;
+                    values[count++] = random.nextInt(4) == 0 ? 0 : random.nextInt(2000);
+                }
+                /* Rows come in any order. */
+                for (int i = count - 1; i > 0; i--) {
+                    int j = random.nextInt(i + 1);
+                    int t = uids[i];
+                    uids[i] = uids[j];
+                    uids[j] = t;
+                    t = values[i];
+                    values[i] = values[j];
+                    values[j] = t;
+                }
+                history.appendIteration(c, uids, values, count, it, to);
+                for (long k = it; k <= to; k++) {
+                    for (int i = 0; i < count; i++) {
+                        powers.put(key(c, uids[i], k), values[i]);
+                        totals[c][uids[i] - 10000] += values[i];
+                        counts[c][uids[i] - 10000]++;
+                    }
+                }
+            }
+            last = to;
+            it = to + 1;
+
+            for (int k = 0; k < 5; k++) {
+                int uid = 10000 + random.nextInt(UIDS);
+                int component = random.nextInt(COMPONENTS + 1) - 1;
+                long iteration = random.nextInt(6) == 0 ? -1 : last - 50 + random.nextInt(55);
+                int number = random.nextInt(SIZE + 5);
+                assertArrayEquals("component " + component + " uid " + uid + " at " + iteration,
+                        reference(component, uid, iteration, number),
+                        history.get(component, uid, iteration, number));
+            }
+
+            long iteration = last - random.nextInt(SIZE + 5);
+            int ignoreMask = random.nextInt(1 << COMPONENTS);
+            IntIntMap out = new IntIntMap();
+            history.getIteration(iteration, ignoreMask, out);
+            for (int u = 0; u < UIDS; u++) {
+                int expected = 0;
+                for (int c = 0; c < COMPONENTS; c++) {
+                    if ((ignoreMask & 1 << c) == 0)
+                        expected += power(c, 10000 + u, iteration);
+                }
+                assertEquals("uid " + u + " at " + iteration, expected,
+                        out.get(10000 + u, 0));
+            }
+        }
+
+        for (int c = 0; c < COMPONENTS; c++) {
+            for (int u = 0; u < UIDS; u++) {
+                assertEquals(totals[c][u], history.getTotal(c, 10000 + u, Counter.WINDOW_TOTAL));
+                assertEquals(counts[c][u], history.getCount(c, 10000 + u, Counter.WINDOW_TOTAL));
+            }
+        }
+    }
+
+    @Test
+    public void emptyHistoryStoresOnlyTotals() {
+        PowerHistory history = new PowerHistory(0, 1, 1000);
+        history.appendIteration(0, new int[]{10000}, new int[]{12}, 1, 0, 2);
+        assertArrayEquals(new int[0], history.get(0, 10000, -1, 5));
+        assertEquals(36, history.getTotal(0, 10000, Counter.WINDOW_TOTAL));
+    }
+}
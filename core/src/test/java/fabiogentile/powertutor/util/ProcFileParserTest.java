@@ -0,0 +1,133 @@
+/*
+Copyright (C) 2011 The University of Michigan
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+Please send inquiries to powertutor@umich.edu
+*/
+
+
+package fabiogentile.powertutor.util;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ProcFileParserTest {
+    /* Fields 3, 14, 15 and 22 of the pid_stat fixture. */
+    private static final int[] PID_FIELDS = {3, 14, 15, 22};
+    private static final long[] PID_VALUES = {'S', 4125, 1873, 10536};
+
+    static String fixture(String name) {
+        try {
+            return new File(ProcFileParserTest.class.getResource("proc/" + name).toURI()).getPath();
+        } catch (URISyntaxException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static ByteBuffer wrap(String s) {
+        return ByteBuffer.wrap(s.getBytes());
+    }
+
+    @Test
+    public void parsesSingleValue() {
+        ProcFileParser parser = new ProcFileParser();
+        assertEquals(8, parser.readFile(fixture("scaling_cur_freq")));
+        assertEquals(1958400, ProcFileParser.parseLong(parser.getBuffer()));
+        assertEquals(-12, ProcFileParser.parseLong(wrap("  -12\n")));
+        assertEquals(-1, ProcFileParser.parseLong(wrap("abc")));
+        assertEquals(-1, ProcFileParser.parseLong(wrap("")));
+    }
+
+    @Test
+    public void parsesCpuLine() {
+        ProcFileParser parser = new ProcFileParser();
+        assertTrue(parser.readFile(fixture("stat")) > 0);
+        long[] out = new long[8];
+        assertEquals(7, ProcFileParser.parseLineFields(parser.getBuffer(), 1, out, 1, 7));
+        assertArrayEquals(new long[]{0, 2255438, 52347, 1378513, 33941582, 48611, 84, 26755}, out);
+        /* Only the first line is parsed. */
+        assertEquals(2, ProcFileParser.parseLineFields(wrap("cpu 1 2\ncpu0 3 4\n"), 1, out, 0, 8));
+        assertEquals(2, out[1]);
+    }
+
+    @Test
+    public void parsesPidStatWithTrickyComm() {
+        ProcFileParser parser = new ProcFileParser();
+        assertTrue(parser.readFile(fixture("pid_stat")) > 0);
+        long[] out = new long[PID_FIELDS.length];
+        assertTrue(ProcFileParser.parsePidStat(parser.getBuffer(), PID_FIELDS, out));
+        assertArrayEquals(PID_VALUES, out);
+
+        assertTrue(ProcFileParser.parsePidStat(wrap("7 (a) (b )) R 1 2 3 4 5 6 7 8 9 10 11 -12\n"),
+                new int[]{3, 14, 15}, out));
+        assertEquals('R', out[0]);
+        assertEquals(11, out[1]);
+        assertEquals(-12, out[2]);
+        assertFalse(ProcFileParser.parsePidStat(wrap("7 (x) R 1 2\n"), new int[]{14}, out));
+        assertFalse(ProcFileParser.parsePidStat(wrap("7 no comm\n"), new int[]{3}, out));
+    }
+
+    @Test
+    public void parsesKeyValues() {
+        ProcFileParser parser = new ProcFileParser();
+        assertTrue(parser.readFile(fixture("status")) > 0);
+        assertEquals(10023, ProcFileParser.parseKeyValue(parser.getBuffer(), "Uid:".getBytes()));
+        assertTrue(parser.readFile(fixture("meminfo")) > 0);
+        ByteBuffer b = parser.getBuffer();
+        assertEquals(1899508, ProcFileParser.parseKeyValue(b, "MemTotal:".getBytes()));
+        assertEquals(487332, ProcFileParser.parseKeyValue(b, "Cached:".getBytes()));
+        /* Keys only match at the start of a line. */
+        assertEquals(0, ProcFileParser.parseKeyValue(b, "SwapCached:".getBytes()));
+        assertEquals(-1, ProcFileParser.parseKeyValue(b, "Slab:".getBytes()));
+    }
+
+    @Test
+    public void failsOnMissingFile() {
+        ProcFileParser parser = new ProcFileParser();
+        assertEquals(-1, parser.readFile(fixture("stat") + ".missing"));
+        assertEquals(0, parser.getBuffer().remaining());
+    }
+
+    @Test
+    public void parsingAllocatesNothing() {
+        ProcFileParser parser = new ProcFileParser();
+        parser.readFile(fixture("pid_stat"));
+        final ByteBuffer pidStat = ByteBuffer.wrap(parser.getArray().clone(), 0,
+                parser.getBuffer().limit());
+        parser.readFile(fixture("meminfo"));
+        final ByteBuffer meminfo = ByteBuffer.wrap(parser.getArray().clone(), 0,
+                parser.getBuffer().limit());
+        final long[] out = new long[PID_FIELDS.length];
+        final byte[] key = "Cached:".getBytes();
+
+        long allocated = AllocationCounter.measure(new Runnable() {
+            public void run() {
+                ProcFileParser.parsePidStat(pidStat, PID_FIELDS, out);
+                ProcFileParser.parseLineFields(pidStat, 3, out, 0, out.length);
+                ProcFileParser.parseKeyValue(meminfo, key);
+                ProcFileParser.parseLong(meminfo);
+            }
+        }, 20000);
+        assertEquals(0, allocated);
+    }
+}
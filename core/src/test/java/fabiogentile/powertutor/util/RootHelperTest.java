@@ -0,0 +1,104 @@
+/*
+Copyright (C) 2011 The University of Michigan
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+Please send inquiries to powertutor@umich.edu
+*/
+
+
+package fabiogentile.powertutor.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+public class RootHelperTest {
+    private RootHelper helper;
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        helper = new RootHelper("sh");
+        file = File.createTempFile("root", ".txt");
+    }
+
+    @After
+    public void tearDown() {
+        helper.stop();
+        file.delete();
+    }
+
+    private void write(String content) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(content.getBytes());
+        out.close();
+    }
+
+    private String read(int size) {
+        byte[] buf = new byte[size];
+        int len = helper.readFile(file.getPath(), buf);
+        return len < 0 ? null : new String(buf, 0, len);
+    }
+
+    @Test
+    public void readsFileWithTrailingNewline() throws IOException {
+        write("1 2 3\n4 5 6\n");
+        assertEquals("1 2 3\n4 5 6\n", read(64));
+    }
+
+    @Test
+    public void readsFileWithoutTrailingNewline() throws IOException {
+        write("12345");
+        assertEquals("12345", read(64));
+        /* The shell is still in sync for the next read. */
+        write("678\n");
+        assertEquals("678\n", read(64));
+    }
+
+    @Test
+    public void readsEmptyAndMissingFiles() throws IOException {
+        write("");
+        assertEquals("", read(64));
+        file.delete();
+        assertEquals("", read(64));
+    }
+
+    @Test
+    public void keepsPartialTerminatorMatches() throws IOException {
+        write("a\n--TER\n\n--X\n");
+        assertEquals("a\n--TER\n\n--X\n", read(64));
+    }
+
+    @Test
+    public void truncatesToBuffer() throws IOException {
+        write("0123456789");
+        assertEquals("0123", read(4));
+        write("abc");
+        assertEquals("abc", read(4));
+    }
+
+    @Test
+    public void failsWhenDisabled() throws IOException {
+        write("1");
+        helper.setEnabled(false);
+        assertEquals(null, read(64));
+    }
+}
@@ -0,0 +1,117 @@
+/*
+Copyright (C) 2011 The University of Michigan
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+Please send inquiries to powertutor@umich.edu
+*/
+
+
+package fabiogentile.powertutor.util;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class UidCpuSourceTest {
+    /* More groups than the cpuacct source polls in one iteration. */
+    private static final int GROUPS = 200;
+
+    @After
+    public void tearDown() {
+        ProcSource.set(null);
+    }
+
+    private static String acctPath(int uid) {
+        return "/acct/uid_" + uid + "/cpuacct.stat";
+    }
+
+    private static String acctStat(long usr, long sys) {
+        return "user " + usr + "\nsystem " + sys + "\n";
+    }
+
+    private static long usrOf(UidCpuSource source, int uid) {
+        for (int i = 0; i < source.size(); i++) {
+            if (source.getUid(i) == uid)
+                return source.getDeltaUsr(i);
+        }
+        return 0;
+    }
+
+    @Test
+    public void cpuacctGroupsReadLateAreNotChargedTheirPast() {
+        FakeProcSource proc = new FakeProcSource().install();
+        for (int i = 0; i < GROUPS; i++)
+            proc.put(acctPath(10000 + i), acctStat(100000 + i, 50000));
+        UidCpuSource source = UidCpuSource.create();
+        assertTrue(source.getName().startsWith("/acct"));
+
+        /* Nothing runs: every group is read for the first time at some
+         * point, none of them may report any time. */
+        for (long it = 0; it < 30; it++) {
+            assertTrue(source.update(it));
+            assertEquals("iteration " + it, 0, source.size());
+        }
+
+        /* Time used afterwards is reported once, whenever it is polled. */
+        proc.put(acctPath(10007), acctStat(100007 + 5, 50000));
+        long usr = 0;
+        for (long it = 30; it < 60; it++) {
+            source.update(it);
+            usr += usrOf(source, 10007);
+        }
+        assertEquals(5, usr);
+    }
+
+    @Test
+    public void cpuacctGroupCreatedLaterStartsFromItsFirstRead() {
+        FakeProcSource proc = new FakeProcSource().install();
+        proc.put(acctPath(10000), acctStat(10, 10));
+        UidCpuSource source = UidCpuSource.create();
+        source.update(0);
+
+        proc.put(acctPath(10001), acctStat(40, 2));
+        long usr = 0;
+        for (long it = 1; it < 15; it++) {
+            source.update(it);
+            usr += usrOf(source, 10001);
+        }
+        assertEquals(0, usr);
+
+        proc.put(acctPath(10001), acctStat(43, 2));
+        source.update(15);
+        assertEquals(3, usrOf(source, 10001));
+    }
+
+    @Test
+    public void uidCputimeReportsNewRowsWhole() {
+        FakeProcSource proc = new FakeProcSource().install();
+        proc.put("/proc/uid_cputime/show_uid_stat", "0: 10000 20000\n1000: 50000 0\n");
+        UidCpuSource source = UidCpuSource.create();
+        assertTrue(source.getName().startsWith("/proc/uid_cputime"));
+        source.update(0);
+        assertEquals(0, source.size());
+
+        /* The file lists every uid at each read, a new row is a new uid. */
+        proc.put("/proc/uid_cputime/show_uid_stat",
+                "0: 20000 20000\n1000: 50000 0\n10050: 30000 10000\n");
+        source.update(1);
+        assertEquals(2, source.size());
+        assertEquals(1, usrOf(source, 0));
+        assertEquals(3, usrOf(source, 10050));
+        assertEquals(1, source.getDeltaSys(1));
+    }
+}
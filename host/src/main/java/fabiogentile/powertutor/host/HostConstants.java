@@ -17,32 +17,30 @@ along with this program.  If not, see <http://www.gnu.org/licenses/>.
 Please send inquiries to powertutor@umich.edu
 */
 
-package fabiogentile.powertutor.service;
 
-import java.io.IOException;
-import java.io.OutputStreamWriter;
+package fabiogentile.powertutor.host;
 
-public abstract class PowerData {
-    private int cachedPower;
+import fabiogentile.powertutor.phone.HammerheadConstants;
 
-    public PowerData() {
-    }
+/**
+ * The Hammerhead tables with the core count of the host.  They were not
+ * measured on the host, the estimates only rank the processes.
+ */
+public class HostConstants extends HammerheadConstants {
+    private int cores;
 
-    public int getCachedPower() {
-        return cachedPower;
+    public HostConstants() {
+        super(null);
+        cores = Runtime.getRuntime().availableProcessors();
     }
 
-    public void setCachedPower(int power) {
-        cachedPower = power;
+    @Override
+    public String modelName() {
+        return "host";
     }
 
-    /* To be called when the PowerData object is no longer in use so that it can
-     * be used again in the next iteration if it chooses to be.
-     */
-    public void recycle() {
+    @Override
+    public int cpuCoreNumber() {
+        return cores;
     }
-
-    /* Simply writes out log information to the passed stream. */
-    public abstract void writeLogDataInfo(OutputStreamWriter out)
-            throws IOException;
 }
@@ -0,0 +1,254 @@
+/*
+Copyright (C) 2011 The University of Michigan
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+Please send inquiries to powertutor@umich.edu
+*/
+
+
+package fabiogentile.powertutor.host;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+
+import fabiogentile.powertutor.components.CPU;
+import fabiogentile.powertutor.components.PowerComponent;
+import fabiogentile.powertutor.components.Wifi;
+import fabiogentile.powertutor.phone.CpuPowerModel;
+import fabiogentile.powertutor.phone.PhoneConstants;
+import fabiogentile.powertutor.phone.PowerFunction;
+import fabiogentile.powertutor.phone.WifiPowerModel;
+import fabiogentile.powertutor.service.IterationData;
+import fabiogentile.powertutor.service.SamplingEngine;
+import fabiogentile.powertutor.service.SamplingPolicy;
+import fabiogentile.powertutor.service.TraceSession;
+import fabiogentile.powertutor.util.Clock;
+import fabiogentile.powertutor.util.IntIntMap;
+import fabiogentile.powertutor.util.LinuxSystemInfo;
+import fabiogentile.powertutor.util.Logger;
+
+/**
+ * Profiles the processes of the Linux host it runs on with the cpu and wifi
+ * models of the app, and prints the uids drawing the most power at each
+ * iteration.
+ *
+ * Usage: HostProfiler [--record trace | --replay trace] [interval ms]
+ * [iterations, 0 for ever] [interface]
+ * <p>
+ * --record saves what the components read to a trace, --replay profiles
+ * such a trace instead of the host, as fast as the models compute.  A trace
+ * is replayed with the interval and interface it was recorded with.
+ */
+public class HostProfiler implements SamplingEngine.Phases {
+    private static final String TAG = "HostProfiler";
+    private static final int TOP_UIDS = 5;
+
+    private List<PowerComponent> components = new ArrayList<PowerComponent>();
+    private List<PowerFunction> functions = new ArrayList<PowerFunction>();
+    private HashMap<Integer, String> userNames = new HashMap<Integer, String>();
+    /* Power of each uid in the current iteration, summed over the components. */
+    private IntIntMap uidPower = new IntIntMap();
+    /* Output of the iteration being aggregated. */
+    private final StringBuilder line = new StringBuilder();
+    private long iterations;
+    private final TraceSession trace;
+
+    /**
+     * @param trace trace to record or replay, opened before the components
+     *              are created since they probe the files, null for none
+     */
+    public HostProfiler(String wifiInterface, TraceSession trace) {
+        this.trace = trace;
+        PhoneConstants constants = new HostConstants();
+        components.add(new CPU(constants));
+        functions.add(new CpuPowerModel(constants, true));
+
+        if (wifiInterface == null)
+            wifiInterface = SysfsWifiLink.findWirelessInterface();
+        if (wifiInterface != null) {
+            components.add(new Wifi(constants, wifiInterface,
+                    new SysfsWifiLink(wifiInterface)));
+            functions.add(new WifiPowerModel(constants));
+        } else {
+            Logger.w(TAG, "No wireless interface found, only the cpu is profiled");
+        }
+        readUserNames();
+    }
+
+    /**
+     * Sample the host, or replay the trace, with the SamplingEngine on the
+     * calling thread.
+     *
+     * @param iterations number of iterations to run, 0 to run until the
+     *                   thread is interrupted
+     */
+    public void run(long interval, long iterations) {
+        this.iterations = iterations;
+        SamplingEngine engine = new SamplingEngine(components, this,
+                new SamplingPolicy(interval));
+        if (trace != null)
+            trace.run(engine, interval);
+        else
+            engine.run(Clock.elapsedRealtime(), interval);
+    }
+
+    /* Components are sampled concurrently by the engine pool, the network and
+     * process snapshots are built once and shared.
+     */
+    @Override
+    public void acquire(long iteration) {
+        if (trace != null)
+            trace.beginIteration(iteration);
+        LinuxSystemInfo.get().updateInterfaceCounters(iteration).release();
+    }
+
+    @Override
+    public void aggregate(long iteration, long deadline) {
+        uidPower.clear();
+        line.setLength(0);
+        line.append(String.format(Locale.US, "%6d", iteration));
+        for (int i = 0; i < components.size(); i++) {
+            PowerComponent component = components.get(i);
+            IterationData data = component.getData(iteration, deadline);
+            int total = 0;
+            if (data != null) {
+                functions.get(i).calculateAll(data, data.getPowers());
+                int[] powers = data.getPowers();
+                for (int row = 0; row < data.getRowCount(); row++) {
+                    int uid = data.getUid(row);
+                    if (uid == LinuxSystemInfo.AID_ALL)
+                        total = powers[row];
+                    else
+                        uidPower.put(uid, uidPower.get(uid, 0) + powers[row]);
+                }
+                data.recycle();
+            }
+            line.append(String.format(Locale.US, "  %s %5d mW",
+                    component.getComponentName(), total));
+        }
+        appendTopUids(line);
+    }
+
+    @Override
+    public void publish(long iteration) {
+        System.out.println(line);
+        /* The engine stops at its next sleep. */
+        if (iterations > 0 && iteration + 1 >= iterations)
+            Thread.currentThread().interrupt();
+    }
+
+    /* Appends the TOP_UIDS uids with the most power, highest first. */
+    private void appendTopUids(StringBuilder line) {
+        int n = uidPower.size();
+        boolean[] taken = new boolean[n];
+        for (int k = 0; k < TOP_UIDS && k < n; k++) {
+            int best = -1;
+            for (int i = 0; i < n; i++) {
+                if (!taken[i] && (best == -1 || uidPower.valueAt(i) > uidPower.valueAt(best)))
+                    best = i;
+            }
+            if (uidPower.valueAt(best) <= 0)
+                break;
+            taken[best] = true;
+            line.append(k == 0 ? "  |" : ",").append(' ')
+                    .append(getUserName(uidPower.keyAt(best))).append(' ')
+                    .append(uidPower.valueAt(best));
+        }
+    }
+
+    private String getUserName(int uid) {
+        String name = userNames.get(uid);
+        return name != null ? name : Integer.toString(uid);
+    }
+
+    /* Maps the uids to the user names of /etc/passwd. */
+    private void readUserNames() {
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new FileReader("/etc/passwd"));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split(":");
+                if (fields.length < 3)
+                    continue;
+                try {
+                    userNames.put(Integer.parseInt(fields[2]), fields[0]);
+                } catch (NumberFormatException e) {
+                    /* Not a user entry, skip it. */
+                }
+            }
+        } catch (IOException e) {
+            Logger.w(TAG, "Could not read the user names: " + e.getMessage());
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        long interval = 1000;
+        long iterations = 0;
+        String wifiInterface = null;
+        String record = null;
+        String replay = null;
+        int arg = 0;
+        try {
+            if (args.length > arg + 1 && args[arg].equals("--record")) {
+                record = args[arg + 1];
+                arg += 2;
+            } else if (args.length > arg + 1 && args[arg].equals("--replay")) {
+                replay = args[arg + 1];
+                arg += 2;
+            }
+            if (args.length > arg)
+                interval = Long.parseLong(args[arg]);
+            if (args.length > arg + 1)
+                iterations = Long.parseLong(args[arg + 1]);
+        } catch (NumberFormatException e) {
+            System.err.println("Usage: HostProfiler [--record trace | --replay trace] " +
+                    "[interval ms] [iterations] [interface]");
+            System.exit(1);
+        }
+        if (args.length > arg + 2)
+            wifiInterface = args[arg + 2];
+
+        TraceSession trace = null;
+        try {
+            if (record != null)
+                trace = TraceSession.record(new File(record));
+            else if (replay != null)
+                trace = TraceSession.replay(new File(replay));
+        } catch (IOException e) {
+            System.err.println("Could not open the trace: " + e.getMessage());
+            System.exit(1);
+        }
+        try {
+            new HostProfiler(wifiInterface, trace).run(interval, iterations);
+        } finally {
+            if (trace != null)
+                trace.close();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+Copyright (C) 2011 The University of Michigan
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+Please send inquiries to powertutor@umich.edu
+*/
+
+
+package fabiogentile.powertutor.host;
+
+import fabiogentile.powertutor.components.Wifi;
+import fabiogentile.powertutor.util.ProcFileParser;
+import fabiogentile.powertutor.util.ProcSource;
+
+/**
+ * State of a network interface as reported by /sys/class/net.  The files are
+ * read through the ProcSource, so that a trace carries them.
+ */
+public class SysfsWifiLink implements Wifi.Link {
+    private static final String NET_DIR = "/sys/class/net/";
+    private String dir;
+    private final ProcFileParser parser = new ProcFileParser(64);
+
+    public SysfsWifiLink(String interfaceName) {
+        dir = NET_DIR + interfaceName + "/";
+    }
+
+    /**
+     * @return the first wireless interface, null if there is none
+     */
+    public static String findWirelessInterface() {
+        ProcSource source = ProcSource.get();
+        String[] names = source.list(NET_DIR);
+        if (names == null)
+            return null;
+        for (String name : names) {
+            if (source.exists(NET_DIR + name + "/wireless"))
+                return name;
+        }
+        return null;
+    }
+
+    public boolean isEnabled() {
+        String state = readLine(dir + "operstate");
+        return "up".equals(state) || "unknown".equals(state);
+    }
+
+    public double getLinkSpeed() {
+        /* Most wireless drivers do not report a speed, or fail the read. */
+        String speed = readLine(dir + "speed");
+        try {
+            return speed == null ? -1 : Double.parseDouble(speed);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private String readLine(String path) {
+        int len = parser.readFile(path);
+        if (len < 0)
+            return null;
+        int end = ProcFileParser.nextLine(parser.getBuffer(), 0);
+        return new String(parser.getArray(), 0, end).trim();
+    }
+}